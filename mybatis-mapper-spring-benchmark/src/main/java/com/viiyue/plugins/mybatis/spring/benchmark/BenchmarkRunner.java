@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * Runs all the benchmarks with the allocation profiler, any standard JMH
+ * command line option can be appended, for example:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar StartupBenchmark -p size=900 -rf json
+ * </pre>
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main( String [] args ) throws Exception {
+		new Runner( new OptionsBuilder().parent( new CommandLineOptions( args ) ).addProfiler( GCProfiler.class ).build() ).run();
+	}
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSqlSessionFactoryBean;
+
+/**
+ * <p>
+ * Compares the reflective property access of MyBatis with the generated
+ * accessors of {@code enableGeneratedAccessors}, on the properties of a wide
+ * entity (the result mapping and the parameter binding) and on a select of
+ * wide rows from the in-memory database.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar PropertyAccessBenchmark -p columns=50
+ * </pre>
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+public class PropertyAccessBenchmark {
+
+	private static final String SELECT = SyntheticWorkload.MAPPER_PACKAGE + ".Entity0Mapper.selectByName";
+
+	@Param( { "false", "true" } )
+	public boolean generatedAccessors;
+
+	/** Number of extra columns of the entity */
+	@Param( { "20" } )
+	public int columns;
+
+	/** Number of rows of the select */
+	@Param( { "100" } )
+	public int rows;
+
+	private SyntheticWorkload workload;
+	private MyBatisMapperSqlSessionFactoryBean factoryBean;
+	private SqlSessionFactory sqlSessionFactory;
+	private Configuration configuration;
+	private Class<?> entityType;
+	private String [] properties;
+	private Object [] values;
+	private Object entity;
+
+	@Setup( Level.Trial )
+	public void setup() throws Exception {
+		this.workload = SyntheticWorkload.generate( 1, columns );
+		this.factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( workload.getDataSource() );
+		factoryBean.setTypeAliasesPackage( SyntheticWorkload.MODEL_PACKAGE );
+		factoryBean.setMapperLocations( workload.getMapperLocations() );
+		factoryBean.setEnableGeneratedAccessors( generatedAccessors );
+		this.sqlSessionFactory = factoryBean.getObject();
+		factoryBean.onApplicationEvent( null );
+		this.configuration = sqlSessionFactory.getConfiguration();
+
+		this.entityType = Thread.currentThread().getContextClassLoader().loadClass( SyntheticWorkload.MODEL_PACKAGE + ".Entity0" );
+		this.properties = new String[ columns + 1 ];
+		this.values = new Object[ columns + 1 ];
+		properties[ 0 ] = "id";
+		values[ 0 ] = 1L;
+		for ( int c = 0; c < columns; c ++ ) {
+			properties[ c + 1 ] = "column" + c;
+			values[ c + 1 ] = "value" + c;
+		}
+		this.entity = mapRow();
+
+		StringBuilder insert = new StringBuilder( "INSERT INTO entity_0 VALUES ( ?" );
+		for ( int c = 0; c < columns; c ++ ) {
+			insert.append( ", ?" );
+		}
+		try ( Connection connection = workload.getDataSource().getConnection(); PreparedStatement statement = connection.prepareStatement( insert.append( " )" ).toString() ) ) {
+			for ( int row = 0; row < rows; row ++ ) {
+				statement.setLong( 1, row );
+				for ( int c = 0; c < columns; c ++ ) {
+					statement.setString( c + 2, "row" + row + "-" + c );
+				}
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	@TearDown( Level.Trial )
+	public void close() throws Exception {
+		factoryBean.destroy();
+		workload.close();
+	}
+
+	/**
+	 * Instantiate the entity and set all its properties, like the result
+	 * mapping of a row.
+	 */
+	@Benchmark
+	public Object mapRow() {
+		Object entity = configuration.getObjectFactory().create( entityType );
+		MetaObject metaObject = configuration.newMetaObject( entity );
+		for ( int i = 0; i < properties.length; i ++ ) {
+			metaObject.setValue( properties[ i ], values[ i ] );
+		}
+		return entity;
+	}
+
+	/**
+	 * Read all the properties of the entity, like the parameter binding of an
+	 * insert.
+	 */
+	@Benchmark
+	public void bindParameters( Blackhole blackhole ) {
+		MetaObject metaObject = configuration.newMetaObject( entity );
+		for ( String property : properties ) {
+			blackhole.consume( metaObject.getValue( property ) );
+		}
+	}
+
+	/**
+	 * Select the rows through the result map of the mapper xml file.
+	 */
+	@Benchmark
+	@OutputTimeUnit( TimeUnit.MICROSECONDS )
+	public List<Object> selectRows() {
+		try ( SqlSession sqlSession = sqlSessionFactory.openSession() ) {
+			return sqlSession.selectList( SELECT );
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSqlSessionFactoryBean;
+
+/**
+ * Cold benchmark of the mybatis-mapper refactoring executed at context
+ * refresh, the factory bean is built outside of the measurement.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 0 )
+@Measurement( iterations = 1 )
+@Fork( 5 )
+public class RefactoringBenchmark {
+
+	private MyBatisMapperSqlSessionFactoryBean factoryBean;
+
+	@Setup( Level.Invocation )
+	public void build( WorkloadState state ) throws Exception {
+		this.factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( state.workload.getDataSource() );
+		factoryBean.setTypeAliasesPackage( SyntheticWorkload.MODEL_PACKAGE );
+		factoryBean.setMapperLocations( state.workload.getMapperLocations() );
+		state.registerMappers( factoryBean.getObject().getConfiguration() );
+	}
+
+	@Benchmark
+	public Configuration refactoring() throws Exception {
+		factoryBean.onApplicationEvent( null );
+		return factoryBean.getObject().getConfiguration();
+	}
+
+}
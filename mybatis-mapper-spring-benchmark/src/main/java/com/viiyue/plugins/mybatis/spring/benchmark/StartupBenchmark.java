@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSqlSessionFactoryBean;
+
+/**
+ * <p>
+ * Cold startup benchmarks of the factory bean. Every fork measures a single
+ * invocation, which is exactly what happens when an application boots.
+ *
+ * <p>
+ * {@link #baselineSqlSessionFactoryBean(WorkloadState)} builds the same
+ * workload with the plain mybatis-spring {@link SqlSessionFactoryBean}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 0 )
+@Measurement( iterations = 1 )
+@Fork( 5 )
+public class StartupBenchmark {
+
+	@State( Scope.Benchmark )
+	public static class ParallelismState {
+
+		/** Value of {@code mapperParsingParallelism} */
+		@Param( { "1", "4" } )
+		public int parallelism;
+
+	}
+
+	@Benchmark
+	public SqlSessionFactory scanTypeAliases( WorkloadState state ) throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( state.workload.getDataSource() );
+		factoryBean.setTypeAliasesPackage( SyntheticWorkload.MODEL_PACKAGE );
+		return factoryBean.getObject();
+	}
+
+	@Benchmark
+	public SqlSessionFactory parseMapperXml( WorkloadState state, ParallelismState parallelism ) throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( state.workload.getDataSource() );
+		factoryBean.setMapperLocations( state.workload.getMapperLocations() );
+		factoryBean.setMapperParsingParallelism( parallelism.parallelism );
+		return factoryBean.getObject();
+	}
+
+	@Benchmark
+	public SqlSessionFactory buildSqlSessionFactory( WorkloadState state, ParallelismState parallelism ) throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( state.workload.getDataSource() );
+		factoryBean.setTypeAliasesPackage( SyntheticWorkload.MODEL_PACKAGE );
+		factoryBean.setMapperLocations( state.workload.getMapperLocations() );
+		factoryBean.setMapperParsingParallelism( parallelism.parallelism );
+		SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+		state.registerMappers( sqlSessionFactory.getConfiguration() );
+		return sqlSessionFactory;
+	}
+
+	@Benchmark
+	public SqlSessionFactory baselineSqlSessionFactoryBean( WorkloadState state ) throws Exception {
+		SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+		factoryBean.setDataSource( state.workload.getDataSource() );
+		factoryBean.setTypeAliasesPackage( SyntheticWorkload.MODEL_PACKAGE );
+		factoryBean.setMapperLocations( state.workload.getMapperLocations() );
+		SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+		state.registerMappers( sqlSessionFactory.getConfiguration() );
+		return sqlSessionFactory;
+	}
+
+}
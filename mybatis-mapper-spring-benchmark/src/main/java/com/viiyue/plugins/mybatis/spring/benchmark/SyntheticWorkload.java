@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * <p>
+ * Generates a synthetic project with N entities, N mapper interfaces and N
+ * mapper xml files, compiles it into a temporary directory and exposes it
+ * through a dedicated class loader, together with an in-memory H2 database
+ * holding the matching tables.
+ *
+ * <p>
+ * The class loader is installed as the context class loader, which is the
+ * one used by the factory beans to scan packages and load classes, so the
+ * workload must be created before the first factory bean of the forked JVM.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+final class SyntheticWorkload implements Closeable {
+
+	static final String MODEL_PACKAGE = "bench.model";
+	static final String MAPPER_PACKAGE = "bench.mapper";
+
+	// The generic mapper interface of mybatis-mapper
+	private static final String GENERIC_MAPPER = "com.viiyue.plugins.mybatis.Mapper";
+
+	private final Path directory;
+	private final URLClassLoader classLoader;
+	private final ClassLoader previousClassLoader;
+	private final Resource [] mapperLocations;
+	private final List<Class<?>> mapperInterfaces = new ArrayList<>();
+	private final SimpleDriverDataSource dataSource;
+
+	private SyntheticWorkload( int size, int columns ) throws Exception {
+		this.directory = Files.createTempDirectory( "mybatis-mapper-benchmark" );
+		Path sources = Files.createDirectories( directory.resolve( "src" ) );
+		Path classes = Files.createDirectories( directory.resolve( "classes" ) );
+		Path mappers = Files.createDirectories( directory.resolve( "mappers" ) );
+
+		List<String> files = new ArrayList<>();
+		StringBuilder ddl = new StringBuilder();
+		this.mapperLocations = new Resource[ size ];
+		for ( int i = 0; i < size; i ++ ) {
+			files.add( write( sources.resolve( "Entity" + i + ".java" ), entity( i, columns ) ) );
+			files.add( write( sources.resolve( "Entity" + i + "Mapper.java" ), mapper( i ) ) );
+			mapperLocations[ i ] = new FileSystemResource( write( mappers.resolve( "Entity" + i + "Mapper.xml" ), xml( i, columns ) ) );
+			ddl.append( table( i, columns ) );
+		}
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if ( compiler == null ) {
+			throw new IllegalStateException( "The benchmarks must be executed on a JDK" );
+		}
+		List<String> arguments = new ArrayList<>();
+		arguments.add( "-nowarn" );
+		arguments.add( "-classpath" );
+		arguments.add( System.getProperty( "java.class.path" ) );
+		arguments.add( "-d" );
+		arguments.add( classes.toString() );
+		arguments.addAll( files );
+		if ( compiler.run( null, null, null, arguments.toArray( new String[ 0 ] ) ) != 0 ) {
+			throw new IllegalStateException( "Failed to compile the synthetic workload in " + sources );
+		}
+
+		this.previousClassLoader = Thread.currentThread().getContextClassLoader();
+		this.classLoader = new URLClassLoader( new URL [] { classes.toUri().toURL() }, previousClassLoader );
+		Thread.currentThread().setContextClassLoader( classLoader );
+		for ( int i = 0; i < size; i ++ ) {
+			mapperInterfaces.add( classLoader.loadClass( MAPPER_PACKAGE + ".Entity" + i + "Mapper" ) );
+		}
+
+		this.dataSource = new SimpleDriverDataSource( new org.h2.Driver(), "jdbc:h2:mem:" + directory.getFileName() + ";DB_CLOSE_DELAY=-1" );
+		try ( Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement() ) {
+			statement.execute( ddl.toString() );
+		}
+	}
+
+	/**
+	 * Generate and compile the workload, and install its class loader as the
+	 * context class loader.
+	 *
+	 * @param size the number of entities, mapper interfaces and mapper xml files
+	 * @param columns the number of extra columns of each entity
+	 * @return the generated workload
+	 * @throws Exception if failed to generate the workload
+	 */
+	static SyntheticWorkload generate( int size, int columns ) throws Exception {
+		return new SyntheticWorkload( size, columns );
+	}
+
+	Resource [] getMapperLocations() {
+		return mapperLocations;
+	}
+
+	List<Class<?>> getMapperInterfaces() {
+		return mapperInterfaces;
+	}
+
+	DataSource getDataSource() {
+		return dataSource;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try ( Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement() ) {
+			statement.execute( "SHUTDOWN" );
+		} catch ( SQLException e ) {
+			// Ignore
+		}
+		Thread.currentThread().setContextClassLoader( previousClassLoader );
+		classLoader.close();
+		FileSystemUtils.deleteRecursively( directory.toFile() );
+	}
+
+	private static String entity( int index, int columns ) {
+		StringBuilder source = new StringBuilder();
+		source.append( "package " ).append( MODEL_PACKAGE ).append( ";\n\n" );
+		source.append( "public class Entity" ).append( index ).append( " {\n" );
+		source.append( "\tprivate Long id;\n" );
+		for ( int c = 0; c < columns; c ++ ) {
+			source.append( "\tprivate String column" ).append( c ).append( ";\n" );
+		}
+		source.append( accessors( "Long", "id" ) );
+		for ( int c = 0; c < columns; c ++ ) {
+			source.append( accessors( "String", "column" + c ) );
+		}
+		return source.append( "}\n" ).toString();
+	}
+
+	private static String accessors( String type, String name ) {
+		String property = Character.toUpperCase( name.charAt( 0 ) ) + name.substring( 1 );
+		return "\tpublic " + type + " get" + property + "() { return " + name + "; }\n"
+			+ "\tpublic void set" + property + "( " + type + " " + name + " ) { this." + name + " = " + name + "; }\n";
+	}
+
+	private static String mapper( int index ) {
+		String entity = MODEL_PACKAGE + ".Entity" + index;
+		return "package " + MAPPER_PACKAGE + ";\n\n"
+			+ "public interface Entity" + index + "Mapper extends " + GENERIC_MAPPER + "<" + entity + ", " + entity + ", Long> {\n"
+			+ "\tjava.util.List<" + entity + "> selectByName( String name );\n"
+			+ "}\n";
+	}
+
+	private static String xml( int index, int columns ) {
+		StringBuilder xml = new StringBuilder();
+		xml.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" );
+		xml.append( "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n" );
+		xml.append( "<mapper namespace=\"" ).append( MAPPER_PACKAGE ).append( ".Entity" ).append( index ).append( "Mapper\">\n" );
+		xml.append( "\t<resultMap id=\"entityResultMap\" type=\"" ).append( MODEL_PACKAGE ).append( ".Entity" ).append( index ).append( "\">\n" );
+		xml.append( "\t\t<id column=\"id\" property=\"id\" />\n" );
+		for ( int c = 0; c < columns; c ++ ) {
+			xml.append( "\t\t<result column=\"column_" ).append( c ).append( "\" property=\"column" ).append( c ).append( "\" />\n" );
+		}
+		xml.append( "\t</resultMap>\n" );
+		xml.append( "\t<sql id=\"columns\">id" );
+		for ( int c = 0; c < columns; c ++ ) {
+			xml.append( ", column_" ).append( c );
+		}
+		xml.append( "</sql>\n" );
+		xml.append( "\t<select id=\"selectByName\" resultMap=\"entityResultMap\">\n" );
+		xml.append( "\t\tselect <include refid=\"columns\" /> from entity_" ).append( index ).append( "\n" );
+		xml.append( "\t\t<where><if test=\"_parameter != null\">column_0 = #{_parameter}</if></where>\n" );
+		xml.append( "\t</select>\n" );
+		return xml.append( "</mapper>\n" ).toString();
+	}
+
+	private static String table( int index, int columns ) {
+		StringBuilder ddl = new StringBuilder( "CREATE TABLE entity_" ).append( index ).append( " ( id BIGINT PRIMARY KEY" );
+		for ( int c = 0; c < columns; c ++ ) {
+			ddl.append( ", column_" ).append( c ).append( " VARCHAR(64)" );
+		}
+		return ddl.append( " );\n" ).toString();
+	}
+
+	private static String write( Path file, String content ) throws IOException {
+		Files.write( file, content.getBytes( StandardCharsets.UTF_8 ) );
+		return file.toString();
+	}
+
+}
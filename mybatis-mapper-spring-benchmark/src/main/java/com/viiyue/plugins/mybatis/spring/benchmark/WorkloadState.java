@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.benchmark;
+
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Shared benchmark state holding the synthetic workload of the forked JVM.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@State( Scope.Benchmark )
+public class WorkloadState {
+
+	/** Number of entities, mapper interfaces and mapper xml files */
+	@Param( { "100", "500" } )
+	public int size;
+
+	/** Number of extra columns of each entity */
+	@Param( { "20" } )
+	public int columns;
+
+	SyntheticWorkload workload;
+
+	@Setup( Level.Trial )
+	public void generate() throws Exception {
+		this.workload = SyntheticWorkload.generate( size, columns );
+	}
+
+	@TearDown( Level.Trial )
+	public void close() throws Exception {
+		this.workload.close();
+	}
+
+	/**
+	 * Register the mapper interfaces which are not bound by the mapper xml
+	 * files, just like the {@code MapperScannerConfigurer} does.
+	 */
+	void registerMappers( Configuration configuration ) {
+		workload.getMapperInterfaces().stream().filter( type -> !configuration.hasMapper( type ) ).forEach( configuration::addMapper );
+	}
+
+}
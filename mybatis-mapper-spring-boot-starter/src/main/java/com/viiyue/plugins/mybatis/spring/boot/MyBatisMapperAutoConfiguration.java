@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.boot;
+
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.type.TypeHandler;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.mybatis.spring.mapper.MapperScannerConfigurer;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackages;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnSingleCandidate;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.PropertyMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+import com.viiyue.plugins.mybatis.Mapper;
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSqlSessionFactoryBean;
+
+/**
+ * <p>
+ * Spring Boot auto-configuration of the {@link MyBatisMapperSqlSessionFactoryBean}
+ * on the single {@link DataSource} of the application, configured by the
+ * {@link MyBatisMapperProperties}, along with a {@link SqlSessionTemplate}.
+ * The {@link Interceptor} and {@link TypeHandler} beans of the context are
+ * registered as plugins and type handlers.
+ *
+ * <p>
+ * Unless a {@link MapperScannerConfigurer} or a {@link MapperFactoryBean} is
+ * declared, for example with {@code @MapperScan}, the interfaces extending
+ * {@link Mapper} are scanned under the auto-configuration packages, which are
+ * the packages of the {@code @SpringBootApplication} class.
+ *
+ * <p>
+ * The entities, mappers and type handlers of the application are indexed at
+ * compile time by the {@code mybatis-mapper-spring-indexer} processor, which
+ * also generates their native image metadata, so neither the type aliases nor
+ * the type handlers are searched on the classpath at startup, and the
+ * application can be compiled to a native image.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Configuration
+@ConditionalOnClass( { SqlSessionFactory.class, MyBatisMapperSqlSessionFactoryBean.class } )
+@ConditionalOnSingleCandidate( DataSource.class )
+@EnableConfigurationProperties( MyBatisMapperProperties.class )
+@AutoConfigureAfter( DataSourceAutoConfiguration.class )
+public class MyBatisMapperAutoConfiguration {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperAutoConfiguration.class );
+
+	private final MyBatisMapperProperties properties;
+	private final ResourceLoader resourceLoader;
+	private final Interceptor [] interceptors;
+	private final TypeHandler<?> [] typeHandlers;
+
+	// The generic array TypeHandler<?>[] is not resolved by the bean factory
+	@SuppressWarnings( "rawtypes" )
+	public MyBatisMapperAutoConfiguration( MyBatisMapperProperties properties, ResourceLoader resourceLoader,
+			ObjectProvider<Interceptor []> interceptors, ObjectProvider<TypeHandler []> typeHandlers ) {
+		this.properties = properties;
+		this.resourceLoader = resourceLoader;
+		this.interceptors = interceptors.getIfAvailable();
+		this.typeHandlers = typeHandlers.getIfAvailable();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean( SqlSessionFactory.class )
+	public MyBatisMapperSqlSessionFactoryBean sqlSessionFactory( DataSource dataSource ) throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		if ( !ObjectUtils.isEmpty( interceptors ) ) {
+			factoryBean.setPlugins( interceptors );
+		}
+		if ( !ObjectUtils.isEmpty( typeHandlers ) ) {
+			factoryBean.setTypeHandlers( typeHandlers );
+		}
+		if ( StringUtils.hasText( properties.getConfigLocation() ) ) {
+			factoryBean.setConfigLocation( resourceLoader.getResource( properties.getConfigLocation() ) );
+		}
+		Resource [] mapperLocations = properties.resolveMapperLocations();
+		if ( mapperLocations.length > 0 ) {
+			factoryBean.setMapperLocations( mapperLocations );
+		}
+
+		PropertyMapper map = PropertyMapper.get().alwaysApplyingWhenNonNull();
+		// Before the preferences, which are also stored into the configuration properties
+		map.from( properties::getConfigurationProperties ).as( this::copyOf ).to( factoryBean::setConfigurationProperties );
+		map.from( properties::getTypeAliasesPackage ).whenHasText().to( factoryBean::setTypeAliasesPackage );
+		map.from( properties::getTypeAliasesSuperType ).to( factoryBean::setTypeAliasesSuperType );
+		map.from( properties::getTypeHandlersPackage ).whenHasText().to( factoryBean::setTypeHandlersPackage );
+		map.from( properties::getEnableLogger ).to( factoryBean::setEnableLogger );
+		map.from( properties::getEnableMapperScanLog ).to( factoryBean::setEnableMapperScanLog );
+		map.from( properties::getEnableRuntimeLog ).to( factoryBean::setEnableRuntimeLog );
+		map.from( properties::getEnableCompilationLog ).to( factoryBean::setEnableCompilationLog );
+		map.from( properties::getEnableKeywordsToUppercase ).to( factoryBean::setEnableKeywordsToUppercase );
+		map.from( properties::getEnableXmlSyntaxParsing ).to( factoryBean::setEnableXmlSyntaxParsing );
+		map.from( properties::getDatabaseColumnStyle ).whenHasText().to( factoryBean::setDatabaseColumnStyle );
+		map.from( properties::getMapperParsingParallelism ).to( factoryBean::setMapperParsingParallelism );
+		map.from( properties::getSnapshotLocation ).to( factoryBean::setSnapshotLocation );
+		map.from( properties::getBackgroundRefactoring ).to( factoryBean::setBackgroundRefactoring );
+		map.from( properties::getRefactoringWaitTimeout ).to( factoryBean::setRefactoringWaitTimeout );
+		map.from( properties::getEnableStartupReportMBean ).to( factoryBean::setEnableStartupReportMBean );
+		map.from( properties::getSlowestMapperFilesToLog ).to( factoryBean::setSlowestMapperFilesToLog );
+		map.from( properties::getEnableStatementMetrics ).to( factoryBean::setEnableStatementMetrics );
+		map.from( properties::getEnableStatementMetricsMBean ).to( factoryBean::setEnableStatementMetricsMBean );
+		map.from( properties::getEnableMapperReloading ).to( factoryBean::setEnableMapperReloading );
+		map.from( properties::getMapperReloadingInterval ).to( factoryBean::setMapperReloadingInterval );
+		map.from( properties::getLazyMapperLoading ).to( factoryBean::setLazyMapperLoading );
+		map.from( properties::getConcurrentCacheNamespaces ).to( factoryBean::setConcurrentCacheNamespaces );
+		map.from( properties::getConcurrentCacheProperties ).to( factoryBean::setConcurrentCacheProperties );
+		map.from( properties::getEnableEntityCache ).to( factoryBean::setEnableEntityCache );
+		map.from( properties::getEntityCacheProperties ).to( factoryBean::setEntityCacheProperties );
+		map.from( properties::getBatchSize ).to( factoryBean::setBatchSize );
+		map.from( properties::getBatchFlushInterval ).to( factoryBean::setBatchFlushInterval );
+		map.from( properties::getEnableBulkInsert ).to( factoryBean::setEnableBulkInsert );
+		map.from( properties::getDefaultFetchSize ).to( factoryBean::setDefaultFetchSize );
+		map.from( properties::getStatementFetchSizes ).to( factoryBean::setStatementFetchSizes );
+		map.from( properties::getEnableKeysetPagination ).to( factoryBean::setEnableKeysetPagination );
+		map.from( properties::getAsyncMaxConcurrency ).to( factoryBean::setAsyncMaxConcurrency );
+		map.from( properties::getEnableGeneratedAccessors ).to( factoryBean::setEnableGeneratedAccessors );
+		map.from( properties::getEnableBoundSqlCache ).to( factoryBean::setEnableBoundSqlCache );
+		map.from( properties::getBoundSqlCacheSize ).to( factoryBean::setBoundSqlCacheSize );
+		map.from( properties::getEnableDirtyTracking ).to( factoryBean::setEnableDirtyTracking );
+		map.from( properties::getEnableStatementWarmUp ).to( factoryBean::setEnableStatementWarmUp );
+		map.from( properties::getWarmUpPrepareStatements ).to( factoryBean::setWarmUpPrepareStatements );
+		map.from( properties::getWarmUpConcurrency ).to( factoryBean::setWarmUpConcurrency );
+		map.from( properties::getWarmUpTimeBudget ).to( factoryBean::setWarmUpTimeBudget );
+		map.from( properties::getEnableCompaction ).to( factoryBean::setEnableCompaction );
+		return factoryBean;
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public SqlSessionTemplate sqlSessionTemplate( SqlSessionFactory sqlSessionFactory ) {
+		if ( properties.getExecutorType() != null ) {
+			return new SqlSessionTemplate( sqlSessionFactory, properties.getExecutorType() );
+		}
+		return new SqlSessionTemplate( sqlSessionFactory );
+	}
+
+	private Properties copyOf( Properties configurationProperties ) {
+		// The preferences must not be written into the bound properties
+		Properties copy = new Properties();
+		copy.putAll( configurationProperties );
+		return copy;
+	}
+
+	/**
+	 * Scan the mybatis-mapper interfaces under the auto-configuration packages,
+	 * unless the mappers are declared by the application.
+	 */
+	@Configuration
+	@Import( AutoConfiguredMapperScannerRegistrar.class )
+	@ConditionalOnMissingBean( { MapperFactoryBean.class, MapperScannerConfigurer.class } )
+	public static class MapperScannerRegistrarNotFoundConfiguration {
+	}
+
+	/**
+	 * Register the {@link MapperScannerConfigurer} of the interfaces extending
+	 * {@link Mapper} in the auto-configuration packages.
+	 */
+	public static class AutoConfiguredMapperScannerRegistrar implements BeanFactoryAware, ImportBeanDefinitionRegistrar {
+
+		private BeanFactory beanFactory;
+
+		@Override
+		public void setBeanFactory( BeanFactory beanFactory ) {
+			this.beanFactory = beanFactory;
+		}
+
+		@Override
+		public void registerBeanDefinitions( AnnotationMetadata importingClassMetadata, BeanDefinitionRegistry registry ) {
+			if ( !AutoConfigurationPackages.has( beanFactory ) ) {
+				LOGGER.debug( () -> "Could not determine the auto-configuration packages, the mapper scanning is disabled" );
+				return;
+			}
+			List<String> packages = AutoConfigurationPackages.get( beanFactory );
+			LOGGER.debug( () -> "Searching for the mybatis-mapper interfaces under " + packages );
+			BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition( MapperScannerConfigurer.class );
+			builder.addPropertyValue( "processPropertyPlaceHolders", true );
+			builder.addPropertyValue( "markerInterface", Mapper.class );
+			builder.addPropertyValue( "basePackage", StringUtils.collectionToCommaDelimitedString( packages ) );
+			registry.registerBeanDefinition( MapperScannerConfigurer.class.getName(), builder.getBeanDefinition() );
+		}
+
+	}
+
+}
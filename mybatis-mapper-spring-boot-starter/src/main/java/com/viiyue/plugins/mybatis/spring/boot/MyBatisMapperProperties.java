@@ -0,0 +1,569 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.boot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSqlSessionFactoryBean;
+
+/**
+ * <p>
+ * Properties of the {@link MyBatisMapperSqlSessionFactoryBean} under the
+ * {@value #PREFIX} prefix, each property is passed to the setter of the same
+ * name when it is specified, otherwise the default value of the factory bean
+ * is kept.
+ *
+ * <pre>
+ * mybatis.mapper.enable-logger=true
+ * mybatis.mapper.database-column-style=#
+ * mybatis.mapper.type-aliases-package=com.example.model
+ * mybatis.mapper.mapper-locations=classpath*:mapper/*Mapper.xml
+ * </pre>
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@ConfigurationProperties( prefix = MyBatisMapperProperties.PREFIX )
+public class MyBatisMapperProperties {
+
+	public static final String PREFIX = "mybatis.mapper";
+
+	private static final ResourcePatternResolver RESOURCE_PATTERN_RESOLVER = new PathMatchingResourcePatternResolver();
+
+	/** Location of the mybatis xml configuration file */
+	private String configLocation;
+
+	/** Locations of the mapper xml files, such as {@code classpath*:mapper/*Mapper.xml} */
+	private String [] mapperLocations;
+
+	/** Packages to search for the type aliases, the entity classes of mybatis-mapper */
+	private String typeAliasesPackage;
+
+	/** Super class of the type aliases searched in {@link #typeAliasesPackage} */
+	private Class<?> typeAliasesSuperType;
+
+	/** Packages to search for the type handlers */
+	private String typeHandlersPackage;
+
+	/** Executor type of the {@code SqlSessionTemplate} */
+	private ExecutorType executorType;
+
+	/** Externalized properties of the mybatis configuration */
+	private Properties configurationProperties;
+
+	/** Whether to print the logs of mybatis-mapper */
+	private Boolean enableLogger;
+
+	/** Whether to print the mapper scan logs */
+	private Boolean enableMapperScanLog;
+
+	/** Whether to print the runtime logs */
+	private Boolean enableRuntimeLog;
+
+	/** Whether to print the compilation logs */
+	private Boolean enableCompilationLog;
+
+	/** Whether to convert the SQL keywords to uppercase */
+	private Boolean enableKeywordsToUppercase;
+
+	/** Whether to enable the template syntax in the mapper xml files */
+	private Boolean enableXmlSyntaxParsing;
+
+	/** Style of the database columns, such as {@code #} */
+	private String databaseColumnStyle;
+
+	/** Maximum number of threads parsing the mapper xml files */
+	private Integer mapperParsingParallelism;
+
+	/** File of the snapshot of the generated statements */
+	private File snapshotLocation;
+
+	/** Whether to refactor the statements on a background thread */
+	private Boolean backgroundRefactoring;
+
+	/** Milliseconds a statement waits for the background refactoring */
+	private Long refactoringWaitTimeout;
+
+	/** Whether to register the startup report as an MBean */
+	private Boolean enableStartupReportMBean;
+
+	/** Number of the slowest mapper files to log at startup */
+	private Integer slowestMapperFilesToLog;
+
+	/** Whether to record the metrics of the statements */
+	private Boolean enableStatementMetrics;
+
+	/** Whether to register the statement metrics as an MBean */
+	private Boolean enableStatementMetricsMBean;
+
+	/** Whether to reload the modified mapper xml files */
+	private Boolean enableMapperReloading;
+
+	/** Milliseconds between two checks of the mapper xml files */
+	private Long mapperReloadingInterval;
+
+	/** Whether to load the statements of each mapper on first use */
+	private Boolean lazyMapperLoading;
+
+	/** Namespaces using the concurrent second level cache */
+	private String [] concurrentCacheNamespaces;
+
+	/** Properties of the concurrent second level caches */
+	private Properties concurrentCacheProperties;
+
+	/** Whether to cache the entities by primary key */
+	private Boolean enableEntityCache;
+
+	/** Properties of the entity cache */
+	private Properties entityCacheProperties;
+
+	/** Number of statements of a batch */
+	private Integer batchSize;
+
+	/** Milliseconds between two flushes of the bulk writer */
+	private Long batchFlushInterval;
+
+	/** Whether to merge the inserts into multi-row inserts */
+	private Boolean enableBulkInsert;
+
+	/** Default fetch size of the selects */
+	private Integer defaultFetchSize;
+
+	/** Fetch sizes by statement id */
+	private Map<String, Integer> statementFetchSizes;
+
+	/** Whether to rewrite the deep offset pages into keyset pages */
+	private Boolean enableKeysetPagination;
+
+	/** Maximum number of concurrent asynchronous statements */
+	private Integer asyncMaxConcurrency;
+
+	/** Whether to generate the property accessors of the entities */
+	private Boolean enableGeneratedAccessors;
+
+	/** Whether to cache the SQL of the dynamic statements */
+	private Boolean enableBoundSqlCache;
+
+	/** Maximum number of cached SQL */
+	private Long boundSqlCacheSize;
+
+	/** Whether to skip or narrow the updates of unmodified properties */
+	private Boolean enableDirtyTracking;
+
+	/** Whether to warm up the statements after the refactoring */
+	private Boolean enableStatementWarmUp;
+
+	/** Whether to prepare the static statements during the warm-up */
+	private Boolean warmUpPrepareStatements;
+
+	/** Number of threads of the warm-up */
+	private Integer warmUpConcurrency;
+
+	/** Maximum milliseconds of the warm-up */
+	private Long warmUpTimeBudget;
+
+	/** Whether to share the duplicated structures of the statements after the refactoring */
+	private Boolean enableCompaction;
+
+	public String getConfigLocation() {
+		return configLocation;
+	}
+
+	public void setConfigLocation( String configLocation ) {
+		this.configLocation = configLocation;
+	}
+
+	public String [] getMapperLocations() {
+		return mapperLocations;
+	}
+
+	public void setMapperLocations( String [] mapperLocations ) {
+		this.mapperLocations = mapperLocations;
+	}
+
+	public String getTypeAliasesPackage() {
+		return typeAliasesPackage;
+	}
+
+	public void setTypeAliasesPackage( String typeAliasesPackage ) {
+		this.typeAliasesPackage = typeAliasesPackage;
+	}
+
+	public Class<?> getTypeAliasesSuperType() {
+		return typeAliasesSuperType;
+	}
+
+	public void setTypeAliasesSuperType( Class<?> typeAliasesSuperType ) {
+		this.typeAliasesSuperType = typeAliasesSuperType;
+	}
+
+	public String getTypeHandlersPackage() {
+		return typeHandlersPackage;
+	}
+
+	public void setTypeHandlersPackage( String typeHandlersPackage ) {
+		this.typeHandlersPackage = typeHandlersPackage;
+	}
+
+	public ExecutorType getExecutorType() {
+		return executorType;
+	}
+
+	public void setExecutorType( ExecutorType executorType ) {
+		this.executorType = executorType;
+	}
+
+	public Properties getConfigurationProperties() {
+		return configurationProperties;
+	}
+
+	public void setConfigurationProperties( Properties configurationProperties ) {
+		this.configurationProperties = configurationProperties;
+	}
+
+	public Boolean getEnableLogger() {
+		return enableLogger;
+	}
+
+	public void setEnableLogger( Boolean enableLogger ) {
+		this.enableLogger = enableLogger;
+	}
+
+	public Boolean getEnableMapperScanLog() {
+		return enableMapperScanLog;
+	}
+
+	public void setEnableMapperScanLog( Boolean enableMapperScanLog ) {
+		this.enableMapperScanLog = enableMapperScanLog;
+	}
+
+	public Boolean getEnableRuntimeLog() {
+		return enableRuntimeLog;
+	}
+
+	public void setEnableRuntimeLog( Boolean enableRuntimeLog ) {
+		this.enableRuntimeLog = enableRuntimeLog;
+	}
+
+	public Boolean getEnableCompilationLog() {
+		return enableCompilationLog;
+	}
+
+	public void setEnableCompilationLog( Boolean enableCompilationLog ) {
+		this.enableCompilationLog = enableCompilationLog;
+	}
+
+	public Boolean getEnableKeywordsToUppercase() {
+		return enableKeywordsToUppercase;
+	}
+
+	public void setEnableKeywordsToUppercase( Boolean enableKeywordsToUppercase ) {
+		this.enableKeywordsToUppercase = enableKeywordsToUppercase;
+	}
+
+	public Boolean getEnableXmlSyntaxParsing() {
+		return enableXmlSyntaxParsing;
+	}
+
+	public void setEnableXmlSyntaxParsing( Boolean enableXmlSyntaxParsing ) {
+		this.enableXmlSyntaxParsing = enableXmlSyntaxParsing;
+	}
+
+	public String getDatabaseColumnStyle() {
+		return databaseColumnStyle;
+	}
+
+	public void setDatabaseColumnStyle( String databaseColumnStyle ) {
+		this.databaseColumnStyle = databaseColumnStyle;
+	}
+
+	public Integer getMapperParsingParallelism() {
+		return mapperParsingParallelism;
+	}
+
+	public void setMapperParsingParallelism( Integer mapperParsingParallelism ) {
+		this.mapperParsingParallelism = mapperParsingParallelism;
+	}
+
+	public File getSnapshotLocation() {
+		return snapshotLocation;
+	}
+
+	public void setSnapshotLocation( File snapshotLocation ) {
+		this.snapshotLocation = snapshotLocation;
+	}
+
+	public Boolean getBackgroundRefactoring() {
+		return backgroundRefactoring;
+	}
+
+	public void setBackgroundRefactoring( Boolean backgroundRefactoring ) {
+		this.backgroundRefactoring = backgroundRefactoring;
+	}
+
+	public Long getRefactoringWaitTimeout() {
+		return refactoringWaitTimeout;
+	}
+
+	public void setRefactoringWaitTimeout( Long refactoringWaitTimeout ) {
+		this.refactoringWaitTimeout = refactoringWaitTimeout;
+	}
+
+	public Boolean getEnableStartupReportMBean() {
+		return enableStartupReportMBean;
+	}
+
+	public void setEnableStartupReportMBean( Boolean enableStartupReportMBean ) {
+		this.enableStartupReportMBean = enableStartupReportMBean;
+	}
+
+	public Integer getSlowestMapperFilesToLog() {
+		return slowestMapperFilesToLog;
+	}
+
+	public void setSlowestMapperFilesToLog( Integer slowestMapperFilesToLog ) {
+		this.slowestMapperFilesToLog = slowestMapperFilesToLog;
+	}
+
+	public Boolean getEnableStatementMetrics() {
+		return enableStatementMetrics;
+	}
+
+	public void setEnableStatementMetrics( Boolean enableStatementMetrics ) {
+		this.enableStatementMetrics = enableStatementMetrics;
+	}
+
+	public Boolean getEnableStatementMetricsMBean() {
+		return enableStatementMetricsMBean;
+	}
+
+	public void setEnableStatementMetricsMBean( Boolean enableStatementMetricsMBean ) {
+		this.enableStatementMetricsMBean = enableStatementMetricsMBean;
+	}
+
+	public Boolean getEnableMapperReloading() {
+		return enableMapperReloading;
+	}
+
+	public void setEnableMapperReloading( Boolean enableMapperReloading ) {
+		this.enableMapperReloading = enableMapperReloading;
+	}
+
+	public Long getMapperReloadingInterval() {
+		return mapperReloadingInterval;
+	}
+
+	public void setMapperReloadingInterval( Long mapperReloadingInterval ) {
+		this.mapperReloadingInterval = mapperReloadingInterval;
+	}
+
+	public Boolean getLazyMapperLoading() {
+		return lazyMapperLoading;
+	}
+
+	public void setLazyMapperLoading( Boolean lazyMapperLoading ) {
+		this.lazyMapperLoading = lazyMapperLoading;
+	}
+
+	public String [] getConcurrentCacheNamespaces() {
+		return concurrentCacheNamespaces;
+	}
+
+	public void setConcurrentCacheNamespaces( String [] concurrentCacheNamespaces ) {
+		this.concurrentCacheNamespaces = concurrentCacheNamespaces;
+	}
+
+	public Properties getConcurrentCacheProperties() {
+		return concurrentCacheProperties;
+	}
+
+	public void setConcurrentCacheProperties( Properties concurrentCacheProperties ) {
+		this.concurrentCacheProperties = concurrentCacheProperties;
+	}
+
+	public Boolean getEnableEntityCache() {
+		return enableEntityCache;
+	}
+
+	public void setEnableEntityCache( Boolean enableEntityCache ) {
+		this.enableEntityCache = enableEntityCache;
+	}
+
+	public Properties getEntityCacheProperties() {
+		return entityCacheProperties;
+	}
+
+	public void setEntityCacheProperties( Properties entityCacheProperties ) {
+		this.entityCacheProperties = entityCacheProperties;
+	}
+
+	public Integer getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize( Integer batchSize ) {
+		this.batchSize = batchSize;
+	}
+
+	public Long getBatchFlushInterval() {
+		return batchFlushInterval;
+	}
+
+	public void setBatchFlushInterval( Long batchFlushInterval ) {
+		this.batchFlushInterval = batchFlushInterval;
+	}
+
+	public Boolean getEnableBulkInsert() {
+		return enableBulkInsert;
+	}
+
+	public void setEnableBulkInsert( Boolean enableBulkInsert ) {
+		this.enableBulkInsert = enableBulkInsert;
+	}
+
+	public Integer getDefaultFetchSize() {
+		return defaultFetchSize;
+	}
+
+	public void setDefaultFetchSize( Integer defaultFetchSize ) {
+		this.defaultFetchSize = defaultFetchSize;
+	}
+
+	public Map<String, Integer> getStatementFetchSizes() {
+		return statementFetchSizes;
+	}
+
+	public void setStatementFetchSizes( Map<String, Integer> statementFetchSizes ) {
+		this.statementFetchSizes = statementFetchSizes;
+	}
+
+	public Boolean getEnableKeysetPagination() {
+		return enableKeysetPagination;
+	}
+
+	public void setEnableKeysetPagination( Boolean enableKeysetPagination ) {
+		this.enableKeysetPagination = enableKeysetPagination;
+	}
+
+	public Integer getAsyncMaxConcurrency() {
+		return asyncMaxConcurrency;
+	}
+
+	public void setAsyncMaxConcurrency( Integer asyncMaxConcurrency ) {
+		this.asyncMaxConcurrency = asyncMaxConcurrency;
+	}
+
+	public Boolean getEnableGeneratedAccessors() {
+		return enableGeneratedAccessors;
+	}
+
+	public void setEnableGeneratedAccessors( Boolean enableGeneratedAccessors ) {
+		this.enableGeneratedAccessors = enableGeneratedAccessors;
+	}
+
+	public Boolean getEnableBoundSqlCache() {
+		return enableBoundSqlCache;
+	}
+
+	public void setEnableBoundSqlCache( Boolean enableBoundSqlCache ) {
+		this.enableBoundSqlCache = enableBoundSqlCache;
+	}
+
+	public Long getBoundSqlCacheSize() {
+		return boundSqlCacheSize;
+	}
+
+	public void setBoundSqlCacheSize( Long boundSqlCacheSize ) {
+		this.boundSqlCacheSize = boundSqlCacheSize;
+	}
+
+	public Boolean getEnableDirtyTracking() {
+		return enableDirtyTracking;
+	}
+
+	public void setEnableDirtyTracking( Boolean enableDirtyTracking ) {
+		this.enableDirtyTracking = enableDirtyTracking;
+	}
+
+	public Boolean getEnableStatementWarmUp() {
+		return enableStatementWarmUp;
+	}
+
+	public void setEnableStatementWarmUp( Boolean enableStatementWarmUp ) {
+		this.enableStatementWarmUp = enableStatementWarmUp;
+	}
+
+	public Boolean getWarmUpPrepareStatements() {
+		return warmUpPrepareStatements;
+	}
+
+	public void setWarmUpPrepareStatements( Boolean warmUpPrepareStatements ) {
+		this.warmUpPrepareStatements = warmUpPrepareStatements;
+	}
+
+	public Integer getWarmUpConcurrency() {
+		return warmUpConcurrency;
+	}
+
+	public void setWarmUpConcurrency( Integer warmUpConcurrency ) {
+		this.warmUpConcurrency = warmUpConcurrency;
+	}
+
+	public Long getWarmUpTimeBudget() {
+		return warmUpTimeBudget;
+	}
+
+	public void setWarmUpTimeBudget( Long warmUpTimeBudget ) {
+		this.warmUpTimeBudget = warmUpTimeBudget;
+	}
+
+	public Boolean getEnableCompaction() {
+		return enableCompaction;
+	}
+
+	public void setEnableCompaction( Boolean enableCompaction ) {
+		this.enableCompaction = enableCompaction;
+	}
+
+	/**
+	 * Resolve the {@link #mapperLocations} patterns.
+	 *
+	 * @return the mapper xml files
+	 * @throws IOException if the resolution fails
+	 */
+	public Resource [] resolveMapperLocations() throws IOException {
+		List<Resource> resources = new ArrayList<>();
+		if ( mapperLocations != null ) {
+			for ( String mapperLocation : mapperLocations ) {
+				resources.addAll( Arrays.asList( RESOURCE_PATTERN_RESOLVER.getResources( mapperLocation ) ) );
+			}
+		}
+		return resources.toArray( new Resource[ resources.size() ] );
+	}
+
+}
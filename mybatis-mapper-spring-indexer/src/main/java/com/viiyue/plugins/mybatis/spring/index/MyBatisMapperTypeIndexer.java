@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * <p>
+ * Annotation processor that writes all type alias and type handler candidates
+ * of the current compilation into {@value #INDEX_LOCATION}, so that the
+ * {@code MyBatisMapperSqlSessionFactoryBean} no longer needs to scan the whole
+ * classpath for {@code typeAliasesPackage} and {@code typeHandlersPackage}.
+ *
+ * <p>
+ * The processor is activated by simply adding this module to the compile
+ * classpath. Each entry of the index maps a binary class name to the
+ * comma-separated categories it belongs to, for example:
+ *
+ * <pre>
+ * com.example.model.Account=alias
+ * com.example.handler.MoneyTypeHandler=alias,handler
+ * com.example.mapper.AccountMapper=mapper
+ * </pre>
+ *
+ * <p>
+ * The mapper interfaces of mybatis-mapper and the entity classes of their type
+ * arguments are indexed as well, and the processor writes the GraalVM
+ * reachability metadata of the indexed types into {@value #NATIVE_IMAGE_LOCATION}:
+ * the reflection on the entities, type handlers and mappers, the proxies of the
+ * mappers, and the index and mapper xml files as resources. The metadata is
+ * picked up as is by {@code native-image} and by the Spring AOT native builds,
+ * so that no classpath scanning nor reflection configuration is needed at
+ * runtime. The mapper xml files are matched by the regular expressions of the
+ * {@value #RESOURCES_OPTION} option, {@value #DEFAULT_RESOURCES} by default.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperTypeIndexer extends AbstractProcessor {
+
+	/** The location of the generated index file */
+	public static final String INDEX_LOCATION = "META-INF/mybatis-mapper.index";
+
+	/** Category of the classes which can be registered as type alias */
+	public static final String ALIAS = "alias";
+
+	/** Category of the classes which can be registered as type handler */
+	public static final String HANDLER = "handler";
+
+	/** Category of the mybatis-mapper mapper interfaces */
+	public static final String MAPPER = "mapper";
+
+	/** Category of the entity classes of the mapper interfaces */
+	public static final String ENTITY = "entity";
+
+	/** The directory of the generated native image metadata */
+	public static final String NATIVE_IMAGE_LOCATION = "META-INF/native-image/mybatis-mapper-spring/";
+
+	/** The option of the comma-separated patterns of the mapper xml files */
+	public static final String RESOURCES_OPTION = "mybatis.mapper.resources";
+
+	/** The default patterns of the mapper xml files */
+	public static final String DEFAULT_RESOURCES = ".*Mapper\\.xml";
+
+	private static final String TYPE_HANDLER = "org.apache.ibatis.type.TypeHandler";
+	private static final String MYBATIS_MAPPER = "com.viiyue.plugins.mybatis.Mapper";
+
+	private final TreeMap<String, Set<String>> index = new TreeMap<>();
+	private final Set<String> compiled = new LinkedHashSet<>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton( "*" );
+	}
+
+	@Override
+	public Set<String> getSupportedOptions() {
+		return Collections.singleton( RESOURCES_OPTION );
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
+		for ( Element element : roundEnv.getRootElements() ) {
+			if ( element instanceof TypeElement ) {
+				indexType( ( TypeElement ) element );
+			}
+		}
+		if ( roundEnv.processingOver() ) {
+			try {
+				writeIndex();
+			} catch ( IOException e ) {
+				processingEnv.getMessager().printMessage( Kind.ERROR, "Unable to write " + INDEX_LOCATION + ": " + e );
+			}
+			try {
+				writeNativeImageMetadata();
+			} catch ( IOException e ) {
+				processingEnv.getMessager().printMessage( Kind.ERROR, "Unable to write " + NATIVE_IMAGE_LOCATION + ": " + e );
+			}
+		}
+		return false; // Never claim any annotation
+	}
+
+	private void indexType( TypeElement type ) {
+		compiled.add( binaryName( type ) );
+		if ( type.getKind() == ElementKind.CLASS || type.getKind() == ElementKind.ENUM ) {
+			// Same rules as the classpath scanning of the factory bean,
+			// aliases: not interface, not member class;
+			// handlers: not interface, not abstract, implements TypeHandler.
+			if ( type.getNestingKind() == NestingKind.TOP_LEVEL ) {
+				addCategory( binaryName( type ), ALIAS );
+			}
+			if ( !type.getModifiers().contains( Modifier.ABSTRACT ) && isAssignable( type, TYPE_HANDLER ) ) {
+				addCategory( binaryName( type ), HANDLER );
+			}
+		} else if ( type.getKind() == ElementKind.INTERFACE && isAssignable( type, MYBATIS_MAPPER ) ) {
+			addCategory( binaryName( type ), MAPPER );
+			indexEntities( type.asType() );
+		}
+		for ( Element enclosed : type.getEnclosedElements() ) {
+			if ( enclosed instanceof TypeElement ) {
+				indexType( ( TypeElement ) enclosed );
+			}
+		}
+	}
+
+	/**
+	 * Index the type arguments of {@code Mapper<T, D, K>} found in the
+	 * supertypes of the mapper interface, along with their superclasses which
+	 * are also introspected by MyBatis.
+	 */
+	private void indexEntities( TypeMirror mapperType ) {
+		Types types = processingEnv.getTypeUtils();
+		for ( TypeMirror supertype : types.directSupertypes( mapperType ) ) {
+			TypeElement element = ( TypeElement ) types.asElement( supertype );
+			if ( element.getQualifiedName().contentEquals( MYBATIS_MAPPER ) ) {
+				for ( TypeMirror argument : ( ( DeclaredType ) supertype ).getTypeArguments() ) {
+					for ( TypeMirror entity = argument; entity.getKind() == TypeKind.DECLARED; ) {
+						TypeElement entityElement = ( TypeElement ) types.asElement( entity );
+						if ( entityElement.getKind() != ElementKind.CLASS || entityElement.getQualifiedName().toString().startsWith( "java." ) ) {
+							break;
+						}
+						addCategory( binaryName( entityElement ), ENTITY );
+						entity = entityElement.getSuperclass();
+					}
+				}
+			} else {
+				indexEntities( supertype );
+			}
+		}
+	}
+
+	private boolean isAssignable( TypeElement type, String supertypeName ) {
+		TypeElement supertype = processingEnv.getElementUtils().getTypeElement( supertypeName );
+		if ( supertype == null ) {
+			return false; // MyBatis or mybatis-mapper is not on the compile classpath
+		}
+		Types types = processingEnv.getTypeUtils();
+		return types.isAssignable( types.erasure( type.asType() ), types.erasure( supertype.asType() ) );
+	}
+
+	private void addCategory( String className, String category ) {
+		index.computeIfAbsent( className, key -> new LinkedHashSet<>() ).add( category );
+	}
+
+	private String binaryName( TypeElement type ) {
+		return processingEnv.getElementUtils().getBinaryName( type ).toString();
+	}
+
+	private void writeIndex() throws IOException {
+		mergeExistingIndex();
+		if ( index.isEmpty() ) {
+			return;
+		}
+		FileObject file = processingEnv.getFiler().createResource( StandardLocation.CLASS_OUTPUT, "", INDEX_LOCATION );
+		try ( OutputStream out = file.openOutputStream() ) {
+			StringBuilder content = new StringBuilder();
+			index.forEach( ( className, categories ) -> content.append( className ).append( '=' ).append( String.join( ",", categories ) ).append( '\n' ) );
+			out.write( content.toString().getBytes( "ISO-8859-1" ) );
+		}
+	}
+
+	/**
+	 * Write the {@code reflect-config.json}, {@code proxy-config.json} and
+	 * {@code resource-config.json} files of the merged index.
+	 */
+	private void writeNativeImageMetadata() throws IOException {
+		if ( index.isEmpty() ) {
+			return;
+		}
+		StringBuilder reflection = new StringBuilder( "[" );
+		StringBuilder proxies = new StringBuilder( "[" );
+		for ( Map.Entry<String, Set<String>> entry : index.entrySet() ) {
+			Set<String> categories = entry.getValue();
+			boolean isEntity = categories.contains( ENTITY );
+			boolean isHandler = categories.contains( HANDLER );
+			boolean isMapper = categories.contains( MAPPER );
+			// Aliases are only loaded by name, the members are left to the entity and handler categories
+			reflection.append( reflection.length() > 1 ? ",\n" : "\n" ).append( "  { \"name\": \"" ).append( entry.getKey() ).append( '"' );
+			if ( isEntity ) {
+				reflection.append( ", \"allDeclaredFields\": true" );
+			}
+			if ( isEntity || isMapper ) {
+				reflection.append( ", \"allDeclaredMethods\": true" );
+			}
+			if ( isEntity || isHandler || isMapper ) {
+				reflection.append( ", \"allPublicMethods\": true" );
+			}
+			if ( isEntity || isHandler ) {
+				reflection.append( ", \"allDeclaredConstructors\": true" );
+			}
+			reflection.append( " }" );
+			if ( isMapper ) {
+				proxies.append( proxies.length() > 1 ? ",\n" : "\n" ).append( "  { \"interfaces\": [ \"" ).append( entry.getKey() ).append( "\" ] }" );
+			}
+		}
+		writeNativeImageFile( "reflect-config.json", reflection.append( "\n]\n" ) );
+		writeNativeImageFile( "proxy-config.json", proxies.append( proxies.length() > 1 ? "\n]\n" : "]\n" ) );
+
+		StringBuilder resources = new StringBuilder( "{\n  \"resources\": {\n    \"includes\": [\n" );
+		resources.append( "      { \"pattern\": \"" ).append( escape( "\\Q" + INDEX_LOCATION + "\\E" ) ).append( "\" }" );
+		String patterns = processingEnv.getOptions().getOrDefault( RESOURCES_OPTION, DEFAULT_RESOURCES );
+		for ( String pattern : patterns.split( "," ) ) {
+			if ( !pattern.trim().isEmpty() ) {
+				resources.append( ",\n      { \"pattern\": \"" ).append( escape( pattern.trim() ) ).append( "\" }" );
+			}
+		}
+		writeNativeImageFile( "resource-config.json", resources.append( "\n    ]\n  }\n}\n" ) );
+	}
+
+	private void writeNativeImageFile( String name, CharSequence content ) throws IOException {
+		FileObject file = processingEnv.getFiler().createResource( StandardLocation.CLASS_OUTPUT, "", NATIVE_IMAGE_LOCATION + name );
+		try ( OutputStream out = file.openOutputStream() ) {
+			out.write( content.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+	}
+
+	private static String escape( String value ) {
+		return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" );
+	}
+
+	/**
+	 * Keep the entries of the previous compilation for incremental builds, as
+	 * long as their types still exist and were not compiled again. The
+	 * entities of the compiled mappers keep their previous categories too.
+	 */
+	private void mergeExistingIndex() {
+		Properties existing = new Properties();
+		try {
+			FileObject file = processingEnv.getFiler().getResource( StandardLocation.CLASS_OUTPUT, "", INDEX_LOCATION );
+			try ( InputStream in = file.openInputStream() ) {
+				existing.load( in );
+			}
+		} catch ( IOException | IllegalArgumentException e ) {
+			return; // No previous index
+		}
+		for ( String className : existing.stringPropertyNames() ) {
+			if ( !compiled.contains( className ) && processingEnv.getElementUtils().getTypeElement( className.replace( '$', '.' ) ) != null ) {
+				for ( String category : existing.getProperty( className ).split( "," ) ) {
+					addCategory( className, category );
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>
+ * Runs the mapper calls asynchronously and returns {@link CompletableFuture}s,
+ * so that independent calls run concurrently.
+ *
+ * <pre>
+ * CompletableFuture&lt;Account&gt; account = async.call( AccountMapper.class, mapper -&gt; mapper.selectByPrimaryKey( id ) );
+ * CompletableFuture&lt;List&lt;Order&gt;&gt; orders = async.call( OrderMapper.class, mapper -&gt; mapper.selectByExample( example ) );
+ * </pre>
+ *
+ * <p>
+ * Each call opens its own {@code SqlSession}, which is committed when the
+ * call succeeds, rolled back when it fails (unless the connections of the
+ * data source are in auto-commit mode), and closed in any case. The calls
+ * never join the Spring transaction of the calling thread, nor share their
+ * first-level cache, and their results must not be lazy cursors.
+ *
+ * <p>
+ * The calls run on virtual threads on JDK 21 and later, otherwise on a
+ * bounded pool of daemon threads, unless an executor is specified. The
+ * concurrent calls are bounded by {@code maxConcurrency}, the maximum pool
+ * size of the data source by default, so that the waiting calls hold no
+ * connection.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperAsync implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperAsync.class );
+	private static final int DEFAULT_MAX_CONCURRENCY = 10;
+	private static final String [] POOL_SIZE_GETTERS = { "getMaximumPoolSize", "getMaxTotal", "getMaxActive", "getMaxPoolSize" };
+
+	private final SqlSessionFactory sqlSessionFactory;
+	private final Executor executor;
+	private final ExecutorService ownedExecutor;
+	private final Semaphore permits;
+
+	/**
+	 * @param sqlSessionFactory the factory of the sessions
+	 * @param executor the executor of the calls, or {@code null} for the default one
+	 * @param maxConcurrency the maximum number of concurrent calls, or
+	 *        {@code 0} for the maximum pool size of the data source
+	 */
+	public MyBatisMapperAsync( SqlSessionFactory sqlSessionFactory, Executor executor, int maxConcurrency ) {
+		Assert.notNull( sqlSessionFactory, "Property 'sqlSessionFactory' is required" );
+		Assert.isTrue( maxConcurrency >= 0, "Property 'maxConcurrency' must not be negative" );
+		this.sqlSessionFactory = sqlSessionFactory;
+		int permits = maxConcurrency > 0 ? maxConcurrency : maxPoolSizeOf( sqlSessionFactory.getConfiguration().getEnvironment().getDataSource() );
+		this.permits = new Semaphore( permits );
+		this.ownedExecutor = executor == null ? defaultExecutor( permits ) : null;
+		this.executor = executor == null ? ownedExecutor : executor;
+	}
+
+	/**
+	 * Call a mapper asynchronously.
+	 *
+	 * @param mapperType the mapper interface
+	 * @param call the call of the mapper
+	 * @return the future result of the call
+	 */
+	public <M, R> CompletableFuture<R> call( Class<M> mapperType, Function<M, R> call ) {
+		return execute( sqlSession -> call.apply( sqlSession.getMapper( mapperType ) ) );
+	}
+
+	/**
+	 * Execute statements asynchronously.
+	 *
+	 * @param call the statements to execute with the session
+	 * @return the future result of the call
+	 */
+	public <R> CompletableFuture<R> execute( Function<SqlSession, R> call ) {
+		return CompletableFuture.supplyAsync( () -> {
+			try {
+				permits.acquire();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException( e );
+			}
+			try ( SqlSession sqlSession = sqlSessionFactory.openSession() ) {
+				R result = call.apply( sqlSession );
+				sqlSession.commit();
+				return result;
+			} finally {
+				permits.release();
+			}
+		}, executor );
+	}
+
+	/**
+	 * @return the number of calls that may start without waiting
+	 */
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+
+	/**
+	 * Shut down the default executor, the running calls complete.
+	 */
+	@Override
+	public void close() {
+		if ( ownedExecutor != null ) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	private static ExecutorService defaultExecutor( int permits ) {
+		Method virtualThreadExecutor = ReflectionUtils.findMethod( Executors.class, "newVirtualThreadPerTaskExecutor" );
+		if ( virtualThreadExecutor != null ) {
+			try {
+				return ( ExecutorService ) virtualThreadExecutor.invoke( null );
+			} catch ( ReflectiveOperationException | RuntimeException e ) {
+				// Preview feature not enabled, fall back to the platform threads
+				LOGGER.debug( () -> "Virtual threads are not available: " + e );
+			}
+		}
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "mybatis-mapper-async-" );
+		threadFactory.setDaemon( true );
+		return Executors.newFixedThreadPool( permits, threadFactory );
+	}
+
+	/**
+	 * The maximum pool size of the common connection pools (HikariCP, DBCP2,
+	 * Tomcat JDBC, Druid, c3p0), found by reflection.
+	 */
+	private static int maxPoolSizeOf( DataSource dataSource ) {
+		if ( dataSource instanceof MyBatisMapperRoutingDataSource ) {
+			dataSource = ( ( MyBatisMapperRoutingDataSource ) dataSource ).getPrimary();
+		}
+		for ( String getter : POOL_SIZE_GETTERS ) {
+			Method method = ReflectionUtils.findMethod( dataSource.getClass(), getter );
+			if ( method != null && ( method.getReturnType() == int.class || method.getReturnType() == Integer.class ) ) {
+				try {
+					Object size = method.invoke( dataSource );
+					if ( size instanceof Integer && ( Integer ) size > 0 ) {
+						return ( Integer ) size;
+					}
+				} catch ( ReflectiveOperationException | RuntimeException e ) {
+					// Try the other getters
+				}
+			}
+		}
+		return DEFAULT_MAX_CONCURRENCY;
+	}
+
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * Thread-safe batching {@code SqlSession}, to be used like a
+ * {@link SqlSessionTemplate} or through its mappers ({@link #getMapper(Class)}).
+ *
+ * <p>
+ * Inside a Spring transaction, the inserts, updates and deletes are added in
+ * order to the JDBC batches of the {@link BatchExecutor}, their parameters are
+ * bound when written. The batches are sent when {@code batchSize} writes are
+ * pending, when the oldest pending write is older than {@code flushInterval}
+ * (checked on each write), before any read of this session, and before the
+ * transaction commits. A rollback discards the pending writes. Outside of a
+ * transaction, every write is executed immediately.
+ *
+ * <p>
+ * The pending writes return {@link BatchExecutor#BATCH_UPDATE_RETURN_VALUE},
+ * the generated keys are set on the parameter objects when their batch is
+ * sent, call {@link #flushStatements()} to read them earlier.
+ *
+ * <p>
+ * Like any batch {@code SqlSession} of mybatis-spring, it can not join a
+ * transaction which already used a non-batch {@code SqlSession}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperBatchSqlSession extends SqlSessionTemplate {
+
+	private final int batchSize;
+	private final long flushInterval;
+
+	/**
+	 * @param sqlSessionFactory the factory of the batch sessions
+	 * @param batchSize the number of pending writes that triggers a flush
+	 * @param flushInterval the age in milliseconds of the oldest pending
+	 *        write that triggers a flush, {@code 0} for no time threshold
+	 */
+	public MyBatisMapperBatchSqlSession( SqlSessionFactory sqlSessionFactory, int batchSize, long flushInterval ) {
+		super( sqlSessionFactory, ExecutorType.BATCH );
+		Assert.isTrue( batchSize > 0, "Property 'batchSize' must be positive" );
+		Assert.isTrue( flushInterval >= 0, "Property 'flushInterval' must not be negative" );
+		this.batchSize = batchSize;
+		this.flushInterval = TimeUnit.MILLISECONDS.toNanos( flushInterval );
+	}
+
+	@Override
+	public int insert( String statement ) {
+		return insert( statement, null );
+	}
+
+	@Override
+	public int insert( String statement, Object parameter ) {
+		return TransactionSynchronizationManager.isSynchronizationActive() ? write( statement, parameter ) : super.insert( statement, parameter );
+	}
+
+	@Override
+	public int update( String statement ) {
+		return update( statement, null );
+	}
+
+	@Override
+	public int update( String statement, Object parameter ) {
+		return TransactionSynchronizationManager.isSynchronizationActive() ? write( statement, parameter ) : super.update( statement, parameter );
+	}
+
+	@Override
+	public int delete( String statement ) {
+		return delete( statement, null );
+	}
+
+	@Override
+	public int delete( String statement, Object parameter ) {
+		return TransactionSynchronizationManager.isSynchronizationActive() ? write( statement, parameter ) : super.delete( statement, parameter );
+	}
+
+	@Override
+	public <T> T selectOne( String statement ) {
+		flushWrites();
+		return super.selectOne( statement );
+	}
+
+	@Override
+	public <T> T selectOne( String statement, Object parameter ) {
+		flushWrites();
+		return super.selectOne( statement, parameter );
+	}
+
+	@Override
+	public <K, V> Map<K, V> selectMap( String statement, String mapKey ) {
+		flushWrites();
+		return super.selectMap( statement, mapKey );
+	}
+
+	@Override
+	public <K, V> Map<K, V> selectMap( String statement, Object parameter, String mapKey ) {
+		flushWrites();
+		return super.selectMap( statement, parameter, mapKey );
+	}
+
+	@Override
+	public <K, V> Map<K, V> selectMap( String statement, Object parameter, String mapKey, RowBounds rowBounds ) {
+		flushWrites();
+		return super.selectMap( statement, parameter, mapKey, rowBounds );
+	}
+
+	@Override
+	public <T> Cursor<T> selectCursor( String statement ) {
+		flushWrites();
+		return super.selectCursor( statement );
+	}
+
+	@Override
+	public <T> Cursor<T> selectCursor( String statement, Object parameter ) {
+		flushWrites();
+		return super.selectCursor( statement, parameter );
+	}
+
+	@Override
+	public <T> Cursor<T> selectCursor( String statement, Object parameter, RowBounds rowBounds ) {
+		flushWrites();
+		return super.selectCursor( statement, parameter, rowBounds );
+	}
+
+	@Override
+	public <E> List<E> selectList( String statement ) {
+		flushWrites();
+		return super.selectList( statement );
+	}
+
+	@Override
+	public <E> List<E> selectList( String statement, Object parameter ) {
+		flushWrites();
+		return super.selectList( statement, parameter );
+	}
+
+	@Override
+	public <E> List<E> selectList( String statement, Object parameter, RowBounds rowBounds ) {
+		flushWrites();
+		return super.selectList( statement, parameter, rowBounds );
+	}
+
+	@Override
+	public void select( String statement, ResultHandler handler ) {
+		flushWrites();
+		super.select( statement, handler );
+	}
+
+	@Override
+	public void select( String statement, Object parameter, ResultHandler handler ) {
+		flushWrites();
+		super.select( statement, parameter, handler );
+	}
+
+	@Override
+	public void select( String statement, Object parameter, RowBounds rowBounds, ResultHandler handler ) {
+		flushWrites();
+		super.select( statement, parameter, rowBounds, handler );
+	}
+
+	/**
+	 * Send the pending writes of the current transaction to the database.
+	 *
+	 * @return the results of the JDBC batches
+	 */
+	@Override
+	public List<BatchResult> flushStatements() {
+		PendingWrites writes = ( PendingWrites ) TransactionSynchronizationManager.getResource( this );
+		if ( writes != null ) {
+			writes.count = 0;
+		}
+		return super.flushStatements();
+	}
+
+	private int write( String statement, Object parameter ) {
+		PendingWrites writes = ( PendingWrites ) TransactionSynchronizationManager.getResource( this );
+		if ( writes == null ) {
+			writes = new PendingWrites();
+			TransactionSynchronizationManager.bindResource( this, writes );
+			TransactionSynchronizationManager.registerSynchronization( new PendingWritesSynchronization() );
+		}
+		int result = super.update( statement, parameter );
+		if ( writes.count ++ == 0 ) {
+			writes.firstWriteNanos = System.nanoTime();
+		}
+		if ( writes.count >= batchSize || ( flushInterval > 0 && System.nanoTime() - writes.firstWriteNanos >= flushInterval ) ) {
+			flushStatements();
+		}
+		return result;
+	}
+
+	private void flushWrites() {
+		if ( !TransactionSynchronizationManager.isSynchronizationActive() ) {
+			return;
+		}
+		PendingWrites writes = ( PendingWrites ) TransactionSynchronizationManager.getResource( this );
+		if ( writes != null && writes.count > 0 ) {
+			flushStatements();
+		}
+	}
+
+	/**
+	 * The flush thresholds of the writes pending in the batches of a
+	 * transaction, the writes themselves are held by the {@link BatchExecutor}.
+	 */
+	private static final class PendingWrites {
+
+		private int count;
+		private long firstWriteNanos;
+
+	}
+
+	/**
+	 * Releases the pending writes of the transaction at its end, the
+	 * {@code SqlSession} itself sends the batches on commit and discards them
+	 * on rollback.
+	 */
+	private final class PendingWritesSynchronization extends TransactionSynchronizationAdapter {
+
+		@Override
+		public void afterCompletion( int status ) {
+			TransactionSynchronizationManager.unbindResourceIfPossible( MyBatisMapperBatchSqlSession.this );
+		}
+
+	}
+
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.xmltags.ChooseSqlNode;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
+import org.apache.ibatis.scripting.xmltags.IfSqlNode;
+import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
+import org.apache.ibatis.scripting.xmltags.SetSqlNode;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TrimSqlNode;
+import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
+import org.apache.ibatis.session.Configuration;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>
+ * Cache of the SQL and the parameter mappings generated by the dynamic
+ * statements, keyed by the statement, the class of the parameter and the
+ * results of the {@code <if>} and {@code <when>} tests, so that the calls with
+ * the same parameter "shape" only evaluate the tests and bind the values
+ * instead of rendering the template and parsing its {@code #{}} placeholders.
+ *
+ * <p>
+ * Only the {@link DynamicSqlSource}s made of static text, {@code <if>},
+ * {@code <choose>}, {@code <trim>}, {@code <where>} and {@code <set>} are
+ * cached, their output depends on nothing else. The statements with
+ * {@code ${}} substitutions, {@code <foreach>}, {@code <bind>} or custom
+ * nodes are rendered on each call as usual. The cached templates are bounded
+ * by {@code maximumSize} and evicted by {@link MyBatisMapperConcurrentCache}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperBoundSqlCache {
+
+	// At most one bit of the shape per test
+	private static final int MAX_TESTS = Long.SIZE;
+	private static final ExpressionEvaluator EVALUATOR = new ExpressionEvaluator();
+
+	private final MyBatisMapperConcurrentCache templates;
+	private int statementCount;
+
+	private MyBatisMapperBoundSqlCache( long maximumSize ) {
+		this.templates = new MyBatisMapperConcurrentCache( MyBatisMapperBoundSqlCache.class.getName() );
+		templates.setMaximumSize( maximumSize );
+		templates.initialize();
+	}
+
+	/**
+	 * Replace the cacheable dynamic sources of the statements.
+	 *
+	 * @param configuration the refactored configuration
+	 * @param maximumSize the maximum number of cached templates
+	 * @return the cache of the templates
+	 */
+	static MyBatisMapperBoundSqlCache apply( Configuration configuration, long maximumSize ) {
+		MyBatisMapperBoundSqlCache cache = new MyBatisMapperBoundSqlCache( maximumSize );
+		for ( Object object : configuration.getMappedStatements() ) {
+			// The values of StrictMap also contain the ambiguous short names
+			if ( !( object instanceof MappedStatement ) || ( ( MappedStatement ) object ).getSqlSource().getClass() != DynamicSqlSource.class ) {
+				continue;
+			}
+			MappedStatement statement = ( MappedStatement ) object;
+			MetaObject metaObject = SystemMetaObject.forObject( statement.getSqlSource() );
+			Shape shape = Shape.of( ( SqlNode ) metaObject.getValue( "rootSqlNode" ) );
+			if ( shape != null && shape.tests <= MAX_TESTS ) {
+				SystemMetaObject.forObject( statement ).setValue( "sqlSource", cache.new CachingSqlSource( configuration, statement.getSqlSource(), shape ) );
+				cache.statementCount ++;
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @param sqlSource the SQL source of a statement
+	 * @return the dynamic source cached by the SQL source, or the SQL source
+	 *         itself if not cached
+	 */
+	static SqlSource delegateOf( SqlSource sqlSource ) {
+		return sqlSource instanceof CachingSqlSource ? ( ( CachingSqlSource ) sqlSource ).delegate : sqlSource;
+	}
+
+	/**
+	 * @return the number of statements whose templates are cached
+	 */
+	public int getStatementCount() {
+		return statementCount;
+	}
+
+	/**
+	 * @return the number of cached templates
+	 */
+	public int getSize() {
+		return templates.getSize();
+	}
+
+	/**
+	 * @return the ratio of the calls served by a cached template
+	 */
+	public double getHitRatio() {
+		return templates.getHitRatio();
+	}
+
+	/**
+	 * @return the number of templates evicted by the size bound
+	 */
+	public long getEvictionCount() {
+		return templates.getEvictionCount();
+	}
+
+	/**
+	 * Discard all the cached templates.
+	 */
+	public void clear() {
+		templates.clear();
+	}
+
+	/**
+	 * The tests of a dynamic source, in the order they are evaluated by the
+	 * nodes, or {@code null} if the output of the source depends on anything
+	 * else than the test results.
+	 */
+	private static final class Shape {
+
+		private static final Field IF_TEST = ReflectionUtils.findField( IfSqlNode.class, "test" );
+		private static final Field IF_CONTENTS = ReflectionUtils.findField( IfSqlNode.class, "contents" );
+		private static final Field CHOOSE_WHENS = ReflectionUtils.findField( ChooseSqlNode.class, "ifSqlNodes" );
+		private static final Field CHOOSE_OTHERWISE = ReflectionUtils.findField( ChooseSqlNode.class, "defaultSqlNode" );
+		private static final Field TRIM_CONTENTS = ReflectionUtils.findField( TrimSqlNode.class, "contents" );
+		private static final Field MIXED_CONTENTS = ReflectionUtils.findField( MixedSqlNode.class, "contents" );
+
+		static {
+			ReflectionUtils.makeAccessible( IF_TEST );
+			ReflectionUtils.makeAccessible( IF_CONTENTS );
+			ReflectionUtils.makeAccessible( CHOOSE_WHENS );
+			ReflectionUtils.makeAccessible( CHOOSE_OTHERWISE );
+			ReflectionUtils.makeAccessible( TRIM_CONTENTS );
+			ReflectionUtils.makeAccessible( MIXED_CONTENTS );
+		}
+
+		// The test of an <if> or <when>, null for a sequence
+		private final String test;
+		private final Shape [] children;
+		// The <otherwise> of a <choose>, whose children are the <when>s
+		private final Shape otherwise;
+		private final boolean choose;
+		private final int tests;
+
+		private Shape( String test, Shape [] children, Shape otherwise, boolean choose ) {
+			this.test = test;
+			this.children = children;
+			this.otherwise = otherwise;
+			this.choose = choose;
+			int tests = test == null ? 0 : 1;
+			for ( Shape child : children ) {
+				tests += child.tests;
+			}
+			this.tests = otherwise == null ? tests : tests + otherwise.tests;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		static Shape of( SqlNode node ) {
+			if ( node == null || node.getClass() == StaticTextSqlNode.class ) {
+				return new Shape( null, new Shape[ 0 ], null, false );
+			}
+			if ( node.getClass() == MixedSqlNode.class ) {
+				return sequence( ( List<SqlNode> ) ReflectionUtils.getField( MIXED_CONTENTS, node ), null, false );
+			}
+			if ( node.getClass() == TrimSqlNode.class || node.getClass() == WhereSqlNode.class || node.getClass() == SetSqlNode.class ) {
+				return of( ( SqlNode ) ReflectionUtils.getField( TRIM_CONTENTS, node ) );
+			}
+			if ( node.getClass() == IfSqlNode.class ) {
+				Shape contents = of( ( SqlNode ) ReflectionUtils.getField( IF_CONTENTS, node ) );
+				return contents == null ? null : new Shape( ( String ) ReflectionUtils.getField( IF_TEST, node ), new Shape [] { contents }, null, false );
+			}
+			if ( node.getClass() == ChooseSqlNode.class ) {
+				Shape otherwise = of( ( SqlNode ) ReflectionUtils.getField( CHOOSE_OTHERWISE, node ) );
+				return otherwise == null ? null : sequence( ( List<SqlNode> ) ReflectionUtils.getField( CHOOSE_WHENS, node ), otherwise, true );
+			}
+			// ${} substitutions, <foreach>, <bind> and custom nodes
+			return null;
+		}
+
+		private static Shape sequence( List<SqlNode> nodes, Shape otherwise, boolean choose ) {
+			Shape [] children = new Shape[ nodes.size() ];
+			for ( int i = 0; i < children.length; i ++ ) {
+				// The <when>s of a <choose> are tests
+				if ( ( children[ i ] = of( nodes.get( i ) ) ) == null || ( choose && children[ i ].test == null ) ) {
+					return null;
+				}
+			}
+			return new Shape( null, children, otherwise, choose );
+		}
+
+		/**
+		 * Evaluate the tests like the nodes do, appending a bit per evaluated
+		 * test, and return the number of evaluated tests.
+		 */
+		int evaluate( Object bindings, long [] bits, int count ) {
+			if ( test != null ) {
+				boolean result = EVALUATOR.evaluateBoolean( test, bindings );
+				if ( result ) {
+					bits[ 0 ] |= 1L << count;
+				}
+				count ++;
+				return result ? children[ 0 ].evaluate( bindings, bits, count ) : count;
+			}
+			if ( choose ) {
+				for ( Shape when : children ) {
+					int before = count;
+					count = when.evaluate( bindings, bits, count );
+					if ( ( bits[ 0 ] & ( 1L << before ) ) != 0 ) {
+						return count;
+					}
+				}
+				return otherwise.evaluate( bindings, bits, count );
+			}
+			for ( Shape child : children ) {
+				count = child.evaluate( bindings, bits, count );
+			}
+			return count;
+		}
+
+	}
+
+	/**
+	 * The cached output of a dynamic source.
+	 */
+	private static final class Template {
+
+		private final String sql;
+		private final List<ParameterMapping> parameterMappings;
+
+		Template( String sql, List<ParameterMapping> parameterMappings ) {
+			this.sql = sql;
+			this.parameterMappings = parameterMappings;
+		}
+
+	}
+
+	private static final class TemplateKey {
+
+		private final SqlSource source;
+		private final Class<?> parameterType;
+		private final long bits;
+		private final int count;
+
+		TemplateKey( SqlSource source, Class<?> parameterType, long bits, int count ) {
+			this.source = source;
+			this.parameterType = parameterType;
+			this.bits = bits;
+			this.count = count;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if ( !( o instanceof TemplateKey ) ) {
+				return false;
+			}
+			TemplateKey other = ( TemplateKey ) o;
+			return source == other.source && parameterType == other.parameterType && bits == other.bits && count == other.count;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode( source );
+			hash = 31 * hash + parameterType.hashCode();
+			hash = 31 * hash + Long.hashCode( bits );
+			return 31 * hash + count;
+		}
+
+	}
+
+	/**
+	 * Serves the templates of a dynamic source from the cache, the parameter
+	 * mappings depend on the class of the parameter.
+	 */
+	private final class CachingSqlSource implements SqlSource {
+
+		private final Configuration configuration;
+		private final SqlSource delegate;
+		private final Shape shape;
+
+		CachingSqlSource( Configuration configuration, SqlSource delegate, Shape shape ) {
+			this.configuration = configuration;
+			this.delegate = delegate;
+			this.shape = shape;
+		}
+
+		@Override
+		public BoundSql getBoundSql( Object parameterObject ) {
+			DynamicContext context = new DynamicContext( configuration, parameterObject );
+			long [] bits = new long[ 1 ];
+			int count = shape.evaluate( context.getBindings(), bits, 0 );
+			TemplateKey key = new TemplateKey( this, parameterObject == null ? Object.class : parameterObject.getClass(), bits[ 0 ], count );
+			Template template = ( Template ) templates.getObject( key );
+			if ( template == null ) {
+				BoundSql boundSql = delegate.getBoundSql( parameterObject );
+				templates.putObject( key, new Template( boundSql.getSql(), new ArrayList<>( boundSql.getParameterMappings() ) ) );
+				return boundSql;
+			}
+			// Copied as some plugins append their own mappings
+			BoundSql boundSql = new BoundSql( configuration, template.sql, new ArrayList<>( template.parameterMappings ), parameterObject );
+			context.getBindings().forEach( boundSql::setAdditionalParameter );
+			return boundSql;
+		}
+
+	}
+
+}
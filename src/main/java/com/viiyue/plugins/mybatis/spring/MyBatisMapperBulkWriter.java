@@ -0,0 +1,462 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * <p>
+ * Writes collections of entities with multi-row {@code INSERT ... VALUES (...), (...)}
+ * statements, or with the upserts of the dialect, instead of one statement
+ * per row.
+ *
+ * <p>
+ * Every single-row {@code INSERT ... VALUES (...)} statement of the
+ * configuration, the generic inserts of mybatis-mapper as well as the xml
+ * ones, gets a companion statement with the {@code "!bulk"} suffix, which
+ * repeats its {@code VALUES} tuple for each row of a chunk. The rows are
+ * rendered with the original statement one by one, consecutive rows of the
+ * same SQL (e.g. of a selective insert) are written together. The chunks are
+ * sized from the maximum number of bind parameters and the maximum packet
+ * size of the dialect, resolved from the {@code databaseId} or from the
+ * database product name.
+ *
+ * <p>
+ * The generated keys of the JDBC driver are set on the rows, the statements
+ * with a {@code <selectKey>} are not supported. Created by
+ * {@link MyBatisMapperSqlSessionFactoryBean#setEnableBulkInsert(boolean)}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperBulkWriter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperBulkWriter.class );
+	private static final String BULK_SUFFIX = "!bulk";
+	private static final String BULK_PARAMETER = "__bulk_";
+	private static final int MAX_ROWS = 1000;
+	private static final int ESTIMATE_SAMPLES = 16;
+	private static final Pattern SINGLE_ROW_INSERT = Pattern.compile(
+			"^\\s*INSERT\\s+INTO\\s+([^\\s(]+)\\s*\\(([^)]*)\\)\\s*VALUES\\s*(\\(.*\\))\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL );
+
+	/**
+	 * The SQL dialects
+	 */
+	public enum Dialect {
+
+		H2( 32767 ) {
+			@Override
+			String upsert( String table, String columns, String values, List<String> columnNames, String [] keyColumns ) {
+				return "MERGE INTO " + table + " (" + columns + ") KEY (" + String.join( ", ", keyColumns ) + ") VALUES " + values;
+			}
+		},
+
+		MYSQL( 65535 ) {
+			@Override
+			String upsert( String table, String columns, String values, List<String> columnNames, String [] keyColumns ) {
+				return insert( table, columns, values ) + " ON DUPLICATE KEY UPDATE " + updatedColumns( columnNames, keyColumns ).stream()
+						.map( column -> column + " = VALUES(" + column + ")" ).collect( Collectors.joining( ", " ) );
+			}
+		},
+
+		POSTGRESQL( 32767 ) {
+			@Override
+			String upsert( String table, String columns, String values, List<String> columnNames, String [] keyColumns ) {
+				List<String> updated = updatedColumns( columnNames, keyColumns );
+				return insert( table, columns, values ) + " ON CONFLICT (" + String.join( ", ", keyColumns ) + ") DO "
+						+ ( updated.isEmpty() ? "NOTHING" : "UPDATE SET " + updated.stream()
+								.map( column -> column + " = EXCLUDED." + column ).collect( Collectors.joining( ", " ) ) );
+			}
+		},
+
+		GENERIC( 2000 ) {
+			@Override
+			String upsert( String table, String columns, String values, List<String> columnNames, String [] keyColumns ) {
+				throw new PersistenceException( "Upserts are not supported by the generic dialect" );
+			}
+		};
+
+		private final int maxBindParameters;
+
+		private Dialect( int maxBindParameters ) {
+			this.maxBindParameters = maxBindParameters;
+		}
+
+		abstract String upsert( String table, String columns, String values, List<String> columnNames, String [] keyColumns );
+
+		static String insert( String table, String columns, String values ) {
+			return "INSERT INTO " + table + " (" + columns + ") VALUES " + values;
+		}
+
+		static List<String> updatedColumns( List<String> columnNames, String [] keyColumns ) {
+			List<String> keys = Arrays.asList( keyColumns );
+			return columnNames.stream().filter( column -> !keys.contains( column ) ).collect( Collectors.toList() );
+		}
+
+		/**
+		 * Resolve the dialect from the {@code databaseId} of the configuration,
+		 * or from the product name of the database.
+		 */
+		static Dialect resolve( Configuration configuration, DataSource dataSource ) {
+			Dialect dialect = of( configuration.getDatabaseId() );
+			if ( dialect != GENERIC ) {
+				return dialect;
+			}
+			try ( Connection connection = dataSource.getConnection() ) {
+				return of( connection.getMetaData().getDatabaseProductName() );
+			} catch ( SQLException e ) {
+				LOGGER.warn( () -> "Failed to read the database product name: " + e.getMessage() );
+				return GENERIC;
+			}
+		}
+
+		static Dialect of( String name ) {
+			String lowerName = name == null ? "" : name.toLowerCase( Locale.ENGLISH );
+			if ( lowerName.contains( "h2" ) ) {
+				return H2;
+			}
+			if ( lowerName.contains( "mysql" ) || lowerName.contains( "mariadb" ) ) {
+				return MYSQL;
+			}
+			if ( lowerName.contains( "postgres" ) ) {
+				return POSTGRESQL;
+			}
+			return GENERIC;
+		}
+
+	}
+
+	private final Configuration configuration;
+	private final Dialect dialect;
+	private final long maxPacketSize;
+
+	private MyBatisMapperBulkWriter( Configuration configuration, Dialect dialect, long maxPacketSize ) {
+		this.configuration = configuration;
+		this.dialect = dialect;
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	/**
+	 * Resolve the dialect and register the bulk statements of the single-row
+	 * inserts of the configuration.
+	 *
+	 * @param configuration the refactored configuration
+	 * @param dataSource the data source to read the database limits from
+	 * @return the bulk writer
+	 */
+	static MyBatisMapperBulkWriter create( Configuration configuration, DataSource dataSource ) {
+		Dialect dialect = Dialect.resolve( configuration, dataSource );
+		long maxPacketSize = Long.MAX_VALUE;
+		if ( dialect == Dialect.MYSQL ) {
+			try ( Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+					ResultSet rs = statement.executeQuery( "SELECT @@max_allowed_packet" ) ) {
+				maxPacketSize = rs.next() ? rs.getLong( 1 ) : maxPacketSize;
+			} catch ( SQLException e ) {
+				LOGGER.warn( () -> "Failed to read the maximum packet size for the bulk inserts: " + e.getMessage() );
+			}
+		}
+		MyBatisMapperBulkWriter writer = new MyBatisMapperBulkWriter( configuration, dialect, maxPacketSize );
+		int count = 0;
+		for ( Object statement : new ArrayList<>( configuration.getMappedStatements() ) ) {
+			if ( statement instanceof MappedStatement && writer.register( ( MappedStatement ) statement ) ) {
+				count ++;
+			}
+		}
+		Dialect resolved = dialect;
+		int registered = count;
+		LOGGER.debug( () -> "Registered " + registered + " bulk insert statements of dialect " + resolved );
+		return writer;
+	}
+
+	private boolean register( MappedStatement statement ) {
+		if ( statement.getSqlCommandType() != SqlCommandType.INSERT || statement.getStatementType() != StatementType.PREPARED
+				|| statement.getId().endsWith( BULK_SUFFIX ) || configuration.hasStatement( statement.getId() + BULK_SUFFIX, false )
+				|| !( statement.getKeyGenerator() instanceof Jdbc3KeyGenerator || statement.getKeyGenerator() instanceof NoKeyGenerator ) ) {
+			return false;
+		}
+		MappedStatement.Builder builder = new MappedStatement.Builder( configuration, statement.getId() + BULK_SUFFIX,
+				new BulkSqlSource( statement ), SqlCommandType.INSERT );
+		builder.resource( statement.getResource() ).databaseId( statement.getDatabaseId() ).lang( statement.getLang() )
+				.timeout( statement.getTimeout() ).statementType( StatementType.PREPARED ).cache( statement.getCache() )
+				.flushCacheRequired( statement.isFlushCacheRequired() ).useCache( false ).keyGenerator( statement.getKeyGenerator() );
+		if ( statement.getKeyProperties() != null ) {
+			builder.keyProperty( String.join( ",", statement.getKeyProperties() ) );
+		}
+		if ( statement.getKeyColumns() != null ) {
+			builder.keyColumn( String.join( ",", statement.getKeyColumns() ) );
+		}
+		configuration.addMappedStatement( builder.build() );
+		return true;
+	}
+
+	/**
+	 * @return the dialect of the bulk statements
+	 */
+	public Dialect getDialect() {
+		return dialect;
+	}
+
+	/**
+	 * Insert the rows with multi-row inserts.
+	 *
+	 * @param sqlSession the session to execute in, usually a {@code SqlSessionTemplate}
+	 * @param statement the id of a single-row insert statement
+	 * @param rows the rows to insert, the parameter objects of the statement
+	 * @return the number of inserted rows
+	 */
+	public int insertAll( SqlSession sqlSession, String statement, Collection<?> rows ) {
+		return write( sqlSession, statement, rows, null );
+	}
+
+	/**
+	 * Insert the rows, or update the existing rows of the same keys, with the
+	 * multi-row upserts of the dialect.
+	 *
+	 * @param sqlSession the session to execute in, usually a {@code SqlSessionTemplate}
+	 * @param statement the id of a single-row insert statement
+	 * @param rows the rows to upsert, the parameter objects of the statement
+	 * @param keyColumns the unique key columns, the key columns of the
+	 *        statement by default, ignored by MySQL
+	 * @return the number of affected rows as reported by the driver
+	 */
+	public int upsertAll( SqlSession sqlSession, String statement, Collection<?> rows, String ... keyColumns ) {
+		return write( sqlSession, statement, rows, keyColumns == null ? new String[ 0 ] : keyColumns );
+	}
+
+	private int write( SqlSession sqlSession, String statement, Collection<?> rows, String [] keyColumns ) {
+		String bulkStatement = statement + BULK_SUFFIX;
+		if ( !configuration.hasStatement( bulkStatement, false ) ) {
+			throw new PersistenceException( "Statement '" + statement + "' is not a single-row insert with a bulk statement" );
+		}
+		MappedStatement original = configuration.getMappedStatement( statement );
+		if ( keyColumns != null && keyColumns.length == 0 && dialect != Dialect.MYSQL ) {
+			keyColumns = original.getKeyColumns();
+			if ( keyColumns == null ) {
+				throw new PersistenceException( "Upserts of statement '" + statement + "' require the key columns" );
+			}
+		}
+		TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+		int affected = 0;
+		BulkRows chunk = null;
+		for ( Object row : rows ) {
+			BoundSql boundSql = original.getBoundSql( row );
+			if ( chunk != null && ( chunk.size() >= chunk.maxRows || !chunk.sql.equals( boundSql.getSql() ) ) ) {
+				affected += sqlSession.insert( bulkStatement, chunk );
+				chunk = null;
+			}
+			if ( chunk == null ) {
+				chunk = new BulkRows( boundSql, keyColumns );
+			}
+			chunk.add( row, values( registry, boundSql, row ) );
+			if ( chunk.size() == ESTIMATE_SAMPLES || chunk.maxRows == 0 ) {
+				chunk.maxRows = maxRows( chunk );
+			}
+		}
+		if ( chunk != null ) {
+			affected += sqlSession.insert( bulkStatement, chunk );
+		}
+		return affected;
+	}
+
+	/**
+	 * Same resolution of the parameter values as the {@code DefaultParameterHandler}.
+	 */
+	private Object [] values( TypeHandlerRegistry registry, BoundSql boundSql, Object row ) {
+		List<ParameterMapping> mappings = boundSql.getParameterMappings();
+		Object [] values = new Object[ mappings.size() ];
+		for ( int i = 0; i < values.length; i ++ ) {
+			ParameterMapping mapping = mappings.get( i );
+			String property = mapping.getProperty();
+			if ( mapping.getMode() != ParameterMode.IN ) {
+				throw new PersistenceException( "Bulk inserts only support IN parameters" );
+			} else if ( boundSql.hasAdditionalParameter( property ) ) {
+				values[ i ] = boundSql.getAdditionalParameter( property );
+			} else if ( row == null ) {
+				values[ i ] = null;
+			} else if ( registry.hasTypeHandler( row.getClass() ) ) {
+				values[ i ] = row;
+			} else {
+				values[ i ] = configuration.newMetaObject( row ).getValue( property );
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * The number of rows per statement allowed by the bind parameters and the
+	 * packet size, estimated from the first rows.
+	 */
+	private int maxRows( BulkRows chunk ) {
+		int parameters = Math.max( 1, chunk.values.get( 0 ).length );
+		long rowBytes = 0;
+		for ( Object [] values : chunk.values ) {
+			rowBytes += chunk.tuple.length() + 2;
+			for ( Object value : values ) {
+				rowBytes += value instanceof CharSequence ? ( ( CharSequence ) value ).length() * 4 : value instanceof byte [] ? ( ( byte [] ) value ).length : 16;
+			}
+		}
+		rowBytes = Math.max( 1, rowBytes / chunk.values.size() );
+		long byPacket = maxPacketSize == Long.MAX_VALUE ? Long.MAX_VALUE : ( maxPacketSize * 3 / 4 - chunk.sql.length() ) / rowBytes;
+		return ( int ) Math.max( 1, Math.min( Math.min( MAX_ROWS, dialect.maxBindParameters / parameters ), byPacket ) );
+	}
+
+	/**
+	 * The rows of a bulk statement, the generated keys are assigned to its elements.
+	 */
+	private static final class BulkRows extends ArrayList<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String sql;
+		private final String table;
+		private final String columns;
+		private final String tuple;
+		private final String [] keyColumns;
+		private final List<ParameterMapping> mappings;
+		private final List<Object []> values = new ArrayList<>();
+		private int maxRows;
+
+		BulkRows( BoundSql boundSql, String [] keyColumns ) {
+			this.sql = boundSql.getSql();
+			Matcher matcher = SINGLE_ROW_INSERT.matcher( sql );
+			if ( !matcher.matches() ) {
+				throw new PersistenceException( "Not a single-row insert: " + sql );
+			}
+			this.table = matcher.group( 1 );
+			this.columns = matcher.group( 2 ).trim();
+			this.tuple = matcher.group( 3 );
+			this.keyColumns = keyColumns;
+			this.mappings = boundSql.getParameterMappings();
+		}
+
+		void add( Object row, Object [] rowValues ) {
+			add( row );
+			values.add( rowValues );
+		}
+
+	}
+
+	/**
+	 * Repeats the values tuple of the single-row insert for each row.
+	 */
+	private final class BulkSqlSource implements SqlSource {
+
+		private final MappedStatement statement;
+		private volatile BulkTemplate lastTemplate;
+
+		BulkSqlSource( MappedStatement statement ) {
+			this.statement = statement;
+		}
+
+		@Override
+		public BoundSql getBoundSql( Object parameterObject ) {
+			// Wrapped by the SqlSession like any collection parameter
+			if ( parameterObject instanceof Map && ( ( Map<?, ?> ) parameterObject ).containsKey( "collection" ) ) {
+				parameterObject = ( ( Map<?, ?> ) parameterObject ).get( "collection" );
+			}
+			if ( !( parameterObject instanceof BulkRows ) ) {
+				throw new PersistenceException( "Statement '" + statement.getId() + BULK_SUFFIX + "' must be executed by the bulk writer" );
+			}
+			BulkRows rows = ( BulkRows ) parameterObject;
+			BulkTemplate template = lastTemplate;
+			if ( template == null || !template.matches( rows ) ) {
+				// The full chunks of a write share the same template
+				this.lastTemplate = template = new BulkTemplate( rows );
+			}
+			BoundSql boundSql = new BoundSql( configuration, template.sql, template.mappings, parameterObject );
+			int index = 0;
+			for ( Object [] rowValues : rows.values ) {
+				for ( Object value : rowValues ) {
+					boundSql.setAdditionalParameter( BULK_PARAMETER + index ++, value );
+				}
+			}
+			return boundSql;
+		}
+
+	}
+
+	/**
+	 * The SQL and the parameter mappings of a number of rows of the same shape.
+	 */
+	private final class BulkTemplate {
+
+		private final String rowSql;
+		private final int rowCount;
+		private final String [] keyColumns;
+		private final String sql;
+		private final List<ParameterMapping> mappings;
+
+		BulkTemplate( BulkRows rows ) {
+			this.rowSql = rows.sql;
+			this.rowCount = rows.size();
+			this.keyColumns = rows.keyColumns;
+			StringBuilder values = new StringBuilder( ( rows.tuple.length() + 2 ) * rows.size() );
+			List<ParameterMapping> mappings = new ArrayList<>( rows.mappings.size() * rows.size() );
+			for ( int i = 0; i < rows.size(); i ++ ) {
+				values.append( i == 0 ? "" : ", " ).append( rows.tuple );
+				for ( ParameterMapping mapping : rows.mappings ) {
+					mappings.add( new ParameterMapping.Builder( configuration, BULK_PARAMETER + mappings.size(), mapping.getTypeHandler() )
+							.javaType( mapping.getJavaType() ).jdbcType( mapping.getJdbcType() ).numericScale( mapping.getNumericScale() ).build() );
+				}
+			}
+			if ( rows.keyColumns == null ) {
+				this.sql = Dialect.insert( rows.table, rows.columns, values.toString() );
+			} else {
+				List<String> columnNames = Stream.of( rows.columns.split( "," ) ).map( String::trim ).collect( Collectors.toList() );
+				this.sql = dialect.upsert( rows.table, rows.columns, values.toString(), columnNames, rows.keyColumns );
+			}
+			this.mappings = Collections.unmodifiableList( mappings );
+		}
+
+		boolean matches( BulkRows rows ) {
+			return rowCount == rows.size() && rowSql.equals( rows.sql ) && Arrays.equals( keyColumns, rows.keyColumns );
+		}
+
+	}
+
+}
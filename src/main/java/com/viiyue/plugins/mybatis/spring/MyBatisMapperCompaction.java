@@ -0,0 +1,719 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.TypeHandler;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * <p>
+ * Compaction of the structures held by the mapped statements, the result maps
+ * and the parameter maps of the refactored configuration, which are mostly
+ * duplicated across the mapper namespaces generated by mybatis-mapper.
+ *
+ * <p>
+ * The mapping objects built by MyBatis are walked once, without recursion:
+ * the mapped statements, the result maps and their discriminators, the
+ * parameter maps, the {@link ParameterMapping}s and the {@link ResultMapping}s.
+ * Only the values known to be immutable are shared: the strings (ids,
+ * columns, properties), the equal {@link ParameterMapping}s and
+ * {@link ResultMapping}s, and the unmodifiable lists of those mapping
+ * objects, such as the mappings of the result maps. Only the fields of the
+ * mapping classes, assigned by their builders, are ever written, the sets and
+ * the maps are left as is.
+ *
+ * <p>
+ * The static SQL sources ({@link StaticSqlSource} and {@link RawSqlSource},
+ * whose fields are final) are rebuilt instead: each statement gets a new
+ * {@link StaticSqlSource} with the shared SQL string and a shared
+ * unmodifiable list of the shared parameter mappings, which produces the same
+ * {@code BoundSql}. The dynamic SQL sources are left as is.
+ *
+ * <p>
+ * The retained size of the statements, as estimated by
+ * {@link #estimateRetainedSize(Configuration)}, is reported before and after
+ * the compaction. The statements parsed later, by {@code lazyMapperLoading}
+ * or by the reloading of the mapper files, are not compacted.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperCompaction {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperCompaction.class );
+	private static final boolean COMPACT_STRINGS = !System.getProperty( "java.specification.version" ).startsWith( "1." );
+	private static final Class<?> [] OPAQUE_TYPES = { Configuration.class, TypeHandler.class, Class.class, Log.class, Cache.class, LanguageDriver.class,
+			ObjectFactory.class, ObjectWrapperFactory.class, ReflectorFactory.class, Enum.class, Number.class, Boolean.class, Character.class };
+	private static final ClassValue<Boolean> OPAQUE = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue( Class<?> type ) {
+			return isOpaque( type );
+		}
+	};
+	private static final ClassValue<Field []> FIELDS = new ClassValue<Field []>() {
+		@Override
+		protected Field [] computeValue( Class<?> type ) {
+			return fields( type );
+		}
+	};
+	// The mapping classes built by MyBatis, immutable once built
+	private static final Set<Class<?>> MAPPING_TYPES = new HashSet<>( Arrays.asList( MappedStatement.class, ResultMap.class, Discriminator.class,
+			ResultMapping.class, ParameterMap.class, ParameterMapping.class ) );
+	private static final ClassValue<Field []> MAPPING_FIELDS = new ClassValue<Field []>() {
+		@Override
+		protected Field [] computeValue( Class<?> type ) {
+			return mappingFields( type );
+		}
+	};
+	private static final ClassValue<Long> SHALLOW_SIZES = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue( Class<?> type ) {
+			return shallowSize( type );
+		}
+	};
+
+	private final Map<String, String> strings = new HashMap<>();
+	private final Map<List<Object>, ParameterMapping> parameterMappings = new HashMap<>();
+	private final Map<List<Object>, ResultMapping> resultMappings = new HashMap<>();
+	private final Map<IdentityKey, List<Object>> lists = new HashMap<>();
+	// The compacted mapping objects and lists, by their shared equivalent
+	private final Map<Object, Object> compacted = new IdentityHashMap<>();
+	private final Result result = new Result();
+
+	private MyBatisMapperCompaction() {
+	}
+
+	/**
+	 * Compact the statements of the configuration.
+	 *
+	 * @param configuration the refactored configuration
+	 * @return the outcome of the compaction
+	 */
+	static Result compact( Configuration configuration ) {
+		long start = System.nanoTime();
+		List<Object> roots = roots( configuration );
+		MyBatisMapperCompaction compaction = new MyBatisMapperCompaction();
+		Result result = compaction.result;
+		result.retainedSizeBefore = estimateRetainedSize( roots );
+		for ( Object root : roots ) {
+			compaction.compact( root );
+			if ( root instanceof MappedStatement ) {
+				compaction.compactSqlSource( ( MappedStatement ) root );
+				result.statementCount ++;
+			}
+		}
+		result.retainedSizeAfter = estimateRetainedSize( roots );
+		result.nanos = System.nanoTime() - start;
+		LOGGER.debug( () -> result.toString() );
+		return result;
+	}
+
+	/**
+	 * Estimate the retained size of the mapped statements, the result maps and
+	 * the parameter maps of the configuration, excluding the shared
+	 * infrastructure. The shallow sizes assume a 64-bit JVM with compressed
+	 * references, the sizes of the JDK collections are approximated from their
+	 * number of elements.
+	 *
+	 * @param configuration the configuration
+	 * @return the estimated retained size in bytes
+	 */
+	public static long estimateRetainedSize( Configuration configuration ) {
+		return estimateRetainedSize( roots( configuration ) );
+	}
+
+	private static List<Object> roots( Configuration configuration ) {
+		Set<Object> roots = Collections.newSetFromMap( new IdentityHashMap<>() );
+		// The values of StrictMap also contain the ambiguous short names
+		for ( Object object : configuration.getMappedStatements() ) {
+			if ( object instanceof MappedStatement ) {
+				roots.add( object );
+			}
+		}
+		for ( Object object : configuration.getResultMaps() ) {
+			if ( object instanceof ResultMap ) {
+				roots.add( object );
+			}
+		}
+		for ( Object object : configuration.getParameterMaps() ) {
+			if ( object instanceof ParameterMap ) {
+				roots.add( object );
+			}
+		}
+		return new ArrayList<>( roots );
+	}
+
+	/**
+	 * Walk the mapping objects reachable from the root, depth first and
+	 * without recursion, and replace their strings, mappings and unmodifiable
+	 * lists by the shared equivalents once their own references are compacted.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void compact( Object root ) {
+		Set<Object> expanded = Collections.newSetFromMap( new IdentityHashMap<>() );
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push( root );
+		while ( !pending.isEmpty() ) {
+			Object object = pending.peek();
+			if ( compacted.containsKey( object ) ) {
+				pending.pop();
+			} else if ( expanded.add( object ) ) {
+				// Compacted before the object itself
+				for ( Object reference : references( object ) ) {
+					if ( !compacted.containsKey( reference ) && !expanded.contains( reference ) ) {
+						pending.push( reference );
+					}
+				}
+			} else {
+				pending.pop();
+				compacted.put( object, object instanceof List ? compactList( ( List<Object> ) object ) : compactMapping( object ) );
+			}
+		}
+	}
+
+	/**
+	 * The mapping objects and the unmodifiable lists referenced by a mapping
+	 * object or by an unmodifiable list.
+	 */
+	private static List<Object> references( Object object ) {
+		List<Object> references = new ArrayList<>();
+		if ( object instanceof List ) {
+			for ( Object element : ( List<?> ) object ) {
+				if ( isMapping( element ) || isUnmodifiableList( element ) ) {
+					references.add( element );
+				}
+			}
+			return references;
+		}
+		for ( Field field : MAPPING_FIELDS.get( object.getClass() ) ) {
+			Object value = get( field, object );
+			if ( isMapping( value ) || isUnmodifiableList( value ) ) {
+				references.add( value );
+			}
+		}
+		return references;
+	}
+
+	private Object compactMapping( Object mapping ) {
+		for ( Field field : MAPPING_FIELDS.get( mapping.getClass() ) ) {
+			Object value = get( field, mapping );
+			if ( value instanceof String [] ) {
+				// Owned by the statement, only its strings are shared
+				String [] array = ( String [] ) value;
+				for ( int i = 0; i < array.length; i ++ ) {
+					array[ i ] = shareString( array[ i ] );
+				}
+				continue;
+			}
+			Object shared = value instanceof String ? shareString( ( String ) value ) : value == null ? null : compacted.getOrDefault( value, value );
+			if ( shared != value ) {
+				try {
+					field.set( mapping, shared );
+				} catch ( IllegalAccessException e ) {
+					// Not accessible, left as is
+				}
+			}
+		}
+		if ( mapping instanceof ParameterMapping ) {
+			return share( parameterMappings, parameterMappingKey( ( ParameterMapping ) mapping ), ( ParameterMapping ) mapping );
+		}
+		if ( mapping instanceof ResultMapping ) {
+			return share( resultMappings, resultMappingKey( ( ResultMapping ) mapping ), ( ResultMapping ) mapping );
+		}
+		return mapping;
+	}
+
+	/**
+	 * Replace a static SQL source by a {@link StaticSqlSource} holding the
+	 * shared SQL string and parameter mappings. A {@link RawSqlSource} only
+	 * delegates to the {@link StaticSqlSource} it wraps.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void compactSqlSource( MappedStatement statement ) {
+		// The reflectors of the configuration are cached, unlike those of SystemMetaObject
+		Configuration configuration = statement.getConfiguration();
+		SqlSource sqlSource = statement.getSqlSource();
+		if ( sqlSource.getClass() == RawSqlSource.class ) {
+			sqlSource = ( SqlSource ) configuration.newMetaObject( sqlSource ).getValue( "sqlSource" );
+		}
+		if ( sqlSource == null || sqlSource.getClass() != StaticSqlSource.class ) {
+			return;
+		}
+		MetaObject metaObject = configuration.newMetaObject( sqlSource );
+		String sql = ( String ) metaObject.getValue( "sql" );
+		List<Object> parameterMappings = ( List<Object> ) metaObject.getValue( "parameterMappings" );
+		if ( sql == null || parameterMappings == null ) {
+			return;
+		}
+		List<Object> elements = new ArrayList<>( parameterMappings.size() );
+		for ( Object parameterMapping : parameterMappings ) {
+			compact( parameterMapping );
+			elements.add( compacted.getOrDefault( parameterMapping, parameterMapping ) );
+		}
+		// The list of the source is mutable, only an unmodifiable copy is shared
+		List<Object> shared = lists.computeIfAbsent( new IdentityKey( elements, false ), key -> Collections.unmodifiableList( elements ) );
+		if ( shared != elements ) {
+			result.sharedCollections ++;
+		}
+		SqlSource compactedSource = new StaticSqlSource( configuration, shareString( sql ), ( List<ParameterMapping> ) ( List<?> ) shared );
+		configuration.newMetaObject( statement ).setValue( "sqlSource", compactedSource );
+		result.sqlSources ++;
+	}
+
+	private List<Object> compactList( List<Object> list ) {
+		List<Object> elements = new ArrayList<>( list.size() );
+		boolean modified = false;
+		for ( Object element : list ) {
+			Object shared = element instanceof String ? shareString( ( String ) element ) : element == null ? null : compacted.getOrDefault( element, element );
+			elements.add( shared );
+			modified |= shared != element;
+		}
+		IdentityKey key = new IdentityKey( elements, false );
+		List<Object> shared = lists.get( key );
+		if ( shared == null ) {
+			// The list itself if not modified, it is already unmodifiable
+			shared = modified ? Collections.unmodifiableList( elements ) : list;
+			lists.put( key, shared );
+		}
+		if ( shared != list ) {
+			result.sharedCollections ++;
+		}
+		return shared;
+	}
+
+	private String shareString( String string ) {
+		if ( string == null ) {
+			return null;
+		}
+		String shared = strings.putIfAbsent( string, string );
+		if ( shared != null && shared != string ) {
+			result.sharedStrings ++;
+			return shared;
+		}
+		return string;
+	}
+
+	private <K, V> V share( Map<K, V> shared, K key, V value ) {
+		V previous = shared.putIfAbsent( key, value );
+		if ( previous == null ) {
+			return value;
+		}
+		if ( value instanceof ParameterMapping ) {
+			result.sharedParameterMappings ++;
+		} else if ( value instanceof ResultMapping ) {
+			result.sharedResultMappings ++;
+		}
+		return previous;
+	}
+
+	private static List<Object> parameterMappingKey( ParameterMapping mapping ) {
+		return Arrays.asList( mapping.getProperty(), mapping.getMode(), mapping.getJavaType(), mapping.getJdbcType(), mapping.getNumericScale(),
+				new Identity( mapping.getTypeHandler() ), mapping.getResultMapId(), mapping.getJdbcTypeName(), mapping.getExpression() );
+	}
+
+	private static List<Object> resultMappingKey( ResultMapping mapping ) {
+		// The composites are already shared, ResultMapping#equals only compares the property
+		return Arrays.asList( mapping.getProperty(), mapping.getColumn(), mapping.getJavaType(), mapping.getJdbcType(),
+				new Identity( mapping.getTypeHandler() ), mapping.getNestedResultMapId(), mapping.getNestedQueryId(),
+				mapping.getNotNullColumns(), mapping.getColumnPrefix(), mapping.getFlags(),
+				new Identity( mapping.getComposites() ), mapping.getResultSet(), mapping.getForeignColumn(), mapping.isLazy() );
+	}
+
+	private static boolean isOpaque( Object value ) {
+		return OPAQUE.get( value.getClass() );
+	}
+
+	/**
+	 * The shared infrastructure and the values without reference to compact.
+	 */
+	private static boolean isOpaque( Class<?> type ) {
+		for ( Class<?> opaque : OPAQUE_TYPES ) {
+			if ( opaque.isAssignableFrom( type ) ) {
+				return true;
+			}
+		}
+		if ( type.isArray() ) {
+			return type.getComponentType().isPrimitive();
+		}
+		if ( type == String.class || Collection.class.isAssignableFrom( type ) || Map.class.isAssignableFrom( type ) ) {
+			return false;
+		}
+		String name = type.getName();
+		return type.isSynthetic() || name.contains( "$$Lambda" ) || name.startsWith( "javax." ) || name.startsWith( "jdk." ) || name.startsWith( "sun." )
+				|| name.startsWith( "java." ) && !name.startsWith( "java.util." );
+	}
+
+	private static boolean isImmutable( Object collection ) {
+		String name = collection.getClass().getName();
+		return name.startsWith( "java.util.Collections$Unmodifiable" ) || name.startsWith( "java.util.Collections$Empty" )
+				|| name.startsWith( "java.util.Collections$Singleton" ) || name.startsWith( "java.util.ImmutableCollections$" );
+	}
+
+	private static boolean isMapping( Object value ) {
+		return value != null && MAPPING_TYPES.contains( value.getClass() );
+	}
+
+	private static boolean isUnmodifiableList( Object value ) {
+		return value instanceof List && value.getClass().getName().startsWith( "java.util.Collections$Unmodifiable" );
+	}
+
+	private static Object get( Field field, Object object ) {
+		try {
+			return field.get( object );
+		} catch ( IllegalAccessException e ) {
+			return null;
+		}
+	}
+
+	private static Field [] fields( Class<?> type ) {
+		List<Field> fields = new ArrayList<>();
+		for ( Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass() ) {
+			if ( current.getName().startsWith( "java." ) ) {
+				break;
+			}
+			for ( Field field : current.getDeclaredFields() ) {
+				if ( !Modifier.isStatic( field.getModifiers() ) && !field.getType().isPrimitive() ) {
+					try {
+						field.setAccessible( true );
+						fields.add( field );
+					} catch ( RuntimeException e ) {
+						// Not accessible, left as is
+					}
+				}
+			}
+		}
+		return fields.toArray( new Field[ fields.size() ] );
+	}
+
+	/**
+	 * The fields of a mapping class holding strings, string arrays, mapping
+	 * objects or lists, assigned by its builder and never final.
+	 */
+	private static Field [] mappingFields( Class<?> type ) {
+		List<Field> fields = new ArrayList<>();
+		for ( Field field : type.getDeclaredFields() ) {
+			int modifiers = field.getModifiers();
+			Class<?> fieldType = field.getType();
+			if ( !Modifier.isStatic( modifiers ) && !Modifier.isFinal( modifiers ) && ( fieldType == String.class || fieldType == String [].class
+					|| fieldType == List.class || MAPPING_TYPES.contains( fieldType ) ) ) {
+				try {
+					field.setAccessible( true );
+					fields.add( field );
+				} catch ( RuntimeException e ) {
+					// Not accessible, left as is
+				}
+			}
+		}
+		return fields.toArray( new Field[ fields.size() ] );
+	}
+
+	private static long estimateRetainedSize( List<Object> roots ) {
+		Set<Object> visited = Collections.newSetFromMap( new IdentityHashMap<>() );
+		Deque<Object> pending = new ArrayDeque<>( roots );
+		long size = 0;
+		while ( !pending.isEmpty() ) {
+			Object object = pending.pop();
+			if ( ( isOpaque( object ) && !object.getClass().isArray() ) || !visited.add( object ) ) {
+				continue;
+			}
+			Class<?> type = object.getClass();
+			if ( object instanceof String ) {
+				int length = ( ( String ) object ).length();
+				size += 24 + align( 16 + ( COMPACT_STRINGS ? length : length * 2 ) );
+			} else if ( type.isArray() ) {
+				int length = Array.getLength( object );
+				Class<?> componentType = type.getComponentType();
+				size += align( 16 + length * ( componentType.isPrimitive() ? primitiveSize( componentType ) : 4L ) );
+				if ( !componentType.isPrimitive() ) {
+					for ( Object element : ( Object [] ) object ) {
+						pushIfPresent( pending, element );
+					}
+				}
+			} else if ( object instanceof Collection ) {
+				Collection<?> collection = ( Collection<?> ) object;
+				size += collectionSize( collection, collection.size() );
+				collection.forEach( element -> pushIfPresent( pending, element ) );
+			} else if ( object instanceof Map ) {
+				Map<?, ?> map = ( Map<?, ?> ) object;
+				size += collectionSize( map, map.size() );
+				map.forEach( ( key, value ) -> {
+					pushIfPresent( pending, key );
+					pushIfPresent( pending, value );
+				} );
+			} else if ( !type.getName().startsWith( "java." ) ) {
+				size += SHALLOW_SIZES.get( type );
+				for ( Field field : FIELDS.get( type ) ) {
+					try {
+						pushIfPresent( pending, field.get( object ) );
+					} catch ( IllegalAccessException e ) {
+						// Not counted
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	private static void pushIfPresent( Deque<Object> pending, Object object ) {
+		if ( object != null ) {
+			pending.push( object );
+		}
+	}
+
+	private static long collectionSize( Object collection, int size ) {
+		if ( size == 0 && isImmutable( collection ) ) {
+			return 16;
+		}
+		long wrapper = isImmutable( collection ) ? 16 : 0;
+		if ( collection instanceof List || collection.getClass().getName().startsWith( "java.util.ArrayDeque" ) ) {
+			return wrapper + 24 + align( 16 + 4L * size );
+		}
+		// Hash based: the set, the map, the table and the nodes
+		int table = Integer.highestOneBit( Math.max( 1, ( int ) ( size / 0.75f ) ) * 2 - 1 );
+		return wrapper + ( collection instanceof Set ? 16 : 0 ) + 48 + align( 16 + 4L * table ) + 32L * size;
+	}
+
+	private static long shallowSize( Class<?> type ) {
+		long size = 12;
+		for ( Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass() ) {
+			for ( Field field : current.getDeclaredFields() ) {
+				if ( !Modifier.isStatic( field.getModifiers() ) ) {
+					size += field.getType().isPrimitive() ? primitiveSize( field.getType() ) : 4;
+				}
+			}
+		}
+		return align( size );
+	}
+
+	private static long primitiveSize( Class<?> type ) {
+		if ( type == long.class || type == double.class ) {
+			return 8;
+		}
+		if ( type == int.class || type == float.class ) {
+			return 4;
+		}
+		return type == short.class || type == char.class ? 2 : 1;
+	}
+
+	private static long align( long size ) {
+		return ( size + 7 ) & ~7L;
+	}
+
+	/**
+	 * Compares the referenced object by identity.
+	 */
+	private static final class Identity {
+
+		private final Object object;
+
+		Identity( Object object ) {
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals( Object obj ) {
+			return obj instanceof Identity && ( ( Identity ) obj ).object == object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode( object );
+		}
+
+	}
+
+	/**
+	 * Compares the shared elements of a collection by identity, in order for
+	 * the lists. The elements are already shared, so equal strings are the
+	 * same instance.
+	 */
+	private static final class IdentityKey {
+
+		private final List<Object> elements;
+		private final boolean unordered;
+		private final int hash;
+
+		IdentityKey( List<Object> elements, boolean unordered ) {
+			this.elements = elements;
+			this.unordered = unordered;
+			int hash = unordered ? 1 : 0;
+			for ( Object element : elements ) {
+				hash = unordered ? hash + System.identityHashCode( element ) : 31 * hash + System.identityHashCode( element );
+			}
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals( Object obj ) {
+			if ( !( obj instanceof IdentityKey ) ) {
+				return false;
+			}
+			IdentityKey other = ( IdentityKey ) obj;
+			if ( other.unordered != unordered || other.elements.size() != elements.size() ) {
+				return false;
+			}
+			if ( unordered ) {
+				Set<Object> set = Collections.newSetFromMap( new IdentityHashMap<>() );
+				set.addAll( elements );
+				return set.containsAll( other.elements );
+			}
+			for ( int i = 0; i < elements.size(); i ++ ) {
+				if ( elements.get( i ) != other.elements.get( i ) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	/**
+	 * The outcome of a compaction
+	 */
+	public static final class Result {
+
+		private int statementCount;
+		private long retainedSizeBefore;
+		private long retainedSizeAfter;
+		private int sharedStrings;
+		private int sharedParameterMappings;
+		private int sharedResultMappings;
+		private int sharedCollections;
+		private int sqlSources;
+		private long nanos;
+
+		private Result() {
+		}
+
+		/**
+		 * @return the number of compacted statements
+		 */
+		public int getStatementCount() {
+			return statementCount;
+		}
+
+		/**
+		 * @return the estimated retained size of the statements before the
+		 *         compaction, in bytes
+		 */
+		public long getRetainedSizeBefore() {
+			return retainedSizeBefore;
+		}
+
+		/**
+		 * @return the estimated retained size of the statements after the
+		 *         compaction, in bytes
+		 */
+		public long getRetainedSizeAfter() {
+			return retainedSizeAfter;
+		}
+
+		/**
+		 * @return the number of string references replaced by a shared string
+		 */
+		public int getSharedStringCount() {
+			return sharedStrings;
+		}
+
+		/**
+		 * @return the number of parameter mappings replaced by a shared one
+		 */
+		public int getSharedParameterMappingCount() {
+			return sharedParameterMappings;
+		}
+
+		/**
+		 * @return the number of result mappings replaced by a shared one
+		 */
+		public int getSharedResultMappingCount() {
+			return sharedResultMappings;
+		}
+
+		/**
+		 * @return the number of unmodifiable lists replaced by a shared one
+		 */
+		public int getSharedCollectionCount() {
+			return sharedCollections;
+		}
+
+		/**
+		 * @return the number of static SQL sources rebuilt with the shared SQL
+		 *         and parameter mappings
+		 */
+		public int getSqlSourceCount() {
+			return sqlSources;
+		}
+
+		/**
+		 * @return the duration of the compaction, including the estimations,
+		 *         in milliseconds
+		 */
+		public long getTimeMillis() {
+			return TimeUnit.NANOSECONDS.toMillis( nanos );
+		}
+
+		@Override
+		public String toString() {
+			long saved = retainedSizeBefore - retainedSizeAfter;
+			return "Compacted " + statementCount + " statements in " + getTimeMillis() + "ms: retained size " + retainedSizeBefore / 1024 + "KB -> "
+					+ retainedSizeAfter / 1024 + "KB (-" + ( retainedSizeBefore == 0 ? 0 : saved * 100 / retainedSizeBefore ) + "%), " + sharedStrings
+					+ " strings, " + sharedParameterMappings + " parameter mappings, " + sharedResultMappings + " result mappings and "
+					+ sharedCollections + " lists shared, " + sqlSources + " static SQL sources rebuilt";
+		}
+
+	}
+
+}
@@ -0,0 +1,616 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.io.Resources;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>
+ * Concurrent second-level cache, bounded by the number of entries and
+ * optionally by their total weight, with a TinyLFU admission policy and an
+ * optional time to live.
+ *
+ * <p>
+ * The entries are spread over {@code concurrencyLevel} segments, each one
+ * guarded by its own lock and evicting in LRU order. When a segment is full,
+ * a new entry is only admitted if it has been requested more often than the
+ * LRU victim, according to a frequency sketch of the recent requests, so that
+ * a burst of one-off queries can not flush the hot entries.
+ *
+ * <p>
+ * The weight of an entry is its number of rows, or its serialized size in
+ * bytes when the values are stored off-heap. Off-heap values are serialized
+ * into direct buffers, every read returns a new copy; on-heap values are
+ * shared like a read-only MyBatis cache.
+ *
+ * <p>
+ * Usable in the mapper files as {@code <cache type="...MyBatisMapperConcurrentCache">}
+ * with the properties {@code maximumSize}, {@code maximumWeight},
+ * {@code expireAfterWrite} (milliseconds), {@code concurrencyLevel} and
+ * {@code offHeap}, or selected per namespace with
+ * {@link MyBatisMapperSqlSessionFactoryBean#setConcurrentCacheNamespaces(String...)},
+ * which carries over the settings of the replaced {@code <cache>}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperConcurrentCache implements Cache, InitializingObject {
+
+	private final String id;
+	private long maximumSize = 10000;
+	private long maximumWeight = Long.MAX_VALUE;
+	private long expireAfterWrite;
+	private int concurrencyLevel = 16;
+	private boolean offHeap;
+	private Segment [] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	public MyBatisMapperConcurrentCache( String id ) {
+		this.id = id;
+	}
+
+	public void setMaximumSize( long maximumSize ) {
+		this.maximumSize = maximumSize;
+	}
+
+	public void setMaximumWeight( long maximumWeight ) {
+		this.maximumWeight = maximumWeight;
+	}
+
+	public void setExpireAfterWrite( long expireAfterWrite ) {
+		this.expireAfterWrite = expireAfterWrite;
+	}
+
+	public void setConcurrencyLevel( int concurrencyLevel ) {
+		this.concurrencyLevel = concurrencyLevel;
+	}
+
+	public void setOffHeap( boolean offHeap ) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @return the maximum number of entries
+	 */
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @return the time to live of the entries in milliseconds, {@code 0} if none
+	 */
+	public long getExpireAfterWrite() {
+		return expireAfterWrite;
+	}
+
+	/**
+	 * Apply the properties of the same names as the setters.
+	 *
+	 * @param properties the cache properties
+	 */
+	void setProperties( Properties properties ) {
+		if ( properties == null ) {
+			return;
+		}
+		for ( String name : properties.stringPropertyNames() ) {
+			String value = properties.getProperty( name ).trim();
+			switch ( name ) {
+				case "maximumSize":
+					setMaximumSize( Long.parseLong( value ) );
+					break;
+				case "maximumWeight":
+					setMaximumWeight( Long.parseLong( value ) );
+					break;
+				case "expireAfterWrite":
+					setExpireAfterWrite( Long.parseLong( value ) );
+					break;
+				case "concurrencyLevel":
+					setConcurrencyLevel( Integer.parseInt( value ) );
+					break;
+				case "offHeap":
+					setOffHeap( Boolean.parseBoolean( value ) );
+					break;
+				default:
+					throw new CacheException( "Unknown property '" + name + "' of cache '" + id + "'" );
+			}
+		}
+	}
+
+	@Override
+	public void initialize() {
+		if ( maximumSize <= 0 || maximumWeight <= 0 || concurrencyLevel <= 0 || expireAfterWrite < 0 ) {
+			throw new CacheException( "Invalid bounds of cache '" + id + "'" );
+		}
+		int count = 1;
+		while ( count < concurrencyLevel && count < maximumSize ) {
+			count <<= 1;
+		}
+		this.segments = new Segment[ count ];
+		for ( int i = 0; i < count; i ++ ) {
+			segments[ i ] = new Segment( ceilDiv( maximumSize, count ), maximumWeight == Long.MAX_VALUE ? Long.MAX_VALUE : ceilDiv( maximumWeight, count ) );
+		}
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public void putObject( Object key, Object value ) {
+		Object stored = value;
+		long weight;
+		if ( offHeap && value != null ) {
+			byte [] bytes = serialize( value );
+			stored = ( ( ByteBuffer ) ByteBuffer.allocateDirect( bytes.length ).put( bytes ).flip() ).asReadOnlyBuffer();
+			weight = bytes.length;
+		} else {
+			weight = value instanceof Collection ? Math.max( 1, ( ( Collection<?> ) value ).size() ) : 1;
+		}
+		long expireAt = expireAfterWrite > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( expireAfterWrite ) : 0;
+		segmentFor( key ).put( key, new Node( stored, weight, expireAt ) );
+	}
+
+	@Override
+	public Object getObject( Object key ) {
+		Node node = segmentFor( key ).get( key );
+		if ( node == null ) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return offHeap && node.value != null ? deserialize( ( ByteBuffer ) node.value ) : node.value;
+	}
+
+	@Override
+	public Object removeObject( Object key ) {
+		Node node = segmentFor( key ).remove( key );
+		return node == null ? null : offHeap && node.value != null ? deserialize( ( ByteBuffer ) node.value ) : node.value;
+	}
+
+	@Override
+	public void clear() {
+		for ( Segment segment : segments ) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public int getSize() {
+		long size = 0;
+		for ( Segment segment : segments ) {
+			size += segment.size();
+		}
+		return ( int ) Math.min( Integer.MAX_VALUE, size );
+	}
+
+	/**
+	 * @return the number of requests that found a live entry
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of requests that found no live entry
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of entries evicted by the size or weight bounds
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the number of entries removed after their time to live
+	 */
+	public long getExpirationCount() {
+		return expirations.sum();
+	}
+
+	/**
+	 * @return the number of new entries rejected by the admission policy
+	 */
+	public long getRejectionCount() {
+		return rejections.sum();
+	}
+
+	/**
+	 * @return the ratio of the requests that found a live entry
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.sum();
+		long requestCount = hitCount + misses.sum();
+		return requestCount == 0 ? 1.0 : ( double ) hitCount / requestCount;
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		if ( this == o ) {
+			return true;
+		}
+		if ( !( o instanceof Cache ) ) {
+			return false;
+		}
+		return getId().equals( ( ( Cache ) o ).getId() );
+	}
+
+	@Override
+	public int hashCode() {
+		return getId().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "MyBatisMapperConcurrentCache [" + id + ", size=" + getSize() + ", hits=" + getHitCount() + ", misses="
+				+ getMissCount() + ", evictions=" + getEvictionCount() + ", expirations=" + getExpirationCount()
+				+ ", rejections=" + getRejectionCount() + "]";
+	}
+
+	private Segment segmentFor( Object key ) {
+		return segments[ spread( key.hashCode() ) & ( segments.length - 1 ) ];
+	}
+
+	private static int spread( int hash ) {
+		return ( hash ^ ( hash >>> 16 ) ) * 0x45D9F3B;
+	}
+
+	private static long ceilDiv( long value, long divisor ) {
+		return ( value + divisor - 1 ) / divisor;
+	}
+
+	private byte [] serialize( Object value ) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+			out.writeObject( ( Serializable ) value );
+		} catch ( IOException | ClassCastException e ) {
+			throw new CacheException( "Error serializing object.  Cause: " + e, e );
+		}
+		return bytes.toByteArray();
+	}
+
+	private Object deserialize( ByteBuffer buffer ) {
+		byte [] bytes = new byte[ buffer.remaining() ];
+		buffer.duplicate().get( bytes );
+		try ( ObjectInputStream in = new ClassLoaderObjectInputStream( new ByteArrayInputStream( bytes ) ) ) {
+			return in.readObject();
+		} catch ( IOException | ClassNotFoundException e ) {
+			throw new CacheException( "Error deserializing object.  Cause: " + e, e );
+		}
+	}
+
+	private static final class Node {
+
+		private final Object value;
+		private final long weight;
+		private final long expireAt;
+
+		Node( Object value, long weight, long expireAt ) {
+			this.value = value;
+			this.weight = weight;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired( long now ) {
+			return expireAt != 0 && now - expireAt >= 0;
+		}
+
+	}
+
+	private final class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final LinkedHashMap<Object, Node> entries = new LinkedHashMap<>( 16, 0.75f, true );
+		private final FrequencySketch sketch;
+		private final long maximumSize;
+		private final long maximumWeight;
+		private long weight;
+
+		Segment( long maximumSize, long maximumWeight ) {
+			this.maximumSize = maximumSize;
+			this.maximumWeight = maximumWeight;
+			this.sketch = new FrequencySketch( maximumSize );
+		}
+
+		Node get( Object key ) {
+			lock.lock();
+			try {
+				sketch.increment( key.hashCode() );
+				Node node = entries.get( key );
+				if ( node != null && node.isExpired( System.nanoTime() ) ) {
+					entries.remove( key );
+					weight -= node.weight;
+					expirations.increment();
+					return null;
+				}
+				return node;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void put( Object key, Node node ) {
+			lock.lock();
+			try {
+				int hash = key.hashCode();
+				sketch.increment( hash );
+				if ( node.weight > maximumWeight ) {
+					rejections.increment();
+					return;
+				}
+				Node previous = entries.put( key, node );
+				weight += node.weight - ( previous == null ? 0 : previous.weight );
+				long now = System.nanoTime();
+				Iterator<Map.Entry<Object, Node>> iterator = entries.entrySet().iterator();
+				while ( ( entries.size() > maximumSize || weight > maximumWeight ) && iterator.hasNext() ) {
+					Map.Entry<Object, Node> victim = iterator.next();
+					if ( victim.getKey().equals( key ) ) {
+						continue;
+					}
+					if ( victim.getValue().isExpired( now ) ) {
+						expirations.increment();
+					} else if ( previous == null && sketch.frequency( hash ) <= sketch.frequency( victim.getKey().hashCode() ) ) {
+						// TinyLFU admission, the candidate is not more popular than the victim
+						entries.remove( key );
+						weight -= node.weight;
+						rejections.increment();
+						return;
+					} else {
+						evictions.increment();
+					}
+					weight -= victim.getValue().weight;
+					iterator.remove();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		Node remove( Object key ) {
+			lock.lock();
+			try {
+				Node node = entries.remove( key );
+				if ( node != null ) {
+					weight -= node.weight;
+				}
+				return node;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				entries.clear();
+				weight = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long size() {
+			lock.lock();
+			try {
+				return entries.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+	}
+
+	/**
+	 * Count-min sketch of 4-bit counters, halved periodically so that the old
+	 * popularity fades out. Guarded by the lock of its segment.
+	 */
+	private static final class FrequencySketch {
+
+		private static final int [] SEEDS = { 0x97CB3127, 0xB0A8F5E1, 0x5B1A7F2D, 0xE3C7A9B5 };
+
+		private final byte [] counters;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch( long maximumSize ) {
+			int width = 16;
+			while ( width < maximumSize * 2 && width < ( 1 << 24 ) ) {
+				width <<= 1;
+			}
+			this.counters = new byte[ width * SEEDS.length ];
+			this.mask = width - 1;
+			this.sampleSize = width * 10;
+		}
+
+		void increment( int hash ) {
+			boolean added = false;
+			for ( int i = 0; i < SEEDS.length; i ++ ) {
+				int index = indexOf( hash, i );
+				if ( counters[ index ] < 15 ) {
+					counters[ index ] ++;
+					added = true;
+				}
+			}
+			if ( added && ++ additions >= sampleSize ) {
+				for ( int i = 0; i < counters.length; i ++ ) {
+					counters[ i ] >>= 1;
+				}
+				additions >>= 1;
+			}
+		}
+
+		int frequency( int hash ) {
+			int frequency = 15;
+			for ( int i = 0; i < SEEDS.length; i ++ ) {
+				frequency = Math.min( frequency, counters[ indexOf( hash, i ) ] );
+			}
+			return frequency;
+		}
+
+		private int indexOf( int hash, int row ) {
+			int h = ( hash ^ ( hash >>> 16 ) ) * SEEDS[ row ];
+			return row * ( mask + 1 ) + ( ( h ^ ( h >>> 15 ) ) & mask );
+		}
+
+	}
+
+	/**
+	 * <p>
+	 * Settings of a cache built by MyBatis for a {@code <cache>} element, read
+	 * from its standard decorators: the {@code size} of the LRU or FIFO
+	 * eviction, the {@code flushInterval}, {@code readOnly} and
+	 * {@code blocking}.
+	 *
+	 * <p>
+	 * The {@code size} becomes the {@code maximumSize}, the {@code flushInterval}
+	 * becomes the {@code expireAfterWrite}, the values are copied by a
+	 * {@link SerializedCache} unless {@code readOnly="true"} or off-heap, and
+	 * the {@link BlockingCache} is kept with its timeout.
+	 */
+	static final class Settings {
+
+		private Integer size;
+		private Long flushInterval;
+		private boolean readWrite;
+		private Long blockingTimeout;
+
+		/**
+		 * @param cache the cache built by MyBatis
+		 * @return the settings, or {@code null} if the cache has a custom
+		 *         implementation or eviction, which can not be carried over
+		 */
+		static Settings of( Cache cache ) {
+			Settings settings = new Settings();
+			while ( !( cache instanceof PerpetualCache ) ) {
+				if ( cache instanceof BlockingCache ) {
+					settings.blockingTimeout = ( Long ) read( cache, "timeout" );
+				} else if ( cache instanceof SerializedCache ) {
+					settings.readWrite = true;
+				} else if ( cache instanceof ScheduledCache ) {
+					settings.flushInterval = ( Long ) read( cache, "clearInterval" );
+				} else if ( cache instanceof FifoCache ) {
+					settings.size = ( Integer ) read( cache, "size" );
+				} else if ( cache instanceof LruCache ) {
+					// Captured by the key map that removes the eldest entries
+					Object keyMap = read( cache, "keyMap" );
+					Field size = ReflectionUtils.findField( keyMap.getClass(), "val$size" );
+					settings.size = size == null ? null : ( Integer ) read( keyMap, size );
+				} else if ( !( cache instanceof LoggingCache || cache instanceof SynchronizedCache ) ) {
+					return null;
+				}
+				cache = ( Cache ) read( cache, "delegate" );
+			}
+			return settings;
+		}
+
+		/**
+		 * Apply the settings to the concurrent cache, before its own properties.
+		 */
+		void applyTo( MyBatisMapperConcurrentCache cache ) {
+			if ( size != null ) {
+				cache.setMaximumSize( size );
+			}
+			if ( flushInterval != null ) {
+				cache.setExpireAfterWrite( flushInterval );
+			}
+		}
+
+		/**
+		 * @return the concurrent cache decorated like the original one
+		 */
+		Cache decorate( MyBatisMapperConcurrentCache cache ) {
+			Cache decorated = cache;
+			if ( readWrite && !cache.offHeap ) {
+				decorated = new SerializedCache( decorated );
+			}
+			if ( blockingTimeout != null ) {
+				BlockingCache blockingCache = new BlockingCache( decorated );
+				blockingCache.setTimeout( blockingTimeout );
+				decorated = blockingCache;
+			}
+			return decorated;
+		}
+
+		private static Object read( Object target, String name ) {
+			return read( target, ReflectionUtils.findField( target.getClass(), name ) );
+		}
+
+		private static Object read( Object target, Field field ) {
+			ReflectionUtils.makeAccessible( field );
+			return ReflectionUtils.getField( field, target );
+		}
+
+	}
+
+	/**
+	 * Resolves the classes with the MyBatis class loaders, like the serialized
+	 * cache of MyBatis.
+	 */
+	private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+		ClassLoaderObjectInputStream( InputStream in ) throws IOException {
+			super( in );
+		}
+
+		@Override
+		protected Class<?> resolveClass( ObjectStreamClass desc ) throws ClassNotFoundException {
+			return Resources.classForName( desc.getName() );
+		}
+
+	}
+
+}
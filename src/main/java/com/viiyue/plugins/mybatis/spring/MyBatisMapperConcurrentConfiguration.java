@@ -0,0 +1,846 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.CacheRefResolver;
+import org.apache.ibatis.builder.ResultMapResolver;
+import org.apache.ibatis.builder.annotation.MethodResolver;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.builder.xml.XMLStatementBuilder;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * <p>
+ * {@link Configuration} whose statements, result maps, parameter maps, key
+ * generators, caches, sql fragments and loaded resources are registered in
+ * concurrent maps instead of the {@code HashMap}s of MyBatis, so that mapper
+ * files can be registered while the statements are executed. The lookups never
+ * take a lock, the registrations are serialized.
+ *
+ * <p>
+ * A group of mapper files can be registered atomically with
+ * {@link #replaceMappers(Map, Elements)}: the files are parsed into a staging
+ * area only visible to the registering thread, which falls back to the
+ * registered elements for the references to the other namespaces, and the
+ * parsed elements are published only if all the files are parsed completely.
+ * The elements declared by the previous content of the same files are replaced
+ * or removed, while the elements registered by the mapper interfaces and by
+ * mybatis-mapper are never touched.
+ *
+ * <p>
+ * This is the only way to remove an element: the registries reject
+ * {@code remove} and {@code clear} with an {@link IllegalStateException}, as
+ * an element removed behind the back of the mapper files would leave its
+ * short name, its references and the elements tracked for the next reload
+ * inconsistent.
+ *
+ * <p>
+ * Required by the mapper reloading, see
+ * {@link MyBatisMapperSqlSessionFactoryBean#setEnableMapperReloading(boolean)},
+ * and by the background refactoring, see
+ * {@link MyBatisMapperSqlSessionFactoryBean#setBackgroundRefactoring(boolean)},
+ * and extended by {@link MyBatisMapperLazyConfiguration}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperConcurrentConfiguration extends Configuration {
+
+	/**
+	 * Element registries of the configuration
+	 */
+	enum Kind {
+		STATEMENT( "Mapped Statements collection" ),
+		RESULT_MAP( "Result Maps collection" ),
+		PARAMETER_MAP( "Parameter Maps collection" ),
+		KEY_GENERATOR( "Key Generators collection" ),
+		CACHE( "Caches collection" ),
+		SQL_FRAGMENT( "XML fragments parsed from previous mappers" );
+
+		private final String description;
+
+		private Kind( String description ) {
+			this.description = description;
+		}
+	}
+
+	// Published in this order, the statements last so that they find their new result maps
+	private static final Kind [] PUBLISHING_ORDER = {
+		Kind.SQL_FRAGMENT, Kind.CACHE, Kind.PARAMETER_MAP, Kind.RESULT_MAP, Kind.KEY_GENERATOR, Kind.STATEMENT
+	};
+
+	private final Registries registries = new Registries();
+	private final Set<String> loadedResources = ConcurrentHashMap.newKeySet();
+	private final Map<String, XNode> sqlFragments = new SqlFragments();
+	private final ThreadLocal<Staging> staging = new ThreadLocal<>();
+	private final AtomicInteger stagingCount = new AtomicInteger();
+
+	/**
+	 * Serializes the registrations of the mapper files, reentrant for the
+	 * lookups that register other namespaces in the meantime
+	 */
+	protected final ReentrantLock registrationLock = new ReentrantLock();
+
+	public MyBatisMapperConcurrentConfiguration() {
+		super();
+	}
+
+	public MyBatisMapperConcurrentConfiguration( Environment environment ) {
+		super( environment );
+	}
+
+	/**
+	 * Parse the mapper files into a staging area and return the elements they
+	 * declare, without registering anything. Used to find out the elements
+	 * declared by the content registered previously.
+	 *
+	 * @param builders the builders of the mapper files, by resource name
+	 * @return the elements declared by the mapper files
+	 */
+	Elements parseMappers( Map<String, XMLMapperBuilder> builders ) {
+		registrationLock.lock();
+		try {
+			return stage( builders, null ).elements();
+		} finally {
+			registrationLock.unlock();
+		}
+	}
+
+	/**
+	 * Parse the mapper files into a staging area, and publish the parsed
+	 * elements into the configuration if all the files are parsed completely.
+	 * Nothing is registered if any file fails to be parsed.
+	 *
+	 * @param builders the builders of the mapper files, by resource name
+	 * @param replaced the elements declared by the previous content of the
+	 *        files, replaced or removed, may be {@code null}
+	 * @return the published elements
+	 * @throws IllegalArgumentException if an element is already registered by another resource
+	 * @throws BuilderException if any file fails to be parsed
+	 */
+	Elements replaceMappers( Map<String, XMLMapperBuilder> builders, Elements replaced ) {
+		registrationLock.lock();
+		try {
+			Staging parsed = stage( builders, replaced == null ? new Elements() : replaced );
+			for ( Kind kind : PUBLISHING_ORDER ) {
+				ConcurrentStrictMap<Object> live = registries.get( kind );
+				Map<String, Object> elements = parsed.registries.get( kind ).elements();
+				elements.forEach( live::publish );
+				for ( String id : parsed.replaced.ids( kind ) ) {
+					if ( !elements.containsKey( id ) ) {
+						live.unpublish( id );
+					}
+				}
+			}
+			loadedResources.addAll( builders.keySet() );
+			return parsed.elements();
+		} finally {
+			registrationLock.unlock();
+		}
+	}
+
+	private Staging stage( Map<String, XMLMapperBuilder> builders, Elements replaced ) {
+		Staging outer = staging.get();
+		Staging current = new Staging( builders.keySet(), replaced );
+		staging.set( current );
+		stagingCount.incrementAndGet();
+		try {
+			for ( Map.Entry<String, XMLMapperBuilder> entry : builders.entrySet() ) {
+				try {
+					entry.getValue().parse();
+				} catch ( Exception e ) {
+					throw new BuilderException( "Failed to parse mapping resource: '" + entry.getKey() + "'", e );
+				} finally {
+					ErrorContext.instance().reset();
+				}
+			}
+			// The other namespaces are all registered already, nothing left would be resolved later
+			if ( !current.incompleteStatements.isEmpty() || !current.incompleteResultMaps.isEmpty() || !current.incompleteCacheRefs.isEmpty() ) {
+				throw new BuilderException( "Unresolved references in mapping resources " + builders.keySet() + ": "
+						+ current.incompleteStatements.size() + " statements, " + current.incompleteResultMaps.size() + " result maps and "
+						+ current.incompleteCacheRefs.size() + " cache references are incomplete" );
+			}
+			return current;
+		} finally {
+			stagingCount.decrementAndGet();
+			if ( outer == null ) {
+				staging.remove();
+			} else {
+				staging.set( outer );
+			}
+		}
+	}
+
+	private Staging staging() {
+		return stagingCount.get() == 0 ? null : staging.get();
+	}
+
+	/**
+	 * Called before failing the lookup of a missing element, for example to
+	 * register the namespace of the element on demand.
+	 *
+	 * @param id the id of the missing element
+	 */
+	protected void elementMissing( String id ) {
+	}
+
+	private Object find( Kind kind, String id ) {
+		Staging current = staging();
+		if ( current != null ) {
+			Object value = current.registries.get( kind ).find( id );
+			if ( value != null || current.replaced.contains( kind, id ) ) {
+				return value;
+			}
+		}
+		return registries.get( kind ).find( id );
+	}
+
+	private Object findOrRegister( Kind kind, String id ) {
+		Object value = id == null ? null : find( kind, id );
+		if ( value == null && id != null ) {
+			elementMissing( id );
+			value = find( kind, id );
+		}
+		return value;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private <V> V get( Kind kind, String id ) {
+		Object value = findOrRegister( kind, id );
+		if ( value == null ) {
+			throw new IllegalArgumentException( kind.description + " does not contain value for " + id );
+		}
+		if ( value instanceof Ambiguity ) {
+			throw new IllegalArgumentException( ( ( Ambiguity ) value ).subject + " is ambiguous in " + kind.description
+					+ " (try using the full name including the namespace, or rename one of the entries)" );
+		}
+		return ( V ) value;
+	}
+
+	private boolean contains( Kind kind, String id ) {
+		return findOrRegister( kind, id ) != null;
+	}
+
+	private void register( Kind kind, String id, Object value ) {
+		Staging current = staging();
+		if ( current == null ) {
+			registries.get( kind ).put( id, value );
+			return;
+		}
+		if ( !current.dryRun && !current.replaced.contains( kind, id ) && registries.get( kind ).isElement( id ) ) {
+			throw new IllegalArgumentException( kind.description + " already contains value for " + id );
+		}
+		current.registries.get( kind ).put( id, value );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private <V> Collection<V> values( Kind kind ) {
+		return ( Collection<V> ) registries.get( kind ).values();
+	}
+
+	@Override
+	public void addMappedStatement( MappedStatement ms ) {
+		register( Kind.STATEMENT, ms.getId(), ms );
+	}
+
+	@Override
+	public Collection<String> getMappedStatementNames() {
+		buildAllStatements();
+		return registries.get( Kind.STATEMENT ).keySet();
+	}
+
+	@Override
+	public Collection<MappedStatement> getMappedStatements() {
+		buildAllStatements();
+		return values( Kind.STATEMENT );
+	}
+
+	@Override
+	public MappedStatement getMappedStatement( String id ) {
+		return getMappedStatement( id, true );
+	}
+
+	@Override
+	public MappedStatement getMappedStatement( String id, boolean validateIncompleteStatements ) {
+		if ( validateIncompleteStatements ) {
+			buildAllStatements();
+		}
+		return get( Kind.STATEMENT, id );
+	}
+
+	@Override
+	public boolean hasStatement( String statementName ) {
+		return hasStatement( statementName, true );
+	}
+
+	@Override
+	public boolean hasStatement( String statementName, boolean validateIncompleteStatements ) {
+		if ( validateIncompleteStatements ) {
+			buildAllStatements();
+		}
+		return contains( Kind.STATEMENT, statementName );
+	}
+
+	@Override
+	public void addResultMap( ResultMap rm ) {
+		register( Kind.RESULT_MAP, rm.getId(), rm );
+		checkLocallyForDiscriminatedNestedResultMaps( rm );
+		checkGloballyForDiscriminatedNestedResultMaps( rm );
+	}
+
+	@Override
+	public Collection<String> getResultMapNames() {
+		return registries.get( Kind.RESULT_MAP ).keySet();
+	}
+
+	@Override
+	public Collection<ResultMap> getResultMaps() {
+		return values( Kind.RESULT_MAP );
+	}
+
+	@Override
+	public ResultMap getResultMap( String id ) {
+		return get( Kind.RESULT_MAP, id );
+	}
+
+	@Override
+	public boolean hasResultMap( String id ) {
+		return contains( Kind.RESULT_MAP, id );
+	}
+
+	@Override
+	protected void checkGloballyForDiscriminatedNestedResultMaps( ResultMap rm ) {
+		if ( rm.hasNestedResultMaps() ) {
+			List<Object> resultMaps = new ArrayList<>( registries.get( Kind.RESULT_MAP ).values() );
+			Staging current = staging();
+			if ( current != null ) {
+				resultMaps.addAll( current.registries.get( Kind.RESULT_MAP ).values() );
+			}
+			for ( Object value : resultMaps ) {
+				if ( value instanceof ResultMap ) {
+					ResultMap entryResultMap = ( ResultMap ) value;
+					if ( !entryResultMap.hasNestedResultMaps() && entryResultMap.getDiscriminator() != null
+							&& entryResultMap.getDiscriminator().getDiscriminatorMap().values().contains( rm.getId() ) ) {
+						entryResultMap.forceNestedResultMaps();
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void checkLocallyForDiscriminatedNestedResultMaps( ResultMap rm ) {
+		if ( !rm.hasNestedResultMaps() && rm.getDiscriminator() != null ) {
+			for ( String discriminatedResultMapName : rm.getDiscriminator().getDiscriminatorMap().values() ) {
+				if ( hasResultMap( discriminatedResultMapName ) && getResultMap( discriminatedResultMapName ).hasNestedResultMaps() ) {
+					rm.forceNestedResultMaps();
+					break;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void addParameterMap( ParameterMap pm ) {
+		register( Kind.PARAMETER_MAP, pm.getId(), pm );
+	}
+
+	@Override
+	public Collection<String> getParameterMapNames() {
+		return registries.get( Kind.PARAMETER_MAP ).keySet();
+	}
+
+	@Override
+	public Collection<ParameterMap> getParameterMaps() {
+		return values( Kind.PARAMETER_MAP );
+	}
+
+	@Override
+	public ParameterMap getParameterMap( String id ) {
+		return get( Kind.PARAMETER_MAP, id );
+	}
+
+	@Override
+	public boolean hasParameterMap( String id ) {
+		return contains( Kind.PARAMETER_MAP, id );
+	}
+
+	@Override
+	public void addKeyGenerator( String id, KeyGenerator keyGenerator ) {
+		register( Kind.KEY_GENERATOR, id, keyGenerator );
+	}
+
+	@Override
+	public Collection<String> getKeyGeneratorNames() {
+		return registries.get( Kind.KEY_GENERATOR ).keySet();
+	}
+
+	@Override
+	public Collection<KeyGenerator> getKeyGenerators() {
+		return values( Kind.KEY_GENERATOR );
+	}
+
+	@Override
+	public KeyGenerator getKeyGenerator( String id ) {
+		return get( Kind.KEY_GENERATOR, id );
+	}
+
+	@Override
+	public boolean hasKeyGenerator( String id ) {
+		return contains( Kind.KEY_GENERATOR, id );
+	}
+
+	@Override
+	public void addCache( Cache cache ) {
+		register( Kind.CACHE, cache.getId(), cache );
+	}
+
+	@Override
+	public Collection<String> getCacheNames() {
+		return registries.get( Kind.CACHE ).keySet();
+	}
+
+	@Override
+	public Collection<Cache> getCaches() {
+		return values( Kind.CACHE );
+	}
+
+	@Override
+	public Cache getCache( String id ) {
+		return get( Kind.CACHE, id );
+	}
+
+	@Override
+	public boolean hasCache( String id ) {
+		return contains( Kind.CACHE, id );
+	}
+
+	/**
+	 * Replace a registered cache, and its short name if it refers to the same
+	 * cache.
+	 *
+	 * @param id the id of the cache
+	 * @param cache the new cache
+	 */
+	void replaceCache( String id, Cache cache ) {
+		registrationLock.lock();
+		try {
+			registries.get( Kind.CACHE ).publish( id, cache );
+		} finally {
+			registrationLock.unlock();
+		}
+	}
+
+	@Override
+	public Map<String, XNode> getSqlFragments() {
+		return sqlFragments;
+	}
+
+	@Override
+	public void addLoadedResource( String resource ) {
+		Staging current = staging();
+		if ( current != null && current.resources.contains( resource ) ) {
+			current.loadedResources.add( resource );
+		} else {
+			loadedResources.add( resource );
+		}
+	}
+
+	@Override
+	public boolean isResourceLoaded( String resource ) {
+		Staging current = staging();
+		if ( current != null && current.resources.contains( resource ) ) {
+			return current.loadedResources.contains( resource );
+		}
+		return loadedResources.contains( resource );
+	}
+
+	@Override
+	public <T> void addMapper( Class<T> type ) {
+		// The elements of the mapper interfaces are never staged
+		Staging current = staging.get();
+		staging.remove();
+		try {
+			super.addMapper( type );
+		} finally {
+			if ( current != null ) {
+				staging.set( current );
+			}
+		}
+	}
+
+	@Override
+	protected void buildAllStatements() {
+		// The incomplete elements of the other resources are not staged
+		if ( staging() == null ) {
+			super.buildAllStatements();
+		}
+	}
+
+	@Override
+	public Collection<XMLStatementBuilder> getIncompleteStatements() {
+		Staging current = staging();
+		return current == null ? super.getIncompleteStatements() : current.incompleteStatements;
+	}
+
+	@Override
+	public void addIncompleteStatement( XMLStatementBuilder incompleteStatement ) {
+		Staging current = staging();
+		if ( current == null ) {
+			super.addIncompleteStatement( incompleteStatement );
+		} else {
+			current.incompleteStatements.add( incompleteStatement );
+		}
+	}
+
+	@Override
+	public Collection<CacheRefResolver> getIncompleteCacheRefs() {
+		Staging current = staging();
+		return current == null ? super.getIncompleteCacheRefs() : current.incompleteCacheRefs;
+	}
+
+	@Override
+	public void addIncompleteCacheRef( CacheRefResolver incompleteCacheRef ) {
+		Staging current = staging();
+		if ( current == null ) {
+			super.addIncompleteCacheRef( incompleteCacheRef );
+		} else {
+			current.incompleteCacheRefs.add( incompleteCacheRef );
+		}
+	}
+
+	@Override
+	public Collection<ResultMapResolver> getIncompleteResultMaps() {
+		Staging current = staging();
+		return current == null ? super.getIncompleteResultMaps() : current.incompleteResultMaps;
+	}
+
+	@Override
+	public void addIncompleteResultMap( ResultMapResolver resultMapResolver ) {
+		Staging current = staging();
+		if ( current == null ) {
+			super.addIncompleteResultMap( resultMapResolver );
+		} else {
+			current.incompleteResultMaps.add( resultMapResolver );
+		}
+	}
+
+	@Override
+	public void addIncompleteMethod( MethodResolver builder ) {
+		// Only registered by the mapper interfaces, which are never staged
+		super.addIncompleteMethod( builder );
+	}
+
+	/**
+	 * Ids of the elements declared by mapper files
+	 */
+	static final class Elements {
+
+		private final Map<Kind, Set<String>> ids = new EnumMap<>( Kind.class );
+
+		Elements() {
+			for ( Kind kind : Kind.values() ) {
+				ids.put( kind, new HashSet<>() );
+			}
+		}
+
+		Set<String> ids( Kind kind ) {
+			return ids.get( kind );
+		}
+
+		boolean contains( Kind kind, String id ) {
+			return ids.get( kind ).contains( id );
+		}
+
+		int size() {
+			return ids.values().stream().mapToInt( Set::size ).sum();
+		}
+
+	}
+
+	/**
+	 * Elements parsed by the current thread, not published yet
+	 */
+	private static final class Staging {
+
+		private final Set<String> resources;
+		private final Elements replaced;
+		private final boolean dryRun;
+		private final Registries registries = new Registries();
+		private final Set<String> loadedResources = new HashSet<>();
+		private final Collection<XMLStatementBuilder> incompleteStatements = new LinkedList<>();
+		private final Collection<CacheRefResolver> incompleteCacheRefs = new LinkedList<>();
+		private final Collection<ResultMapResolver> incompleteResultMaps = new LinkedList<>();
+
+		/**
+		 * @param replaced the elements replaced by the staged ones, or
+		 *        {@code null} to find out the declared elements only
+		 */
+		private Staging( Set<String> resources, Elements replaced ) {
+			this.resources = resources;
+			this.replaced = replaced == null ? new Elements() : replaced;
+			this.dryRun = replaced == null;
+		}
+
+		private Elements elements() {
+			Elements elements = new Elements();
+			for ( Kind kind : Kind.values() ) {
+				elements.ids( kind ).addAll( registries.get( kind ).elements().keySet() );
+			}
+			return elements;
+		}
+
+	}
+
+	private static final class Registries {
+
+		private final Map<Kind, ConcurrentStrictMap<Object>> maps = new EnumMap<>( Kind.class );
+
+		private Registries() {
+			for ( Kind kind : Kind.values() ) {
+				maps.put( kind, new ConcurrentStrictMap<>( kind ) );
+			}
+		}
+
+		private ConcurrentStrictMap<Object> get( Kind kind ) {
+			return maps.get( kind );
+		}
+
+	}
+
+	/**
+	 * Same as the {@code StrictMap} of MyBatis (an element is registered once,
+	 * under its id and its unambiguous short name), backed by a
+	 * {@link ConcurrentHashMap}. The writes are synchronized, the reads are
+	 * lock-free.
+	 */
+	private static final class ConcurrentStrictMap<V> extends AbstractMap<String, V> {
+
+		private final Kind kind;
+		private final ConcurrentHashMap<String, Object> map = new ConcurrentHashMap<>();
+		private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+		private ConcurrentStrictMap( Kind kind ) {
+			this.kind = kind;
+		}
+
+		/**
+		 * @return the value, an ambiguity, or {@code null} if missing
+		 */
+		private Object find( String key ) {
+			return key == null ? null : map.get( key );
+		}
+
+		private boolean isElement( String id ) {
+			return ids.contains( id );
+		}
+
+		/**
+		 * @return the elements by id, excluding the short names
+		 */
+		@SuppressWarnings( "unchecked" )
+		private Map<String, V> elements() {
+			Map<String, V> elements = new LinkedHashMap<>();
+			for ( String id : ids ) {
+				elements.put( id, ( V ) map.get( id ) );
+			}
+			return elements;
+		}
+
+		@Override
+		public synchronized V put( String key, V value ) {
+			if ( map.containsKey( key ) ) {
+				String conflict = "";
+				if ( kind == Kind.STATEMENT ) {
+					conflict = ". please check " + ( ( MappedStatement ) map.get( key ) ).getResource() + " and " + ( ( MappedStatement ) value ).getResource();
+				}
+				throw new IllegalArgumentException( kind.description + " already contains value for " + key + conflict );
+			}
+			if ( key.contains( "." ) ) {
+				String shortKey = shortName( key );
+				map.put( shortKey, map.containsKey( shortKey ) ? new Ambiguity( shortKey ) : value );
+			}
+			ids.add( key );
+			map.put( key, value );
+			return null;
+		}
+
+		/**
+		 * Register or replace the element, the short name follows the replaced
+		 * element.
+		 */
+		private synchronized void publish( String id, V value ) {
+			Object previous = map.get( id );
+			if ( previous == null ) {
+				put( id, value );
+				return;
+			}
+			map.put( id, value );
+			ids.add( id );
+			if ( id.contains( "." ) ) {
+				map.replace( shortName( id ), previous, value );
+			}
+		}
+
+		/**
+		 * Remove the element, and its short name if it refers to the element.
+		 */
+		private synchronized void unpublish( String id ) {
+			Object previous = map.remove( id );
+			ids.remove( id );
+			if ( previous != null && id.contains( "." ) ) {
+				map.remove( shortName( id ), previous );
+			}
+		}
+
+		@Override
+		public V get( Object key ) {
+			Object value = key == null ? null : map.get( key );
+			if ( value == null ) {
+				throw new IllegalArgumentException( kind.description + " does not contain value for " + key );
+			}
+			if ( value instanceof Ambiguity ) {
+				throw new IllegalArgumentException( ( ( Ambiguity ) value ).subject + " is ambiguous in " + kind.description
+						+ " (try using the full name including the namespace, or rename one of the entries)" );
+			}
+			@SuppressWarnings( "unchecked" )
+			V element = ( V ) value;
+			return element;
+		}
+
+		@Override
+		public boolean containsKey( Object key ) {
+			return key != null && map.containsKey( key );
+		}
+
+		@Override
+		public V remove( Object key ) {
+			throw new IllegalStateException( kind.description + " cannot remove '" + key
+					+ "', the elements are only removed by reloading the mapper files declaring them" );
+		}
+
+		@Override
+		public void clear() {
+			throw new IllegalStateException( kind.description + " cannot be cleared, the elements are only removed by reloading the mapper files declaring them" );
+		}
+
+		@Override
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		public Set<Entry<String, V>> entrySet() {
+			return Collections.unmodifiableSet( ( Set ) map.entrySet() );
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return Collections.unmodifiableSet( map.keySet() );
+		}
+
+		@Override
+		@SuppressWarnings( "unchecked" )
+		public Collection<V> values() {
+			return Collections.unmodifiableCollection( ( Collection<V> ) map.values() );
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		private static String shortName( String key ) {
+			return key.substring( key.lastIndexOf( '.' ) + 1 );
+		}
+
+	}
+
+	private static final class Ambiguity {
+
+		private final String subject;
+
+		private Ambiguity( String subject ) {
+			this.subject = subject;
+		}
+
+	}
+
+	/**
+	 * Sql fragments of the configuration, of the staging area for the
+	 * registering thread
+	 */
+	private final class SqlFragments extends AbstractMap<String, XNode> {
+
+		@Override
+		public XNode get( Object key ) {
+			return MyBatisMapperConcurrentConfiguration.this.get( Kind.SQL_FRAGMENT, ( String ) key );
+		}
+
+		@Override
+		public boolean containsKey( Object key ) {
+			return key instanceof String && contains( Kind.SQL_FRAGMENT, ( String ) key );
+		}
+
+		@Override
+		public XNode put( String key, XNode value ) {
+			register( Kind.SQL_FRAGMENT, key, value );
+			return null;
+		}
+
+		@Override
+		public XNode remove( Object key ) {
+			return MyBatisMapperConcurrentConfiguration.this.<XNode>registriesOf( Kind.SQL_FRAGMENT ).remove( key );
+		}
+
+		@Override
+		public void clear() {
+			registriesOf( Kind.SQL_FRAGMENT ).clear();
+		}
+
+		@Override
+		public Set<Entry<String, XNode>> entrySet() {
+			return MyBatisMapperConcurrentConfiguration.this.<XNode>registriesOf( Kind.SQL_FRAGMENT ).entrySet();
+		}
+
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private <V> Map<String, V> registriesOf( Kind kind ) {
+		return ( Map<String, V> ) ( Map<String, ?> ) registries.get( kind );
+	}
+
+}
@@ -0,0 +1,624 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * Executor plugin that keeps a snapshot of the entities read by the
+ * statements of the mybatis-mapper namespaces, and narrows the generic
+ * {@code updateByPrimaryKey} and {@code updateByPrimaryKeySelective} of those
+ * entities to the columns of the properties modified since they were read. An
+ * update which modifies nothing is not sent to the database and returns
+ * {@code 1}.
+ *
+ * <p>
+ * The snapshot holds the immutable values of the properties (strings,
+ * numbers, enums, {@code java.time} values), a copy of the dates and a 64-bit
+ * hash of the byte and char arrays. The properties of any other type are
+ * always written. The snapshots are scoped to the session which read the
+ * entities, or to the Spring transaction that the session is bound to: an
+ * entity read by another session is always fully written. Within a session
+ * the snapshots taken or updated since its last commit are discarded by a
+ * rollback. Within a Spring transaction, whose session is committed before
+ * the connection, they are committed or discarded when the transaction
+ * completes, and released with the session.
+ *
+ * <p>
+ * The narrowed update is derived from the SQL generated by the statement,
+ * its {@code SET} assignments without parameters (e.g. an optimistic lock
+ * version) are always kept. The entity type and its properties are resolved
+ * from the result map of the {@code selectByPrimaryKey} of the namespace.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Intercepts( {
+	@Signature( type = Executor.class, method = "update", args = { MappedStatement.class, Object.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class } ),
+	@Signature( type = Executor.class, method = "commit", args = { boolean.class } ),
+	@Signature( type = Executor.class, method = "rollback", args = { boolean.class } ),
+	@Signature( type = Executor.class, method = "close", args = { boolean.class } )
+} )
+public final class MyBatisMapperDirtyTracker implements Interceptor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperDirtyTracker.class );
+	private static final String SELECT_BY_PRIMARY_KEY = "selectByPrimaryKey";
+	private static final String UPDATE_BY_PRIMARY_KEY = "updateByPrimaryKey";
+	private static final String UPDATE_BY_PRIMARY_KEY_SELECTIVE = "updateByPrimaryKeySelective";
+	// Bounds the narrowed statements kept for the batches, any other one is built per update
+	private static final int MAX_NARROWED_STATEMENTS = 4096;
+	private static final Object UNTRACKED = new Object();
+
+	private final ConcurrentMap<String, Optional<EntityType>> namespaces = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Executor, Tracking> sessions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, MappedStatement> narrowedStatements = new ConcurrentHashMap<>();
+	private final LongAdder skippedUpdates = new LongAdder();
+	private final LongAdder narrowedUpdates = new LongAdder();
+
+	@Override
+	public Object intercept( Invocation invocation ) throws Throwable {
+		Executor executor = ( Executor ) invocation.getTarget();
+		String method = invocation.getMethod().getName();
+		if ( !"update".equals( method ) && !"query".equals( method ) ) {
+			// Commit, rollback or close
+			Tracking tracking = sessions.get( executor );
+			if ( tracking == null ) {
+				return invocation.proceed();
+			}
+			if ( "close".equals( method ) ) {
+				try {
+					return invocation.proceed();
+				} finally {
+					tracking.closed = true;
+					if ( !tracking.transactional ) {
+						sessions.remove( executor, tracking );
+					}
+				}
+			}
+			if ( tracking.transactional ) {
+				// Committed by the completion of the Spring transaction, after the connection
+				return invocation.proceed();
+			}
+			Object result = invocation.proceed();
+			if ( "commit".equals( method ) ) {
+				tracking.commit();
+			} else {
+				tracking.rollback();
+			}
+			return result;
+		}
+		Object [] args = invocation.getArgs();
+		MappedStatement statement = ( MappedStatement ) args[ 0 ];
+		EntityType entityType = entityTypeOf( statement );
+		if ( entityType == null ) {
+			return invocation.proceed();
+		}
+		if ( statement.getSqlCommandType() == SqlCommandType.SELECT ) {
+			Object result = invocation.proceed();
+			if ( result instanceof List && args[ 3 ] == Executor.NO_RESULT_HANDLER ) {
+				for ( Object element : ( List<?> ) result ) {
+					if ( element != null && element.getClass() == entityType.type ) {
+						// A repeated select returns the instance of the local cache, which
+						// may already be modified, so only the first read is snapshotted
+						Tracking tracking = trackingOf( executor );
+						if ( tracking.get( element ) == null ) {
+							tracking.pending.put( element, entityType.snapshot( element ) );
+						}
+					}
+				}
+			}
+			return result;
+		}
+		String id = statement.getId();
+		if ( statement.getSqlCommandType() != SqlCommandType.UPDATE
+				|| !( id.endsWith( "." + UPDATE_BY_PRIMARY_KEY ) || id.endsWith( "." + UPDATE_BY_PRIMARY_KEY_SELECTIVE ) ) ) {
+			return invocation.proceed();
+		}
+		Object entity = entityType.find( args[ 1 ] );
+		Tracking tracking = entity == null ? null : sessions.get( executor );
+		Object [] snapshot = tracking == null ? null : tracking.get( entity );
+		if ( snapshot == null ) {
+			return invocation.proceed();
+		}
+		Object [] current = entityType.snapshot( entity );
+		Set<String> modified = entityType.modified( snapshot, current );
+		if ( modified.isEmpty() ) {
+			skippedUpdates.increment();
+			return 1;
+		}
+		MappedStatement narrowed = narrow( statement, args[ 1 ], entityType, modified );
+		if ( narrowed == null ) {
+			// The modified properties are not written by the statement, e.g. set to null for a selective update
+			skippedUpdates.increment();
+			return 1;
+		}
+		if ( narrowed != statement ) {
+			args[ 0 ] = narrowed;
+			narrowedUpdates.increment();
+		}
+		Object result = invocation.proceed();
+		if ( id.endsWith( "." + UPDATE_BY_PRIMARY_KEY_SELECTIVE ) ) {
+			// The null properties are not written by the selective updates
+			for ( int i = 0; i < current.length; i ++ ) {
+				current[ i ] = current[ i ] == null ? snapshot[ i ] : current[ i ];
+			}
+		}
+		tracking.pending.put( entity, current );
+		return result;
+	}
+
+	@Override
+	public Object plugin( Object target ) {
+		return Plugin.wrap( target, this );
+	}
+
+	@Override
+	public void setProperties( Properties properties ) {
+	}
+
+	/**
+	 * @return the number of updates not sent as nothing was modified
+	 */
+	public long getSkippedUpdateCount() {
+		return skippedUpdates.sum();
+	}
+
+	/**
+	 * @return the number of updates narrowed to the modified columns
+	 */
+	public long getNarrowedUpdateCount() {
+		return narrowedUpdates.sum();
+	}
+
+	/**
+	 * @return the number of sessions and Spring transactions holding snapshots
+	 */
+	public int getTrackingCount() {
+		return sessions.size();
+	}
+
+	private Tracking trackingOf( Executor executor ) {
+		// An executor is only used by the thread of its session
+		Tracking tracking = sessions.get( executor );
+		if ( tracking == null ) {
+			tracking = new Tracking( TransactionSynchronizationManager.isSynchronizationActive() );
+			sessions.put( executor, tracking );
+			if ( tracking.transactional ) {
+				Tracking completed = tracking;
+				TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion( int status ) {
+						if ( status == STATUS_COMMITTED ) {
+							completed.commit();
+						} else {
+							completed.rollback();
+						}
+						completed.transactional = false;
+						if ( completed.closed ) {
+							sessions.remove( executor, completed );
+						}
+					}
+				} );
+			}
+		}
+		return tracking;
+	}
+
+	private EntityType entityTypeOf( MappedStatement statement ) {
+		int index = statement.getId().lastIndexOf( '.' );
+		if ( index == -1 ) {
+			return null;
+		}
+		String namespace = statement.getId().substring( 0, index );
+		Optional<EntityType> entityType = namespaces.get( namespace );
+		if ( entityType == null ) {
+			entityType = namespaces.computeIfAbsent( namespace, key -> resolveEntityType( statement.getConfiguration(), key ) );
+		}
+		return entityType.orElse( null );
+	}
+
+	private static Optional<EntityType> resolveEntityType( Configuration configuration, String namespace ) {
+		String selectId = namespace + "." + SELECT_BY_PRIMARY_KEY;
+		if ( !configuration.hasStatement( selectId, false ) ) {
+			return Optional.empty();
+		}
+		MappedStatement select = configuration.getMappedStatement( selectId, false );
+		if ( select.getResultMaps().isEmpty() ) {
+			return Optional.empty();
+		}
+		ResultMap resultMap = select.getResultMaps().get( 0 );
+		List<String> properties = new ArrayList<>();
+		for ( ResultMapping mapping : resultMap.getPropertyResultMappings() ) {
+			String property = mapping.getProperty();
+			if ( property != null && property.indexOf( '.' ) == -1 && mapping.getNestedResultMapId() == null && mapping.getNestedQueryId() == null ) {
+				properties.add( property );
+			}
+		}
+		if ( properties.isEmpty() ) {
+			return Optional.empty();
+		}
+		LOGGER.debug( () -> "Tracking the modifications of " + properties.size() + " properties of '" + resultMap.getType().getName() + "'" );
+		return Optional.of( new EntityType( configuration, resultMap.getType(), properties.toArray( new String[ 0 ] ) ) );
+	}
+
+	/**
+	 * Derive the statement writing the {@code SET} assignments of the modified
+	 * properties, the original statement if its SQL can not be narrowed, or
+	 * {@code null} if none of its assignments is modified.
+	 */
+	private MappedStatement narrow( MappedStatement statement, Object parameter, EntityType entityType, Set<String> modified ) {
+		BoundSql boundSql = statement.getBoundSql( parameter );
+		String sql = boundSql.getSql();
+		List<ParameterMapping> mappings = boundSql.getParameterMappings();
+		SetClause clause = SetClause.parse( sql );
+		if ( clause == null || clause.placeholders != mappings.size() ) {
+			return statement;
+		}
+		StringBuilder narrowedSql = new StringBuilder( sql.substring( 0, clause.setEnd ) );
+		List<ParameterMapping> narrowedMappings = new ArrayList<>( mappings.subList( 0, clause.prefixPlaceholders ) );
+		int index = clause.prefixPlaceholders;
+		boolean written = false;
+		for ( Assignment assignment : clause.assignments ) {
+			List<ParameterMapping> assigned = mappings.subList( index, index + assignment.placeholders );
+			index += assignment.placeholders;
+			boolean modifiedAssignment = assigned.stream().anyMatch( mapping -> entityType.isModified( mapping.getProperty(), modified ) );
+			if ( assignment.placeholders == 0 || modifiedAssignment ) {
+				narrowedSql.append( narrowedSql.length() == clause.setEnd ? " " : ", " );
+				narrowedSql.append( assignment.text );
+				narrowedMappings.addAll( assigned );
+				written |= modifiedAssignment;
+			}
+		}
+		if ( !written ) {
+			return null;
+		}
+		narrowedSql.append( ' ' ).append( sql.substring( clause.whereStart ) );
+		narrowedMappings.addAll( mappings.subList( index, mappings.size() ) );
+		String key = statement.getId() + '\n' + narrowedSql;
+		MappedStatement narrowed = narrowedStatements.get( key );
+		if ( narrowed == null ) {
+			narrowed = build( statement, narrowedSql.toString(), narrowedMappings );
+			// The batch executor reuses the JDBC statement of the same consecutive statement
+			if ( narrowedStatements.size() < MAX_NARROWED_STATEMENTS ) {
+				MappedStatement existing = narrowedStatements.putIfAbsent( key, narrowed );
+				narrowed = existing == null ? narrowed : existing;
+			}
+		}
+		return narrowed;
+	}
+
+	private static MappedStatement build( MappedStatement statement, String sql, List<ParameterMapping> mappings ) {
+		MappedStatement.Builder builder = new MappedStatement.Builder( statement.getConfiguration(), statement.getId(),
+				new NarrowedSqlSource( statement.getConfiguration(), statement.getSqlSource(), sql, mappings ), SqlCommandType.UPDATE );
+		return builder.resource( statement.getResource() ).databaseId( statement.getDatabaseId() ).lang( statement.getLang() )
+				.timeout( statement.getTimeout() ).statementType( statement.getStatementType() ).cache( statement.getCache() )
+				.flushCacheRequired( statement.isFlushCacheRequired() ).useCache( false ).keyGenerator( statement.getKeyGenerator() ).build();
+	}
+
+	/**
+	 * The narrowed SQL, bound with the additional parameters of the original
+	 * source.
+	 */
+	private static final class NarrowedSqlSource implements SqlSource {
+
+		private final Configuration configuration;
+		private final SqlSource original;
+		private final String sql;
+		private final List<ParameterMapping> parameterMappings;
+
+		NarrowedSqlSource( Configuration configuration, SqlSource original, String sql, List<ParameterMapping> parameterMappings ) {
+			this.configuration = configuration;
+			this.original = original;
+			this.sql = sql;
+			this.parameterMappings = parameterMappings;
+		}
+
+		@Override
+		@SuppressWarnings( "unchecked" )
+		public BoundSql getBoundSql( Object parameterObject ) {
+			BoundSql original = this.original.getBoundSql( parameterObject );
+			BoundSql boundSql = new BoundSql( configuration, sql, new ArrayList<>( parameterMappings ), parameterObject );
+			Map<String, Object> additionalParameters = ( Map<String, Object> ) SystemMetaObject.forObject( original ).getValue( "additionalParameters" );
+			additionalParameters.forEach( boundSql::setAdditionalParameter );
+			return boundSql;
+		}
+
+	}
+
+	/**
+	 * The top-level {@code SET} assignments of an update, found outside of the
+	 * quotes and the parentheses.
+	 */
+	private static final class SetClause {
+
+		private final List<Assignment> assignments = new ArrayList<>();
+		private int setEnd = -1;
+		private int whereStart = -1;
+		private int prefixPlaceholders;
+		private int placeholders;
+
+		static SetClause parse( String sql ) {
+			SetClause clause = new SetClause();
+			int depth = 0;
+			char quote = 0;
+			int start = -1;
+			int count = 0;
+			for ( int i = 0; i < sql.length(); i ++ ) {
+				char c = sql.charAt( i );
+				if ( quote != 0 ) {
+					quote = c == quote ? 0 : quote;
+					continue;
+				}
+				if ( c == '\'' || c == '"' || c == '`' ) {
+					quote = c;
+				} else if ( c == '(' ) {
+					depth ++;
+				} else if ( c == ')' ) {
+					depth --;
+				} else if ( c == '?' ) {
+					count ++;
+				} else if ( depth == 0 && clause.setEnd == -1 && isKeyword( sql, i, "SET" ) ) {
+					clause.setEnd = start = i + 3;
+					clause.prefixPlaceholders = count;
+					count = 0;
+				} else if ( depth == 0 && clause.setEnd != -1 && c == ',' ) {
+					clause.assignments.add( new Assignment( sql.substring( start, i ).trim(), count ) );
+					start = i + 1;
+					count = 0;
+				} else if ( depth == 0 && clause.setEnd != -1 && isKeyword( sql, i, "WHERE" ) ) {
+					clause.assignments.add( new Assignment( sql.substring( start, i ).trim(), count ) );
+					clause.whereStart = i;
+					break;
+				}
+			}
+			if ( clause.whereStart == -1 ) {
+				return null;
+			}
+			int placeholders = clause.prefixPlaceholders;
+			for ( Assignment assignment : clause.assignments ) {
+				placeholders += assignment.placeholders;
+			}
+			for ( int i = clause.whereStart; i < sql.length(); i ++ ) {
+				char c = sql.charAt( i );
+				if ( quote != 0 ) {
+					quote = c == quote ? 0 : quote;
+				} else if ( c == '\'' || c == '"' || c == '`' ) {
+					quote = c;
+				} else if ( c == '?' ) {
+					placeholders ++;
+				}
+			}
+			clause.placeholders = placeholders;
+			return clause;
+		}
+
+		private static boolean isKeyword( String sql, int index, String keyword ) {
+			int end = index + keyword.length();
+			return sql.regionMatches( true, index, keyword, 0, keyword.length() )
+					&& ( index == 0 || !Character.isJavaIdentifierPart( sql.charAt( index - 1 ) ) )
+					&& ( end == sql.length() || !Character.isJavaIdentifierPart( sql.charAt( end ) ) );
+		}
+
+	}
+
+	private static final class Assignment {
+
+		private final String text;
+		private final int placeholders;
+
+		Assignment( String text, int placeholders ) {
+			this.text = text;
+			this.placeholders = placeholders;
+		}
+
+	}
+
+	/**
+	 * The snapshots of a session, or of the Spring transaction it is bound to,
+	 * by identity of the entities.
+	 */
+	private static final class Tracking {
+
+		private final Map<Object, Object []> committed = new IdentityHashMap<>();
+		private final Map<Object, Object []> pending = new IdentityHashMap<>();
+		// Whether bound to an active Spring transaction
+		private volatile boolean transactional;
+		private volatile boolean closed;
+
+		Tracking( boolean transactional ) {
+			this.transactional = transactional;
+		}
+
+		Object [] get( Object entity ) {
+			Object [] snapshot = pending.get( entity );
+			return snapshot == null ? committed.get( entity ) : snapshot;
+		}
+
+		void commit() {
+			committed.putAll( pending );
+			pending.clear();
+		}
+
+		void rollback() {
+			pending.clear();
+		}
+
+	}
+
+	/**
+	 * The tracked properties of an entity type.
+	 */
+	private static final class EntityType {
+
+		private final Configuration configuration;
+		private final Class<?> type;
+		private final String [] properties;
+		private final Set<String> tracked;
+
+		EntityType( Configuration configuration, Class<?> type, String [] properties ) {
+			this.configuration = configuration;
+			this.type = type;
+			this.properties = properties;
+			this.tracked = new HashSet<>( Arrays.asList( properties ) );
+		}
+
+		Object [] snapshot( Object entity ) {
+			MetaObject metaObject = configuration.newMetaObject( entity );
+			Object [] snapshot = new Object[ properties.length ];
+			for ( int i = 0; i < properties.length; i ++ ) {
+				snapshot[ i ] = fingerprint( metaObject.getValue( properties[ i ] ) );
+			}
+			return snapshot;
+		}
+
+		/**
+		 * Whether a parameter of the update, e.g. {@code name} or
+		 * {@code entity.name}, is not a tracked property or is modified.
+		 */
+		boolean isModified( String parameter, Set<String> modified ) {
+			int index = parameter.indexOf( '.' );
+			String property = tracked.contains( parameter ) || index == -1 ? parameter : parameter.substring( index + 1 );
+			return !tracked.contains( property ) || modified.contains( property );
+		}
+
+		Set<String> modified( Object [] snapshot, Object [] current ) {
+			Set<String> modified = new HashSet<>();
+			for ( int i = 0; i < properties.length; i ++ ) {
+				if ( snapshot[ i ] == UNTRACKED || !Objects.equals( snapshot[ i ], current[ i ] ) ) {
+					modified.add( properties[ i ] );
+				}
+			}
+			return modified;
+		}
+
+		/**
+		 * The entity in the parameter of an update, either the parameter
+		 * itself or one of the named parameters.
+		 */
+		Object find( Object parameter ) {
+			if ( parameter != null && parameter.getClass() == type ) {
+				return parameter;
+			}
+			if ( parameter instanceof Map ) {
+				for ( Object value : ( ( Map<?, ?> ) parameter ).values() ) {
+					if ( value != null && value.getClass() == type ) {
+						return value;
+					}
+				}
+			}
+			return null;
+		}
+
+		private static Object fingerprint( Object value ) {
+			if ( value == null || value instanceof String || value instanceof Boolean || value instanceof Character || value instanceof Enum
+					|| value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof Double
+					|| value instanceof Float || value instanceof BigDecimal || value instanceof BigInteger || value instanceof UUID
+					|| value.getClass().getName().startsWith( "java.time." ) ) {
+				return value;
+			}
+			if ( value instanceof Date ) {
+				return ( ( Date ) value ).clone();
+			}
+			if ( value instanceof byte [] ) {
+				byte [] bytes = ( byte [] ) value;
+				long hash = 0xcbf29ce484222325L;
+				for ( byte b : bytes ) {
+					hash = ( hash ^ b ) * 0x100000001b3L;
+				}
+				return new ArrayDigest( bytes.length, hash );
+			}
+			if ( value instanceof char [] ) {
+				char [] chars = ( char [] ) value;
+				long hash = 0xcbf29ce484222325L;
+				for ( char c : chars ) {
+					hash = ( hash ^ c ) * 0x100000001b3L;
+				}
+				return new ArrayDigest( chars.length, hash );
+			}
+			return UNTRACKED;
+		}
+
+	}
+
+	/**
+	 * The length and 64-bit FNV-1a hash of an array.
+	 */
+	private static final class ArrayDigest {
+
+		private final int length;
+		private final long hash;
+
+		ArrayDigest( int length, long hash ) {
+			this.length = length;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			return o instanceof ArrayDigest && ( ( ArrayDigest ) o ).length == length && ( ( ArrayDigest ) o ).hash == hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode( hash ) ^ length;
+		}
+
+	}
+
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * Executor plugin that caches the entities read by the generic
+ * {@code selectByPrimaryKey} statements of mybatis-mapper, keyed by entity
+ * type and primary key, independently of the namespace caches.
+ *
+ * <p>
+ * The writes of a namespace invalidate the entries of its entity type: the
+ * statements by primary key (including the group and batch variants) and the
+ * inserts only invalidate the keys found in their parameters, any other write
+ * invalidates the whole entity type. The session that wrote bypasses the
+ * cache until it commits or rolls back, and the keys are invalidated again at
+ * that time, and once more after the completion of the Spring transaction if
+ * any, so that the uncommitted rows and the rows read before the commit of the
+ * database are never cached.
+ *
+ * <p>
+ * The primary key is the property annotated with an {@code @Id} annotation,
+ * otherwise the {@code id} property. Only the writes executed through the
+ * statements of the same namespace are seen, a table also written by other
+ * statements should not be cached.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Intercepts( {
+	@Signature( type = Executor.class, method = "update", args = { MappedStatement.class, Object.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class } ),
+	@Signature( type = Executor.class, method = "commit", args = { boolean.class } ),
+	@Signature( type = Executor.class, method = "rollback", args = { boolean.class } ),
+	@Signature( type = Executor.class, method = "close", args = { boolean.class } )
+} )
+public final class MyBatisMapperEntityCache implements Interceptor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperEntityCache.class );
+	private static final String SELECT_BY_PRIMARY_KEY = "selectByPrimaryKey";
+	private static final String BY_PRIMARY_KEY = "ByPrimaryKey";
+	private static final String [] SINGLE_PARAMETER_NAMES = { "param1", "array", "collection" };
+
+	private final Properties properties = new Properties();
+	private final ConcurrentMap<String, Optional<EntityStore>> namespaces = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Class<?>, EntityStore> stores = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Executor, List<Runnable>> pendingInvalidations = new ConcurrentHashMap<>();
+
+	/**
+	 * @param properties the properties of the {@link MyBatisMapperConcurrentCache}
+	 *        of each entity type, the values are stored off-heap by default so
+	 *        that every read returns a new copy of the entity
+	 */
+	public MyBatisMapperEntityCache( Properties properties ) {
+		this.properties.setProperty( "offHeap", "true" );
+		if ( properties != null ) {
+			this.properties.putAll( properties );
+		}
+	}
+
+	@Override
+	public Object intercept( Invocation invocation ) throws Throwable {
+		Executor executor = ( Executor ) invocation.getTarget();
+		if ( !"update".equals( invocation.getMethod().getName() ) && !"query".equals( invocation.getMethod().getName() ) ) {
+			// Commit, rollback or close
+			try {
+				return invocation.proceed();
+			} finally {
+				List<Runnable> invalidations = pendingInvalidations.remove( executor );
+				if ( invalidations != null ) {
+					invalidations.forEach( Runnable::run );
+				}
+			}
+		}
+		Object [] args = invocation.getArgs();
+		MappedStatement statement = ( MappedStatement ) args[ 0 ];
+		EntityStore store = storeOf( statement );
+		if ( store == null ) {
+			return invocation.proceed();
+		}
+		if ( statement.getSqlCommandType() == SqlCommandType.SELECT ) {
+			return query( invocation, executor, statement, store );
+		}
+		Runnable invalidation = store::clear;
+		try {
+			return invocation.proceed();
+		} finally {
+			// After the execution, so that the generated keys of the inserts are available
+			if ( statement.getId().contains( BY_PRIMARY_KEY ) || statement.getSqlCommandType() == SqlCommandType.INSERT ) {
+				List<Object> keys = store.keysOf( args[ 1 ] );
+				if ( keys != null ) {
+					invalidation = () -> store.invalidate( keys );
+				}
+			}
+			invalidation.run();
+			pendingInvalidationsOf( executor ).add( invalidation );
+		}
+	}
+
+	/**
+	 * Inside a Spring transaction, the session commits before the database, a
+	 * concurrent session could cache the previous rows in the meantime, so the
+	 * invalidations run once more after the completion of the transaction.
+	 */
+	private List<Runnable> pendingInvalidationsOf( Executor executor ) {
+		// An executor is only used by the thread of its session
+		List<Runnable> invalidations = pendingInvalidations.get( executor );
+		if ( invalidations == null ) {
+			invalidations = new ArrayList<>();
+			pendingInvalidations.put( executor, invalidations );
+			if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+				List<Runnable> completions = invalidations;
+				TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion( int status ) {
+						completions.forEach( Runnable::run );
+					}
+				} );
+			}
+		}
+		return invalidations;
+	}
+
+	private Object query( Invocation invocation, Executor executor, MappedStatement statement, EntityStore store ) throws Throwable {
+		Object [] args = invocation.getArgs();
+		if ( args[ 2 ] != RowBounds.DEFAULT || args[ 3 ] != Executor.NO_RESULT_HANDLER
+				|| !statement.getId().endsWith( "." + SELECT_BY_PRIMARY_KEY ) || pendingInvalidations.containsKey( executor ) ) {
+			return invocation.proceed();
+		}
+		List<Object> keys = store.keysOf( args[ 1 ] );
+		if ( keys == null || keys.size() != 1 ) {
+			return invocation.proceed();
+		}
+		Object key = keys.get( 0 );
+		Object entity = store.cache.getObject( key );
+		if ( entity != null ) {
+			List<Object> result = new ArrayList<>( 1 );
+			result.add( entity );
+			return result;
+		}
+		long version = store.version.get();
+		Object result = invocation.proceed();
+		if ( result instanceof List && ( ( List<?> ) result ).size() == 1 ) {
+			store.put( key, ( ( List<?> ) result ).get( 0 ), version );
+		}
+		return result;
+	}
+
+	@Override
+	public Object plugin( Object target ) {
+		return Plugin.wrap( target, this );
+	}
+
+	@Override
+	public void setProperties( Properties properties ) {
+	}
+
+	/**
+	 * @param entityType the entity type
+	 * @return the cache of the entity type, in order to read its statistics, or
+	 *         {@code null} if not used yet
+	 */
+	public MyBatisMapperConcurrentCache getCache( Class<?> entityType ) {
+		EntityStore store = stores.get( entityType );
+		return store == null ? null : store.cache;
+	}
+
+	/**
+	 * Invalidate all the cached entities.
+	 */
+	public void clear() {
+		stores.values().forEach( EntityStore::clear );
+	}
+
+	private EntityStore storeOf( MappedStatement statement ) {
+		int index = statement.getId().lastIndexOf( '.' );
+		if ( index == -1 ) {
+			return null;
+		}
+		String namespace = statement.getId().substring( 0, index );
+		Optional<EntityStore> store = namespaces.get( namespace );
+		if ( store == null ) {
+			store = namespaces.computeIfAbsent( namespace, key -> resolveStore( statement.getConfiguration(), key ) );
+		}
+		return store.orElse( null );
+	}
+
+	private Optional<EntityStore> resolveStore( Configuration configuration, String namespace ) {
+		String selectId = namespace + "." + SELECT_BY_PRIMARY_KEY;
+		if ( !configuration.hasStatement( selectId, false ) ) {
+			return Optional.empty();
+		}
+		MappedStatement select = configuration.getMappedStatement( selectId, false );
+		if ( select.getResultMaps().isEmpty() ) {
+			return Optional.empty();
+		}
+		Class<?> entityType = select.getResultMaps().get( 0 ).getType();
+		return Optional.of( stores.computeIfAbsent( entityType, EntityStore::new ) );
+	}
+
+	private final class EntityStore {
+
+		private final Class<?> entityType;
+		private final String keyProperty;
+		private final MyBatisMapperConcurrentCache cache;
+		private final AtomicLong version = new AtomicLong();
+
+		EntityStore( Class<?> entityType ) {
+			this.entityType = entityType;
+			this.keyProperty = keyPropertyOf( entityType );
+			this.cache = new MyBatisMapperConcurrentCache( entityType.getName() );
+			this.cache.setProperties( properties );
+			this.cache.initialize();
+		}
+
+		void put( Object key, Object entity, long expectedVersion ) {
+			if ( version.get() != expectedVersion ) {
+				return;
+			}
+			try {
+				cache.putObject( key, entity );
+			} catch ( CacheException e ) {
+				LOGGER.debug( () -> "Failed to cache the entity of '" + entityType.getName() + "': " + e.getMessage() );
+				return;
+			}
+			// Invalidated during the put, the entity may be stale
+			if ( version.get() != expectedVersion ) {
+				cache.removeObject( key );
+			}
+		}
+
+		void invalidate( List<Object> keys ) {
+			version.incrementAndGet();
+			keys.forEach( cache::removeObject );
+		}
+
+		void clear() {
+			version.incrementAndGet();
+			cache.clear();
+		}
+
+		/**
+		 * @param parameter the statement parameter, a primary key, an entity,
+		 *        or a group of them
+		 * @return the normalized primary keys, or {@code null} if unknown
+		 */
+		List<Object> keysOf( Object parameter ) {
+			if ( parameter instanceof Map ) {
+				Map<?, ?> parameters = ( Map<?, ?> ) parameter;
+				parameter = null;
+				for ( String name : SINGLE_PARAMETER_NAMES ) {
+					// The parameter maps of MyBatis fail on the missing keys
+					if ( parameters.containsKey( name ) ) {
+						parameter = parameters.get( name );
+						break;
+					}
+				}
+			}
+			List<Object> keys = new ArrayList<>();
+			return addKeys( parameter, keys ) ? keys : null;
+		}
+
+		private boolean addKeys( Object parameter, List<Object> keys ) {
+			if ( parameter == null ) {
+				return false;
+			}
+			if ( parameter instanceof Collection ) {
+				for ( Object element : ( Collection<?> ) parameter ) {
+					if ( !addKeys( element, keys ) ) {
+						return false;
+					}
+				}
+				return true;
+			}
+			if ( parameter.getClass().isArray() ) {
+				for ( int i = 0, length = Array.getLength( parameter ); i < length; i ++ ) {
+					if ( !addKeys( Array.get( parameter, i ), keys ) ) {
+						return false;
+					}
+				}
+				return true;
+			}
+			if ( entityType.isInstance( parameter ) ) {
+				Object key = SystemMetaObject.forObject( parameter ).getValue( keyProperty );
+				return key != null && keys.add( normalize( key ) );
+			}
+			if ( parameter instanceof Map ) {
+				return false;
+			}
+			return keys.add( normalize( parameter ) );
+		}
+
+	}
+
+	private static String keyPropertyOf( Class<?> entityType ) {
+		for ( Class<?> type = entityType; type != null && type != Object.class; type = type.getSuperclass() ) {
+			for ( Field field : type.getDeclaredFields() ) {
+				for ( Annotation annotation : field.getAnnotations() ) {
+					if ( "Id".equals( annotation.annotationType().getSimpleName() ) ) {
+						return field.getName();
+					}
+				}
+			}
+		}
+		return "id";
+	}
+
+	/**
+	 * The primary keys may be passed as any integral type.
+	 */
+	private static Object normalize( Object key ) {
+		if ( key instanceof Integer || key instanceof Short || key instanceof Byte ) {
+			return Long.valueOf( ( ( Number ) key ).longValue() );
+		}
+		return key;
+	}
+
+}
@@ -0,0 +1,568 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.springframework.util.Assert;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperBulkWriter.Dialect;
+
+/**
+ * <p>
+ * Keyset (seek) pagination of the select statements, the generic ones of
+ * mybatis-mapper as well as the xml ones: each page continues after the last
+ * row of the previous page, instead of skipping an increasing number of rows
+ * with an offset.
+ *
+ * <pre>
+ * Page&lt;Account&gt; page = pager.page( sqlSession, "com.example.AccountMapper.selectAll", null, token, 100 );
+ * // ... page.getRows(), then page.getNextToken() for the next page, null after the last one
+ * </pre>
+ *
+ * <p>
+ * The rows are ordered by the {@code <id>} columns of the result map of the
+ * statement, or by the given ordering columns, which must not be null and
+ * should end with a unique key. The select is wrapped in a derived table
+ * filtered by the last seen values, as a row value comparison for
+ * PostgreSQL and as expanded comparisons for the other dialects.
+ *
+ * <p>
+ * As a derived table, the result columns of the select must have distinct
+ * names, e.g. by aliasing the same columns of the joined tables, and the
+ * ordering columns are the names of those result columns, not qualified by a
+ * table. Its own {@code ORDER BY} is superseded by the keyset ordering. The
+ * statements whose result maps declare the same column twice, or nest the
+ * result maps of joined rows ({@code <association>} or {@code <collection>}
+ * without a select), whose entities would be split across the pages, are
+ * rejected.
+ *
+ * <p>
+ * The continuation token encodes the last seen values in a typed binary
+ * format, never with the Java serialization, it only accepts the usual key
+ * types: numbers, strings, dates, times, booleans and UUIDs. Created by
+ * {@link MyBatisMapperSqlSessionFactoryBean#setEnableKeysetPagination(boolean)}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Intercepts( {
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class } )
+} )
+public final class MyBatisMapperKeysetPager implements Interceptor {
+
+	private static final String KEYSET_SUFFIX = "!keyset";
+	private static final String KEYSET_PARAMETER = "__keyset_";
+	private static final String DESC = " DESC";
+
+	private final DataSource dataSource;
+	private volatile Dialect dialect;
+	private final ConcurrentMap<MappedStatement, MappedStatement> keysetStatements = new ConcurrentHashMap<>();
+
+	/**
+	 * A page of rows and the token of the next page
+	 */
+	public static final class Page<T> {
+
+		private final List<T> rows;
+		private final String nextToken;
+
+		Page( List<T> rows, String nextToken ) {
+			this.rows = rows;
+			this.nextToken = nextToken;
+		}
+
+		/**
+		 * @return the rows of the page
+		 */
+		public List<T> getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the continuation token of the next page, or {@code null} after the last page
+		 */
+		public String getNextToken() {
+			return nextToken;
+		}
+
+		/**
+		 * @return whether there is a next page
+		 */
+		public boolean hasNext() {
+			return nextToken != null;
+		}
+
+	}
+
+	/**
+	 * @param dataSource the data source to resolve the dialect from, if the
+	 *        {@code databaseId} of the configuration is not a known dialect
+	 */
+	MyBatisMapperKeysetPager( DataSource dataSource ) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Read a page ordered by the {@code <id>} columns of the result map.
+	 *
+	 * @param sqlSession the session to read from
+	 * @param statement the id of the select statement
+	 * @param parameter the parameter of the select
+	 * @param token the token of the page, {@code null} for the first page
+	 * @param size the maximum number of rows of the page
+	 * @return the page
+	 */
+	public <T> Page<T> page( SqlSession sqlSession, String statement, Object parameter, String token, int size ) {
+		return page( sqlSession, statement, parameter, token, size, ( String [] ) null );
+	}
+
+	/**
+	 * Read a page ordered by the given columns.
+	 *
+	 * @param sqlSession the session to read from
+	 * @param statement the id of the select statement
+	 * @param parameter the parameter of the select
+	 * @param token the token of the page, {@code null} for the first page
+	 * @param size the maximum number of rows of the page
+	 * @param orderColumns the result columns to order by, optionally followed
+	 *        by {@code DESC}, the last ones must be unique together
+	 * @return the page
+	 */
+	public <T> Page<T> page( SqlSession sqlSession, String statement, Object parameter, String token, int size, String ... orderColumns ) {
+		Assert.isTrue( size > 0, "Page size must be positive" );
+		MappedStatement mappedStatement = sqlSession.getConfiguration().getMappedStatement( statement );
+		List<KeyColumn> keyColumns = keyColumnsOf( mappedStatement, orderColumns );
+		Object [] lastValues = token == null ? null : decode( token, statement, keyColumns );
+		List<T> rows = sqlSession.selectList( statement, new KeysetQuery( parameter, keyColumns, lastValues, size + 1 ) );
+		if ( rows.size() <= size ) {
+			return new Page<>( rows, null );
+		}
+		List<T> pageRows = new ArrayList<>( rows.subList( 0, size ) );
+		return new Page<>( pageRows, encode( statement, keyColumns, valuesOf( sqlSession.getConfiguration(), pageRows.get( size - 1 ), keyColumns ) ) );
+	}
+
+	@Override
+	public Object intercept( Invocation invocation ) throws Throwable {
+		Object [] args = invocation.getArgs();
+		if ( !( args[ 1 ] instanceof KeysetQuery ) ) {
+			return invocation.proceed();
+		}
+		MappedStatement statement = ( MappedStatement ) args[ 0 ];
+		if ( statement.getSqlCommandType() != SqlCommandType.SELECT ) {
+			throw new PersistenceException( "Keyset pagination only applies to the selects, not to '" + statement.getId() + "'" );
+		}
+		MappedStatement keysetStatement = keysetStatements.get( statement );
+		if ( keysetStatement == null ) {
+			keysetStatement = keysetStatements.computeIfAbsent( statement, this::createKeysetStatement );
+		}
+		Object [] keysetArgs = args.clone();
+		keysetArgs[ 0 ] = keysetStatement;
+		return invocation.getMethod().invoke( invocation.getTarget(), keysetArgs );
+	}
+
+	@Override
+	public Object plugin( Object target ) {
+		return Plugin.wrap( target, this );
+	}
+
+	@Override
+	public void setProperties( Properties properties ) {
+	}
+
+	private MappedStatement createKeysetStatement( MappedStatement statement ) {
+		for ( ResultMap resultMap : statement.getResultMaps() ) {
+			if ( resultMap.hasNestedResultMaps() ) {
+				throw new PersistenceException( "Keyset pagination does not support the nested result maps of statement '" + statement.getId()
+						+ "', the rows of an entity would be split across the pages" );
+			}
+			Set<String> columns = new HashSet<>();
+			for ( ResultMapping mapping : resultMap.getResultMappings() ) {
+				if ( mapping.getColumn() != null && !columns.add( mapping.getColumn().toUpperCase( Locale.ENGLISH ) ) ) {
+					throw new PersistenceException( "Keyset pagination requires distinct result columns, column '" + mapping.getColumn()
+							+ "' of statement '" + statement.getId() + "' is mapped twice" );
+				}
+			}
+		}
+		MappedStatement.Builder builder = new MappedStatement.Builder( statement.getConfiguration(), statement.getId() + KEYSET_SUFFIX,
+				new KeysetSqlSource( statement ), SqlCommandType.SELECT );
+		return builder.resource( statement.getResource() ).databaseId( statement.getDatabaseId() ).lang( statement.getLang() )
+				.timeout( statement.getTimeout() ).fetchSize( statement.getFetchSize() ).statementType( statement.getStatementType() )
+				.resultSetType( statement.getResultSetType() ).resultMaps( statement.getResultMaps() ).resultOrdered( statement.isResultOrdered() )
+				.useCache( false ).flushCacheRequired( false ).build();
+	}
+
+	private Dialect dialect( Configuration configuration ) {
+		Dialect resolved = this.dialect;
+		if ( resolved == null ) {
+			this.dialect = resolved = Dialect.resolve( configuration, dataSource );
+		}
+		return resolved;
+	}
+
+	private static List<KeyColumn> keyColumnsOf( MappedStatement statement, String [] orderColumns ) {
+		ResultMap resultMap = statement.getResultMaps().isEmpty() ? null : statement.getResultMaps().get( 0 );
+		List<KeyColumn> keyColumns = new ArrayList<>();
+		if ( orderColumns == null || orderColumns.length == 0 ) {
+			if ( resultMap != null ) {
+				for ( ResultMapping mapping : resultMap.getIdResultMappings() ) {
+					// The result maps without <id> use all their mappings as id mappings
+					if ( mapping.getColumn() != null && mapping.getFlags().contains( ResultFlag.ID ) ) {
+						keyColumns.add( new KeyColumn( mapping.getColumn(), mapping.getProperty(), false ) );
+					}
+				}
+			}
+			if ( keyColumns.isEmpty() ) {
+				throw new PersistenceException( "Statement '" + statement.getId() + "' has no <id> columns, the ordering columns are required" );
+			}
+			return keyColumns;
+		}
+		for ( String orderColumn : orderColumns ) {
+			String column = orderColumn.trim();
+			boolean descending = column.toUpperCase( Locale.ENGLISH ).endsWith( DESC );
+			column = descending ? column.substring( 0, column.length() - DESC.length() ).trim() : column;
+			String property = null;
+			if ( resultMap != null ) {
+				for ( ResultMapping mapping : resultMap.getResultMappings() ) {
+					if ( column.equalsIgnoreCase( mapping.getColumn() ) ) {
+						property = mapping.getProperty();
+						break;
+					}
+				}
+			}
+			keyColumns.add( new KeyColumn( column, property, descending ) );
+		}
+		return keyColumns;
+	}
+
+	private static Object [] valuesOf( Configuration configuration, Object row, List<KeyColumn> keyColumns ) {
+		Object [] values = new Object[ keyColumns.size() ];
+		MetaObject metaObject = row instanceof Map ? null : configuration.newMetaObject( row );
+		for ( int i = 0; i < values.length; i ++ ) {
+			KeyColumn keyColumn = keyColumns.get( i );
+			if ( metaObject == null ) {
+				Map<?, ?> map = ( Map<?, ?> ) row;
+				Object value = map.get( keyColumn.column );
+				values[ i ] = value != null ? value : map.get( keyColumn.column.toUpperCase( Locale.ENGLISH ) );
+			} else {
+				String property = keyColumn.property;
+				if ( property == null ) {
+					property = metaObject.findProperty( keyColumn.column, configuration.isMapUnderscoreToCamelCase() );
+				}
+				values[ i ] = property == null ? null : metaObject.getValue( property );
+			}
+			if ( values[ i ] == null ) {
+				throw new PersistenceException( "Keyset column '" + keyColumn.column + "' of the last row is null or not mapped" );
+			}
+		}
+		return values;
+	}
+
+	private static String encode( String statement, List<KeyColumn> keyColumns, Object [] values ) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( DataOutputStream out = new DataOutputStream( bytes ) ) {
+			out.writeInt( signature( statement, keyColumns ) );
+			out.writeByte( values.length );
+			for ( Object value : values ) {
+				writeValue( out, value );
+			}
+		} catch ( IOException e ) {
+			throw new PersistenceException( "Failed to encode the keyset token", e );
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString( bytes.toByteArray() );
+	}
+
+	private static Object [] decode( String token, String statement, List<KeyColumn> keyColumns ) {
+		try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( Base64.getUrlDecoder().decode( token ) ) ) ) {
+			if ( in.readInt() != signature( statement, keyColumns ) || in.readByte() != keyColumns.size() ) {
+				throw new PersistenceException( "Keyset token does not belong to statement '" + statement + "'" );
+			}
+			Object [] values = new Object[ keyColumns.size() ];
+			for ( int i = 0; i < values.length; i ++ ) {
+				values[ i ] = readValue( in );
+			}
+			return values;
+		} catch ( IOException | IllegalArgumentException e ) {
+			throw new PersistenceException( "Invalid keyset token", e );
+		}
+	}
+
+	private static int signature( String statement, List<KeyColumn> keyColumns ) {
+		return statement.hashCode() * 31 + keyColumns.hashCode();
+	}
+
+	private static void writeValue( DataOutputStream out, Object value ) throws IOException {
+		if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+			out.writeByte( 'J' );
+			out.writeLong( ( ( Number ) value ).longValue() );
+		} else if ( value instanceof String ) {
+			out.writeByte( 'S' );
+			out.writeUTF( ( String ) value );
+		} else if ( value instanceof BigDecimal ) {
+			out.writeByte( 'D' );
+			out.writeUTF( value.toString() );
+		} else if ( value instanceof BigInteger ) {
+			out.writeByte( 'I' );
+			out.writeUTF( value.toString() );
+		} else if ( value instanceof Double || value instanceof Float ) {
+			out.writeByte( 'F' );
+			out.writeDouble( ( ( Number ) value ).doubleValue() );
+		} else if ( value instanceof Timestamp ) {
+			out.writeByte( 'T' );
+			out.writeUTF( ( ( Timestamp ) value ).toInstant().toString() );
+		} else if ( value instanceof Date ) {
+			out.writeByte( 'd' );
+			out.writeLong( ( ( Date ) value ).getTime() );
+		} else if ( value instanceof LocalDateTime ) {
+			out.writeByte( 'L' );
+			out.writeUTF( value.toString() );
+		} else if ( value instanceof LocalDate ) {
+			out.writeByte( 'l' );
+			out.writeUTF( value.toString() );
+		} else if ( value instanceof Instant ) {
+			out.writeByte( 'i' );
+			out.writeUTF( value.toString() );
+		} else if ( value instanceof Boolean ) {
+			out.writeByte( 'Z' );
+			out.writeBoolean( ( Boolean ) value );
+		} else if ( value instanceof UUID ) {
+			out.writeByte( 'U' );
+			out.writeUTF( value.toString() );
+		} else {
+			throw new PersistenceException( "Unsupported keyset value type: " + value.getClass().getName() );
+		}
+	}
+
+	private static Object readValue( DataInputStream in ) throws IOException {
+		byte type = in.readByte();
+		switch ( type ) {
+			case 'J':
+				return in.readLong();
+			case 'S':
+				return in.readUTF();
+			case 'D':
+				return new BigDecimal( in.readUTF() );
+			case 'I':
+				return new BigInteger( in.readUTF() );
+			case 'F':
+				return in.readDouble();
+			case 'T':
+				return Timestamp.from( Instant.parse( in.readUTF() ) );
+			case 'd':
+				return new Date( in.readLong() );
+			case 'L':
+				return LocalDateTime.parse( in.readUTF() );
+			case 'l':
+				return LocalDate.parse( in.readUTF() );
+			case 'i':
+				return Instant.parse( in.readUTF() );
+			case 'Z':
+				return in.readBoolean();
+			case 'U':
+				return UUID.fromString( in.readUTF() );
+			default:
+				throw new IOException( "Unknown keyset value type: " + ( char ) type );
+		}
+	}
+
+	private static final class KeyColumn {
+
+		private final String column;
+		private final String property;
+		private final boolean descending;
+
+		KeyColumn( String column, String property, boolean descending ) {
+			this.column = column;
+			this.property = property;
+			this.descending = descending;
+		}
+
+		@Override
+		public int hashCode() {
+			return column.toUpperCase( Locale.ENGLISH ).hashCode() * 2 + ( descending ? 1 : 0 );
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			return o instanceof KeyColumn && column.equalsIgnoreCase( ( ( KeyColumn ) o ).column ) && descending == ( ( KeyColumn ) o ).descending;
+		}
+
+	}
+
+	/**
+	 * The parameter of the keyset statements, wrapping the parameter of the select.
+	 */
+	private static final class KeysetQuery {
+
+		private final Object parameter;
+		private final List<KeyColumn> keyColumns;
+		private final Object [] lastValues;
+		private final int limit;
+
+		KeysetQuery( Object parameter, List<KeyColumn> keyColumns, Object [] lastValues, int limit ) {
+			this.parameter = parameter;
+			this.keyColumns = keyColumns;
+			this.lastValues = lastValues;
+			this.limit = limit;
+		}
+
+	}
+
+	/**
+	 * Wraps the select in a derived table filtered by the last seen values.
+	 */
+	private final class KeysetSqlSource implements SqlSource {
+
+		private final MappedStatement statement;
+
+		KeysetSqlSource( MappedStatement statement ) {
+			this.statement = statement;
+		}
+
+		@Override
+		public BoundSql getBoundSql( Object parameterObject ) {
+			KeysetQuery query = ( KeysetQuery ) parameterObject;
+			Configuration configuration = statement.getConfiguration();
+			BoundSql original = statement.getBoundSql( query.parameter );
+			List<ParameterMapping> mappings = new ArrayList<>();
+			List<Object> values = new ArrayList<>();
+			// Same resolution of the parameter values as the DefaultParameterHandler
+			TypeHandlerRegistry registry = configuration.getTypeHandlerRegistry();
+			MetaObject metaObject = null;
+			for ( ParameterMapping mapping : original.getParameterMappings() ) {
+				Object value;
+				String property = mapping.getProperty();
+				if ( mapping.getMode() != ParameterMode.IN ) {
+					throw new PersistenceException( "Keyset pagination only supports IN parameters" );
+				} else if ( original.hasAdditionalParameter( property ) ) {
+					value = original.getAdditionalParameter( property );
+				} else if ( query.parameter == null ) {
+					value = null;
+				} else if ( registry.hasTypeHandler( query.parameter.getClass() ) ) {
+					value = query.parameter;
+				} else {
+					metaObject = metaObject == null ? configuration.newMetaObject( query.parameter ) : metaObject;
+					value = metaObject.getValue( property );
+				}
+				mappings.add( new ParameterMapping.Builder( configuration, KEYSET_PARAMETER + mappings.size(), mapping.getTypeHandler() )
+						.javaType( mapping.getJavaType() ).jdbcType( mapping.getJdbcType() ).numericScale( mapping.getNumericScale() ).build() );
+				values.add( value );
+			}
+			// The derived table requires distinct result column names, and the keyset columns are those names
+			StringBuilder sql = new StringBuilder( original.getSql().length() + 128 );
+			sql.append( "SELECT * FROM (" ).append( original.getSql() ).append( ") keyset_" );
+			if ( query.lastValues != null ) {
+				sql.append( " WHERE " );
+				appendSeekCondition( sql, configuration, query, mappings, values );
+			}
+			sql.append( " ORDER BY " );
+			for ( int i = 0; i < query.keyColumns.size(); i ++ ) {
+				KeyColumn keyColumn = query.keyColumns.get( i );
+				sql.append( i == 0 ? "" : ", " ).append( keyColumn.column ).append( keyColumn.descending ? DESC : "" );
+			}
+			sql.append( dialect( configuration ) == Dialect.GENERIC ? " FETCH FIRST ? ROWS ONLY" : " LIMIT ?" );
+			addValue( configuration, mappings, values, query.limit );
+			BoundSql boundSql = new BoundSql( configuration, sql.toString(), Collections.unmodifiableList( mappings ), parameterObject );
+			for ( int i = 0; i < values.size(); i ++ ) {
+				boundSql.setAdditionalParameter( KEYSET_PARAMETER + i, values.get( i ) );
+			}
+			return boundSql;
+		}
+
+		private void appendSeekCondition( StringBuilder sql, Configuration configuration, KeysetQuery query, List<ParameterMapping> mappings, List<Object> values ) {
+			List<KeyColumn> keyColumns = query.keyColumns;
+			boolean sameDirection = keyColumns.stream().allMatch( keyColumn -> keyColumn.descending == keyColumns.get( 0 ).descending );
+			if ( keyColumns.size() > 1 && sameDirection && dialect( configuration ) == Dialect.POSTGRESQL ) {
+				// (a, b) > (?, ?), which uses the composite index
+				StringBuilder placeholders = new StringBuilder();
+				sql.append( "(" );
+				for ( int i = 0; i < keyColumns.size(); i ++ ) {
+					sql.append( i == 0 ? "" : ", " ).append( keyColumns.get( i ).column );
+					placeholders.append( i == 0 ? "?" : ", ?" );
+					addValue( configuration, mappings, values, query.lastValues[ i ] );
+				}
+				sql.append( keyColumns.get( 0 ).descending ? ") < (" : ") > (" ).append( placeholders ).append( ")" );
+				return;
+			}
+			// a > ? OR (a = ? AND b > ?), which also supports the mixed directions
+			sql.append( "(" );
+			for ( int i = 0; i < keyColumns.size(); i ++ ) {
+				sql.append( i == 0 ? "(" : " OR (" );
+				for ( int j = 0; j < i; j ++ ) {
+					sql.append( keyColumns.get( j ).column ).append( " = ? AND " );
+					addValue( configuration, mappings, values, query.lastValues[ j ] );
+				}
+				sql.append( keyColumns.get( i ).column ).append( keyColumns.get( i ).descending ? " < ?)" : " > ?)" );
+				addValue( configuration, mappings, values, query.lastValues[ i ] );
+			}
+			sql.append( ")" );
+		}
+
+		private void addValue( Configuration configuration, List<ParameterMapping> mappings, List<Object> values, Object value ) {
+			mappings.add( new ParameterMapping.Builder( configuration, KEYSET_PARAMETER + mappings.size(), value.getClass() ).build() );
+			values.add( value );
+		}
+
+	}
+
+}
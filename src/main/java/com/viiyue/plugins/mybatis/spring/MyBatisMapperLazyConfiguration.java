@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+/**
+ * <p>
+ * {@link Configuration} that only indexes the namespaces of the mapper files
+ * at startup, and parses the mapper file of a namespace the first time one of
+ * its statements, result maps, parameter maps, key generators, caches or sql
+ * fragments is looked up.
+ *
+ * <p>
+ * The expensive part of the parsing (reading the resource and building the
+ * DOM) runs on the requesting thread without any lock, so that a cold
+ * namespace never stalls the lookups of the other namespaces. Only the
+ * registration of the parsed elements into the configuration is serialized,
+ * see {@link MyBatisMapperConcurrentConfiguration}. The lookups of the
+ * materialized namespaces never take a lock. A namespace whose mapper files
+ * fail to be parsed registers nothing and remains pending.
+ *
+ * <p>
+ * The mapper files declaring a cache are parsed when indexed by the factory
+ * bean, so that the caches are registered before the statements of the mapper
+ * interfaces, in the same order as the eager parsing.
+ *
+ * <p>
+ * Enabled by {@link MyBatisMapperSqlSessionFactoryBean#setLazyMapperLoading(boolean)},
+ * or by passing an instance of this class as the {@code configuration} of
+ * the factory bean.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperLazyConfiguration extends MyBatisMapperConcurrentConfiguration {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperLazyConfiguration.class );
+	private static final Pattern CACHE = Pattern.compile( "<cache\\b" );
+
+	private final ConcurrentMap<String, List<Resource>> pendingNamespaces = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, CompletableFuture<List<XMLMapperBuilder>>> parsingNamespaces = new ConcurrentHashMap<>();
+	private final Set<String> cacheNamespaces = new LinkedHashSet<>();
+	// Only accessed by the holder of the registration lock
+	private final Set<String> registeringNamespaces = new HashSet<>();
+
+	public MyBatisMapperLazyConfiguration() {
+		super();
+	}
+
+	public MyBatisMapperLazyConfiguration( Environment environment ) {
+		super( environment );
+	}
+
+	/**
+	 * Index the namespace of the mapper file, without parsing it.
+	 *
+	 * @param mapperLocation the mapper file
+	 * @throws IOException if failed to read the mapper file
+	 */
+	void addMapperLocation( Resource mapperLocation ) throws IOException {
+		byte [] bytes;
+		try ( InputStream in = mapperLocation.getInputStream() ) {
+			bytes = StreamUtils.copyToByteArray( in );
+		}
+		String namespace = MyBatisMapperReloader.namespaceOf( bytes );
+		if ( namespace == null || namespace.isEmpty() ) {
+			throw new BuilderException( "Mapper's namespace cannot be empty" );
+		}
+		pendingNamespaces.computeIfAbsent( namespace, ns -> new CopyOnWriteArrayList<>() ).add( mapperLocation );
+		if ( CACHE.matcher( new String( bytes, ISO_8859_1 ) ).find() ) {
+			cacheNamespaces.add( namespace );
+		}
+		// Prevent the mapper interfaces from loading the xml next to them
+		addLoadedResource( "namespace:" + namespace );
+	}
+
+	/**
+	 * Parse the namespaces declaring a {@code <cache>} or a {@code <cache-ref>}
+	 * right away, so that their caches are registered before the statements of
+	 * the mapper interfaces and of mybatis-mapper, as in the eager parsing.
+	 *
+	 * @return the number of the parsed namespaces
+	 */
+	int materializeCacheNamespaces() {
+		int count = 0;
+		for ( String namespace : cacheNamespaces ) {
+			if ( materialize( namespace ) ) {
+				count ++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the namespaces whose mapper files are not parsed yet
+	 */
+	public Set<String> getPendingNamespaces() {
+		return Collections.unmodifiableSet( pendingNamespaces.keySet() );
+	}
+
+	/**
+	 * Parse the mapper files of the namespace if not parsed yet. The namespace
+	 * remains pending if its mapper files fail to be parsed, nothing of them is
+	 * registered, and the next lookup parses them again.
+	 *
+	 * @param namespace the mapper namespace
+	 * @return {@code true} if the namespace is parsed by this call
+	 */
+	public boolean materialize( String namespace ) {
+		while ( true ) {
+			List<Resource> mapperLocations = pendingNamespaces.get( namespace );
+			// The lookups of the namespace being registered by the current thread
+			if ( mapperLocations == null || registrationLock.isHeldByCurrentThread() && registeringNamespaces.contains( namespace ) ) {
+				return false;
+			}
+			CompletableFuture<List<XMLMapperBuilder>> future = parse( namespace, mapperLocations );
+			List<XMLMapperBuilder> builders;
+			try {
+				builders = future.join();
+			} catch ( CompletionException e ) {
+				throw ( RuntimeException ) e.getCause();
+			}
+			registrationLock.lock();
+			try {
+				if ( !pendingNamespaces.containsKey( namespace ) ) {
+					return false;
+				}
+				if ( parsingNamespaces.get( namespace ) != future ) {
+					// The builders are used by a failed registration, parse again
+					continue;
+				}
+				long start = System.nanoTime();
+				Map<String, XMLMapperBuilder> resources = new LinkedHashMap<>();
+				for ( int i = 0; i < builders.size(); i ++ ) {
+					resources.put( mapperLocations.get( i ).toString(), builders.get( i ) );
+				}
+				registeringNamespaces.add( namespace );
+				try {
+					replaceMappers( resources, null );
+				} finally {
+					registeringNamespaces.remove( namespace );
+					parsingNamespaces.remove( namespace, future );
+				}
+				pendingNamespaces.remove( namespace );
+				LOGGER.debug( () -> "Materialized namespace '" + namespace + "' in " + ( System.nanoTime() - start ) / 1000 + "us" );
+				return true;
+			} finally {
+				registrationLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Read and build the DOM of the mapper files, the concurrent requests of
+	 * the same namespace share the work of the first one.
+	 */
+	private CompletableFuture<List<XMLMapperBuilder>> parse( String namespace, List<Resource> mapperLocations ) {
+		CompletableFuture<List<XMLMapperBuilder>> future = new CompletableFuture<>();
+		CompletableFuture<List<XMLMapperBuilder>> existing = parsingNamespaces.putIfAbsent( namespace, future );
+		if ( existing != null ) {
+			return existing;
+		}
+		try {
+			List<XMLMapperBuilder> builders = new ArrayList<>( mapperLocations.size() );
+			for ( Resource mapperLocation : mapperLocations ) {
+				try ( InputStream in = mapperLocation.getInputStream() ) {
+					builders.add( new XMLMapperBuilder( in, this, mapperLocation.toString(), getSqlFragments() ) );
+				} catch ( Exception e ) {
+					throw new BuilderException( "Failed to parse mapping resource: '" + mapperLocation + "'", e );
+				}
+			}
+			future.complete( builders );
+		} catch ( RuntimeException e ) {
+			parsingNamespaces.remove( namespace, future );
+			future.completeExceptionally( e );
+		}
+		return future;
+	}
+
+	/**
+	 * Materialize the namespace that the missing element belongs to, the
+	 * namespace is the longest indexed prefix of the id.
+	 */
+	@Override
+	protected void elementMissing( String id ) {
+		if ( pendingNamespaces.isEmpty() ) {
+			return;
+		}
+		for ( int end = id.length(); end > 0; end = id.lastIndexOf( '.', end - 1 ) ) {
+			String namespace = id.substring( 0, end );
+			if ( pendingNamespaces.containsKey( namespace ) ) {
+				materialize( namespace );
+				return;
+			}
+		}
+	}
+
+}
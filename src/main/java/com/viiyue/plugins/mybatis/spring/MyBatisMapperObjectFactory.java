@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * {@link DefaultObjectFactory} creating the entities registered in a
+ * {@link MyBatisMapperObjectWrapperFactory} through their generated
+ * no-argument constructors, any other object is created reflectively.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperObjectFactory extends DefaultObjectFactory {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient MyBatisMapperObjectWrapperFactory wrapperFactory;
+
+	/**
+	 * @param wrapperFactory the factory holding the generated constructors
+	 */
+	public MyBatisMapperObjectFactory( MyBatisMapperObjectWrapperFactory wrapperFactory ) {
+		Assert.notNull( wrapperFactory, "Property 'wrapperFactory' is required" );
+		this.wrapperFactory = wrapperFactory;
+	}
+
+	@Override
+	@SuppressWarnings( "unchecked" )
+	public <T> T create( Class<T> type, List<Class<?>> constructorArgTypes, List<Object> constructorArgs ) {
+		Supplier<Object> instantiator = constructorArgTypes == null || constructorArgTypes.isEmpty() ? wrapperFactory.getInstantiator( type ) : null;
+		if ( instantiator == null ) {
+			return super.create( type, constructorArgTypes, constructorArgs );
+		}
+		try {
+			return ( T ) instantiator.get();
+		} catch ( RuntimeException e ) {
+			throw new ReflectionException( "Error instantiating " + type + ". Cause: " + e, e );
+		}
+	}
+
+}
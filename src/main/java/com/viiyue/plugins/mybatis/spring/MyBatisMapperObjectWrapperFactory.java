@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+import org.apache.ibatis.reflection.wrapper.BeanWrapper;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>
+ * {@link ObjectWrapperFactory} reading and writing the properties of the
+ * registered entity classes through generated accessors instead of the
+ * reflective invocation of {@link BeanWrapper}, for the result mapping and the
+ * parameter binding.
+ *
+ * <p>
+ * The getters and setters of each registered class are bound at registration
+ * to {@link LambdaMetafactory} lambdas on JDK 9 and later, or to
+ * {@link MethodHandle}s on JDK 8, and its no-argument constructor is exposed
+ * to {@link MyBatisMapperObjectFactory}. Indexed properties, properties
+ * without accessor methods and the type metadata are still resolved by
+ * {@link BeanWrapper}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperObjectWrapperFactory implements ObjectWrapperFactory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperObjectWrapperFactory.class );
+	private static final Method PRIVATE_LOOKUP_IN = ReflectionUtils.findMethod( MethodHandles.class, "privateLookupIn", Class.class, Lookup.class );
+
+	private final Map<Class<?>, Accessors> accessors = new ConcurrentHashMap<>();
+
+	/**
+	 * Generate the accessors of the classes.
+	 *
+	 * @param types the entity classes
+	 */
+	public void register( Class<?> ... types ) {
+		for ( Class<?> type : types ) {
+			if ( type.isInterface() || type.isArray() || type.isPrimitive() || type.isEnum() || accessors.containsKey( type ) ) {
+				continue;
+			}
+			try {
+				accessors.put( type, new Accessors( type ) );
+			} catch ( Throwable e ) {
+				// Left to the reflective BeanWrapper
+				LOGGER.debug( () -> "Failed to generate the accessors of '" + type.getName() + "': " + e );
+			}
+		}
+	}
+
+	/**
+	 * @param type the entity class
+	 * @return whether the accessors of the class are generated
+	 */
+	public boolean isRegistered( Class<?> type ) {
+		return accessors.containsKey( type );
+	}
+
+	@Override
+	public boolean hasWrapperFor( Object object ) {
+		return accessors.containsKey( object.getClass() );
+	}
+
+	@Override
+	public ObjectWrapper getWrapperFor( MetaObject metaObject, Object object ) {
+		return new AccessorWrapper( metaObject, object, accessors.get( object.getClass() ) );
+	}
+
+	/**
+	 * @return the generated no-argument constructor of the class, or
+	 *         {@code null} if the class is not registered or has none
+	 */
+	Supplier<Object> getInstantiator( Class<?> type ) {
+		Accessors accessors = this.accessors.get( type );
+		return accessors == null ? null : accessors.instantiator;
+	}
+
+	/**
+	 * The lookup with private access in the class, which defines the lambdas
+	 * in the class loader of the class, or {@code null} on JDK 8.
+	 */
+	private static Lookup privateLookupIn( Class<?> type ) {
+		if ( PRIVATE_LOOKUP_IN != null ) {
+			try {
+				return ( Lookup ) PRIVATE_LOOKUP_IN.invoke( null, type, MethodHandles.lookup() );
+			} catch ( ReflectiveOperationException | RuntimeException e ) {
+				LOGGER.debug( () -> "Falling back to the method handles of '" + type.getName() + "': " + e );
+			}
+		}
+		return null;
+	}
+
+	private static MethodHandle unreflect( Method method ) throws IllegalAccessException {
+		ReflectionUtils.makeAccessible( method );
+		return MethodHandles.lookup().unreflect( method );
+	}
+
+	/**
+	 * The generated accessors of a class.
+	 */
+	private static final class Accessors {
+
+		private final Map<String, Function<Object, Object>> getters = new HashMap<>();
+		private final Map<String, BiConsumer<Object, Object>> setters = new HashMap<>();
+		private Supplier<Object> instantiator;
+
+		Accessors( Class<?> type ) throws Throwable {
+			Lookup lookup = privateLookupIn( type );
+			Reflector reflector = new Reflector( type );
+			for ( PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors( type ) ) {
+				String property = descriptor.getName();
+				Method getter = descriptor.getReadMethod();
+				if ( getter != null && reflector.hasGetter( property ) ) {
+					getters.put( property, getter( lookup, type, unreflect( getter ) ) );
+				}
+				// The setter chosen by the Introspector must accept the values of the type resolved by MyBatis
+				Method setter = descriptor.getWriteMethod();
+				if ( setter != null && reflector.hasSetter( property ) && ClassUtils.isAssignable( setter.getParameterTypes()[ 0 ], reflector.getSetterType( property ) ) ) {
+					setters.put( property, setter( lookup, type, unreflect( setter ) ) );
+				}
+			}
+			if ( !Modifier.isAbstract( type.getModifiers() ) ) {
+				try {
+					Constructor<?> constructor = type.getDeclaredConstructor();
+					ReflectionUtils.makeAccessible( constructor );
+					instantiator = instantiator( lookup, type, MethodHandles.lookup().unreflectConstructor( constructor ) );
+				} catch ( NoSuchMethodException e ) {
+					// Created by the constructor mappings
+				}
+			}
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private static Function<Object, Object> getter( Lookup lookup, Class<?> type, MethodHandle handle ) throws Throwable {
+			if ( lookup != null ) {
+				try {
+					MethodType instantiated = MethodType.methodType( handle.type().wrap().returnType(), type );
+					CallSite site = LambdaMetafactory.metafactory( lookup, "apply", MethodType.methodType( Function.class ),
+							MethodType.methodType( Object.class, Object.class ), handle, instantiated );
+					return ( Function<Object, Object> ) site.getTarget().invokeExact();
+				} catch ( LambdaConversionException | IllegalArgumentException e ) {
+					// Accessor not visible from the class, e.g. inherited from a package-private class
+				}
+			}
+			MethodHandle generic = handle.asType( MethodType.methodType( Object.class, Object.class ) );
+			return target -> {
+				try {
+					return generic.invokeExact( target );
+				} catch ( Throwable e ) {
+					throw new AccessorException( e );
+				}
+			};
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private static BiConsumer<Object, Object> setter( Lookup lookup, Class<?> type, MethodHandle handle ) throws Throwable {
+			if ( lookup != null ) {
+				try {
+					MethodType instantiated = MethodType.methodType( void.class, type, handle.type().wrap().parameterType( 1 ) );
+					CallSite site = LambdaMetafactory.metafactory( lookup, "accept", MethodType.methodType( BiConsumer.class ),
+							MethodType.methodType( void.class, Object.class, Object.class ), handle, instantiated );
+					return ( BiConsumer<Object, Object> ) site.getTarget().invokeExact();
+				} catch ( LambdaConversionException | IllegalArgumentException e ) {
+					// Same as the getters
+				}
+			}
+			MethodHandle generic = handle.asType( MethodType.methodType( void.class, Object.class, Object.class ) );
+			return ( target, value ) -> {
+				try {
+					generic.invokeExact( target, value );
+				} catch ( Throwable e ) {
+					throw new AccessorException( e );
+				}
+			};
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private static Supplier<Object> instantiator( Lookup lookup, Class<?> type, MethodHandle handle ) throws Throwable {
+			if ( lookup != null ) {
+				try {
+					CallSite site = LambdaMetafactory.metafactory( lookup, "get", MethodType.methodType( Supplier.class ),
+							MethodType.methodType( Object.class ), handle, MethodType.methodType( type ) );
+					return ( Supplier<Object> ) site.getTarget().invokeExact();
+				} catch ( LambdaConversionException | IllegalArgumentException e ) {
+					// Same as the getters
+				}
+			}
+			MethodHandle generic = handle.asType( MethodType.methodType( Object.class ) );
+			return () -> {
+				try {
+					return generic.invokeExact();
+				} catch ( Throwable e ) {
+					throw new AccessorException( e );
+				}
+			};
+		}
+
+	}
+
+	/**
+	 * Carries the exceptions of the method handles, which are not unwrapped
+	 * like the ones of {@link Method#invoke(Object, Object...)}.
+	 */
+	private static final class AccessorException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		AccessorException( Throwable cause ) {
+			super( cause );
+		}
+
+	}
+
+	/**
+	 * {@link BeanWrapper} calling the generated accessors of the simple
+	 * properties.
+	 */
+	private static final class AccessorWrapper extends BeanWrapper {
+
+		private final Object object;
+		private final Accessors accessors;
+
+		AccessorWrapper( MetaObject metaObject, Object object, Accessors accessors ) {
+			super( metaObject, object );
+			this.object = object;
+			this.accessors = accessors;
+		}
+
+		@Override
+		public Object get( PropertyTokenizer prop ) {
+			Function<Object, Object> getter = prop.getIndex() == null ? accessors.getters.get( prop.getName() ) : null;
+			if ( getter == null ) {
+				return super.get( prop );
+			}
+			try {
+				return getter.apply( object );
+			} catch ( Throwable e ) {
+				throw new ReflectionException( "Could not get property '" + prop.getName() + "' from " + object.getClass() + ".  Cause: " + unwrap( e ), unwrap( e ) );
+			}
+		}
+
+		@Override
+		public void set( PropertyTokenizer prop, Object value ) {
+			BiConsumer<Object, Object> setter = prop.getIndex() == null ? accessors.setters.get( prop.getName() ) : null;
+			if ( setter == null ) {
+				super.set( prop, value );
+				return;
+			}
+			try {
+				setter.accept( object, value );
+			} catch ( Throwable e ) {
+				throw new ReflectionException( "Could not set property '" + prop.getName() + "' of '" + object.getClass() + "' with value '" + value + "' Cause: " + unwrap( e ), unwrap( e ) );
+			}
+		}
+
+		private static Throwable unwrap( Throwable e ) {
+			return e instanceof AccessorException ? e.getCause() : e;
+		}
+
+	}
+
+}
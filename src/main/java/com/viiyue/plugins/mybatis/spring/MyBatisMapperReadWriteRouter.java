@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.scripting.xmltags.ChooseSqlNode;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
+import org.apache.ibatis.scripting.xmltags.IfSqlNode;
+import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
+import org.apache.ibatis.scripting.xmltags.SetSqlNode;
+import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TrimSqlNode;
+import org.apache.ibatis.scripting.xmltags.VarDeclSqlNode;
+import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>
+ * Executor plugin that routes the selects to the replicas of the
+ * {@link MyBatisMapperRoutingDataSource}, both the xml selects and the ones
+ * generated by mybatis-mapper. The writes, the callable statements, the
+ * locking selects ({@code FOR UPDATE}, {@code FOR SHARE},
+ * {@code LOCK IN SHARE MODE}), and any statement executed inside a Spring
+ * transaction or synchronization, stay on the primary data source.
+ *
+ * <p>
+ * The connection of a session is opened by its first statement, a session
+ * opened manually that starts with a select and then writes is rejected,
+ * such a session must be opened inside a transaction.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Intercepts( {
+	@Signature( type = Executor.class, method = "update", args = { MappedStatement.class, Object.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class } ),
+	@Signature( type = Executor.class, method = "queryCursor", args = { MappedStatement.class, Object.class, RowBounds.class } )
+} )
+final class MyBatisMapperReadWriteRouter implements Interceptor {
+
+	private static final Pattern LOCKING_CLAUSE = Pattern.compile(
+			"\\bFOR\\s+(?:NO\\s+KEY\\s+)?(?:UPDATE|SHARE|KEY\\s+SHARE)\\b|\\bLOCK\\s+IN\\s+SHARE\\s+MODE\\b", Pattern.CASE_INSENSITIVE );
+
+	// Any word of a locking clause in the text of a dynamic statement
+	private static final Pattern LOCKING_WORD = Pattern.compile( "\\b(?:FOR|LOCK)\\b", Pattern.CASE_INSENSITIVE );
+
+	private static final Field DYNAMIC_ROOT = accessible( DynamicSqlSource.class, "rootSqlNode" );
+	private static final Field STATIC_TEXT = accessible( StaticTextSqlNode.class, "text" );
+	private static final Field MIXED_CONTENTS = accessible( MixedSqlNode.class, "contents" );
+	private static final Field IF_CONTENTS = accessible( IfSqlNode.class, "contents" );
+	private static final Field CHOOSE_WHENS = accessible( ChooseSqlNode.class, "ifSqlNodes" );
+	private static final Field CHOOSE_OTHERWISE = accessible( ChooseSqlNode.class, "defaultSqlNode" );
+	private static final Field TRIM_CONTENTS = accessible( TrimSqlNode.class, "contents" );
+	private static final Field TRIM_PREFIX = accessible( TrimSqlNode.class, "prefix" );
+	private static final Field TRIM_SUFFIX = accessible( TrimSqlNode.class, "suffix" );
+	private static final Field FOREACH_CONTENTS = accessible( ForEachSqlNode.class, "contents" );
+	private static final Field FOREACH_OPEN = accessible( ForEachSqlNode.class, "open" );
+	private static final Field FOREACH_CLOSE = accessible( ForEachSqlNode.class, "close" );
+	private static final Field FOREACH_SEPARATOR = accessible( ForEachSqlNode.class, "separator" );
+
+	// Locking of the statements whose sql never changes, and for the dynamic
+	// statements whether their sql nodes can produce a locking clause at all
+	private final Map<MappedStatement, Boolean> staticLockings = new ConcurrentHashMap<>();
+
+	@Override
+	public Object intercept( Invocation invocation ) throws Throwable {
+		MappedStatement statement = ( MappedStatement ) invocation.getArgs()[ 0 ];
+		if ( statement.getSqlCommandType() != SqlCommandType.SELECT || isPrimaryOnly( statement, invocation.getArgs() ) ) {
+			Connection connection = ( ( Executor ) invocation.getTarget() ).getTransaction().getConnection();
+			if ( MyBatisMapperRoutingDataSource.isReplicaConnection( connection ) ) {
+				throw new PersistenceException( "Statement '" + statement.getId()
+						+ "' can not write on a replica connection, the session must be opened inside a transaction" );
+			}
+			return invocation.proceed();
+		}
+		if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+			return invocation.proceed();
+		}
+		return MyBatisMapperRoutingDataSource.read( invocation::proceed );
+	}
+
+	/**
+	 * The callable statements may write, and the locks of the locking selects
+	 * only make sense on the primary.
+	 */
+	private boolean isPrimaryOnly( MappedStatement statement, Object [] args ) {
+		if ( statement.getStatementType() == StatementType.CALLABLE ) {
+			return true;
+		}
+		SqlSource sqlSource = statement.getSqlSource();
+		if ( sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource ) {
+			return staticLockings.computeIfAbsent( statement, ms -> isLocking( ms.getBoundSql( args[ 1 ] ) ) );
+		}
+		// Only rendered when its sql nodes can produce a locking clause
+		if ( !staticLockings.computeIfAbsent( statement, ms -> mayLock( MyBatisMapperBoundSqlCache.delegateOf( sqlSource ) ) ) ) {
+			return false;
+		}
+		return isLocking( args.length == 6 ? ( BoundSql ) args[ 5 ] : statement.getBoundSql( args[ 1 ] ) );
+	}
+
+	private static boolean isLocking( BoundSql boundSql ) {
+		return LOCKING_CLAUSE.matcher( boundSql.getSql() ).find();
+	}
+
+	/**
+	 * Whether the sql of a dynamic source can contain a locking clause: any of
+	 * its texts mentions {@code FOR} or {@code LOCK}, or it has {@code ${}}
+	 * substitutions or nodes of a custom language, which can not be scanned.
+	 */
+	private static boolean mayLock( SqlSource sqlSource ) {
+		return sqlSource.getClass() != DynamicSqlSource.class || mayLock( ( SqlNode ) ReflectionUtils.getField( DYNAMIC_ROOT, sqlSource ) );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static boolean mayLock( SqlNode node ) {
+		if ( node == null || node.getClass() == VarDeclSqlNode.class ) {
+			return false;
+		}
+		if ( node.getClass() == StaticTextSqlNode.class ) {
+			return mayLock( ( String ) ReflectionUtils.getField( STATIC_TEXT, node ) );
+		}
+		if ( node.getClass() == MixedSqlNode.class ) {
+			return mayLock( ( List<SqlNode> ) ReflectionUtils.getField( MIXED_CONTENTS, node ) );
+		}
+		if ( node.getClass() == IfSqlNode.class ) {
+			return mayLock( ( SqlNode ) ReflectionUtils.getField( IF_CONTENTS, node ) );
+		}
+		if ( node.getClass() == ChooseSqlNode.class ) {
+			return mayLock( ( List<SqlNode> ) ReflectionUtils.getField( CHOOSE_WHENS, node ) )
+					|| mayLock( ( SqlNode ) ReflectionUtils.getField( CHOOSE_OTHERWISE, node ) );
+		}
+		if ( node.getClass() == TrimSqlNode.class || node.getClass() == WhereSqlNode.class || node.getClass() == SetSqlNode.class ) {
+			return mayLock( ( String ) ReflectionUtils.getField( TRIM_PREFIX, node ) ) || mayLock( ( String ) ReflectionUtils.getField( TRIM_SUFFIX, node ) )
+					|| mayLock( ( SqlNode ) ReflectionUtils.getField( TRIM_CONTENTS, node ) );
+		}
+		if ( node.getClass() == ForEachSqlNode.class ) {
+			return mayLock( ( String ) ReflectionUtils.getField( FOREACH_OPEN, node ) ) || mayLock( ( String ) ReflectionUtils.getField( FOREACH_CLOSE, node ) )
+					|| mayLock( ( String ) ReflectionUtils.getField( FOREACH_SEPARATOR, node ) )
+					|| mayLock( ( SqlNode ) ReflectionUtils.getField( FOREACH_CONTENTS, node ) );
+		}
+		// ${} substitutions and custom nodes
+		return true;
+	}
+
+	private static boolean mayLock( List<SqlNode> nodes ) {
+		for ( SqlNode node : nodes ) {
+			if ( mayLock( node ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean mayLock( String text ) {
+		return text != null && LOCKING_WORD.matcher( text ).find();
+	}
+
+	private static Field accessible( Class<?> type, String name ) {
+		Field field = ReflectionUtils.findField( type, name );
+		ReflectionUtils.makeAccessible( field );
+		return field;
+	}
+
+	@Override
+	public Object plugin( Object target ) {
+		return Plugin.wrap( target, this );
+	}
+
+	@Override
+	public void setProperties( Properties properties ) {
+	}
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * <p>
+ * Executor plugin that holds back the statements executed before the
+ * background refactoring of mybatis-mapper has finished.
+ *
+ * <p>
+ * Depending on the wait timeout, the early calls either wait for the
+ * refactoring (negative timeout waits forever), or fail fast with a
+ * {@link PersistenceException} (zero timeout). Once the refactoring is
+ * completed, the plugin costs a single volatile read per call.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Intercepts( {
+	@Signature( type = Executor.class, method = "update", args = { MappedStatement.class, Object.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class } ),
+	@Signature( type = Executor.class, method = "queryCursor", args = { MappedStatement.class, Object.class, RowBounds.class } )
+} )
+final class MyBatisMapperRefactoringGate implements Interceptor {
+
+	private final CompletableFuture<Void> refactored = new CompletableFuture<>();
+	private final long waitTimeout;
+	private volatile boolean open;
+
+	MyBatisMapperRefactoringGate( long waitTimeout ) {
+		this.waitTimeout = waitTimeout;
+	}
+
+	void complete() {
+		this.refactored.complete( null );
+		this.open = true;
+	}
+
+	void fail( Throwable cause ) {
+		this.refactored.completeExceptionally( cause );
+	}
+
+	@Override
+	public Object intercept( Invocation invocation ) throws Throwable {
+		if ( !open ) {
+			MappedStatement statement = ( MappedStatement ) invocation.getArgs()[ 0 ];
+			await( statement.getId() );
+			// The statement may have been replaced by the refactoring
+			invocation.getArgs()[ 0 ] = statement.getConfiguration().getMappedStatement( statement.getId() );
+		}
+		return invocation.proceed();
+	}
+
+	private void await( String statementId ) {
+		try {
+			if ( waitTimeout < 0 ) {
+				refactored.get();
+			} else if ( waitTimeout == 0 ) {
+				if ( !refactored.isDone() ) {
+					throw new PersistenceException( "Mybatis-mapper is still refactoring, cannot execute '" + statementId + "' yet" );
+				}
+				refactored.get();
+			} else {
+				refactored.get( waitTimeout, TimeUnit.MILLISECONDS );
+			}
+		} catch ( TimeoutException e ) {
+			throw new PersistenceException( "Timed out waiting for mybatis-mapper refactoring to execute '" + statementId + "'", e );
+		} catch ( ExecutionException e ) {
+			throw new PersistenceException( "Mybatis-mapper refactoring failed, cannot execute '" + statementId + "'", e.getCause() );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException( "Interrupted while waiting for mybatis-mapper refactoring to execute '" + statementId + "'", e );
+		}
+	}
+
+	@Override
+	public Object plugin( Object target ) {
+		return Plugin.wrap( target, this );
+	}
+
+	@Override
+	public void setProperties( Properties properties ) {
+	}
+
+}
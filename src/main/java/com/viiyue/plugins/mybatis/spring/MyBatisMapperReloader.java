@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperConcurrentConfiguration.Elements;
+
+/**
+ * <p>
+ * Watches the file system mapper resources and reloads the changed ones into
+ * the running {@link MyBatisMapperConcurrentConfiguration}, without re-parsing
+ * the unchanged resources nor re-running the mybatis-mapper refactoring.
+ *
+ * <p>
+ * A changed resource is parsed under its real namespace into the staging area
+ * of the configuration, so that the current statements keep serving while it
+ * is parsed, and a broken resource leaves them untouched. Only the elements
+ * declared by the previous content of the resource are then replaced or
+ * removed, the statements registered by the mapper interfaces and by
+ * mybatis-mapper are never touched. The elements are published into the
+ * concurrent registries of the configuration, which never block the lookups.
+ *
+ * <p>
+ * Statements of other namespaces that already resolved a result map, a cache
+ * reference or an sql fragment of the reloaded namespace keep the resolved one
+ * until their own resource is reloaded. The reloaded statements are not
+ * post-processed again: they use the caches, fetch sizes and bound sql of plain
+ * MyBatis.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+final class MyBatisMapperReloader implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperReloader.class );
+
+	private static final Pattern NAMESPACE = Pattern.compile( "<mapper\\b[^>]*?\\bnamespace\\s*=\\s*([\"'])(.*?)\\1", Pattern.DOTALL );
+	private static final Pattern ENCODING = Pattern.compile( "^<\\?xml[^>]*?\\bencoding\\s*=\\s*[\"']([^\"']+)[\"']" );
+
+	private final MyBatisMapperConcurrentConfiguration configuration;
+	private final long interval;
+	private final Map<Path, Resource> resources = new LinkedHashMap<>();
+	private final Map<Path, byte []> contents = new HashMap<>();
+	private final Map<Path, Elements> declarations = new HashMap<>();
+	private WatchService watchService;
+
+	/**
+	 * @param configuration the running configuration
+	 * @param mapperLocations the mapper resources, the ones not on the file system are ignored
+	 * @param interval the quiet time in milliseconds to wait for the other changes of a batch
+	 */
+	MyBatisMapperReloader( MyBatisMapperConcurrentConfiguration configuration, Resource [] mapperLocations, long interval ) {
+		this.configuration = configuration;
+		this.interval = interval;
+		for ( Resource mapperLocation : mapperLocations ) {
+			if ( mapperLocation == null ) {
+				continue;
+			}
+			try {
+				Path path = mapperLocation.getFile().toPath().toAbsolutePath().normalize();
+				this.resources.put( path, mapperLocation );
+				this.contents.put( path, Files.readAllBytes( path ) );
+			} catch ( IOException e ) {
+				LOGGER.debug( () -> "Mapper resource is not on the file system and will not be reloaded: '" + mapperLocation + "'" );
+			}
+		}
+	}
+
+	/**
+	 * Start to watch the parent directories of the mapper resources.
+	 *
+	 * @throws IOException if failed to register a directory
+	 */
+	void start() throws IOException {
+		if ( resources.isEmpty() ) {
+			return;
+		}
+		this.watchService = FileSystems.getDefault().newWatchService();
+		Set<Path> directories = new LinkedHashSet<>();
+		for ( Path path : resources.keySet() ) {
+			if ( directories.add( path.getParent() ) ) {
+				path.getParent().register( watchService, ENTRY_CREATE, ENTRY_MODIFY );
+			}
+		}
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "mybatis-mapper-reloading-" );
+		threadFactory.setDaemon( true );
+		threadFactory.newThread( this::watch ).start();
+		LOGGER.debug( () -> "Watching " + resources.size() + " mapper resources in " + directories );
+	}
+
+	@Override
+	public void close() throws IOException {
+		if ( watchService != null ) {
+			watchService.close();
+		}
+	}
+
+	private void watch() {
+		try {
+			while ( true ) {
+				Set<Path> changes = new LinkedHashSet<>();
+				collect( watchService.take(), changes );
+				// Wait for the rest of the batch, editors and builds usually write several times
+				WatchKey key;
+				while ( ( key = watchService.poll( interval, TimeUnit.MILLISECONDS ) ) != null ) {
+					collect( key, changes );
+				}
+				for ( Path path : changes ) {
+					try {
+						reload( path );
+					} catch ( Exception e ) {
+						LOGGER.error( () -> "Failed to reload mapping resource: '" + resources.get( path ) + "'", e );
+					}
+				}
+			}
+		} catch ( ClosedWatchServiceException | InterruptedException e ) {
+			// Stopped
+		}
+	}
+
+	private void collect( WatchKey key, Set<Path> changes ) {
+		Path directory = ( Path ) key.watchable();
+		for ( WatchEvent<?> event : key.pollEvents() ) {
+			if ( event.context() instanceof Path ) {
+				Path path = directory.resolve( ( Path ) event.context() ).toAbsolutePath().normalize();
+				if ( resources.containsKey( path ) ) {
+					changes.add( path );
+				}
+			}
+		}
+		key.reset();
+	}
+
+	/**
+	 * Reload the mapper resource if its content has changed.
+	 *
+	 * @param path the path of the mapper resource
+	 * @return whether the resource is reloaded
+	 * @throws IOException if failed to read the resource
+	 */
+	synchronized boolean reload( Path path ) throws IOException {
+		Resource resource = resources.get( path );
+		byte [] bytes = Files.readAllBytes( path );
+		if ( resource == null || Arrays.equals( bytes, contents.get( path ) ) ) {
+			return false;
+		}
+
+		String namespace = namespaceOf( bytes );
+		if ( namespace == null || namespace.isEmpty() ) {
+			throw new BuilderException( "Mapper's namespace cannot be empty: '" + resource + "'" );
+		}
+		if ( configuration instanceof MyBatisMapperLazyConfiguration && ( ( MyBatisMapperLazyConfiguration ) configuration ).materialize( namespace ) ) {
+			// Never used so far, the first parsing already reads the changes
+			contents.put( path, bytes );
+			return true;
+		}
+
+		// Find out the elements owned by the resource from the content registered previously
+		String resourceName = resource.toString();
+		Elements replaced = declarations.get( path );
+		if ( replaced == null ) {
+			replaced = configuration.parseMappers( builders( resourceName, contents.get( path ) ) );
+		}
+		Elements published = configuration.replaceMappers( builders( resourceName, bytes ), replaced );
+		declarations.put( path, published );
+		contents.put( path, bytes );
+
+		LOGGER.debug( () -> "Reloaded mapping resource: '" + resourceName + "', " + published.size() + " elements of namespace '" + namespace + "' published" );
+		return true;
+	}
+
+	private Map<String, XMLMapperBuilder> builders( String resourceName, byte [] bytes ) {
+		XMLMapperBuilder builder = new XMLMapperBuilder( new ByteArrayInputStream( bytes ), configuration, resourceName, configuration.getSqlFragments() );
+		return Collections.singletonMap( resourceName, builder );
+	}
+
+	/**
+	 * Read the namespace of the mapper file without parsing the document.
+	 *
+	 * @param bytes the content of the mapper file
+	 * @return the namespace, or {@code null} if not found
+	 */
+	static String namespaceOf( byte [] bytes ) {
+		String content = new String( bytes, ISO_8859_1 );
+		Matcher matcher = NAMESPACE.matcher( content );
+		return matcher.find() ? new String( matcher.group( 2 ).getBytes( ISO_8859_1 ), charsetOf( content ) ) : null;
+	}
+
+	private static Charset charsetOf( String content ) {
+		Matcher matcher = ENCODING.matcher( content );
+		try {
+			return matcher.find() ? Charset.forName( matcher.group( 1 ) ) : StandardCharsets.UTF_8;
+		} catch ( IllegalArgumentException e ) {
+			return StandardCharsets.UTF_8;
+		}
+	}
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.core.InfrastructureProxy;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * {@link DataSource} that hands out the connections of the primary data
+ * source, except for the reads marked by {@link #read(ReadOperation)}, which
+ * go to the replica with the least outstanding connections. A failing replica
+ * falls back to the primary data source.
+ *
+ * <p>
+ * Exposes the primary data source as its {@link InfrastructureProxy} target,
+ * so that the connections bound by a transaction manager of the primary data
+ * source are found through this data source as well.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperRoutingDataSource extends AbstractDataSource implements InfrastructureProxy {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperRoutingDataSource.class );
+	private static final ThreadLocal<Boolean> READING = new ThreadLocal<>();
+
+	private final DataSource primary;
+	private final Replica [] replicas;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/**
+	 * A read operation to be routed to a replica
+	 */
+	@FunctionalInterface
+	interface ReadOperation<T> {
+		T read() throws Throwable;
+	}
+
+	/**
+	 * @param primary the primary data source for the writes and the transactions
+	 * @param replicas the replica data sources for the reads
+	 */
+	public MyBatisMapperRoutingDataSource( DataSource primary, DataSource ... replicas ) {
+		Assert.notNull( primary, "Primary data source is required" );
+		Assert.notEmpty( replicas, "At least one replica data source is required" );
+		this.primary = primary;
+		this.replicas = new Replica[ replicas.length ];
+		for ( int i = 0; i < replicas.length; i ++ ) {
+			this.replicas[ i ] = new Replica( replicas[ i ] );
+		}
+	}
+
+	/**
+	 * Route the connections requested by the operation to the replicas.
+	 *
+	 * @param operation the read operation
+	 * @return the result of the operation
+	 * @throws Throwable any exception thrown by the operation
+	 */
+	static <T> T read( ReadOperation<T> operation ) throws Throwable {
+		Boolean previous = READING.get();
+		READING.set( Boolean.TRUE );
+		try {
+			return operation.read();
+		} finally {
+			if ( previous == null ) {
+				READING.remove();
+			} else {
+				READING.set( previous );
+			}
+		}
+	}
+
+	/**
+	 * @param connection the connection to check
+	 * @return whether the connection is handed out by a replica
+	 */
+	static boolean isReplicaConnection( Connection connection ) {
+		return Proxy.isProxyClass( connection.getClass() ) && Proxy.getInvocationHandler( connection ) instanceof ReplicaConnection;
+	}
+
+	/**
+	 * @return the primary data source
+	 */
+	public DataSource getPrimary() {
+		return primary;
+	}
+
+	/**
+	 * @return the number of outstanding connections of each replica
+	 */
+	public int [] getOutstandingRequests() {
+		int [] outstanding = new int[ replicas.length ];
+		for ( int i = 0; i < replicas.length; i ++ ) {
+			outstanding[ i ] = replicas[ i ].outstanding.get();
+		}
+		return outstanding;
+	}
+
+	@Override
+	public Object getWrappedObject() {
+		return primary;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getConnection( null, null );
+	}
+
+	@Override
+	public Connection getConnection( String username, String password ) throws SQLException {
+		if ( READING.get() == null ) {
+			return connect( primary, username, password );
+		}
+		Replica replica = leastOutstanding();
+		replica.outstanding.incrementAndGet();
+		try {
+			Connection connection = connect( replica.dataSource, username, password );
+			return ( Connection ) Proxy.newProxyInstance( Connection.class.getClassLoader(), new Class<?> [] { Connection.class },
+					new ReplicaConnection( connection, replica ) );
+		} catch ( SQLException | RuntimeException e ) {
+			replica.outstanding.decrementAndGet();
+			LOGGER.warn( () -> "Failed to connect to the replica, falling back to the primary: " + e.getMessage() );
+			return connect( primary, username, password );
+		}
+	}
+
+	private Replica leastOutstanding() {
+		// Start from a rotating replica to spread the ties
+		int start = nextReplica.getAndIncrement();
+		Replica least = null;
+		for ( int i = 0; i < replicas.length; i ++ ) {
+			Replica replica = replicas[ Math.floorMod( start + i, replicas.length ) ];
+			if ( least == null || replica.outstanding.get() < least.outstanding.get() ) {
+				least = replica;
+			}
+		}
+		return least;
+	}
+
+	private static Connection connect( DataSource dataSource, String username, String password ) throws SQLException {
+		return username == null && password == null ? dataSource.getConnection() : dataSource.getConnection( username, password );
+	}
+
+	private static final class Replica {
+
+		private final DataSource dataSource;
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		Replica( DataSource dataSource ) {
+			this.dataSource = dataSource;
+		}
+
+	}
+
+	/**
+	 * Releases the outstanding count of the replica when the connection is closed.
+	 */
+	private static final class ReplicaConnection implements InvocationHandler {
+
+		private final Connection target;
+		private final Replica replica;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		ReplicaConnection( Connection target, Replica replica ) {
+			this.target = target;
+			this.replica = replica;
+		}
+
+		@Override
+		public Object invoke( Object proxy, Method method, Object [] args ) throws Throwable {
+			switch ( method.getName() ) {
+				case "equals":
+					return proxy == args[ 0 ];
+				case "hashCode":
+					return System.identityHashCode( proxy );
+				case "close":
+					if ( closed.compareAndSet( false, true ) ) {
+						replica.outstanding.decrementAndGet();
+					}
+					break;
+				default:
+					break;
+			}
+			try {
+				return method.invoke( target, args );
+			} catch ( InvocationTargetException e ) {
+				throw e.getTargetException();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.CachingExecutor;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ReuseExecutor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * Lightweight {@link SqlSessionFactory} of a tenant or a shard, which shares
+ * the parsed and refactored {@link Configuration} of a template factory, and
+ * only owns its {@link Environment}.
+ *
+ * <p>
+ * The sessions are opened on the data source of the shard, and the
+ * second-level cache entries are isolated by adding the shard id to the cache
+ * keys, so that the shards never read the cached results of each other.
+ * Everything else (statements, result maps, type handlers, plugins) is shared.
+ *
+ * <p>
+ * The shared {@link Configuration} still refers to the environment of the
+ * template factory, and so does every component that reads it instead of the
+ * session: the lazy loaders of MyBatis reopen the closed sessions on the data
+ * source of the template, and the {@code SqlSessionTemplate} of mybatis-spring
+ * translates the exceptions with the error codes of the template data source.
+ * The lazy loading is therefore rejected, globally or by any nested select of
+ * the registered result maps. The result maps registered later, by the lazy
+ * parsing or the reloading of the mapper files, are not checked. The
+ * shard sessions only join the Spring transactions if the template uses a
+ * {@code SpringManagedTransactionFactory}.
+ *
+ * <p>
+ * Created by {@link MyBatisMapperSqlSessionFactoryBean#createShardSqlSessionFactory(String, DataSource)}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperShardSqlSessionFactory implements SqlSessionFactory {
+
+	private final Configuration configuration;
+	private final Environment environment;
+
+	/**
+	 * @param configuration the shared template configuration
+	 * @param shardId the unique id of the shard
+	 * @param transactionFactory the transaction factory of the shard
+	 * @param dataSource the data source of the shard
+	 * @throws IllegalStateException if the template configuration loads any property lazily
+	 */
+	public MyBatisMapperShardSqlSessionFactory( Configuration configuration, String shardId, TransactionFactory transactionFactory, DataSource dataSource ) {
+		Assert.notNull( configuration, "Template configuration is required" );
+		Assert.state( !configuration.isLazyLoadingEnabled(), "Lazy loading is not supported by the shard factories, "
+				+ "the lazy loaders would read the environment of the template configuration" );
+		for ( Object resultMap : configuration.getResultMaps() ) {
+			// The values of StrictMap also contain the ambiguous short names
+			if ( resultMap instanceof ResultMap ) {
+				for ( ResultMapping mapping : ( ( ResultMap ) resultMap ).getPropertyResultMappings() ) {
+					if ( mapping.getNestedQueryId() != null && mapping.isLazy() ) {
+						throw new IllegalStateException( "Lazy loading is not supported by the shard factories, property '"
+								+ mapping.getProperty() + "' of result map '" + ( ( ResultMap ) resultMap ).getId() + "' is loaded lazily" );
+					}
+				}
+			}
+		}
+		this.configuration = configuration;
+		this.environment = new Environment( shardId, transactionFactory, dataSource );
+	}
+
+	/**
+	 * @return the environment of the shard
+	 */
+	public Environment getEnvironment() {
+		return environment;
+	}
+
+	@Override
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	@Override
+	public SqlSession openSession() {
+		return openSessionFromDataSource( null, null, false );
+	}
+
+	@Override
+	public SqlSession openSession( boolean autoCommit ) {
+		return openSessionFromDataSource( null, null, autoCommit );
+	}
+
+	@Override
+	public SqlSession openSession( ExecutorType execType ) {
+		return openSessionFromDataSource( execType, null, false );
+	}
+
+	@Override
+	public SqlSession openSession( TransactionIsolationLevel level ) {
+		return openSessionFromDataSource( null, level, false );
+	}
+
+	@Override
+	public SqlSession openSession( ExecutorType execType, TransactionIsolationLevel level ) {
+		return openSessionFromDataSource( execType, level, false );
+	}
+
+	@Override
+	public SqlSession openSession( ExecutorType execType, boolean autoCommit ) {
+		return openSessionFromDataSource( execType, null, autoCommit );
+	}
+
+	@Override
+	public SqlSession openSession( Connection connection ) {
+		return openSessionFromConnection( null, connection );
+	}
+
+	@Override
+	public SqlSession openSession( ExecutorType execType, Connection connection ) {
+		return openSessionFromConnection( execType, connection );
+	}
+
+	private SqlSession openSessionFromDataSource( ExecutorType execType, TransactionIsolationLevel level, boolean autoCommit ) {
+		Transaction tx = null;
+		try {
+			tx = environment.getTransactionFactory().newTransaction( environment.getDataSource(), level, autoCommit );
+			return new DefaultSqlSession( configuration, newExecutor( tx, execType ), autoCommit );
+		} catch ( Exception e ) {
+			closeTransaction( tx );
+			throw ExceptionFactory.wrapException( "Error opening session.  Cause: " + e, e );
+		} finally {
+			ErrorContext.instance().reset();
+		}
+	}
+
+	private SqlSession openSessionFromConnection( ExecutorType execType, Connection connection ) {
+		try {
+			boolean autoCommit;
+			try {
+				autoCommit = connection.getAutoCommit();
+			} catch ( SQLException e ) {
+				// Failover to true, as most poor drivers or databases won't support transactions
+				autoCommit = true;
+			}
+			Transaction tx = environment.getTransactionFactory().newTransaction( connection );
+			return new DefaultSqlSession( configuration, newExecutor( tx, execType ), autoCommit );
+		} catch ( Exception e ) {
+			throw ExceptionFactory.wrapException( "Error opening session.  Cause: " + e, e );
+		} finally {
+			ErrorContext.instance().reset();
+		}
+	}
+
+	/**
+	 * Same as {@link Configuration#newExecutor(Transaction, ExecutorType)},
+	 * except that the shard executor sits between the caching executor and the
+	 * base executor to isolate the cache keys, and that the entity cache is
+	 * skipped.
+	 */
+	private Executor newExecutor( Transaction transaction, ExecutorType executorType ) {
+		executorType = executorType == null ? configuration.getDefaultExecutorType() : executorType;
+		executorType = executorType == null ? ExecutorType.SIMPLE : executorType;
+		Executor executor;
+		if ( ExecutorType.BATCH == executorType ) {
+			executor = new BatchExecutor( configuration, transaction );
+		} else if ( ExecutorType.REUSE == executorType ) {
+			executor = new ReuseExecutor( configuration, transaction );
+		} else {
+			executor = new SimpleExecutor( configuration, transaction );
+		}
+		if ( configuration.isCacheEnabled() ) {
+			executor = new CachingExecutor( new ShardExecutor( executor, environment.getId() ) );
+		}
+		for ( Interceptor interceptor : configuration.getInterceptors() ) {
+			// The entity cache is not keyed by shard
+			if ( interceptor instanceof MyBatisMapperEntityCache ) {
+				continue;
+			}
+			executor = ( Executor ) interceptor.plugin( executor );
+		}
+		return executor;
+	}
+
+	private void closeTransaction( Transaction tx ) {
+		if ( tx != null ) {
+			try {
+				tx.close();
+			} catch ( SQLException ignore ) {
+				// Intentionally ignore. Prefer previous error.
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MyBatisMapperShardSqlSessionFactory [" + environment.getId() + "]";
+	}
+
+	/**
+	 * Adds the shard id to the cache keys created for the caching executor.
+	 */
+	private static final class ShardExecutor implements Executor {
+
+		private final Executor delegate;
+		private final String shardId;
+
+		ShardExecutor( Executor delegate, String shardId ) {
+			this.delegate = delegate;
+			this.shardId = shardId;
+		}
+
+		@Override
+		public CacheKey createCacheKey( MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql ) {
+			CacheKey cacheKey = delegate.createCacheKey( ms, parameterObject, rowBounds, boundSql );
+			cacheKey.update( shardId );
+			return cacheKey;
+		}
+
+		@Override
+		public int update( MappedStatement ms, Object parameter ) throws SQLException {
+			return delegate.update( ms, parameter );
+		}
+
+		@Override
+		public <E> List<E> query( MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey cacheKey, BoundSql boundSql ) throws SQLException {
+			return delegate.query( ms, parameter, rowBounds, resultHandler, cacheKey, boundSql );
+		}
+
+		@Override
+		public <E> List<E> query( MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler ) throws SQLException {
+			return delegate.query( ms, parameter, rowBounds, resultHandler );
+		}
+
+		@Override
+		public <E> Cursor<E> queryCursor( MappedStatement ms, Object parameter, RowBounds rowBounds ) throws SQLException {
+			return delegate.queryCursor( ms, parameter, rowBounds );
+		}
+
+		@Override
+		public List<BatchResult> flushStatements() throws SQLException {
+			return delegate.flushStatements();
+		}
+
+		@Override
+		public void commit( boolean required ) throws SQLException {
+			delegate.commit( required );
+		}
+
+		@Override
+		public void rollback( boolean required ) throws SQLException {
+			delegate.rollback( required );
+		}
+
+		@Override
+		public boolean isCached( MappedStatement ms, CacheKey key ) {
+			return delegate.isCached( ms, key );
+		}
+
+		@Override
+		public void clearLocalCache() {
+			delegate.clearLocalCache();
+		}
+
+		@Override
+		public void deferLoad( MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType ) {
+			delegate.deferLoad( ms, resultObject, property, key, targetType );
+		}
+
+		@Override
+		public Transaction getTransaction() {
+			return delegate.getTransaction();
+		}
+
+		@Override
+		public void close( boolean forceRollback ) {
+			delegate.close( forceRollback );
+		}
+
+		@Override
+		public boolean isClosed() {
+			return delegate.isClosed();
+		}
+
+		@Override
+		public void setExecutorWrapper( Executor executor ) {
+			delegate.setExecutorWrapper( executor );
+		}
+
+	}
+
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ResourceUtils;
+import org.springframework.util.StreamUtils;
+
+import com.viiyue.plugins.mybatis.scripting.MyBatisMapperBuilder;
+
+/**
+ * <p>
+ * On-disk snapshot of the statements generated by
+ * {@link MyBatisMapperBuilder#refactoring(Configuration)}, used to skip the
+ * refactoring at the next startup when nothing has changed.
+ *
+ * <p>
+ * The snapshot is keyed by a fingerprint of the mapper xml files, the mapper
+ * interfaces (including their super interfaces and the entity types resolved
+ * from their generic arguments), the registered type aliases, the
+ * configuration properties and the mybatis-mapper library itself (the jar
+ * content, or its location and version). A snapshot
+ * is only written when the refactoring did nothing else than replacing the
+ * {@link SqlSource} of existing statements by static sql, because only that
+ * can be faithfully restored; otherwise the refactoring is simply executed on
+ * every startup. Stale (fingerprint mismatch) or corrupted (checksum
+ * mismatch) snapshots are discarded and rebuilt.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+final class MyBatisMapperSnapshot {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperSnapshot.class );
+
+	private static final int MAGIC = 0x4D4D5353; // MMSS
+	private static final int FORMAT_VERSION = 1;
+
+	private final File location;
+	private final Configuration configuration;
+
+	MyBatisMapperSnapshot( File location, Configuration configuration ) {
+		this.location = location;
+		this.configuration = configuration;
+	}
+
+	/**
+	 * Compute the fingerprint of everything that the refactoring depends on.
+	 *
+	 * @param mapperLocations the mapper xml files, may be {@code null}
+	 * @param properties the configuration properties, may be {@code null}
+	 * @return the hex encoded fingerprint
+	 * @throws IOException if any resource cannot be read
+	 */
+	String fingerprint( Resource [] mapperLocations, Properties properties ) throws IOException {
+		MessageDigest digest = newDigest();
+		update( digest, "format:" + FORMAT_VERSION );
+		if ( mapperLocations != null ) {
+			for ( Resource mapperLocation : mapperLocations ) {
+				if ( mapperLocation != null ) {
+					update( digest, mapperLocation.getDescription() );
+					try ( InputStream in = mapperLocation.getInputStream() ) {
+						digest.update( StreamUtils.copyToByteArray( in ) );
+					}
+				}
+			}
+		}
+		updateLibrary( digest, MyBatisMapperBuilder.class );
+		TreeSet<String> classNames = new TreeSet<>();
+		classNames.add( MyBatisMapperBuilder.class.getName() );
+		configuration.getMapperRegistry().getMappers().forEach( mapper -> addTypeHierarchy( classNames, mapper ) );
+		configuration.getTypeAliasRegistry().getTypeAliases().values().forEach( type -> addTypeHierarchy( classNames, type ) );
+		for ( String className : classNames ) {
+			update( digest, className );
+			try ( InputStream in = ClassUtils.getDefaultClassLoader().getResourceAsStream( ClassUtils.convertClassNameToResourcePath( className ) + ".class" ) ) {
+				if ( in != null ) {
+					digest.update( StreamUtils.copyToByteArray( in ) );
+				}
+			}
+		}
+		TreeMap<String, String> settings = new TreeMap<>();
+		if ( properties != null ) {
+			properties.forEach( ( key, value ) -> settings.put( String.valueOf( key ), String.valueOf( value ) ) );
+		}
+		if ( configuration.getVariables() != null ) {
+			configuration.getVariables().forEach( ( key, value ) -> settings.put( String.valueOf( key ), String.valueOf( value ) ) );
+		}
+		update( digest, settings.toString() );
+		update( digest, String.valueOf( configuration.getDatabaseId() ) );
+		StringBuilder fingerprint = new StringBuilder();
+		for ( byte b : digest.digest() ) {
+			fingerprint.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Restore the snapshot into the configuration if it matches the fingerprint.
+	 *
+	 * @param fingerprint the current fingerprint
+	 * @return {@code true} if restored, {@code false} if the refactoring is required
+	 */
+	boolean restore( String fingerprint ) {
+		if ( !location.isFile() ) {
+			LOGGER.debug( () -> "No mybatis-mapper snapshot found at '" + location + "'" );
+			return false;
+		}
+		Map<String, StaticSqlSource> sqlSources;
+		try {
+			sqlSources = read( fingerprint );
+		} catch ( Exception e ) {
+			LOGGER.warn( () -> "Discard the corrupted mybatis-mapper snapshot '" + location + "'. Cause by " + e.toString() );
+			discard();
+			return false;
+		}
+		if ( sqlSources == null ) {
+			LOGGER.debug( () -> "Discard the stale mybatis-mapper snapshot '" + location + "'" );
+			discard();
+			return false;
+		}
+		for ( String id : sqlSources.keySet() ) {
+			if ( !configuration.hasStatement( id, false ) ) {
+				LOGGER.debug( () -> "Discard the stale mybatis-mapper snapshot '" + location + "', missing statement: " + id );
+				discard();
+				return false;
+			}
+		}
+		sqlSources.forEach( ( id, sqlSource ) -> setSqlSource( configuration.getMappedStatement( id, false ), sqlSource ) );
+		LOGGER.debug( () -> "Restored " + sqlSources.size() + " statements from the mybatis-mapper snapshot '" + location + "'" );
+		return true;
+	}
+
+	/**
+	 * Capture the state of the configuration before the refactoring.
+	 *
+	 * @return the captured state
+	 */
+	State capture() {
+		return new State( configuration );
+	}
+
+	/**
+	 * Write the snapshot of the refactored statements, if they can be restored.
+	 *
+	 * @param fingerprint the current fingerprint
+	 * @param before the state before the refactoring
+	 */
+	void save( String fingerprint, State before ) {
+		State after = capture();
+		Map<String, SqlSource> changes = before.diff( after );
+		if ( changes == null || changes.isEmpty() ) {
+			String reason = changes == null ? before.blocker : "the refactoring did not change any statement";
+			LOGGER.warn( () -> "The mybatis-mapper snapshot '" + location + "' is not written, the refactoring will run on every startup: " + reason );
+			discard();
+			return;
+		}
+		try {
+			File parent = location.getAbsoluteFile().getParentFile();
+			if ( parent != null && !parent.isDirectory() && !parent.mkdirs() ) {
+				throw new IOException( "Cannot create directory " + parent );
+			}
+			File temp = File.createTempFile( location.getName(), ".tmp", parent );
+			Files.write( temp.toPath(), write( fingerprint, changes ) );
+			Files.move( temp.toPath(), location.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			LOGGER.debug( () -> "Saved " + changes.size() + " statements to the mybatis-mapper snapshot '" + location + "'" );
+		} catch ( IOException e ) {
+			LOGGER.warn( () -> "Cannot write the mybatis-mapper snapshot '" + location + "'. Cause by " + e.toString() );
+		}
+	}
+
+	private byte [] write( String fingerprint, Map<String, SqlSource> changes ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( DataOutputStream out = new DataOutputStream( bytes ) ) {
+			out.writeInt( MAGIC );
+			out.writeInt( FORMAT_VERSION );
+			out.writeUTF( fingerprint );
+			out.writeInt( changes.size() );
+			for ( Map.Entry<String, SqlSource> entry : changes.entrySet() ) {
+				BoundSql boundSql = entry.getValue().getBoundSql( null );
+				out.writeUTF( entry.getKey() );
+				writeString( out, boundSql.getSql() );
+				out.writeInt( boundSql.getParameterMappings().size() );
+				for ( ParameterMapping mapping : boundSql.getParameterMappings() ) {
+					writeString( out, mapping.getProperty() );
+					writeString( out, mapping.getMode() == null ? null : mapping.getMode().name() );
+					writeString( out, mapping.getJavaType() == null ? null : mapping.getJavaType().getName() );
+					writeString( out, mapping.getJdbcType() == null ? null : mapping.getJdbcType().name() );
+					writeString( out, mapping.getNumericScale() == null ? null : mapping.getNumericScale().toString() );
+					writeString( out, mapping.getTypeHandler() == null ? null : mapping.getTypeHandler().getClass().getName() );
+					writeString( out, mapping.getResultMapId() );
+					writeString( out, mapping.getJdbcTypeName() );
+					writeString( out, mapping.getExpression() );
+				}
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update( bytes.toByteArray() );
+		new DataOutputStream( bytes ).writeLong( crc.getValue() );
+		return bytes.toByteArray();
+	}
+
+	private Map<String, StaticSqlSource> read( String fingerprint ) throws Exception {
+		byte [] content = Files.readAllBytes( location.toPath() );
+		if ( content.length < 8 ) {
+			throw new IOException( "Truncated snapshot" );
+		}
+		CRC32 crc = new CRC32();
+		crc.update( content, 0, content.length - 8 );
+		DataInputStream in = new DataInputStream( new ByteArrayInputStream( content ) );
+		in.skipBytes( content.length - 8 );
+		if ( in.readLong() != crc.getValue() ) {
+			throw new IOException( "Checksum mismatch" );
+		}
+		in = new DataInputStream( new ByteArrayInputStream( content, 0, content.length - 8 ) );
+		if ( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !fingerprint.equals( in.readUTF() ) ) {
+			return null; // Stale
+		}
+		int size = in.readInt();
+		Map<String, StaticSqlSource> sqlSources = new LinkedHashMap<>();
+		for ( int i = 0; i < size; i ++ ) {
+			String id = in.readUTF();
+			String sql = readString( in );
+			int parameterSize = in.readInt();
+			List<ParameterMapping> parameterMappings = new ArrayList<>( parameterSize );
+			for ( int j = 0; j < parameterSize; j ++ ) {
+				parameterMappings.add( readParameterMapping( in ) );
+			}
+			sqlSources.put( id, new StaticSqlSource( configuration, sql, parameterMappings ) );
+		}
+		return sqlSources;
+	}
+
+	private ParameterMapping readParameterMapping( DataInputStream in ) throws Exception {
+		String property = readString( in );
+		String mode = readString( in );
+		String javaType = readString( in );
+		String jdbcType = readString( in );
+		String numericScale = readString( in );
+		String typeHandler = readString( in );
+		String resultMapId = readString( in );
+		String jdbcTypeName = readString( in );
+		String expression = readString( in );
+
+		Class<?> javaTypeClass = javaType == null ? Object.class : Resources.classForName( javaType );
+		ParameterMapping.Builder builder = new ParameterMapping.Builder( configuration, property, javaTypeClass );
+		if ( mode != null ) {
+			builder.mode( ParameterMode.valueOf( mode ) );
+		}
+		JdbcType jdbcTypeEnum = jdbcType == null ? null : JdbcType.valueOf( jdbcType );
+		if ( jdbcTypeEnum != null ) {
+			builder.jdbcType( jdbcTypeEnum );
+		}
+		if ( numericScale != null ) {
+			builder.numericScale( Integer.valueOf( numericScale ) );
+		}
+		if ( typeHandler != null ) {
+			// Prefer the registered instance, some handlers (such as enum handlers) are created per java type
+			Class<?> typeHandlerClass = Resources.classForName( typeHandler );
+			TypeHandler<?> handler = configuration.getTypeHandlerRegistry().getTypeHandler( javaTypeClass, jdbcTypeEnum );
+			if ( handler == null || handler.getClass() != typeHandlerClass ) {
+				handler = configuration.getTypeHandlerRegistry().getInstance( javaTypeClass, typeHandlerClass );
+			}
+			builder.typeHandler( handler );
+		}
+		return builder.resultMapId( resultMapId ).jdbcTypeName( jdbcTypeName ).expression( expression ).build();
+	}
+
+	private void discard() {
+		if ( location.exists() && !location.delete() ) {
+			LOGGER.warn( () -> "Cannot delete the mybatis-mapper snapshot '" + location + "'" );
+		}
+	}
+
+	private static void setSqlSource( MappedStatement statement, SqlSource sqlSource ) {
+		MetaObject metaObject = SystemMetaObject.forObject( statement );
+		metaObject.setValue( "sqlSource", sqlSource );
+	}
+
+	/**
+	 * Add the class, its super classes and super interfaces, and the classes
+	 * used as generic arguments of them, such as the entity type of
+	 * {@code Mapper<Entity, DTO, Key>}. The JDK classes are skipped.
+	 */
+	private static void addTypeHierarchy( TreeSet<String> classNames, Type type ) {
+		if ( type instanceof ParameterizedType ) {
+			ParameterizedType parameterizedType = ( ParameterizedType ) type;
+			addTypeHierarchy( classNames, parameterizedType.getRawType() );
+			for ( Type argument : parameterizedType.getActualTypeArguments() ) {
+				addTypeHierarchy( classNames, argument );
+			}
+		} else if ( type instanceof GenericArrayType ) {
+			addTypeHierarchy( classNames, ( ( GenericArrayType ) type ).getGenericComponentType() );
+		} else if ( type instanceof Class ) {
+			Class<?> clazz = ( Class<?> ) type;
+			while ( clazz.isArray() ) {
+				clazz = clazz.getComponentType();
+			}
+			if ( clazz.isPrimitive() || clazz.getClassLoader() == null || !classNames.add( clazz.getName() ) ) {
+				return;
+			}
+			addTypeHierarchy( classNames, clazz.getGenericSuperclass() );
+			for ( Type superInterface : clazz.getGenericInterfaces() ) {
+				addTypeHierarchy( classNames, superInterface );
+			}
+		}
+	}
+
+	/**
+	 * Digest the library containing the class: the content of the jar file
+	 * when it can be read directly, otherwise its location and version.
+	 */
+	private static void updateLibrary( MessageDigest digest, Class<?> type ) throws IOException {
+		CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+		URL location = codeSource == null ? null : codeSource.getLocation();
+		Package library = type.getPackage();
+		update( digest, "library:" + location + ":" + ( library == null ? null : library.getImplementationVersion() ) );
+		if ( location != null && ResourceUtils.URL_PROTOCOL_FILE.equals( location.getProtocol() ) ) {
+			File file = ResourceUtils.getFile( location );
+			if ( file.isFile() ) {
+				try ( InputStream in = new FileInputStream( file ) ) {
+					byte [] buffer = new byte[ 8192 ];
+					for ( int read; ( read = in.read( buffer ) ) != -1; ) {
+						digest.update( buffer, 0, read );
+					}
+				}
+			}
+		}
+	}
+
+	private static void writeString( DataOutputStream out, String value ) throws IOException {
+		if ( value == null ) {
+			out.writeInt( -1 );
+		} else {
+			byte [] bytes = value.getBytes( StandardCharsets.UTF_8 );
+			out.writeInt( bytes.length );
+			out.write( bytes );
+		}
+	}
+
+	private static String readString( DataInputStream in ) throws IOException {
+		int length = in.readInt();
+		if ( length < 0 ) {
+			return null;
+		}
+		byte [] bytes = new byte[ length ];
+		in.readFully( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	private static void update( MessageDigest digest, String value ) {
+		digest.update( value.getBytes( StandardCharsets.UTF_8 ) );
+		digest.update( ( byte ) 0 );
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance( "SHA-256" );
+		} catch ( NoSuchAlgorithmException e ) {
+			throw new IllegalStateException( e );
+		}
+	}
+
+	/**
+	 * Structural state of the configuration, used to find out what the
+	 * refactoring has changed.
+	 */
+	static final class State {
+
+		private final Map<String, MappedStatement> statements = new LinkedHashMap<>();
+		private final IdentityHashMap<MappedStatement, SqlSource> sqlSources = new IdentityHashMap<>();
+		private final String structure;
+		// Why the last compared state cannot be restored
+		private String blocker;
+
+		private State( Configuration configuration ) {
+			for ( String id : new TreeSet<>( configuration.getMappedStatementNames() ) ) {
+				if ( id.indexOf( '.' ) != -1 ) { // Skip the short names
+					MappedStatement statement = configuration.getMappedStatement( id, false );
+					statements.put( id, statement );
+					sqlSources.put( statement, statement.getSqlSource() );
+				}
+			}
+			this.structure = configuration.getInterceptors().size() + "/" + configuration.getResultMapNames().size() + "/"
+					+ configuration.getParameterMapNames().size() + "/" + configuration.getKeyGeneratorNames().size() + "/"
+					+ configuration.getCacheNames().size() + "/" + configuration.getTypeAliasRegistry().getTypeAliases().size() + "/"
+					+ configuration.getTypeHandlerRegistry().getTypeHandlers().size() + "/"
+					+ configuration.getDefaultScriptingLanguageInstance().getClass().getName();
+		}
+
+		/**
+		 * @return the statements with a replaced static sql source, or
+		 *         {@code null} if anything else has been changed, see
+		 *         {@link #blocker}
+		 */
+		private Map<String, SqlSource> diff( State after ) {
+			if ( !structure.equals( after.structure ) ) {
+				blocker = "the refactoring changed the interceptors, maps, key generators, caches, type aliases, type handlers or language driver"
+						+ " (" + structure + " -> " + after.structure + ")";
+				return null;
+			}
+			for ( String id : after.statements.keySet() ) {
+				if ( !statements.containsKey( id ) ) {
+					blocker = "the refactoring added the statement '" + id + "'";
+					return null;
+				}
+			}
+			for ( String id : statements.keySet() ) {
+				if ( !after.statements.containsKey( id ) ) {
+					blocker = "the refactoring removed the statement '" + id + "'";
+					return null;
+				}
+			}
+			Map<String, SqlSource> changes = new LinkedHashMap<>();
+			for ( Map.Entry<String, MappedStatement> entry : after.statements.entrySet() ) {
+				MappedStatement statement = entry.getValue();
+				if ( statements.get( entry.getKey() ) != statement ) {
+					blocker = "the refactoring replaced the statement '" + entry.getKey() + "'";
+					return null;
+				}
+				SqlSource sqlSource = statement.getSqlSource();
+				if ( sqlSources.get( statement ) != sqlSource ) {
+					if ( !( sqlSource instanceof StaticSqlSource ) && !( sqlSource instanceof RawSqlSource ) ) {
+						blocker = "the statement '" + entry.getKey() + "' has a dynamic sql source (" + sqlSource.getClass().getName() + ")";
+						return null;
+					}
+					changes.put( entry.getKey(), sqlSource );
+				}
+			}
+			return changes;
+		}
+
+	}
+
+}
@@ -21,15 +21,33 @@ import static org.springframework.util.ObjectUtils.isEmpty;
 import static org.springframework.util.StringUtils.hasLength;
 import static org.springframework.util.StringUtils.tokenizeToStringArray;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Modifier;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
 import java.sql.SQLException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.xml.XMLConfigBuilder;
@@ -40,11 +58,17 @@ import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.io.VFS;
 import org.apache.ibatis.mapping.DatabaseIdProvider;
 import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 import org.apache.ibatis.transaction.TransactionFactory;
@@ -53,6 +77,7 @@ import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
 import org.mybatis.spring.SqlSessionFactoryBean;
 import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationListener;
@@ -64,11 +89,20 @@ import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.core.type.ClassMetadata;
 import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReader;
 import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.springframework.core.type.filter.TypeFilter;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
 
 import com.viiyue.plugins.mybatis.MyBatisMapperLanguageDriver;
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperStartupReport.Phase;
 import com.viiyue.plugins.mybatis.enums.Setting;
 import com.viiyue.plugins.mybatis.scripting.MyBatisMapperBuilder;
 import com.viiyue.plugins.mybatis.utils.LoggerUtil;
@@ -95,16 +129,27 @@ import com.viiyue.plugins.mybatis.utils.LoggerUtil;
  * 
  * @see SqlSessionFactoryBean
  */
-public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<SqlSessionFactory>, InitializingBean, ApplicationListener<ContextRefreshedEvent> {
+public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<SqlSessionFactory>, InitializingBean, DisposableBean, ApplicationListener<ContextRefreshedEvent> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperSqlSessionFactoryBean.class );
 
 	private static final ResourcePatternResolver RESOURCE_PATTERN_RESOLVER = new PathMatchingResourcePatternResolver();
 	private static final MetadataReaderFactory METADATA_READER_FACTORY = new CachingMetadataReaderFactory();
 
+	// Scanned class filters, applied on the class file metadata before the class is loaded
+	// Added in 1.3.3
+	private static final TypeFilter TYPE_ALIAS_FILTER = ( metadataReader, metadataReaderFactory ) -> {
+		ClassMetadata classMetadata = metadataReader.getClassMetadata();
+		return !classMetadata.isInterface() && !isAnonymousClass( classMetadata ) && !isMemberClass( classMetadata );
+	};
+	private static final TypeFilter TYPE_HANDLER_FILTER = ( metadataReader, metadataReaderFactory ) -> {
+		ClassMetadata classMetadata = metadataReader.getClassMetadata();
+		return !classMetadata.isInterface() && !isAnonymousClass( classMetadata ) && !classMetadata.isAbstract();
+	};
+
 	// Bean initialization status monitoring
-	// Added in 1.3.2
-	private boolean isInitialized;
+	// Added in 1.3.2, changed to a thread-safe state in 1.3.3
+	private final AtomicReference<RefactoringState> refactoringState = new AtomicReference<>( RefactoringState.PENDING );
 	
 	// mybatis-spring original variables
 	
@@ -139,6 +184,53 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 	// mybatis-mapper variables
 	
 	private boolean enableXmlSyntaxParsing;
+	private int mapperParsingParallelism = 1; // Added in 1.3.3
+	private File snapshotLocation; // Added in 1.3.3
+	private boolean backgroundRefactoring; // Added in 1.3.3
+	private long refactoringWaitTimeout = -1; // Added in 1.3.3
+	private MyBatisMapperRefactoringGate refactoringGate;
+	private final MyBatisMapperStartupReport startupReport = new MyBatisMapperStartupReport(); // Added in 1.3.3
+	private boolean enableStartupReportMBean; // Added in 1.3.3
+	private int slowestMapperFilesToLog; // Added in 1.3.3
+	private boolean enableStatementMetrics; // Added in 1.3.3
+	private boolean enableStatementMetricsMBean; // Added in 1.3.3
+	private MyBatisMapperStatementMetrics statementMetrics;
+	private final List<ObjectName> registeredMBeans = new ArrayList<>();
+	private boolean enableMapperReloading; // Added in 1.3.3
+	private boolean lazyMapperLoading; // Added in 1.3.3
+	private DataSource [] replicaDataSources; // Added in 1.3.3
+	private long mapperReloadingInterval = 500; // Added in 1.3.3
+	private MyBatisMapperReloader mapperReloader;
+	private String [] concurrentCacheNamespaces; // Added in 1.3.3
+	private Properties concurrentCacheProperties; // Added in 1.3.3
+	private final Map<String, MyBatisMapperConcurrentCache> concurrentCaches = new LinkedHashMap<>();
+	private boolean enableEntityCache; // Added in 1.3.3
+	private Properties entityCacheProperties; // Added in 1.3.3
+	private MyBatisMapperEntityCache entityCache;
+	private int batchSize = 1000; // Added in 1.3.3
+	private long batchFlushInterval; // Added in 1.3.3
+	private boolean enableBulkInsert; // Added in 1.3.3
+	private volatile MyBatisMapperBulkWriter bulkWriter;
+	private Integer defaultFetchSize; // Added in 1.3.3
+	private Map<String, Integer> statementFetchSizes; // Added in 1.3.3
+	private boolean enableKeysetPagination; // Added in 1.3.3
+	private MyBatisMapperKeysetPager keysetPager;
+	private Executor asyncExecutor; // Added in 1.3.3
+	private int asyncMaxConcurrency; // Added in 1.3.3
+	private MyBatisMapperAsync async;
+	private boolean enableGeneratedAccessors; // Added in 1.3.3
+	private boolean enableBoundSqlCache; // Added in 1.3.3
+	private long boundSqlCacheSize = 10000; // Added in 1.3.3
+	private MyBatisMapperBoundSqlCache boundSqlCache;
+	private boolean enableDirtyTracking; // Added in 1.3.3
+	private MyBatisMapperDirtyTracker dirtyTracker;
+	private boolean enableStatementWarmUp; // Added in 1.3.3
+	private boolean warmUpPrepareStatements = true; // Added in 1.3.3
+	private int warmUpConcurrency = 4; // Added in 1.3.3
+	private long warmUpTimeBudget = 30000; // Added in 1.3.3
+	private volatile MyBatisMapperWarmUp.Result warmUpResult;
+	private boolean enableCompaction; // Added in 1.3.3
+	private MyBatisMapperCompaction.Result compactionResult;
 	private final MyBatisMapperBuilder mybatisMapperBuilder = new MyBatisMapperBuilder();
 
 	/**
@@ -356,6 +448,24 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		}
 	}
 
+	/**
+	 * <p>
+	 * Set the replica {@code DataSource}s of the {@code dataSource}. The selects
+	 * executed outside of Spring transactions are routed to the replica with
+	 * the least outstanding connections, the writes and the transactions stay on
+	 * the {@code dataSource}, see {@link MyBatisMapperRoutingDataSource}.
+	 * 
+	 * <p>
+	 * The transaction manager may keep working on the {@code dataSource}.
+	 * 
+	 * @param replicaDataSources the replica data sources
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setReplicaDataSources( DataSource ... replicaDataSources ) {
+		this.replicaDataSources = Stream.of( replicaDataSources ).map( dataSource -> dataSource instanceof TransactionAwareDataSourceProxy
+				? ( ( TransactionAwareDataSourceProxy ) dataSource ).getTargetDataSource() : dataSource ).toArray( DataSource []::new );
+	}
+
 	/**
 	 * Sets the {@code SqlSessionFactoryBuilder} to use when creating the {@code SqlSessionFactory}.
 	 *
@@ -494,6 +604,604 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		this.configurationProperties.put( "enableXmlSyntaxParsing", enableXmlSyntaxParsing );
 	}
 
+	/**
+	 * Set the maximum number of threads used to read and parse the mapper xml
+	 * files specified by {@link #setMapperLocations(Resource...)}. The default
+	 * value is {@code 1}, which means that the mapper files are parsed one by
+	 * one on the current thread.
+	 * 
+	 * <p>
+	 * When greater than {@code 1}, the xml reading and DOM parsing are executed
+	 * on a bounded thread pool, but the registration into the
+	 * {@link Configuration} is still performed on the current thread in the
+	 * declared order of the mapper locations, so the result is exactly the same
+	 * as the serial parsing.
+	 * 
+	 * @param mapperParsingParallelism the maximum number of parsing threads
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setMapperParsingParallelism( int mapperParsingParallelism ) {
+		Assert.isTrue( mapperParsingParallelism > 0, "Property 'mapperParsingParallelism' must be greater than 0" );
+		this.mapperParsingParallelism = mapperParsingParallelism;
+	}
+
+	/**
+	 * Set the file to store the snapshot of the statements generated by
+	 * mybatis-mapper. Not set by default, which means the refactoring is
+	 * executed on every startup.
+	 * 
+	 * <p>
+	 * When set, the next startup restores the generated statements from the
+	 * snapshot and skips the refactoring, as long as the mapper files, mapper
+	 * interfaces, entity classes and configuration properties have not
+	 * changed. Stale or corrupted snapshots are rebuilt automatically.
+	 * 
+	 * @param snapshotLocation the snapshot file
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setSnapshotLocation( File snapshotLocation ) {
+		this.snapshotLocation = snapshotLocation;
+	}
+
+	/**
+	 * Whether to execute the mybatis-mapper refactoring on a background thread
+	 * after the context is refreshed, so that the refactoring no longer blocks
+	 * the application from becoming ready. The default is {@code false}.
+	 * 
+	 * <p>
+	 * Statements executed before the refactoring is completed are held back
+	 * according to {@link #setRefactoringWaitTimeout(long)}.
+	 * 
+	 * <p>
+	 * The refactoring registers statements while others are executed, so it
+	 * can not be used with {@code configLocation}, a specified
+	 * {@code configuration} must be a {@link MyBatisMapperConcurrentConfiguration}.
+	 * 
+	 * @param backgroundRefactoring whether to refactor in the background
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setBackgroundRefactoring( boolean backgroundRefactoring ) {
+		this.backgroundRefactoring = backgroundRefactoring;
+	}
+
+	/**
+	 * Set how long (in milliseconds) a statement executed during the
+	 * background refactoring waits for the refactoring to complete. A negative
+	 * value (the default) waits forever, {@code 0} fails fast.
+	 * 
+	 * @param refactoringWaitTimeout the wait timeout in milliseconds
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setRefactoringWaitTimeout( long refactoringWaitTimeout ) {
+		this.refactoringWaitTimeout = refactoringWaitTimeout;
+	}
+
+	/**
+	 * Get the current state of the mybatis-mapper refactoring.
+	 * 
+	 * @return the refactoring state
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public RefactoringState getRefactoringState() {
+		return this.refactoringState.get();
+	}
+
+	/**
+	 * Whether to register the {@link MyBatisMapperStartupReport} to the platform
+	 * MBean server, the default is {@code false}.
+	 * 
+	 * @param enableStartupReportMBean whether to register the startup report MBean
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableStartupReportMBean( boolean enableStartupReportMBean ) {
+		this.enableStartupReportMBean = enableStartupReportMBean;
+	}
+
+	/**
+	 * Set the number of the slowest mapper files to be logged at DEBUG level
+	 * after the mapper files are parsed, the default is {@code 0} which means
+	 * not to log. The timings of the startup phases are always logged at DEBUG
+	 * level once the refactoring is completed.
+	 * 
+	 * @param slowestMapperFilesToLog the number of the slowest mapper files
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setSlowestMapperFilesToLog( int slowestMapperFilesToLog ) {
+		this.slowestMapperFilesToLog = slowestMapperFilesToLog;
+	}
+
+	/**
+	 * Get the timing report of the startup phases.
+	 * 
+	 * @return the startup report
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperStartupReport getStartupReport() {
+		return this.startupReport;
+	}
+
+	/**
+	 * Whether to collect the execution metrics of each mapped statement through
+	 * a built-in {@link MyBatisMapperStatementMetrics} plugin, the default is
+	 * {@code false}.
+	 * 
+	 * @param enableStatementMetrics whether to collect the statement metrics
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableStatementMetrics( boolean enableStatementMetrics ) {
+		this.enableStatementMetrics = enableStatementMetrics;
+	}
+
+	/**
+	 * Whether to register the {@link MyBatisMapperStatementMetrics} to the
+	 * platform MBean server, the default is {@code false}. Only works when the
+	 * statement metrics are enabled.
+	 * 
+	 * @param enableStatementMetricsMBean whether to register the statement metrics MBean
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableStatementMetricsMBean( boolean enableStatementMetricsMBean ) {
+		this.enableStatementMetricsMBean = enableStatementMetricsMBean;
+	}
+
+	/**
+	 * Get the execution metrics of the mapped statements.
+	 * 
+	 * @return the statement metrics, or {@code null} if not enabled
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperStatementMetrics getStatementMetrics() {
+		return this.statementMetrics;
+	}
+
+	/**
+	 * <p>
+	 * Whether to watch the {@code mapperLocations} on the file system and reload
+	 * the changed ones after the refactoring of mybatis-mapper, the default is
+	 * {@code false}. Only the changed mapper files are re-parsed, and only the
+	 * elements they declare are replaced, without blocking the running
+	 * statements, see {@link MyBatisMapperConcurrentConfiguration}.
+	 * 
+	 * <p>
+	 * Can not be used with {@code configLocation}, a specified {@code configuration}
+	 * must be a {@link MyBatisMapperConcurrentConfiguration}. Intended for
+	 * development and staging environments.
+	 * 
+	 * @param enableMapperReloading whether to reload the changed mapper files
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableMapperReloading( boolean enableMapperReloading ) {
+		this.enableMapperReloading = enableMapperReloading;
+	}
+
+	/**
+	 * Set the quiet time in milliseconds to wait for the other changes before
+	 * reloading the changed mapper files, the default is {@code 500}.
+	 * 
+	 * @param mapperReloadingInterval the quiet time in milliseconds
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setMapperReloadingInterval( long mapperReloadingInterval ) {
+		Assert.isTrue( mapperReloadingInterval >= 0, "Property 'mapperReloadingInterval' must not be negative" );
+		this.mapperReloadingInterval = mapperReloadingInterval;
+	}
+
+	/**
+	 * <p>
+	 * Whether to parse the mapper files on demand, the default is {@code false}.
+	 * Only the namespaces of the {@code mapperLocations} are indexed at startup,
+	 * the mapper file of a namespace is parsed the first time one of its
+	 * statements is requested, see {@link MyBatisMapperLazyConfiguration}. The
+	 * mapper files declaring a {@code <cache>} or a {@code <cache-ref>} are
+	 * still parsed at startup.
+	 * 
+	 * <p>
+	 * Can not be used with {@code configLocation} and {@code enableXmlSyntaxParsing},
+	 * a specified {@code configuration} must be a {@link MyBatisMapperLazyConfiguration}.
+	 * 
+	 * @param lazyMapperLoading whether to parse the mapper files on demand
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setLazyMapperLoading( boolean lazyMapperLoading ) {
+		this.lazyMapperLoading = lazyMapperLoading;
+	}
+
+	/**
+	 * <p>
+	 * Replace the second-level caches of the matching namespaces with a
+	 * {@link MyBatisMapperConcurrentCache}, the patterns are matched with
+	 * {@code '.'} as separator, e.g. {@code com.example.**.mapper.*}. Only the
+	 * namespaces that declare a {@code <cache/>} in their mapper files are
+	 * replaced, the statements referencing them by {@code <cache-ref/>} follow.
+	 * 
+	 * <p>
+	 * The {@code size}, {@code flushInterval}, {@code readOnly} and
+	 * {@code blocking} of the {@code <cache/>} are carried over, and overridden
+	 * by the {@code concurrentCacheProperties}: the values are copied unless
+	 * {@code readOnly="true"}. The LRU and FIFO evictions are both
+	 * replaced by the eviction of the concurrent cache, the caches with another
+	 * eviction or a custom {@code type} are kept.
+	 * 
+	 * <p>
+	 * Not applied to the namespaces parsed lazily or reloaded later, nor to the
+	 * caches declared by the mapper interfaces.
+	 * 
+	 * @param concurrentCacheNamespaces the namespace patterns
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setConcurrentCacheNamespaces( String ... concurrentCacheNamespaces ) {
+		this.concurrentCacheNamespaces = concurrentCacheNamespaces;
+	}
+
+	/**
+	 * Set the properties of the concurrent caches, see {@link MyBatisMapperConcurrentCache}.
+	 * 
+	 * @param concurrentCacheProperties the cache properties
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setConcurrentCacheProperties( Properties concurrentCacheProperties ) {
+		this.concurrentCacheProperties = concurrentCacheProperties;
+	}
+
+	/**
+	 * Get the concurrent caches that replaced the namespace caches, in order to
+	 * read their hit, miss and eviction statistics.
+	 * 
+	 * @return the concurrent caches by namespace
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public Map<String, MyBatisMapperConcurrentCache> getConcurrentCaches() {
+		return Collections.unmodifiableMap( this.concurrentCaches );
+	}
+
+	/**
+	 * <p>
+	 * Whether to cache the entities read by the generic {@code selectByPrimaryKey}
+	 * statements, keyed by entity type and primary key, the default is
+	 * {@code false}. The updates and deletes by primary key only invalidate the
+	 * keys they touch, see {@link MyBatisMapperEntityCache}.
+	 * 
+	 * <p>
+	 * Not applied to the shard factories created by {@link #createShardSqlSessionFactory(String, DataSource)}.
+	 * 
+	 * @param enableEntityCache whether to cache the entities by primary key
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableEntityCache( boolean enableEntityCache ) {
+		this.enableEntityCache = enableEntityCache;
+	}
+
+	/**
+	 * Set the properties of the cache of each entity type, see
+	 * {@link MyBatisMapperConcurrentCache}. The entities are stored off-heap
+	 * unless {@code offHeap} is set to {@code false}.
+	 * 
+	 * @param entityCacheProperties the entity cache properties
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEntityCacheProperties( Properties entityCacheProperties ) {
+		this.entityCacheProperties = entityCacheProperties;
+	}
+
+	/**
+	 * Get the entity cache, in order to read its statistics or to invalidate it
+	 * after writing the tables outside of the generic statements.
+	 * 
+	 * @return the entity cache, or {@code null} if not enabled
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperEntityCache getEntityCache() {
+		return this.entityCache;
+	}
+
+	/**
+	 * Set the number of pending writes that triggers a flush of the batch
+	 * sessions, the default is {@code 1000}.
+	 * 
+	 * @param batchSize the number of pending writes
+	 * @see #createBatchSqlSession()
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setBatchSize( int batchSize ) {
+		Assert.isTrue( batchSize > 0, "Property 'batchSize' must be positive" );
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set the age in milliseconds of the oldest pending write that triggers a
+	 * flush of the batch sessions, the default is {@code 0} for no time threshold.
+	 * 
+	 * @param batchFlushInterval the age in milliseconds
+	 * @see #createBatchSqlSession()
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setBatchFlushInterval( long batchFlushInterval ) {
+		Assert.isTrue( batchFlushInterval >= 0, "Property 'batchFlushInterval' must not be negative" );
+		this.batchFlushInterval = batchFlushInterval;
+	}
+
+	/**
+	 * <p>
+	 * Whether to register a multi-row companion statement for each single-row
+	 * insert after the refactoring of mybatis-mapper, the default is
+	 * {@code false}. The collections of rows are then written in chunks with
+	 * {@link #getBulkWriter()}, as multi-row inserts or upserts of the H2,
+	 * MySQL or PostgreSQL dialect.
+	 * 
+	 * @param enableBulkInsert whether to enable the multi-row inserts
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableBulkInsert( boolean enableBulkInsert ) {
+		this.enableBulkInsert = enableBulkInsert;
+	}
+
+	/**
+	 * Get the writer of the multi-row inserts and upserts, available after the
+	 * refactoring of mybatis-mapper.
+	 * 
+	 * @return the bulk writer, or {@code null} if not enabled or not refactored yet
+	 * @see MyBatisMapperBulkWriter
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperBulkWriter getBulkWriter() {
+		return this.bulkWriter;
+	}
+
+	/**
+	 * Set the fetch size of the statements which do not specify one, the
+	 * default is the fetch size of the JDBC driver.
+	 * 
+	 * @param defaultFetchSize the default fetch size
+	 * @see MyBatisMapperStreams
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setDefaultFetchSize( Integer defaultFetchSize ) {
+		this.defaultFetchSize = defaultFetchSize;
+	}
+
+	/**
+	 * <p>
+	 * Set the fetch size of the select statements matching the patterns, with
+	 * {@code '.'} as separator, e.g. {@code com.example.**.selectAll}. The first
+	 * matching pattern wins, the matching statements also get a forward-only
+	 * result set unless they specify another type.
+	 * 
+	 * <p>
+	 * Applied to the statements generated by the refactoring of mybatis-mapper
+	 * as well as the xml ones, use {@link Integer#MIN_VALUE} to stream the rows
+	 * of MySQL.
+	 * 
+	 * @param statementFetchSizes the fetch sizes by statement pattern
+	 * @see MyBatisMapperStreams
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setStatementFetchSizes( Map<String, Integer> statementFetchSizes ) {
+		this.statementFetchSizes = statementFetchSizes;
+	}
+
+	/**
+	 * Whether to enable the keyset pagination of the select statements, the
+	 * default is {@code false}. The pages are read with {@link #getKeysetPager()},
+	 * with the SQL of the H2, MySQL or PostgreSQL dialect.
+	 * 
+	 * @param enableKeysetPagination whether to enable the keyset pagination
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableKeysetPagination( boolean enableKeysetPagination ) {
+		this.enableKeysetPagination = enableKeysetPagination;
+	}
+
+	/**
+	 * Get the keyset pager, which reads the pages of the select statements
+	 * with continuation tokens.
+	 * 
+	 * @return the keyset pager, or {@code null} if not enabled
+	 * @see MyBatisMapperKeysetPager
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperKeysetPager getKeysetPager() {
+		return this.keysetPager;
+	}
+
+	/**
+	 * Set the executor of the asynchronous mapper calls, the default is a
+	 * virtual thread per call on JDK 21 and later, otherwise a bounded pool.
+	 * 
+	 * @param asyncExecutor the executor of the asynchronous calls
+	 * @see #getAsync()
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setAsyncExecutor( Executor asyncExecutor ) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * Set the maximum number of concurrent asynchronous mapper calls, the
+	 * default is the maximum pool size of the data source.
+	 * 
+	 * @param asyncMaxConcurrency the maximum number of concurrent calls
+	 * @see #getAsync()
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setAsyncMaxConcurrency( int asyncMaxConcurrency ) {
+		Assert.isTrue( asyncMaxConcurrency > 0, "Property 'asyncMaxConcurrency' must be positive" );
+		this.asyncMaxConcurrency = asyncMaxConcurrency;
+	}
+
+	/**
+	 * Get the asynchronous mapper facade, which runs the mapper calls in their
+	 * own sessions and returns {@code CompletableFuture}s.
+	 * 
+	 * @return the asynchronous mapper facade
+	 * @throws Exception if failed to build the {@code SqlSessionFactory}
+	 * @see MyBatisMapperAsync
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public synchronized MyBatisMapperAsync getAsync() throws Exception {
+		if ( this.async == null ) {
+			this.async = new MyBatisMapperAsync( getObject(), this.asyncExecutor, this.asyncMaxConcurrency );
+		}
+		return this.async;
+	}
+
+	/**
+	 * Enable the generated property accessors of the entity classes of
+	 * {@code typeAliasesPackage} and {@code typeAliases}, which replace the
+	 * reflective invocation of the result mapping and the parameter binding.
+	 * The {@code objectWrapperFactory} and {@code objectFactory} are installed
+	 * unless specified.
+	 * 
+	 * @param enableGeneratedAccessors whether to generate the entity accessors
+	 * @see MyBatisMapperObjectWrapperFactory
+	 * @see MyBatisMapperObjectFactory
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableGeneratedAccessors( boolean enableGeneratedAccessors ) {
+		this.enableGeneratedAccessors = enableGeneratedAccessors;
+	}
+
+	/**
+	 * Enable the cache of the SQL and the parameter mappings generated by the
+	 * dynamic statements for each parameter shape, mostly useful with
+	 * {@code enableXmlSyntaxParsing}.
+	 * 
+	 * @param enableBoundSqlCache whether to cache the generated SQL
+	 * @see MyBatisMapperBoundSqlCache
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableBoundSqlCache( boolean enableBoundSqlCache ) {
+		this.enableBoundSqlCache = enableBoundSqlCache;
+	}
+
+	/**
+	 * Set the maximum number of SQL templates cached by
+	 * {@code enableBoundSqlCache}, the default is 10000.
+	 * 
+	 * @param boundSqlCacheSize the maximum number of cached templates
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setBoundSqlCacheSize( long boundSqlCacheSize ) {
+		Assert.isTrue( boundSqlCacheSize > 0, "Property 'boundSqlCacheSize' must be positive" );
+		this.boundSqlCacheSize = boundSqlCacheSize;
+	}
+
+	/**
+	 * Get the cache of the generated SQL, available once the mybatis-mapper
+	 * refactoring is completed.
+	 * 
+	 * @return the cache of the generated SQL, or {@code null} if not enabled
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperBoundSqlCache getBoundSqlCache() {
+		return this.boundSqlCache;
+	}
+
+	/**
+	 * Enable the dirty tracking of the entities read through the mybatis-mapper
+	 * namespaces, so that their generic updates by primary key only write the
+	 * modified columns, and are skipped if nothing is modified.
+	 * 
+	 * @param enableDirtyTracking whether to track the modified properties
+	 * @see MyBatisMapperDirtyTracker
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableDirtyTracking( boolean enableDirtyTracking ) {
+		this.enableDirtyTracking = enableDirtyTracking;
+	}
+
+	/**
+	 * Get the dirty tracker, in order to read its statistics.
+	 * 
+	 * @return the dirty tracker, or {@code null} if not enabled
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperDirtyTracker getDirtyTracker() {
+		return this.dirtyTracker;
+	}
+
+	/**
+	 * Enable the warm-up and validation pass over the mapped statements once
+	 * the mybatis-mapper refactoring is completed.
+	 * 
+	 * @param enableStatementWarmUp whether to warm up the statements
+	 * @see MyBatisMapperWarmUp
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableStatementWarmUp( boolean enableStatementWarmUp ) {
+		this.enableStatementWarmUp = enableStatementWarmUp;
+	}
+
+	/**
+	 * Set whether the warm-up also prepares the static statements on the
+	 * database, the default is {@code true}.
+	 * 
+	 * @param warmUpPrepareStatements whether to prepare the static statements
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setWarmUpPrepareStatements( boolean warmUpPrepareStatements ) {
+		this.warmUpPrepareStatements = warmUpPrepareStatements;
+	}
+
+	/**
+	 * Set the number of threads of the warm-up, each holding at most one
+	 * connection, the default is 4.
+	 * 
+	 * @param warmUpConcurrency the number of warm-up threads
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setWarmUpConcurrency( int warmUpConcurrency ) {
+		Assert.isTrue( warmUpConcurrency > 0, "Property 'warmUpConcurrency' must be positive" );
+		this.warmUpConcurrency = warmUpConcurrency;
+	}
+
+	/**
+	 * Set the time budget of the warm-up in milliseconds, the default is 30
+	 * seconds.
+	 * 
+	 * @param warmUpTimeBudget the maximum duration of the warm-up
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setWarmUpTimeBudget( long warmUpTimeBudget ) {
+		Assert.isTrue( warmUpTimeBudget > 0, "Property 'warmUpTimeBudget' must be positive" );
+		this.warmUpTimeBudget = warmUpTimeBudget;
+	}
+
+	/**
+	 * Get the outcome of the warm-up, including the statements which failed to
+	 * prepare.
+	 * 
+	 * @return the outcome of the warm-up, or {@code null} if not executed yet
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperWarmUp.Result getWarmUpResult() {
+		return this.warmUpResult;
+	}
+
+	/**
+	 * Enable the compaction of the mapped statements once the mybatis-mapper
+	 * refactoring is completed, which shares the equal strings, mappings and
+	 * unmodifiable mapping lists duplicated across the mapper namespaces, and
+	 * rebuilds the static SQL sources with the shared SQL and parameter mappings.
+	 * 
+	 * @param enableCompaction whether to compact the statements
+	 * @see MyBatisMapperCompaction
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public void setEnableCompaction( boolean enableCompaction ) {
+		this.enableCompaction = enableCompaction;
+	}
+
+	/**
+	 * Get the outcome of the compaction, including the estimated retained size
+	 * of the statements before and after the compaction.
+	 * 
+	 * @return the outcome of the compaction, or {@code null} if not executed yet
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public MyBatisMapperCompaction.Result getCompactionResult() {
+		return this.compactionResult;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -503,7 +1211,50 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		notNull( sqlSessionFactoryBuilder, "Property 'sqlSessionFactoryBuilder' is required" );
 		state( ( configuration == null && configLocation == null ) || ! ( configuration != null && configLocation != null ),
 				"Property 'configuration' and 'configLocation' can not specified with together" );
+		if ( this.lazyMapperLoading ) { // Added in 1.3.3
+			state( configLocation == null, "Property 'lazyMapperLoading' can not be used with 'configLocation'" );
+			state( configuration == null || configuration instanceof MyBatisMapperLazyConfiguration,
+					"Property 'lazyMapperLoading' requires the 'configuration' to be a MyBatisMapperLazyConfiguration" );
+			state( !enableXmlSyntaxParsing, "Property 'lazyMapperLoading' can not be used with 'enableXmlSyntaxParsing'" );
+		}
+		if ( this.enableMapperReloading ) { // Added in 1.3.3
+			state( configLocation == null, "Property 'enableMapperReloading' can not be used with 'configLocation'" );
+			state( configuration == null || configuration instanceof MyBatisMapperConcurrentConfiguration,
+					"Property 'enableMapperReloading' requires the 'configuration' to be a MyBatisMapperConcurrentConfiguration" );
+		}
+		if ( this.backgroundRefactoring ) { // Added in 1.3.3
+			state( configLocation == null, "Property 'backgroundRefactoring' can not be used with 'configLocation'" );
+			state( configuration == null || configuration instanceof MyBatisMapperConcurrentConfiguration,
+					"Property 'backgroundRefactoring' requires the 'configuration' to be a MyBatisMapperConcurrentConfiguration" );
+		}
 		this.sqlSessionFactory = buildSqlSessionFactory();
+		if ( this.enableStartupReportMBean ) { // Added in 1.3.3
+			registerMBean( this.startupReport, "StartupReport" );
+		}
+		if ( this.enableStatementMetricsMBean && this.statementMetrics != null ) { // Added in 1.3.3
+			registerMBean( this.statementMetrics, "StatementMetrics" );
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void destroy() throws Exception {
+		synchronized ( this ) {
+			if ( this.async != null ) {
+				this.async.close();
+				this.async = null;
+			}
+		}
+		if ( this.mapperReloader != null ) {
+			this.mapperReloader.close();
+			this.mapperReloader = null;
+		}
+		for ( ObjectName objectName : this.registeredMBeans ) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+		}
+		this.registeredMBeans.clear();
 	}
 
 	/**
@@ -520,6 +1271,7 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		final Configuration targetConfiguration;
 
 		XMLConfigBuilder xmlConfigBuilder = null;
+		long configParsingNanos = 0;
 		if ( this.configuration != null ) {
 			targetConfiguration = this.configuration;
 			if ( targetConfiguration.getVariables() == null ) {
@@ -528,11 +1280,19 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 				targetConfiguration.getVariables().putAll( this.configurationProperties );
 			}
 		} else if ( this.configLocation != null ) {
+			long start = System.nanoTime();
 			xmlConfigBuilder = new XMLConfigBuilder( this.configLocation.getInputStream(), null, this.configurationProperties );
+			configParsingNanos = System.nanoTime() - start;
 			targetConfiguration = xmlConfigBuilder.getConfiguration();
 		} else {
 			LOGGER.debug( () -> "Property 'configuration' or 'configLocation' not specified, using default MyBatis Configuration" );
-			targetConfiguration = new Configuration();
+			if ( this.lazyMapperLoading ) { // Added in 1.3.3
+				targetConfiguration = new MyBatisMapperLazyConfiguration();
+			} else if ( this.enableMapperReloading || this.backgroundRefactoring ) { // Added in 1.3.3
+				targetConfiguration = new MyBatisMapperConcurrentConfiguration();
+			} else {
+				targetConfiguration = new Configuration();
+			}
 			Optional.ofNullable( this.configurationProperties ).ifPresent( targetConfiguration::setVariables );
 		}
 
@@ -540,20 +1300,35 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		Optional.ofNullable( this.objectWrapperFactory ).ifPresent( targetConfiguration::setObjectWrapperFactory );
 		Optional.ofNullable( this.vfs ).ifPresent( targetConfiguration::setVfsImpl );
 
+		Set<Class<?>> entityClasses = new LinkedHashSet<>();
 		if ( hasLength( this.typeAliasesPackage ) ) {
-			scanClasses( this.typeAliasesPackage, this.typeAliasesSuperType ).stream()
-				.filter( clazz -> !clazz.isAnonymousClass() ).filter( clazz -> !clazz.isInterface() )
-				.filter( clazz -> !clazz.isMemberClass() )
-				.forEach( targetConfiguration.getTypeAliasRegistry()::registerAlias );
+			long start = System.nanoTime();
+			Set<Class<?>> classes = scanClasses( this.typeAliasesPackage, this.typeAliasesSuperType, TYPE_ALIAS_FILTER, MyBatisMapperTypeIndex.ALIAS );
+			classes.forEach( targetConfiguration.getTypeAliasRegistry()::registerAlias );
+			entityClasses.addAll( classes );
+			this.startupReport.addPhase( Phase.TYPE_ALIASES_SCANNING, System.nanoTime() - start, classes.size() );
 		}
 
 		if ( !isEmpty( this.typeAliases ) ) {
 			Stream.of( this.typeAliases ).forEach( typeAlias -> {
 				targetConfiguration.getTypeAliasRegistry().registerAlias( typeAlias );
+				entityClasses.add( typeAlias );
 				LOGGER.debug( () -> "Registered type alias: '" + typeAlias + "'" );
 			});
 		}
 
+		if ( this.enableGeneratedAccessors ) { // Added in 1.3.3
+			MyBatisMapperObjectWrapperFactory wrapperFactory = new MyBatisMapperObjectWrapperFactory();
+			wrapperFactory.register( entityClasses.toArray( new Class<?>[ 0 ] ) );
+			if ( this.objectWrapperFactory == null ) {
+				targetConfiguration.setObjectWrapperFactory( wrapperFactory );
+			}
+			if ( this.objectFactory == null ) {
+				targetConfiguration.setObjectFactory( new MyBatisMapperObjectFactory( wrapperFactory ) );
+			}
+			LOGGER.debug( () -> "Generated the property accessors of " + entityClasses.size() + " entity classes" );
+		}
+
 		if ( !isEmpty( this.plugins ) ) {
 			Stream.of( this.plugins ).forEach( plugin -> {
 				targetConfiguration.addInterceptor( plugin );
@@ -561,11 +1336,41 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 			});
 		}
 
+		if ( this.enableKeysetPagination ) { // Added in 1.3.3
+			this.keysetPager = new MyBatisMapperKeysetPager( this.dataSource );
+			targetConfiguration.addInterceptor( this.keysetPager );
+		}
+
+		if ( this.enableStatementMetrics ) { // Added in 1.3.3
+			this.statementMetrics = new MyBatisMapperStatementMetrics();
+			targetConfiguration.addInterceptor( this.statementMetrics );
+		}
+
+		if ( this.enableEntityCache ) { // Added in 1.3.3
+			this.entityCache = new MyBatisMapperEntityCache( this.entityCacheProperties );
+			targetConfiguration.addInterceptor( this.entityCache );
+		}
+
+		if ( this.enableDirtyTracking ) { // Added in 1.3.3
+			// Around the entity cache, in order to track the cached entities too
+			this.dirtyTracker = new MyBatisMapperDirtyTracker();
+			targetConfiguration.addInterceptor( this.dirtyTracker );
+		}
+
+		if ( !isEmpty( this.replicaDataSources ) ) { // Added in 1.3.3
+			targetConfiguration.addInterceptor( new MyBatisMapperReadWriteRouter() );
+		}
+
+		if ( this.backgroundRefactoring ) { // Added in 1.3.3
+			this.refactoringGate = new MyBatisMapperRefactoringGate( this.refactoringWaitTimeout );
+			targetConfiguration.addInterceptor( this.refactoringGate );
+		}
+
 		if ( hasLength( this.typeHandlersPackage ) ) {
-			scanClasses( this.typeHandlersPackage, TypeHandler.class ).stream()
-				.filter( clazz -> !clazz.isAnonymousClass() ).filter( clazz -> !clazz.isInterface() )
-				.filter( clazz -> !Modifier.isAbstract( clazz.getModifiers() ) )
-				.forEach( targetConfiguration.getTypeHandlerRegistry()::register );
+			long start = System.nanoTime();
+			Set<Class<?>> classes = scanClasses( this.typeHandlersPackage, TypeHandler.class, TYPE_HANDLER_FILTER, MyBatisMapperTypeIndex.HANDLER );
+			classes.forEach( targetConfiguration.getTypeHandlerRegistry()::register );
+			this.startupReport.addPhase( Phase.TYPE_HANDLERS_SCANNING, System.nanoTime() - start, classes.size() );
 		}
 
 		if ( !isEmpty( this.typeHandlers ) ) {
@@ -595,6 +1400,7 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		Optional.ofNullable( this.cache ).ifPresent( targetConfiguration::addCache );
 
 		if ( xmlConfigBuilder != null ) {
+			long start = System.nanoTime();
 			try {
 				xmlConfigBuilder.parse();
 				LOGGER.debug( () -> "Parsed configuration file: '" + this.configLocation + "'" );
@@ -603,6 +1409,7 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 			} finally {
 				ErrorContext.instance().reset();
 			}
+			this.startupReport.addPhase( Phase.CONFIG_PARSING, configParsingNanos + System.nanoTime() - start, 1 );
 		}
 		Setting.copyPropertiesFromConfiguration( targetConfiguration );
 		
@@ -610,19 +1417,26 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		// Changed the order, nothing else changed.
 		// Mainly to prevent the XMLConfigBuilder from changing the default language driver.
 		Optional.ofNullable( this.defaultScriptingLanguageDriver ).ifPresent( targetConfiguration::setDefaultScriptingLanguage );
+		Optional.ofNullable( this.defaultFetchSize ).ifPresent( targetConfiguration::setDefaultFetchSize ); // Added in 1.3.3
 		
 		targetConfiguration.setEnvironment( new Environment( this.environment,
 				this.transactionFactory == null ? new SpringManagedTransactionFactory() : this.transactionFactory,
-				this.dataSource ) );
+				isEmpty( this.replicaDataSources ) ? this.dataSource : new MyBatisMapperRoutingDataSource( this.dataSource, this.replicaDataSources ) ) );
 
 		if ( this.mapperLocations != null ) {
+			long start = System.nanoTime();
 			if ( this.mapperLocations.length == 0 ) {
 				LOGGER.warn( () -> "Property 'mapperLocations' was specified but matching resources are not found." );
+			} else if ( targetConfiguration instanceof MyBatisMapperLazyConfiguration ) {
+				indexMapperLocations( ( MyBatisMapperLazyConfiguration ) targetConfiguration );
+			} else if ( this.mapperParsingParallelism > 1 && this.mapperLocations.length > 1 ) {
+				parseMapperLocationsInParallel( targetConfiguration );
 			} else {
 				for ( Resource mapperLocation : this.mapperLocations ) {
 					if ( mapperLocation == null ) {
 						continue;
 					}
+					long mapperStart = System.nanoTime();
 					try {
 						XMLMapperBuilder xmlMapperBuilder = new XMLMapperBuilder( mapperLocation.getInputStream(),
 								targetConfiguration, mapperLocation.toString(), targetConfiguration.getSqlFragments() );
@@ -632,13 +1446,26 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 					} finally {
 						ErrorContext.instance().reset();
 					}
+					this.startupReport.addMapperFile( mapperLocation.toString(), System.nanoTime() - mapperStart );
 					LOGGER.debug( () -> "Parsed mapper file: '" + mapperLocation + "'" );
 				}
 			}
+			this.startupReport.addPhase( Phase.MAPPER_PARSING, System.nanoTime() - start, ( int ) Stream.of( this.mapperLocations ).filter( Objects::nonNull ).count() );
+			if ( this.slowestMapperFilesToLog > 0 ) {
+				LOGGER.debug( () -> "Slowest mapper files: " + this.startupReport.slowestMapperFiles( this.slowestMapperFilesToLog ) + " (ms)" );
+			}
 		} else {
 			LOGGER.debug( () -> "Property 'mapperLocations' was not specified." );
 		}
-		return this.sqlSessionFactoryBuilder.build( targetConfiguration );
+
+		if ( !isEmpty( this.concurrentCacheNamespaces ) ) { // Added in 1.3.3
+			replaceNamespaceCaches( targetConfiguration );
+		}
+		
+		long start = System.nanoTime();
+		SqlSessionFactory builtSqlSessionFactory = this.sqlSessionFactoryBuilder.build( targetConfiguration );
+		this.startupReport.addPhase( Phase.FACTORY_BUILDING, System.nanoTime() - start, 1 );
+		return builtSqlSessionFactory;
 	}
 	
 	/**
@@ -652,6 +1479,54 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		return this.sqlSessionFactory;
 	}
 
+	/**
+	 * <p>
+	 * Create a {@code SqlSessionFactory} for a tenant or a shard, which shares
+	 * the configuration built by this factory bean (aliases, handlers, mapper
+	 * files and refactored statements), with its own data source and isolated
+	 * second-level cache entries.
+	 *
+	 * <p>
+	 * The transaction factory of this factory bean is shared as well, the
+	 * shard must use the same database vendor as this factory bean. The lazy
+	 * loading is not supported, see {@link MyBatisMapperShardSqlSessionFactory}.
+	 *
+	 * @param shardId the unique id of the shard
+	 * @param dataSource the data source of the shard
+	 * @return the shard {@code SqlSessionFactory}
+	 * @throws Exception if failed to build the template configuration
+	 * @throws IllegalStateException if the template configuration loads any property lazily
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public SqlSessionFactory createShardSqlSessionFactory( String shardId, DataSource dataSource ) throws Exception {
+		notNull( shardId, "Property 'shardId' is required" );
+		notNull( dataSource, "Property 'dataSource' is required" );
+		Configuration template = getObject().getConfiguration();
+		return new MyBatisMapperShardSqlSessionFactory( template, shardId, template.getEnvironment().getTransactionFactory(), dataSource );
+	}
+
+	/**
+	 * <p>
+	 * Create a thread-safe {@code SqlSession} which buffers the writes executed
+	 * inside Spring transactions and sends them as JDBC batches, according to
+	 * the {@code batchSize} and {@code batchFlushInterval}. Its mappers are
+	 * obtained with {@link SqlSession#getMapper(Class)}.
+	 * 
+	 * <p>
+	 * Requires the default {@code SpringManagedTransactionFactory}.
+	 * 
+	 * @return the batch {@code SqlSession}
+	 * @throws Exception if failed to build the {@code SqlSessionFactory}
+	 * @see MyBatisMapperBatchSqlSession
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public SqlSession createBatchSqlSession() throws Exception {
+		SqlSessionFactory factory = getObject();
+		state( factory.getConfiguration().getEnvironment().getTransactionFactory() instanceof SpringManagedTransactionFactory,
+				"Batch sessions require a SpringManagedTransactionFactory" );
+		return new MyBatisMapperBatchSqlSession( factory, this.batchSize, this.batchFlushInterval );
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -675,11 +1550,161 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 	 */
 	@Override
 	public void onApplicationEvent( ContextRefreshedEvent event ) {
-		if ( !isInitialized ) { // Added in 1.3.2
-			isInitialized = true; // Prevent duplicate execution
+		// Prevent duplicate execution, added in 1.3.2
+		if ( this.refactoringState.compareAndSet( RefactoringState.PENDING, RefactoringState.RUNNING ) ) {
+			if ( this.refactoringGate == null ) {
+				refactoring();
+			} else {
+				CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "mybatis-mapper-refactoring-" );
+				threadFactory.setDaemon( true );
+				threadFactory.newThread( () -> {
+					try {
+						refactoring();
+					} catch ( RuntimeException | Error e ) {
+						LOGGER.error( () -> "Failed to refactor mybatis-mapper in the background", e );
+					}
+				} ).start();
+			}
+		}
+	}
+
+	/**
+	 * Execute the mybatis-mapper refactoring and update the refactoring state.
+	 * 
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void refactoring() {
+		long start = System.nanoTime();
+		// Every step before the completion is covered, the gate must never be left open
+		try {
 			LoggerUtil.printBootstrapLog();
-			this.mybatisMapperBuilder.refactoring( sqlSessionFactory.getConfiguration() );
+			if ( this.snapshotLocation == null ) {
+				this.mybatisMapperBuilder.refactoring( sqlSessionFactory.getConfiguration() );
+			} else {
+				refactoringWithSnapshot( sqlSessionFactory.getConfiguration() );
+			}
 			LoggerUtil.printLoadedLog();
+			if ( !isEmpty( this.statementFetchSizes ) ) { // Added in 1.3.3
+				applyStatementFetchSizes( sqlSessionFactory.getConfiguration() );
+			}
+			long compactionNanos = 0;
+			if ( this.enableCompaction ) { // Added in 1.3.3
+				// Before the bound SQL cache, which wraps the SQL sources
+				long compactionStart = System.nanoTime();
+				this.compactionResult = MyBatisMapperCompaction.compact( sqlSessionFactory.getConfiguration() );
+				compactionNanos = System.nanoTime() - compactionStart;
+				this.startupReport.addPhase( Phase.COMPACTION, compactionNanos, this.compactionResult.getStatementCount() );
+			}
+			if ( this.enableBoundSqlCache ) { // Added in 1.3.3
+				this.boundSqlCache = MyBatisMapperBoundSqlCache.apply( sqlSessionFactory.getConfiguration(), this.boundSqlCacheSize );
+				LOGGER.debug( () -> "Cached the generated SQL of " + boundSqlCache.getStatementCount() + " dynamic statements" );
+			}
+			if ( this.enableBulkInsert ) { // Added in 1.3.3
+				this.bulkWriter = MyBatisMapperBulkWriter.create( sqlSessionFactory.getConfiguration(), this.dataSource );
+			}
+			int statementCount = ( int ) sqlSessionFactory.getConfiguration().getMappedStatementNames().stream().filter( id -> id.indexOf( '.' ) != -1 ).count();
+			this.startupReport.addPhase( Phase.REFACTORING, System.nanoTime() - start - compactionNanos, statementCount );
+		} catch ( RuntimeException | Error e ) {
+			this.refactoringState.set( RefactoringState.FAILED );
+			Optional.ofNullable( this.refactoringGate ).ifPresent( gate -> gate.fail( e ) );
+			throw e;
+		}
+		this.refactoringState.set( RefactoringState.COMPLETED );
+		Optional.ofNullable( this.refactoringGate ).ifPresent( MyBatisMapperRefactoringGate::complete );
+		if ( this.enableStatementWarmUp ) { // Added in 1.3.3
+			long warmUpStart = System.nanoTime();
+			MyBatisMapperWarmUp warmUp = new MyBatisMapperWarmUp( sqlSessionFactory.getConfiguration(),
+					this.warmUpPrepareStatements ? this.dataSource : null, this.warmUpConcurrency, this.warmUpTimeBudget );
+			this.warmUpResult = warmUp.run();
+			this.startupReport.addPhase( Phase.WARM_UP, System.nanoTime() - warmUpStart, this.warmUpResult.getProcessedCount() );
+		}
+		if ( this.enableMapperReloading && !isEmpty( this.mapperLocations ) ) { // Added in 1.3.3
+			startMapperReloading();
+		}
+		LOGGER.debug( () -> this.startupReport.toString() ); // Added in 1.3.3
+	}
+
+	/**
+	 * Apply the {@code statementFetchSizes} to the matching select statements.
+	 * 
+	 * @param configuration the refactored configuration
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void applyStatementFetchSizes( Configuration configuration ) {
+		AntPathMatcher matcher = new AntPathMatcher( "." );
+		int count = 0;
+		for ( Object object : configuration.getMappedStatements() ) {
+			// The values of StrictMap also contain the ambiguous short names
+			if ( !( object instanceof MappedStatement ) || ( ( MappedStatement ) object ).getSqlCommandType() != SqlCommandType.SELECT ) {
+				continue;
+			}
+			MappedStatement statement = ( MappedStatement ) object;
+			Optional<Integer> fetchSize = this.statementFetchSizes.entrySet().stream()
+					.filter( entry -> matcher.match( entry.getKey(), statement.getId() ) ).map( Map.Entry::getValue ).findFirst();
+			if ( fetchSize.isPresent() ) {
+				MetaObject metaObject = SystemMetaObject.forObject( statement );
+				metaObject.setValue( "fetchSize", fetchSize.get() );
+				if ( statement.getResultSetType() == null || statement.getResultSetType() == ResultSetType.DEFAULT ) {
+					metaObject.setValue( "resultSetType", ResultSetType.FORWARD_ONLY );
+				}
+				count ++;
+			}
+		}
+		int applied = count;
+		LOGGER.debug( () -> "Applied the fetch sizes to " + applied + " statements" );
+	}
+
+	/**
+	 * Start to watch the mapper files for reloading.
+	 * 
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void startMapperReloading() {
+		MyBatisMapperReloader reloader = new MyBatisMapperReloader( ( MyBatisMapperConcurrentConfiguration ) sqlSessionFactory.getConfiguration(),
+				this.mapperLocations, this.mapperReloadingInterval );
+		try {
+			reloader.start();
+			this.mapperReloader = reloader;
+		} catch ( IOException e ) {
+			LOGGER.warn( () -> "Failed to watch the mapper files, mapper reloading is disabled: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Register the MBean to the platform MBean server.
+	 * 
+	 * @param mbean the MBean instance
+	 * @param type the MBean type
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void registerMBean( Object mbean, String type ) throws JMException {
+		ObjectName objectName = new ObjectName( "com.viiyue.plugins.mybatis.spring:type=" + type + ",environment="
+				+ ObjectName.quote( this.environment ) + ",identity=" + ObjectUtils.getIdentityHexString( this ) );
+		ManagementFactory.getPlatformMBeanServer().registerMBean( mbean, objectName );
+		this.registeredMBeans.add( objectName );
+	}
+
+	/**
+	 * Restore the refactored statements from the snapshot, or refactor and
+	 * save a new snapshot if the snapshot is missing, stale or corrupted.
+	 * 
+	 * @param configuration the configuration to be refactored
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void refactoringWithSnapshot( Configuration configuration ) {
+		MyBatisMapperSnapshot snapshot = new MyBatisMapperSnapshot( this.snapshotLocation, configuration );
+		String fingerprint;
+		try {
+			fingerprint = snapshot.fingerprint( this.mapperLocations, this.configurationProperties );
+		} catch ( IOException e ) {
+			LOGGER.warn( () -> "Cannot compute the mybatis-mapper snapshot fingerprint. Cause by " + e.toString() );
+			this.mybatisMapperBuilder.refactoring( configuration );
+			return;
+		}
+		if ( !snapshot.restore( fingerprint ) ) {
+			MyBatisMapperSnapshot.State state = snapshot.capture();
+			this.mybatisMapperBuilder.refactoring( configuration );
+			snapshot.save( fingerprint, state );
 		}
 	}
 	
@@ -694,26 +1719,310 @@ public final class MyBatisMapperSqlSessionFactoryBean implements FactoryBean<Sql
 		}
 	}
 	
-	private Set<Class<?>> scanClasses( String packagePatterns, Class<?> assignableType ) throws IOException {
-		Set<Class<?>> classes = new HashSet<>();
+	/**
+	 * Only index the namespaces of the mapper files, they are parsed on demand
+	 * by the lazy configuration, except the ones declaring a cache.
+	 *
+	 * @param targetConfiguration the lazy configuration
+	 * @throws IOException if any mapper file fails to be read
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void indexMapperLocations( MyBatisMapperLazyConfiguration targetConfiguration ) throws IOException {
+		for ( Resource mapperLocation : this.mapperLocations ) {
+			if ( mapperLocation == null ) {
+				continue;
+			}
+			try {
+				targetConfiguration.addMapperLocation( mapperLocation );
+			} catch ( Exception e ) {
+				throw new NestedIOException( "Failed to parse mapping resource: '" + mapperLocation + "'", e );
+			}
+		}
+		int cacheNamespaces = targetConfiguration.materializeCacheNamespaces();
+		LOGGER.debug( () -> "Indexed " + targetConfiguration.getPendingNamespaces().size() + " mapper namespaces for lazy loading, "
+				+ cacheNamespaces + " namespaces with caches parsed" );
+	}
+
+	/**
+	 * Replace the namespace caches matching the {@code concurrentCacheNamespaces}
+	 * with concurrent caches, and point their statements to the new caches.
+	 * 
+	 * @param targetConfiguration the configuration with the parsed mapper files
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void replaceNamespaceCaches( Configuration targetConfiguration ) {
+		Map<String, Object> caches = null;
+		if ( !( targetConfiguration instanceof MyBatisMapperConcurrentConfiguration ) ) {
+			Field field = ReflectionUtils.findField( Configuration.class, "caches" );
+			ReflectionUtils.makeAccessible( field );
+			caches = ( Map<String, Object> ) ReflectionUtils.getField( field, targetConfiguration );
+		}
+		AntPathMatcher matcher = new AntPathMatcher( "." );
+		for ( Object original : new ArrayList<Object>( targetConfiguration.getCaches() ) ) {
+			// Skip the ambiguous short names of StrictMap, and the caches already replaced through their short names
+			if ( !( original instanceof Cache ) || this.concurrentCaches.containsKey( ( ( Cache ) original ).getId() ) ) {
+				continue;
+			}
+			String namespace = ( ( Cache ) original ).getId();
+			if ( Stream.of( this.concurrentCacheNamespaces ).noneMatch( pattern -> matcher.match( pattern, namespace ) ) ) {
+				continue;
+			}
+			MyBatisMapperConcurrentCache.Settings settings = MyBatisMapperConcurrentCache.Settings.of( ( Cache ) original );
+			if ( settings == null ) {
+				LOGGER.debug( () -> "Kept the cache of namespace '" + namespace + "', its implementation or eviction is custom" );
+				continue;
+			}
+			MyBatisMapperConcurrentCache replacement = new MyBatisMapperConcurrentCache( namespace );
+			settings.applyTo( replacement );
+			replacement.setProperties( this.concurrentCacheProperties );
+			replacement.initialize();
+			Cache decorated = settings.decorate( replacement );
+			if ( caches == null ) {
+				( ( MyBatisMapperConcurrentConfiguration ) targetConfiguration ).replaceCache( namespace, decorated );
+			} else {
+				// Both the namespace and its short name refer to the same cache
+				caches.replaceAll( ( name, cache ) -> cache == original ? decorated : cache );
+			}
+			for ( Object statement : targetConfiguration.getMappedStatements() ) {
+				if ( statement instanceof MappedStatement && ( ( MappedStatement ) statement ).getCache() == original ) {
+					SystemMetaObject.forObject( statement ).setValue( "cache", decorated );
+				}
+			}
+			this.concurrentCaches.put( namespace, replacement );
+			LOGGER.debug( () -> "Replaced the cache of namespace '" + namespace + "' with a concurrent cache" );
+		}
+	}
+
+	/**
+	 * Read and parse all mapper files in parallel, and then register them into
+	 * the configuration in the declared order. The xml reading and DOM parsing
+	 * happen in the constructor of {@link XMLMapperBuilder}, which only reads
+	 * the configuration, while {@link XMLMapperBuilder#parse()} modifies the
+	 * shared configuration and must remain on the current thread.
+	 * 
+	 * @param targetConfiguration the configuration to be registered
+	 * @throws IOException if any mapper file fails to be parsed
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	private void parseMapperLocationsInParallel( Configuration targetConfiguration ) throws IOException {
+		Resource [] locations = Stream.of( this.mapperLocations ).filter( Objects::nonNull ).toArray( Resource []::new );
+		XMLMapperBuilder [] builders = new XMLMapperBuilder[ locations.length ];
+		boolean [] completed = new boolean[ locations.length ];
+		long [] parsingNanos = new long[ locations.length ];
+		
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "mybatis-mapper-parser-" );
+		threadFactory.setDaemon( true );
+		ExecutorService executor = Executors.newFixedThreadPool( Math.min( this.mapperParsingParallelism, locations.length ), threadFactory );
+		try {
+			CompletionService<Integer> completionService = new ExecutorCompletionService<>( executor );
+			for ( int i = 0; i < locations.length; i ++ ) {
+				final int index = i;
+				completionService.submit( () -> {
+					Resource mapperLocation = locations[ index ];
+					long start = System.nanoTime();
+					try {
+						builders[ index ] = new XMLMapperBuilder( mapperLocation.getInputStream(), targetConfiguration,
+								mapperLocation.toString(), targetConfiguration.getSqlFragments() );
+					} catch ( Exception e ) {
+						throw new NestedIOException( "Failed to parse mapping resource: '" + mapperLocation + "'", e );
+					} finally {
+						ErrorContext.instance().reset();
+					}
+					parsingNanos[ index ] = System.nanoTime() - start;
+					return index;
+				} );
+			}
+			
+			// Fail fast on the first failed file, regardless of its position,
+			// and register the finished files as soon as all of their predecessors are registered.
+			int next = 0;
+			for ( int i = 0; i < locations.length; i ++ ) {
+				try {
+					completed[ completionService.take().get() ] = true;
+				} catch ( ExecutionException e ) {
+					Throwable cause = e.getCause();
+					throw cause instanceof IOException ? ( IOException ) cause : new NestedIOException( "Failed to parse mapping resource", cause );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new NestedIOException( "Interrupted while parsing mapping resources", e );
+				}
+				for ( ; next < locations.length && completed[ next ]; next ++ ) {
+					Resource mapperLocation = locations[ next ];
+					long start = System.nanoTime();
+					try {
+						builders[ next ].parse();
+					} catch ( Exception e ) {
+						throw new NestedIOException( "Failed to parse mapping resource: '" + mapperLocation + "'", e );
+					} finally {
+						builders[ next ] = null; // Release the parsed document
+						ErrorContext.instance().reset();
+					}
+					this.startupReport.addMapperFile( mapperLocation.toString(), parsingNanos[ next ] + System.nanoTime() - start );
+					LOGGER.debug( () -> "Parsed mapper file: '" + mapperLocation + "'" );
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Scan the classes under the package patterns, all the filters are applied
+	 * on the class file metadata (including the type hierarchy), so only the
+	 * matching classes will be loaded. Multiple package patterns are scanned
+	 * concurrently on dedicated threads, which load the classes with the
+	 * context class loader of the caller, but the result keeps the declared
+	 * order of the patterns.
+	 */
+	private Set<Class<?>> scanClasses( String packagePatterns, Class<?> assignableType, TypeFilter typeFilter, String indexCategory ) throws IOException {
 		String [] packagePatternArray = tokenizeToStringArray( packagePatterns, ConfigurableApplicationContext.CONFIG_LOCATION_DELIMITERS );
-		for ( String packagePattern : packagePatternArray ) {
-			Resource [] resources = RESOURCE_PATTERN_RESOLVER.getResources( 
-				ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + ClassUtils.convertClassNameToResourcePath( packagePattern ) + "/**/*.class" 
-			);
-			for ( Resource resource : resources ) {
+		MyBatisMapperTypeIndex typeIndex = MyBatisMapperTypeIndex.load( ClassUtils.getDefaultClassLoader() );
+		TypeFilter assignableFilter = assignableType == null ? null : new AssignableTypeFilter( assignableType );
+		Set<Class<?>> classes = new LinkedHashSet<>();
+		if ( packagePatternArray.length < 2 ) {
+			for ( String packagePattern : packagePatternArray ) {
+				classes.addAll( scanPackage( packagePattern, assignableFilter, typeFilter, typeIndex, indexCategory ) );
+			}
+			return classes;
+		}
+
+		// Resources.classForName tries the context class loader first
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "mybatis-mapper-scanner-" );
+		threadFactory.setDaemon( true );
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min( Runtime.getRuntime().availableProcessors(), packagePatternArray.length ), threadFactory );
+		try {
+			List<Future<List<Class<?>>>> scans = new ArrayList<>( packagePatternArray.length );
+			for ( String packagePattern : packagePatternArray ) {
+				scans.add( executor.submit( () -> {
+					Thread.currentThread().setContextClassLoader( classLoader );
+					return scanPackage( packagePattern, assignableFilter, typeFilter, typeIndex, indexCategory );
+				} ) );
+			}
+			for ( Future<List<Class<?>>> scan : scans ) {
+				try {
+					classes.addAll( scan.get() );
+				} catch ( ExecutionException e ) {
+					Throwable cause = e.getCause();
+					throw cause instanceof IOException ? ( IOException ) cause : new NestedIOException( "Failed to scan the classes", cause );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new NestedIOException( "Interrupted while scanning the classes", e );
+				}
+			}
+			return classes;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Class<?>> scanPackage( String packagePattern, TypeFilter assignableFilter, TypeFilter typeFilter,
+			MyBatisMapperTypeIndex typeIndex, String indexCategory ) throws IOException {
+		List<Class<?>> classes = new ArrayList<>();
+		String classPattern = ClassUtils.convertClassNameToResourcePath( packagePattern ) + "/**/*.class";
+		Resource [] resources;
+		if ( typeIndex == null ) {
+			resources = RESOURCE_PATTERN_RESOLVER.getResources( ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + classPattern );
+		} else { // Added in 1.3.3
+			for ( String className : typeIndex.getCandidates( packagePattern, indexCategory ) ) {
 				try {
-					ClassMetadata classMetadata = METADATA_READER_FACTORY.getMetadataReader( resource ).getClassMetadata();
-					Class<?> clazz = Resources.classForName( classMetadata.getClassName() );
-					if ( assignableType == null || assignableType.isAssignableFrom( clazz ) ) {
-						classes.add( clazz );
+					MetadataReader metadataReader = METADATA_READER_FACTORY.getMetadataReader( className );
+					if ( matches( metadataReader, assignableFilter, typeFilter ) ) {
+						classes.add( Resources.classForName( className ) );
 					}
 				} catch ( Throwable e ) {
-					LOGGER.warn( () -> "Cannot load the '" + resource + "'. Cause by " + e.toString() );
+					LOGGER.warn( () -> "Cannot load the indexed class '" + className + "'. Cause by " + e.toString() );
 				}
 			}
+			resources = scanUnindexedResources( classPattern, typeIndex );
+		}
+		for ( Resource resource : resources ) {
+			try {
+				MetadataReader metadataReader = METADATA_READER_FACTORY.getMetadataReader( resource );
+				if ( matches( metadataReader, assignableFilter, typeFilter ) ) {
+					classes.add( Resources.classForName( metadataReader.getClassMetadata().getClassName() ) );
+				}
+			} catch ( Throwable e ) {
+				LOGGER.warn( () -> "Cannot load the '" + resource + "'. Cause by " + e.toString() );
+			}
 		}
 		return classes;
 	}
 
+	/**
+	 * Scan the class files of the pattern in the classpath roots that are not
+	 * covered by the type index, such as the jars built without the annotation
+	 * processor. The package directories are resolved from the class loader
+	 * first, which is cheap, and only the unindexed ones are walked.
+	 */
+	private Resource [] scanUnindexedResources( String classPattern, MyBatisMapperTypeIndex typeIndex ) throws IOException {
+		int rootDirEnd = classPattern.length();
+		for ( int i = 0; i < classPattern.length(); i ++ ) {
+			char c = classPattern.charAt( i );
+			if ( c == '*' || c == '?' || c == '{' ) {
+				rootDirEnd = classPattern.lastIndexOf( '/', i ) + 1;
+				break;
+			}
+		}
+		String rootDir = classPattern.substring( 0, rootDirEnd );
+		String subPattern = classPattern.substring( rootDirEnd );
+		List<Resource> resources = new ArrayList<>();
+		for ( Resource directory : RESOURCE_PATTERN_RESOLVER.getResources( ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + rootDir ) ) {
+			if ( !typeIndex.isIndexed( directory ) ) {
+				String location = directory.getURL().toString();
+				location = location.endsWith( "/" ) ? location : location + "/";
+				Collections.addAll( resources, RESOURCE_PATTERN_RESOLVER.getResources( location + subPattern ) );
+			}
+		}
+		return resources.toArray( new Resource[ resources.size() ] );
+	}
+
+	private boolean matches( MetadataReader metadataReader, TypeFilter assignableFilter, TypeFilter typeFilter ) throws IOException {
+		return typeFilter.match( metadataReader, METADATA_READER_FACTORY )
+				&& ( assignableFilter == null || assignableFilter.match( metadataReader, METADATA_READER_FACTORY ) );
+	}
+
+	/**
+	 * Anonymous classes are compiled as {@code Outer$1}
+	 */
+	private static boolean isAnonymousClass( ClassMetadata classMetadata ) {
+		String simpleName = innerClassName( classMetadata );
+		return simpleName != null && !simpleName.isEmpty() && simpleName.chars().allMatch( Character::isDigit );
+	}
+
+	/**
+	 * Member classes are compiled as {@code Outer$Inner}, local classes are
+	 * compiled as {@code Outer$1Local}
+	 */
+	private static boolean isMemberClass( ClassMetadata classMetadata ) {
+		String simpleName = innerClassName( classMetadata );
+		return simpleName != null && !simpleName.isEmpty() && !Character.isDigit( simpleName.charAt( 0 ) );
+	}
+
+	private static String innerClassName( ClassMetadata classMetadata ) {
+		if ( !classMetadata.hasEnclosingClass() ) {
+			return null;
+		}
+		String className = classMetadata.getClassName();
+		return className.substring( className.lastIndexOf( '$' ) + 1 );
+	}
+
+	/**
+	 * State of the mybatis-mapper refactoring
+	 * 
+	 * @since mybatis-mapper-spring 1.3.3
+	 */
+	public enum RefactoringState {
+		/** Waiting for the context to be refreshed */
+		PENDING,
+		/** The refactoring is in progress */
+		RUNNING,
+		/** The refactoring has been completed */
+		COMPLETED,
+		/** The refactoring has failed */
+		FAILED
+	}
+
 }
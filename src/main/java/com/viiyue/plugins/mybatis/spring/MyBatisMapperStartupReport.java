@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Timing report of the startup phases of the
+ * {@link MyBatisMapperSqlSessionFactoryBean}, including the number of items
+ * processed in each phase and the parsing time of each mapper file.
+ *
+ * <p>
+ * The report is filled while the factory bean is building, and can be read
+ * at any time through {@link MyBatisMapperSqlSessionFactoryBean#getStartupReport()}
+ * or through JMX.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperStartupReport implements MyBatisMapperStartupReportMXBean {
+
+	private final Map<Phase, PhaseTiming> phases = new LinkedHashMap<>();
+	private final Map<String, Long> mapperFiles = new LinkedHashMap<>();
+
+	/**
+	 * Startup phases of the factory bean
+	 */
+	public enum Phase {
+		/** Scanning of {@code typeAliasesPackage} */
+		TYPE_ALIASES_SCANNING,
+		/** Scanning of {@code typeHandlersPackage} */
+		TYPE_HANDLERS_SCANNING,
+		/** Parsing of {@code configLocation} */
+		CONFIG_PARSING,
+		/** Parsing of {@code mapperLocations} */
+		MAPPER_PARSING,
+		/** {@code SqlSessionFactoryBuilder#build(Configuration)} */
+		FACTORY_BUILDING,
+		/** {@code MyBatisMapperBuilder#refactoring(Configuration)} */
+		REFACTORING,
+		/** Compaction of the mapped statements, added in 1.3.3 */
+		COMPACTION,
+		/** Warm-up of the mapped statements, added in 1.3.3 */
+		WARM_UP
+	}
+
+	/**
+	 * Timing of a single finished phase
+	 */
+	public static final class PhaseTiming {
+
+		private final Phase phase;
+		private final long nanos;
+		private final int itemCount;
+
+		private PhaseTiming( Phase phase, long nanos, int itemCount ) {
+			this.phase = phase;
+			this.nanos = nanos;
+			this.itemCount = itemCount;
+		}
+
+		public Phase getPhase() {
+			return phase;
+		}
+
+		public long getTime( TimeUnit unit ) {
+			return unit.convert( nanos, TimeUnit.NANOSECONDS );
+		}
+
+		public int getItemCount() {
+			return itemCount;
+		}
+
+		@Override
+		public String toString() {
+			return phase + " " + getTime( TimeUnit.MILLISECONDS ) + "ms (" + itemCount + " items)";
+		}
+
+	}
+
+	synchronized void addPhase( Phase phase, long nanos, int itemCount ) {
+		phases.put( phase, new PhaseTiming( phase, nanos, itemCount ) );
+	}
+
+	synchronized void addMapperFile( String mapperLocation, long nanos ) {
+		mapperFiles.put( mapperLocation, nanos );
+	}
+
+	/**
+	 * @return the timings of all the finished phases, in the order they first
+	 *         finished
+	 */
+	public synchronized List<PhaseTiming> getPhases() {
+		return Collections.unmodifiableList( new ArrayList<>( phases.values() ) );
+	}
+
+	/**
+	 * @param phase the startup phase
+	 * @return the timing of the phase, or {@code null} if not finished
+	 */
+	public synchronized PhaseTiming getPhase( Phase phase ) {
+		return phases.get( phase );
+	}
+
+	/**
+	 * @param limit the maximum number of mapper files
+	 * @return the slowest mapper files and their parsing time in nanoseconds
+	 */
+	public synchronized Map<String, Long> getSlowestMapperFiles( int limit ) {
+		Map<String, Long> slowest = new LinkedHashMap<>();
+		mapperFiles.entrySet().stream().sorted( Map.Entry.<String, Long>comparingByValue( Comparator.reverseOrder() ) )
+				.limit( limit ).forEach( entry -> slowest.put( entry.getKey(), entry.getValue() ) );
+		return slowest;
+	}
+
+	@Override
+	public synchronized long getTotalTimeMillis() {
+		return phases.values().stream().mapToLong( timing -> timing.getTime( TimeUnit.MILLISECONDS ) ).sum();
+	}
+
+	@Override
+	public synchronized Map<String, Long> getPhaseTimeMillis() {
+		Map<String, Long> times = new LinkedHashMap<>();
+		phases.forEach( ( phase, timing ) -> times.put( phase.name(), timing.getTime( TimeUnit.MILLISECONDS ) ) );
+		return times;
+	}
+
+	@Override
+	public synchronized Map<String, Integer> getPhaseItemCounts() {
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		phases.forEach( ( phase, timing ) -> counts.put( phase.name(), timing.getItemCount() ) );
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> slowestMapperFiles( int limit ) {
+		Map<String, Long> slowest = new LinkedHashMap<>();
+		getSlowestMapperFiles( limit ).forEach( ( location, nanos ) -> slowest.put( location, TimeUnit.NANOSECONDS.toMillis( nanos ) ) );
+		return slowest;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "MyBatisMapperStartupReport " + phases.values() + ", total " + getTotalTimeMillis() + "ms";
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link MyBatisMapperStartupReport}
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public interface MyBatisMapperStartupReportMXBean {
+
+	/**
+	 * @return the total time of all the finished phases in milliseconds
+	 */
+	long getTotalTimeMillis();
+
+	/**
+	 * @return the time of each finished phase in milliseconds
+	 */
+	Map<String, Long> getPhaseTimeMillis();
+
+	/**
+	 * @return the number of processed items of each finished phase
+	 */
+	Map<String, Integer> getPhaseItemCounts();
+
+	/**
+	 * @param limit the maximum number of mapper files
+	 * @return the slowest mapper files and their parsing time in milliseconds
+	 */
+	Map<String, Long> slowestMapperFiles( int limit );
+
+}
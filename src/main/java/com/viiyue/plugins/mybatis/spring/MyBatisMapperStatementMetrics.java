@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * <p>
+ * Executor plugin that aggregates the execution metrics of each
+ * {@link MappedStatement}: call count, error count, row count and a latency
+ * histogram.
+ *
+ * <p>
+ * All the counters are {@link LongAdder}s and the histogram buckets are
+ * created lazily, so that concurrent executions of the same statement never
+ * contend on a lock or on a single memory location. The latency histogram
+ * uses four linear sub-buckets per power of two microseconds, the reported
+ * percentiles are the upper bounds of the buckets (at most 25% above the
+ * actual value).
+ *
+ * <p>
+ * The metrics can be pulled with {@link #getStatements()},
+ * {@link #getStatement(String)} and {@link #namespace(String)}, or through JMX.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+@Intercepts( {
+	@Signature( type = Executor.class, method = "update", args = { MappedStatement.class, Object.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class } ),
+	@Signature( type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class } ),
+	@Signature( type = Executor.class, method = "queryCursor", args = { MappedStatement.class, Object.class, RowBounds.class } )
+} )
+public final class MyBatisMapperStatementMetrics implements Interceptor, MyBatisMapperStatementMetricsMXBean {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+	private final ConcurrentMap<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+
+	@Override
+	public Object intercept( Invocation invocation ) throws Throwable {
+		MappedStatement statement = ( MappedStatement ) invocation.getArgs()[ 0 ];
+		StatementMetrics metrics = statements.get( statement.getId() );
+		if ( metrics == null ) {
+			metrics = statements.computeIfAbsent( statement.getId(), id -> new StatementMetrics() );
+		}
+		long start = System.nanoTime();
+		try {
+			Object result = invocation.proceed();
+			metrics.record( System.nanoTime() - start, rows( result ), false );
+			return result;
+		} catch ( Throwable e ) {
+			metrics.record( System.nanoTime() - start, 0, true );
+			throw e;
+		}
+	}
+
+	@Override
+	public Object plugin( Object target ) {
+		return Plugin.wrap( target, this );
+	}
+
+	@Override
+	public void setProperties( Properties properties ) {
+	}
+
+	/**
+	 * @param statementId the statement id
+	 * @return the metrics of the statement, or {@code null} if never executed
+	 */
+	public Snapshot getStatement( String statementId ) {
+		StatementMetrics metrics = statements.get( statementId );
+		return metrics == null ? null : metrics.snapshot( statementId );
+	}
+
+	@Override
+	public List<Snapshot> getStatements() {
+		List<Snapshot> snapshots = new ArrayList<>( statements.size() );
+		statements.forEach( ( id, metrics ) -> snapshots.add( metrics.snapshot( id ) ) );
+		snapshots.sort( ( a, b ) -> a.getId().compareTo( b.getId() ) );
+		return snapshots;
+	}
+
+	@Override
+	public Snapshot namespace( String namespace ) {
+		String prefix = namespace + ".";
+		List<StatementMetrics> matches = new ArrayList<>();
+		statements.forEach( ( id, metrics ) -> {
+			if ( id.startsWith( prefix ) ) {
+				matches.add( metrics );
+			}
+		} );
+		return StatementMetrics.merge( namespace, matches );
+	}
+
+	@Override
+	public void reset() {
+		statements.clear();
+	}
+
+	private static long rows( Object result ) {
+		if ( result instanceof Collection ) {
+			return ( ( Collection<?> ) result ).size();
+		}
+		if ( result instanceof Integer ) {
+			return Math.max( 0, ( Integer ) result );
+		}
+		return 0;
+	}
+
+	private static int bucket( long micros ) {
+		if ( micros < SUB_BUCKETS ) {
+			return ( int ) Math.max( 0, micros );
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros( micros );
+		int subBucket = ( int ) ( micros >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+		return Math.min( BUCKETS - 1, ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket );
+	}
+
+	private static long bucketUpperBound( int bucket ) {
+		if ( bucket < SUB_BUCKETS ) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return ( ( SUB_BUCKETS + subBucket + 1 ) << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+	}
+
+	private static final class StatementMetrics {
+
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator( Math::max, 0 );
+		private final AtomicReferenceArray<LongAdder> histogram = new AtomicReferenceArray<>( BUCKETS );
+
+		void record( long nanos, long rowCount, boolean error ) {
+			calls.increment();
+			totalNanos.add( nanos );
+			maxNanos.accumulate( nanos );
+			if ( error ) {
+				errors.increment();
+			} else if ( rowCount > 0 ) {
+				rows.add( rowCount );
+			}
+			int bucket = bucket( TimeUnit.NANOSECONDS.toMicros( nanos ) );
+			LongAdder counter = histogram.get( bucket );
+			if ( counter == null ) {
+				histogram.compareAndSet( bucket, null, new LongAdder() );
+				counter = histogram.get( bucket );
+			}
+			counter.increment();
+		}
+
+		Snapshot snapshot( String id ) {
+			return merge( id, Collections.singletonList( this ) );
+		}
+
+		static Snapshot merge( String id, List<StatementMetrics> metricsList ) {
+			long calls = 0, errors = 0, rows = 0, totalNanos = 0, maxNanos = 0;
+			long [] counts = new long[ BUCKETS ];
+			for ( StatementMetrics metrics : metricsList ) {
+				calls += metrics.calls.sum();
+				errors += metrics.errors.sum();
+				rows += metrics.rows.sum();
+				totalNanos += metrics.totalNanos.sum();
+				maxNanos = Math.max( maxNanos, metrics.maxNanos.get() );
+				for ( int i = 0; i < BUCKETS; i ++ ) {
+					LongAdder counter = metrics.histogram.get( i );
+					if ( counter != null ) {
+						counts[ i ] += counter.sum();
+					}
+				}
+			}
+			long total = 0;
+			for ( long count : counts ) {
+				total += count;
+			}
+			long maxMicros = TimeUnit.NANOSECONDS.toMicros( maxNanos );
+			return new Snapshot( id, calls, errors, rows, TimeUnit.NANOSECONDS.toMicros( totalNanos ),
+					percentile( counts, total, 0.50, maxMicros ), percentile( counts, total, 0.90, maxMicros ),
+					percentile( counts, total, 0.99, maxMicros ), maxMicros );
+		}
+
+		private static long percentile( long [] counts, long total, double percentile, long maxMicros ) {
+			if ( total == 0 ) {
+				return 0;
+			}
+			long rank = ( long ) Math.ceil( total * percentile );
+			long seen = 0;
+			for ( int i = 0; i < counts.length; i ++ ) {
+				seen += counts[ i ];
+				if ( seen >= rank ) {
+					return Math.min( bucketUpperBound( i ), maxMicros );
+				}
+			}
+			return maxMicros;
+		}
+
+	}
+
+	/**
+	 * Immutable metrics of a statement or a namespace, the times are in microseconds.
+	 */
+	public static final class Snapshot {
+
+		private final String id;
+		private final long calls;
+		private final long errors;
+		private final long rows;
+		private final long totalTime;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long max;
+
+		@ConstructorProperties( { "id", "calls", "errors", "rows", "totalTime", "p50", "p90", "p99", "max" } )
+		public Snapshot( String id, long calls, long errors, long rows, long totalTime, long p50, long p90, long p99, long max ) {
+			this.id = id;
+			this.calls = calls;
+			this.errors = errors;
+			this.rows = rows;
+			this.totalTime = totalTime;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		/** @return the statement id or the namespace */
+		public String getId() {
+			return id;
+		}
+
+		/** @return the number of executions */
+		public long getCalls() {
+			return calls;
+		}
+
+		/** @return the number of failed executions */
+		public long getErrors() {
+			return errors;
+		}
+
+		/** @return the number of selected or affected rows */
+		public long getRows() {
+			return rows;
+		}
+
+		/** @return the total execution time */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		/** @return the mean execution time */
+		public long getMean() {
+			return calls == 0 ? 0 : totalTime / calls;
+		}
+
+		/** @return the median execution time */
+		public long getP50() {
+			return p50;
+		}
+
+		/** @return the 90th percentile execution time */
+		public long getP90() {
+			return p90;
+		}
+
+		/** @return the 99th percentile execution time */
+		public long getP99() {
+			return p99;
+		}
+
+		/** @return the maximum execution time */
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return id + " [calls=" + calls + ", errors=" + errors + ", rows=" + rows + ", mean=" + getMean() + "us, p50="
+					+ p50 + "us, p90=" + p90 + "us, p99=" + p99 + "us, max=" + max + "us]";
+		}
+
+	}
+
+}
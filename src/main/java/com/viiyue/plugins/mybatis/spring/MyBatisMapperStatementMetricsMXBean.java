@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.util.List;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperStatementMetrics.Snapshot;
+
+/**
+ * JMX view of the {@link MyBatisMapperStatementMetrics}
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public interface MyBatisMapperStatementMetricsMXBean {
+
+	/**
+	 * @return the metrics of all the executed statements
+	 */
+	List<Snapshot> getStatements();
+
+	/**
+	 * @param namespace the mapper namespace
+	 * @return the merged metrics of all the statements under the namespace
+	 */
+	Snapshot namespace( String namespace );
+
+	/**
+	 * Reset all the metrics
+	 */
+	void reset();
+
+}
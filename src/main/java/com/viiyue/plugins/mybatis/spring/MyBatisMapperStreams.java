@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * <p>
+ * Streaming variants of the generic selects of mybatis-mapper, and of any
+ * other select, which fetch the rows from a {@link Cursor} instead of
+ * materializing the whole {@code List}.
+ *
+ * <pre>
+ * try ( Stream&lt;Account&gt; accounts = MyBatisMapperStreams.stream( sqlSession, AccountMapper.class, "selectAll", null ) ) {
+ *     accounts.forEach( writer::write );
+ * }
+ * </pre>
+ *
+ * <p>
+ * The cursor reads from the connection of the session, a
+ * {@code SqlSessionTemplate} must be used inside a transaction, and the
+ * streams must be closed. The fetch size of the statements is set by
+ * {@link MyBatisMapperSqlSessionFactoryBean#setDefaultFetchSize(Integer)} and
+ * {@link MyBatisMapperSqlSessionFactoryBean#setStatementFetchSizes(java.util.Map)}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperStreams {
+
+	private MyBatisMapperStreams() {
+	}
+
+	/**
+	 * @param sqlSession the session to read from
+	 * @param mapperInterface the mapper interface declaring the select
+	 * @param method the name of the select method, e.g. {@code selectAll}
+	 * @param parameter the parameter of the select
+	 * @return the cursor of the rows, to be closed
+	 */
+	public static <T> Cursor<T> cursor( SqlSession sqlSession, Class<?> mapperInterface, String method, Object parameter ) {
+		return sqlSession.selectCursor( mapperInterface.getName() + "." + method, parameter );
+	}
+
+	/**
+	 * @param sqlSession the session to read from
+	 * @param mapperInterface the mapper interface declaring the select
+	 * @param method the name of the select method, e.g. {@code selectAll}
+	 * @param parameter the parameter of the select
+	 * @return the stream of the rows, to be closed
+	 */
+	public static <T> Stream<T> stream( SqlSession sqlSession, Class<?> mapperInterface, String method, Object parameter ) {
+		return stream( cursor( sqlSession, mapperInterface, method, parameter ) );
+	}
+
+	/**
+	 * @param sqlSession the session to read from
+	 * @param statement the id of the select statement
+	 * @param parameter the parameter of the select
+	 * @return the stream of the rows, to be closed
+	 */
+	public static <T> Stream<T> stream( SqlSession sqlSession, String statement, Object parameter ) {
+		return stream( sqlSession.selectCursor( statement, parameter ) );
+	}
+
+	/**
+	 * @param cursor the cursor to read from
+	 * @return the sequential stream of the rows, which closes the cursor
+	 */
+	public static <T> Stream<T> stream( Cursor<T> cursor ) {
+		return StreamSupport.stream( cursor.spliterator(), false ).onClose( () -> {
+			try {
+				cursor.close();
+			} catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+		} );
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static org.springframework.util.StringUtils.commaDelimitedListToSet;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.core.SpringProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.PathMatcher;
+
+/**
+ * <p>
+ * Type alias and type handler candidates index generated at compile time by
+ * the {@code mybatis-mapper-spring-indexer} annotation processor.
+ *
+ * <p>
+ * The index only covers the classpath roots (directories or jars) that
+ * contain a {@value #INDEX_LOCATION} file: the candidates of these roots are
+ * looked up from the index instead of scanning their class files, while the
+ * roots built without the annotation processor are still scanned, see
+ * {@link #isIndexed(Resource)}. The index can be ignored altogether by setting
+ * the {@value #IGNORE_INDEX} system property (or spring property) to
+ * {@code true}.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+final class MyBatisMapperTypeIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperTypeIndex.class );
+
+	static final String INDEX_LOCATION = "META-INF/mybatis-mapper.index";
+	static final String IGNORE_INDEX = "mybatis.mapper.index.ignore";
+
+	static final String ALIAS = "alias";
+	static final String HANDLER = "handler";
+
+	private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+	private final Properties index;
+	private final List<String> roots;
+
+	private MyBatisMapperTypeIndex( Properties index, List<String> roots ) {
+		this.index = index;
+		this.roots = roots;
+	}
+
+	/**
+	 * Load all the index files from the classpath.
+	 *
+	 * @param classLoader the class loader to load the index files
+	 * @return the merged index, or {@code null} if the index is not available
+	 */
+	static MyBatisMapperTypeIndex load( ClassLoader classLoader ) {
+		if ( SpringProperties.getFlag( IGNORE_INDEX ) ) {
+			return null;
+		}
+		try {
+			Properties index = new Properties();
+			List<String> roots = new ArrayList<>();
+			Enumeration<URL> urls = classLoader == null ? ClassLoader.getSystemResources( INDEX_LOCATION ) : classLoader.getResources( INDEX_LOCATION );
+			while ( urls.hasMoreElements() ) {
+				URL url = urls.nextElement();
+				PropertiesLoaderUtils.fillProperties( index, new UrlResource( url ) );
+				String location = url.toString();
+				roots.add( location.substring( 0, location.length() - INDEX_LOCATION.length() ) );
+			}
+			if ( roots.isEmpty() ) {
+				return null;
+			}
+			LOGGER.debug( () -> "Loaded " + index.size() + " indexed types from " + roots.size() + " '" + INDEX_LOCATION + "' files" );
+			return new MyBatisMapperTypeIndex( index, roots );
+		} catch ( IOException e ) {
+			LOGGER.warn( () -> "Unable to load '" + INDEX_LOCATION + "', fall back to classpath scanning. Cause by " + e.toString() );
+			return null;
+		}
+	}
+
+	/**
+	 * Whether the classes under the package directory are covered by the
+	 * index, in other words whether the directory belongs to a classpath root
+	 * containing a {@value #INDEX_LOCATION} file.
+	 *
+	 * @param packageDirectory a package directory resolved from the classpath
+	 * @return {@code true} if the directory does not need to be scanned
+	 */
+	boolean isIndexed( Resource packageDirectory ) {
+		try {
+			String location = packageDirectory.getURL().toString();
+			for ( String root : roots ) {
+				if ( location.startsWith( root ) ) {
+					return true;
+				}
+			}
+			return false;
+		} catch ( IOException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the indexed class names of the given category under the package
+	 * pattern, sub packages are included just like the classpath scanning.
+	 *
+	 * @param packagePattern the package pattern, such as {@code com.example.*.model}
+	 * @param category the index category, {@value #ALIAS} or {@value #HANDLER}
+	 * @return the matching class names in alphabetical order, so that the
+	 *         registration order does not depend on the hashing of the index
+	 */
+	Set<String> getCandidates( String packagePattern, String category ) {
+		String pathPattern = ClassUtils.convertClassNameToResourcePath( packagePattern ) + "/**";
+		Set<String> candidates = new TreeSet<>();
+		for ( String className : index.stringPropertyNames() ) {
+			if ( commaDelimitedListToSet( index.getProperty( className ) ).contains( category ) ) {
+				String packagePath = ClassUtils.convertClassNameToResourcePath( ClassUtils.getPackageName( className ) );
+				if ( PATH_MATCHER.match( pathPattern, packagePath ) ) {
+					candidates.add( className );
+				}
+			}
+		}
+		return candidates;
+	}
+
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * <p>
+ * Warm-up and validation pass over the mapped statements, executed once the
+ * mybatis-mapper refactoring is completed, so that the first calls of each
+ * statement do not pay for the construction of its SQL, the cold code paths
+ * and the cold statement caches of the driver and the database.
+ *
+ * <p>
+ * The {@code BoundSql} of every statement is built once without parameter,
+ * the statements whose SQL depends on their parameter are skipped when it
+ * fails. The SQL of the static statements ({@link RawSqlSource} and
+ * {@link StaticSqlSource}) is also prepared, and never executed, on the
+ * pooled connections of the data source, the statements which fail to build
+ * or to prepare are reported. Whether an invalid SQL fails to prepare depends
+ * on the driver, e.g. only with server-side prepared statements for MySQL.
+ *
+ * <p>
+ * The statements are processed by {@code concurrency} threads, each holding
+ * at most one connection, and the pass stops when the time budget is spent.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public final class MyBatisMapperWarmUp {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( MyBatisMapperWarmUp.class );
+
+	private final Configuration configuration;
+	private final DataSource dataSource;
+	private final int concurrency;
+	private final long timeBudget;
+
+	/**
+	 * @param configuration the refactored configuration
+	 * @param dataSource the data source to prepare the statements on, or
+	 *        {@code null} to only build the {@code BoundSql}s
+	 * @param concurrency the number of threads
+	 * @param timeBudget the maximum duration of the pass in milliseconds
+	 */
+	MyBatisMapperWarmUp( Configuration configuration, DataSource dataSource, int concurrency, long timeBudget ) {
+		this.configuration = configuration;
+		this.dataSource = dataSource;
+		this.concurrency = concurrency;
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * Warm up the statements, blocking for the time budget at most.
+	 *
+	 * @return the outcome of the pass
+	 */
+	Result run() {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos( timeBudget );
+		Set<MappedStatement> unique = Collections.newSetFromMap( new IdentityHashMap<>() );
+		for ( Object object : configuration.getMappedStatements() ) {
+			// The values of StrictMap also contain the ambiguous short names
+			if ( object instanceof MappedStatement ) {
+				unique.add( ( MappedStatement ) object );
+			}
+		}
+		List<MappedStatement> statements = new ArrayList<>( unique );
+		Result result = new Result( statements.size() );
+		AtomicInteger next = new AtomicInteger();
+
+		int threads = Math.max( 1, Math.min( concurrency, statements.size() ) );
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory( "mybatis-mapper-warm-up-" );
+		threadFactory.setDaemon( true );
+		ExecutorService executor = Executors.newFixedThreadPool( threads, threadFactory );
+		for ( int i = 0; i < threads; i ++ ) {
+			executor.execute( () -> warmUp( statements, next, deadline, result ) );
+		}
+		executor.shutdown();
+		try {
+			if ( !executor.awaitTermination( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS ) ) {
+				// Interrupt the threads stuck on the database
+				executor.shutdownNow();
+			}
+		} catch ( InterruptedException e ) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		result.nanos = System.nanoTime() - start;
+		result.timedOut = result.getProcessedCount() < statements.size();
+		result.failures.forEach( ( id, message ) -> LOGGER.warn( () -> "Statement '" + id + "' failed to warm up: " + message ) );
+		if ( result.timedOut ) {
+			LOGGER.warn( () -> "The warm-up of the statements exceeded its time budget of " + timeBudget + "ms, "
+					+ ( statements.size() - result.getProcessedCount() ) + " statements were not warmed up" );
+		}
+		LOGGER.debug( () -> result.toString() );
+		return result;
+	}
+
+	private void warmUp( List<MappedStatement> statements, AtomicInteger next, long deadline, Result result ) {
+		Connection connection = null;
+		boolean prepare = dataSource != null;
+		try {
+			for ( int index; System.nanoTime() < deadline && ( index = next.getAndIncrement() ) < statements.size(); ) {
+				MappedStatement statement = statements.get( index );
+				SqlSource source = statement.getSqlSource();
+				boolean isStatic = source instanceof RawSqlSource || source instanceof StaticSqlSource;
+				BoundSql boundSql;
+				try {
+					boundSql = statement.getBoundSql( null );
+				} catch ( RuntimeException e ) {
+					if ( isStatic ) {
+						result.failures.put( statement.getId(), String.valueOf( e.getMessage() ) );
+					} else {
+						// Depends on its parameter
+						result.skipped.incrementAndGet();
+					}
+					result.processed.incrementAndGet();
+					continue;
+				}
+				result.built.incrementAndGet();
+				if ( prepare && isStatic && statement.getSqlCommandType() != SqlCommandType.FLUSH ) {
+					try {
+						if ( connection == null ) {
+							connection = dataSource.getConnection();
+						}
+						// Only prepared, never executed
+						Statement prepared = statement.getStatementType() == StatementType.CALLABLE
+								? connection.prepareCall( boundSql.getSql() ) : connection.prepareStatement( boundSql.getSql() );
+						prepared.close();
+						result.prepared.incrementAndGet();
+					} catch ( SQLException e ) {
+						if ( connection == null ) {
+							LOGGER.warn( () -> "Failed to get a connection to prepare the statements: " + e.getMessage() );
+							prepare = false;
+						} else {
+							result.failures.put( statement.getId(), String.valueOf( e.getMessage() ) );
+						}
+					}
+				}
+				result.processed.incrementAndGet();
+			}
+		} finally {
+			if ( connection != null ) {
+				try {
+					connection.close();
+				} catch ( SQLException e ) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * The outcome of a warm-up pass
+	 */
+	public static final class Result {
+
+		private final int statementCount;
+		private final AtomicInteger processed = new AtomicInteger();
+		private final AtomicInteger built = new AtomicInteger();
+		private final AtomicInteger prepared = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final Map<String, String> failures = new ConcurrentHashMap<>();
+		private volatile long nanos;
+		private volatile boolean timedOut;
+
+		private Result( int statementCount ) {
+			this.statementCount = statementCount;
+		}
+
+		/**
+		 * @return the number of mapped statements
+		 */
+		public int getStatementCount() {
+			return statementCount;
+		}
+
+		/**
+		 * @return the number of statements processed within the time budget
+		 */
+		public int getProcessedCount() {
+			return processed.get();
+		}
+
+		/**
+		 * @return the number of statements whose {@code BoundSql} was built
+		 */
+		public int getBuiltCount() {
+			return built.get();
+		}
+
+		/**
+		 * @return the number of statements prepared on the database
+		 */
+		public int getPreparedCount() {
+			return prepared.get();
+		}
+
+		/**
+		 * @return the number of statements whose SQL depends on their parameter
+		 */
+		public int getSkippedCount() {
+			return skipped.get();
+		}
+
+		/**
+		 * @return the error messages of the statements which failed to build or
+		 *         to prepare, by statement id
+		 */
+		public Map<String, String> getFailures() {
+			return Collections.unmodifiableMap( new TreeMap<>( failures ) );
+		}
+
+		/**
+		 * @return whether the time budget was spent before all the statements
+		 *         were processed
+		 */
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+
+		/**
+		 * @return the duration of the pass in milliseconds
+		 */
+		public long getTimeMillis() {
+			return TimeUnit.NANOSECONDS.toMillis( nanos );
+		}
+
+		@Override
+		public String toString() {
+			return "Warmed up " + getProcessedCount() + "/" + statementCount + " statements in " + getTimeMillis() + "ms: " + getBuiltCount()
+					+ " built, " + getPreparedCount() + " prepared, " + getSkippedCount() + " skipped, " + failures.size() + " failed"
+					+ ( timedOut ? " (time budget exceeded)" : "" );
+		}
+
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.query;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.SqlSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the batching {@code SqlSession} inside Spring transactions.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperBatchSqlSessionTest {
+
+	private static final String NAMESPACE = "batch.ItemMapper";
+
+	private DriverManagerDataSource dataSource;
+	private SqlSession batchSqlSession;
+	private TransactionTemplate transactionTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = dataSource( "batch",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(20) )" );
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setBatchSize( 3 );
+		factoryBean.setMapperLocations( mapper( "BatchItemMapper" ) );
+		batchSqlSession = factoryBean.createBatchSqlSession();
+		transactionTemplate = new TransactionTemplate( new DataSourceTransactionManager( dataSource ) );
+	}
+
+	@Test
+	public void flushesTheWritesAtTheBatchSize() {
+		Item first = new Item( null, "first" );
+		Item third = new Item( null, "third" );
+		transactionTemplate.execute( status -> {
+			batchSqlSession.insert( NAMESPACE + ".insert", first );
+			batchSqlSession.insert( NAMESPACE + ".insert", new Item( null, "second" ) );
+			// Still pending, no generated key yet
+			assertNull( first.getId() );
+			batchSqlSession.insert( NAMESPACE + ".insert", third );
+			assertNotNull( first.getId() );
+			assertNotNull( third.getId() );
+			return null;
+		} );
+	}
+
+	@Test
+	public void flushesTheWritesBeforeARead() {
+		Item item = new Item( null, "first" );
+		int count = transactionTemplate.execute( status -> {
+			batchSqlSession.insert( NAMESPACE + ".insert", item );
+			return batchSqlSession.selectOne( NAMESPACE + ".selectCount" );
+		} );
+		assertEquals( 1, count );
+		assertNotNull( item.getId() );
+	}
+
+	@Test
+	public void discardsTheWritesOfARollback() throws Exception {
+		transactionTemplate.execute( status -> {
+			batchSqlSession.insert( NAMESPACE + ".insert", new Item( null, "first" ) );
+			status.setRollbackOnly();
+			return null;
+		} );
+		assertEquals( "0", query( dataSource, "SELECT COUNT(*) FROM item" ) );
+	}
+
+	@Test
+	public void setsTheGeneratedKeysAfterAFlush() {
+		Item item = new Item( null, "first" );
+		List<BatchResult> results = transactionTemplate.execute( status -> {
+			batchSqlSession.insert( NAMESPACE + ".insert", item );
+			return batchSqlSession.flushStatements();
+		} );
+		assertEquals( 1, results.size() );
+		assertEquals( 1, results.get( 0 ).getParameterObjects().size() );
+		assertNotNull( item.getId() );
+	}
+
+	@Test
+	public void bindsTheParametersWhenWritten() throws Exception {
+		transactionTemplate.execute( status -> {
+			// Reused entity, each write keeps the values at the time of the write
+			Item item = new Item( 1L, "first" );
+			batchSqlSession.insert( NAMESPACE + ".insertWithId", item );
+			batchSqlSession.delete( NAMESPACE + ".deleteByPrimaryKey", item );
+			item.setName( "second" );
+			batchSqlSession.insert( NAMESPACE + ".insertWithId", item );
+			return null;
+		} );
+		assertEquals( "1/second", query( dataSource, "SELECT id, name FROM item" ) );
+		assertEquals( "1", query( dataSource, "SELECT COUNT(*) FROM item" ) );
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the cached templates against the output of the dynamic sources.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperBoundSqlCacheTest {
+
+	private static final String NAMESPACE = "boundsql.ItemMapper";
+
+	private Configuration configuration;
+	private Map<String, SqlSource> dynamicSqlSources;
+	private MyBatisMapperBoundSqlCache boundSqlCache;
+
+	@Before
+	public void setUp() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource( "boundsql" ) );
+		factoryBean.setMapperLocations( mapper( "BoundSqlItemMapper" ) );
+		configuration = factoryBean.getObject().getConfiguration();
+		dynamicSqlSources = new LinkedHashMap<>();
+		for ( String id : configuration.getMappedStatementNames() ) {
+			if ( id.startsWith( NAMESPACE + "." ) ) {
+				dynamicSqlSources.put( id, configuration.getMappedStatement( id ).getSqlSource() );
+			}
+		}
+		boundSqlCache = MyBatisMapperBoundSqlCache.apply( configuration, 100 );
+	}
+
+	@Test
+	public void rendersTheNestedChoices() {
+		assertSameBoundSql( "selectByChoice", parameter( "id", 1L, "name", "first" ) );
+		assertSameBoundSql( "selectByChoice", parameter( "id", 1L, "minStock", 5 ) );
+		assertSameBoundSql( "selectByChoice", parameter( "name", "first", "exact", true ) );
+		assertSameBoundSql( "selectByChoice", parameter( "name", "first%", "exact", false, "minStock", 5 ) );
+		assertSameBoundSql( "selectByChoice", parameter( "stock", 10 ) );
+		assertSameBoundSql( "selectByChoice", parameter( "stock", 10, "minStock", 5 ) );
+		assertTrue( boundSqlCache.getHitRatio() > 0 );
+		assertEquals( 6, boundSqlCache.getSize() );
+	}
+
+	@Test
+	public void trimsTheWhereClauses() {
+		assertSameBoundSql( "selectByExample", parameter( "name", "first", "stock", 10 ) );
+		assertSameBoundSql( "selectByExample", parameter( "name", "first" ) );
+		// Both OR and AND prefixes removed
+		assertSameBoundSql( "selectByExample", parameter( "stock", 10 ) );
+		assertSameBoundSql( "selectByExample", parameter() );
+	}
+
+	@Test
+	public void trimsTheSetClauses() {
+		assertSameBoundSql( "updateSelective", parameter( "id", 1L, "name", "first", "stock", 10 ) );
+		assertSameBoundSql( "updateSelective", parameter( "id", 1L, "name", "first" ) );
+		assertSameBoundSql( "updateSelective", parameter( "id", 1L, "stock", 10 ) );
+		// The mappings of a bean depend on its property types
+		Item item = new Item( 1L, "first" );
+		assertSameBoundSql( "updateSelective", item );
+		item.setStock( 10 );
+		assertSameBoundSql( "updateSelective", item );
+	}
+
+	@Test
+	public void rendersTheOtherNodesOnEachCall() {
+		assertEquals( 3, boundSqlCache.getStatementCount() );
+		for ( String id : new String [] { "selectByIds", "selectByPrefix", "selectOrdered" } ) {
+			SqlSource sqlSource = configuration.getMappedStatement( NAMESPACE + "." + id ).getSqlSource();
+			assertSame( id, dynamicSqlSources.get( NAMESPACE + "." + id ), sqlSource );
+			assertEquals( id, DynamicSqlSource.class, sqlSource.getClass() );
+		}
+		for ( String id : new String [] { "selectByChoice", "selectByExample", "updateSelective" } ) {
+			assertNotSame( id, dynamicSqlSources.get( NAMESPACE + "." + id ), configuration.getMappedStatement( NAMESPACE + "." + id ).getSqlSource() );
+		}
+	}
+
+	/**
+	 * Compare the rendered and the cached output of a statement, the second
+	 * call is served by the template cached by the first one.
+	 */
+	private void assertSameBoundSql( String id, Object parameter ) {
+		BoundSql expected = dynamicSqlSources.get( NAMESPACE + "." + id ).getBoundSql( parameter );
+		SqlSource cached = configuration.getMappedStatement( NAMESPACE + "." + id ).getSqlSource();
+		for ( int i = 0; i < 2; i ++ ) {
+			BoundSql actual = cached.getBoundSql( parameter );
+			assertEquals( expected.getSql(), actual.getSql() );
+			assertEquals( describe( expected.getParameterMappings() ), describe( actual.getParameterMappings() ) );
+			for ( ParameterMapping mapping : expected.getParameterMappings() ) {
+				assertEquals( expected.hasAdditionalParameter( mapping.getProperty() ), actual.hasAdditionalParameter( mapping.getProperty() ) );
+			}
+		}
+	}
+
+	private static List<String> describe( List<ParameterMapping> parameterMappings ) {
+		List<String> descriptions = new ArrayList<>();
+		for ( ParameterMapping mapping : parameterMappings ) {
+			descriptions.add( mapping.getProperty() + ":" + mapping.getJavaType().getName() + ":" + mapping.getTypeHandler().getClass().getName() );
+		}
+		return descriptions;
+	}
+
+	private static Map<String, Object> parameter( Object ... namesAndValues ) {
+		Map<String, Object> parameter = new HashMap<>();
+		for ( int i = 0; i < namesAndValues.length; i += 2 ) {
+			parameter.put( ( String ) namesAndValues[ i ], namesAndValues[ i + 1 ] );
+		}
+		return parameter;
+	}
+
+}
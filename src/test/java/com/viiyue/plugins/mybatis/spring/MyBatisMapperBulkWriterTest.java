@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.query;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperBulkWriter.Dialect;
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the multi-row inserts and upserts of the bulk writer on H2.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperBulkWriterTest {
+
+	private static final String NAMESPACE = "bulk.ItemMapper";
+	// 32767 bind parameters of H2 for 40 parameters per row
+	private static final int WIDE_COLUMNS = 40;
+	private static final int WIDE_CHUNK_ROWS = 32767 / WIDE_COLUMNS;
+
+	/**
+	 * Records the number of rows of each executed bulk statement.
+	 */
+	@Intercepts( @Signature( type = Executor.class, method = "update", args = { MappedStatement.class, Object.class } ) )
+	public static class ChunkRecorder implements Interceptor {
+
+		private final List<Integer> chunks = new ArrayList<>();
+
+		@Override
+		public Object intercept( Invocation invocation ) throws Throwable {
+			Object parameter = invocation.getArgs()[ 1 ];
+			if ( ( ( MappedStatement ) invocation.getArgs()[ 0 ] ).getId().endsWith( "!bulk" ) && parameter instanceof Map ) {
+				chunks.add( ( ( Collection<?> ) ( ( Map<?, ?> ) parameter ).get( "collection" ) ).size() );
+			}
+			return invocation.proceed();
+		}
+
+		@Override
+		public Object plugin( Object target ) {
+			return Plugin.wrap( target, this );
+		}
+
+		@Override
+		public void setProperties( Properties properties ) {
+		}
+
+	}
+
+	private DriverManagerDataSource dataSource;
+	private ChunkRecorder chunkRecorder;
+	private MyBatisMapperBulkWriter bulkWriter;
+	private SqlSessionFactory sqlSessionFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		StringBuilder wideColumns = new StringBuilder();
+		for ( int i = 0; i < WIDE_COLUMNS; i ++ ) {
+			wideColumns.append( i == 0 ? "c" : " INT, c" ).append( i );
+		}
+		dataSource = dataSource( "bulk",
+				"DROP TABLE IF EXISTS item",
+				"DROP TABLE IF EXISTS wide",
+				"CREATE TABLE item ( id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(20) )",
+				"CREATE TABLE wide ( " + wideColumns + " INT )" );
+
+		chunkRecorder = new ChunkRecorder();
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setEnableBulkInsert( true );
+		factoryBean.setPlugins( chunkRecorder );
+		factoryBean.setMapperLocations( mapper( "BulkItemMapper" ) );
+		sqlSessionFactory = factoryBean.getObject();
+		factoryBean.onApplicationEvent( new ContextRefreshedEvent( new GenericApplicationContext() ) );
+		bulkWriter = factoryBean.getBulkWriter();
+	}
+
+	@Test
+	public void splitsTheChunksAtTheMaximumBindParameters() throws Exception {
+		assertEquals( Dialect.H2, bulkWriter.getDialect() );
+		int rowCount = WIDE_CHUNK_ROWS * 2 + 10;
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for ( int i = 0; i < rowCount; i ++ ) {
+			Map<String, Object> row = new HashMap<>();
+			for ( int j = 0; j < WIDE_COLUMNS; j ++ ) {
+				row.put( "c" + j, i );
+			}
+			rows.add( row );
+		}
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			assertEquals( rowCount, bulkWriter.insertAll( session, NAMESPACE + ".insertWide", rows ) );
+			session.commit();
+		}
+		assertEquals( Arrays.asList( WIDE_CHUNK_ROWS, WIDE_CHUNK_ROWS, 10 ), chunkRecorder.chunks );
+		assertEquals( String.valueOf( rowCount ), query( dataSource, "SELECT COUNT(*) FROM wide" ) );
+	}
+
+	@Test
+	public void assignsTheGeneratedKeys() throws Exception {
+		List<Item> items = new ArrayList<>();
+		for ( int i = 1; i <= 5; i ++ ) {
+			items.add( new Item( null, "item" + i ) );
+		}
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			assertEquals( 5, bulkWriter.insertAll( session, NAMESPACE + ".insert", items ) );
+			session.commit();
+		}
+		assertEquals( Arrays.asList( 5 ), chunkRecorder.chunks );
+		for ( Item item : items ) {
+			assertEquals( item.getName(), query( dataSource, "SELECT name FROM item WHERE id = " + item.getId() ) );
+		}
+	}
+
+	@Test
+	public void mergesTheRowsOfTheSameKeys() throws Exception {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			bulkWriter.insertAll( session, NAMESPACE + ".insertWithId", Arrays.asList( new Item( 1L, "first" ), new Item( 2L, "second" ) ) );
+			// MERGE INTO item (id, name) KEY (id) VALUES (?, ?), (?, ?)
+			bulkWriter.upsertAll( session, NAMESPACE + ".insertWithId", Arrays.asList( new Item( 2L, "updated" ), new Item( 3L, "third" ) ) );
+			session.commit();
+		}
+		assertEquals( "first,updated,third", query( dataSource, "SELECT GROUP_CONCAT(name ORDER BY id) FROM item" ) );
+	}
+
+}
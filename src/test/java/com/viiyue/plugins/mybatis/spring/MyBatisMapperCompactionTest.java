@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the compaction of the refactored statements.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperCompactionTest {
+
+	private static final String [] NAMESPACES = { "compaction.FirstMapper", "compaction.SecondMapper" };
+
+	private DriverManagerDataSource dataSource;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = dataSource( "compaction",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id BIGINT PRIMARY KEY, name VARCHAR(20), stock INT )",
+				"INSERT INTO item VALUES ( 1, 'first', 10 ), ( 2, 'second', 20 ), ( 3, 'third', 20 )" );
+	}
+
+	@Test
+	public void reducesTheRetainedSize() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = newFactoryBean( true );
+		MyBatisMapperCompaction.Result result = factoryBean.getCompactionResult();
+		assertTrue( result.toString(), result.getRetainedSizeAfter() < result.getRetainedSizeBefore() );
+		assertTrue( result.toString(), result.getSqlSourceCount() >= 4 );
+
+		// The static sources of both namespaces share the same parameter mappings
+		Configuration configuration = factoryBean.getObject().getConfiguration();
+		Map<String, Object> parameter = parameter( 20, "%" );
+		for ( String id : new String [] { ".selectByPrimaryKey", ".selectByStock" } ) {
+			assertEquals( StaticSqlSource.class, configuration.getMappedStatement( NAMESPACES[ 0 ] + id ).getSqlSource().getClass() );
+			assertSame( configuration.getMappedStatement( NAMESPACES[ 0 ] + id ).getBoundSql( parameter ).getParameterMappings(),
+					configuration.getMappedStatement( NAMESPACES[ 1 ] + id ).getBoundSql( parameter ).getParameterMappings() );
+		}
+	}
+
+	@Test
+	public void keepsTheQueryResults() throws Exception {
+		assertEquals( query( newFactoryBean( false ).getObject() ), query( newFactoryBean( true ).getObject() ) );
+	}
+
+	private MyBatisMapperSqlSessionFactoryBean newFactoryBean( boolean enableCompaction ) throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setEnableCompaction( enableCompaction );
+		factoryBean.setMapperLocations( mapper( "CompactionFirstMapper" ), mapper( "CompactionSecondMapper" ) );
+		factoryBean.getObject();
+		factoryBean.onApplicationEvent( new ContextRefreshedEvent( new GenericApplicationContext() ) );
+		return factoryBean;
+	}
+
+	private List<String> query( SqlSessionFactory sqlSessionFactory ) {
+		List<String> rows = new ArrayList<>();
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			for ( String namespace : NAMESPACES ) {
+				rows.add( describe( session.selectList( namespace + ".selectByPrimaryKey", 2L ) ) );
+				rows.add( describe( session.selectList( namespace + ".selectByStock", parameter( 20, "%d" ) ) ) );
+				rows.add( describe( session.selectList( namespace + ".selectByExample", parameter( 20, null ) ) ) );
+				rows.add( describe( session.selectList( namespace + ".selectByExample", parameter( null, "first" ) ) ) );
+			}
+		}
+		return rows;
+	}
+
+	private static Map<String, Object> parameter( Integer stock, String name ) {
+		Map<String, Object> parameter = new HashMap<>();
+		parameter.put( "stock", stock );
+		parameter.put( "name", name );
+		return parameter;
+	}
+
+	private static String describe( List<Item> items ) {
+		StringBuilder description = new StringBuilder();
+		for ( Item item : items ) {
+			description.append( item.getId() ).append( '/' ).append( item.getName() ).append( '/' ).append( item.getStock() ).append( ';' );
+		}
+		return description.toString();
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests of the namespace caches replaced by concurrent caches.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperConcurrentCacheTest {
+
+	private MyBatisMapperSqlSessionFactoryBean factoryBean;
+	private SqlSessionFactory sqlSessionFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManagerDataSource dataSource = dataSource( "cache",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id INT PRIMARY KEY, name VARCHAR(20) )",
+				"INSERT INTO item VALUES ( 1, 'first' )" );
+		factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setConcurrentCacheNamespaces( "cache.*" );
+		factoryBean.setMapperLocations( mapper( "CacheRwMapper" ), mapper( "CacheRoMapper" ), mapper( "CacheSoftMapper" ) );
+		sqlSessionFactory = factoryBean.getObject();
+	}
+
+	@Test
+	public void carriesOverTheCacheSettings() {
+		Map<String, MyBatisMapperConcurrentCache> caches = factoryBean.getConcurrentCaches();
+		assertTrue( caches.containsKey( "cache.rw" ) );
+		assertTrue( caches.containsKey( "cache.ro" ) );
+		// The soft references can not be carried over
+		assertFalse( caches.containsKey( "cache.soft" ) );
+
+		MyBatisMapperConcurrentCache cache = caches.get( "cache.rw" );
+		assertEquals( 2, cache.getMaximumSize() );
+		assertEquals( 60000, cache.getExpireAfterWrite() );
+		Configuration configuration = sqlSessionFactory.getConfiguration();
+		assertTrue( configuration.getCache( "cache.rw" ) instanceof BlockingCache );
+		assertSame( configuration.getCache( "cache.rw" ), configuration.getMappedStatement( "cache.rw.selectItem" ).getCache() );
+	}
+
+	@Test
+	public void copiesTheValuesUnlessReadOnly() {
+		Object first = selectItem( "cache.rw" );
+		Object second = selectItem( "cache.rw" );
+		assertEquals( first, second );
+		assertNotSame( first, second );
+		assertEquals( 1, factoryBean.getConcurrentCaches().get( "cache.rw" ).getHitCount() );
+
+		assertSame( selectItem( "cache.ro" ), selectItem( "cache.ro" ) );
+	}
+
+	@Test
+	public void invalidatesTheNamespaceOnWrites() {
+		assertEquals( "first", ( ( Map<?, ?> ) selectItem( "cache.rw" ) ).get( "NAME" ) );
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Map<String, Object> parameter = new HashMap<>();
+			parameter.put( "id", 1 );
+			parameter.put( "name", "second" );
+			session.update( "cache.rw.updateItem", parameter );
+			session.commit();
+		}
+		assertEquals( "second", ( ( Map<?, ?> ) selectItem( "cache.rw" ) ).get( "NAME" ) );
+	}
+
+	private Object selectItem( String namespace ) {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Object item = session.selectOne( namespace + ".selectItem", 1 );
+			session.commit();
+			return item;
+		}
+	}
+
+}
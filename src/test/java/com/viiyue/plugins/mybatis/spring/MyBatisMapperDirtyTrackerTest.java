@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.execute;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.query;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.sql.SQLException;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the dirty tracking of the generic updates by primary key.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperDirtyTrackerTest {
+
+	private static final String NAMESPACE = "dirty.ItemMapper";
+
+	private DriverManagerDataSource dataSource;
+	private MyBatisMapperDirtyTracker dirtyTracker;
+	private SqlSessionFactory sqlSessionFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = dataSource( "dirty",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id BIGINT PRIMARY KEY, name VARCHAR(20), stock INT )",
+				"INSERT INTO item VALUES ( 1, 'first', 10 )" );
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setEnableDirtyTracking( true );
+		factoryBean.setMapperLocations( mapper( "DirtyItemMapper" ) );
+		sqlSessionFactory = factoryBean.getObject();
+		dirtyTracker = factoryBean.getDirtyTracker();
+	}
+
+	@Test
+	public void writesOnlyTheModifiedColumns() throws Exception {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Item item = session.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L );
+			execute( dataSource, "UPDATE item SET stock = 20 WHERE id = 1" );
+			item.setName( "second" );
+			assertEquals( 1, session.update( NAMESPACE + ".updateByPrimaryKey", item ) );
+			// Nothing modified since the last update
+			assertEquals( 1, session.update( NAMESPACE + ".updateByPrimaryKey", item ) );
+			session.commit();
+		}
+		assertEquals( "second/20", select() );
+		assertEquals( 1, dirtyTracker.getNarrowedUpdateCount() );
+		assertEquals( 1, dirtyTracker.getSkippedUpdateCount() );
+		assertEquals( 0, dirtyTracker.getTrackingCount() );
+	}
+
+	@Test
+	public void keepsTheSnapshotOfTheFirstRead() throws Exception {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Item item = session.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L );
+			item.setName( "second" );
+			// Served by the local cache, the modified instance must not be snapshotted again
+			assertSame( item, session.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L ) );
+			assertEquals( 1, session.update( NAMESPACE + ".updateByPrimaryKey", item ) );
+			session.commit();
+		}
+		assertEquals( "second/10", select() );
+		assertEquals( 1, dirtyTracker.getNarrowedUpdateCount() );
+		assertEquals( 0, dirtyTracker.getSkippedUpdateCount() );
+	}
+
+	@Test
+	public void discardsTheSnapshotsOfARollback() throws Exception {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Item item = session.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L );
+			session.commit();
+			item.setName( "second" );
+			session.update( NAMESPACE + ".updateByPrimaryKey", item );
+			session.rollback( true );
+			// Modified again since the committed snapshot
+			session.update( NAMESPACE + ".updateByPrimaryKey", item );
+			session.commit();
+		}
+		assertEquals( "second/10", select() );
+		assertEquals( 0, dirtyTracker.getSkippedUpdateCount() );
+	}
+
+	@Test
+	public void scopesTheSnapshotsToTheSession() throws Exception {
+		Item item;
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			item = session.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L );
+		}
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			execute( dataSource, "UPDATE item SET stock = 20 WHERE id = 1" );
+			session.update( NAMESPACE + ".updateByPrimaryKey", item );
+			session.commit();
+		}
+		// Not read by the session, fully written
+		assertEquals( "first/10", select() );
+		assertEquals( 0, dirtyTracker.getSkippedUpdateCount() );
+		assertEquals( 0, dirtyTracker.getTrackingCount() );
+	}
+
+	@Test
+	public void tracksTheEntitiesOfTheSpringTransaction() throws Exception {
+		SqlSessionTemplate sqlSessionTemplate = new SqlSessionTemplate( sqlSessionFactory );
+		TransactionTemplate transactionTemplate = new TransactionTemplate( new DataSourceTransactionManager( dataSource ) );
+		Item item = transactionTemplate.execute( status -> {
+			Item selected = sqlSessionTemplate.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L );
+			sqlSessionTemplate.update( NAMESPACE + ".updateByPrimaryKey", selected );
+			return selected;
+		} );
+		assertEquals( 1, dirtyTracker.getSkippedUpdateCount() );
+		assertEquals( 0, dirtyTracker.getTrackingCount() );
+
+		// Released with the transaction
+		transactionTemplate.execute( status -> sqlSessionTemplate.update( NAMESPACE + ".updateByPrimaryKey", item ) );
+		assertEquals( 1, dirtyTracker.getSkippedUpdateCount() );
+	}
+
+	private String select() throws SQLException {
+		return query( dataSource, "SELECT name, stock FROM item WHERE id = 1" );
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the invalidation of the entity cache.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperEntityCacheTest {
+
+	private static final String NAMESPACE = "entity.ItemMapper";
+
+	private DriverManagerDataSource dataSource;
+	private MyBatisMapperSqlSessionFactoryBean factoryBean;
+	private SqlSessionFactory sqlSessionFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = dataSource( "entity",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id BIGINT PRIMARY KEY, name VARCHAR(20) )",
+				"INSERT INTO item VALUES ( 1, 'first' )" );
+		factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setEnableEntityCache( true );
+		factoryBean.setMapperLocations( mapper( "EntityItemMapper" ) );
+		sqlSessionFactory = factoryBean.getObject();
+	}
+
+	@Test
+	public void servesTheEntitiesFromTheCache() {
+		assertEquals( "first", selectName() );
+		assertEquals( "first", selectName() );
+		assertEquals( 1, factoryBean.getEntityCache().getCache( Item.class ).getHitCount() );
+	}
+
+	@Test
+	public void invalidatesTheEntitiesCachedBeforeTheDatabaseCommit() throws Exception {
+		assertEquals( "first", selectName() );
+		SqlSessionTemplate sqlSessionTemplate = new SqlSessionTemplate( sqlSessionFactory );
+		AtomicReference<String> concurrentRead = new AtomicReference<>();
+		new TransactionTemplate( new DataSourceTransactionManager( dataSource ) ).execute( status -> {
+			sqlSessionTemplate.update( NAMESPACE + ".updateByPrimaryKey", new Item( 1L, "second" ) );
+			TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronizationAdapter() {
+				@Override
+				public void beforeCompletion() {
+					// The session is committed, the database is not yet
+					Thread reader = new Thread( () -> concurrentRead.set( selectName() ) );
+					reader.start();
+					try {
+						reader.join();
+					} catch ( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			} );
+			return null;
+		} );
+		assertEquals( "first", concurrentRead.get() );
+		assertEquals( "second", selectName() );
+	}
+
+	private String selectName() {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Item item = session.selectOne( NAMESPACE + ".selectByPrimaryKey", 1L );
+			return item.getName();
+		}
+	}
+
+}
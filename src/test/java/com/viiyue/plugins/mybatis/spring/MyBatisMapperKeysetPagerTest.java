@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.execute;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperKeysetPager.Page;
+
+/**
+ * Tests of the keyset pagination.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperKeysetPagerTest {
+
+	private static final String NAMESPACE = "keyset.ItemMapper";
+
+	private MyBatisMapperKeysetPager keysetPager;
+	private SqlSessionFactory sqlSessionFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManagerDataSource dataSource = dataSource( "keyset",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id INT PRIMARY KEY, name VARCHAR(20), parent_id INT )" );
+		for ( int i = 1; i <= 5; i ++ ) {
+			execute( dataSource, "INSERT INTO item VALUES ( " + i + ", 'item" + i + "', 1 )" );
+		}
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setEnableKeysetPagination( true );
+		factoryBean.setMapperLocations( mapper( "KeysetItemMapper" ) );
+		sqlSessionFactory = factoryBean.getObject();
+		keysetPager = factoryBean.getKeysetPager();
+	}
+
+	@Test
+	public void readsThePagesAfterTheLastRows() {
+		List<Object> ids = new ArrayList<>();
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			String token = null;
+			do {
+				Page<Map<String, Object>> page = keysetPager.page( session, NAMESPACE + ".selectAll", null, token, 2 );
+				assertTrue( page.getRows().size() <= 2 );
+				page.getRows().forEach( row -> ids.add( row.get( "id" ) ) );
+				token = page.getNextToken();
+			} while ( token != null );
+		}
+		assertEquals( "[1, 2, 3, 4, 5]", ids.toString() );
+	}
+
+	@Test
+	public void rejectsTheNestedResultMaps() {
+		assertRejected( "selectParents", "nested result maps" );
+	}
+
+	@Test
+	public void rejectsTheColumnsMappedTwice() {
+		assertRejected( "selectDuplicates", "distinct result columns" );
+	}
+
+	private void assertRejected( String statement, String message ) {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			Page<Object> page = keysetPager.page( session, NAMESPACE + "." + statement, null, null, 2 );
+			fail( "Unexpected page: " + page.getRows() );
+		} catch ( PersistenceException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( message ) );
+		}
+	}
+
+}
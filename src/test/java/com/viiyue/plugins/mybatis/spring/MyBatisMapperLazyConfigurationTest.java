@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.writeMapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests of the lazy materialization of the mapper namespaces.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperLazyConfigurationTest {
+
+	private Path directory;
+	private List<Path> mapperFiles = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory( "lazy" );
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for ( Path mapperFile : mapperFiles ) {
+			Files.deleteIfExists( mapperFile );
+		}
+		Files.deleteIfExists( directory );
+	}
+
+	@Test
+	public void materializesTheNamespaceOnTheFirstLookup() throws Exception {
+		MyBatisMapperLazyConfiguration configuration = newConfiguration();
+		configuration.addMapperLocation( write( "lazy.A", "<sql id=\"value\">1</sql>"
+				+ "<select id=\"selectValue\" resultType=\"int\">SELECT <include refid=\"lazy.B.value\"/> + <include refid=\"value\"/></select>" ) );
+		configuration.addMapperLocation( write( "lazy.B", "<sql id=\"value\">2</sql>" ) );
+		assertTrue( configuration.getPendingNamespaces().contains( "lazy.A" ) );
+
+		SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build( configuration );
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			assertEquals( Integer.valueOf( 3 ), session.selectOne( "lazy.A.selectValue" ) );
+		}
+		// The fragment of the other namespace materializes it as well
+		assertTrue( configuration.getPendingNamespaces().isEmpty() );
+		assertFalse( configuration.materialize( "lazy.A" ) );
+	}
+
+	@Test
+	public void keepsTheNamespacePendingWhenTheParsingFails() throws Exception {
+		MyBatisMapperLazyConfiguration configuration = newConfiguration();
+		Resource resource = write( "lazy.C", "<select id=\"selectValue\" resultType=\"int\">SELECT 1</select>"
+				+ "<select id=\"selectBroken\" resultMap=\"missing\">SELECT 2</select>" );
+		configuration.addMapperLocation( resource );
+		try {
+			configuration.getMappedStatement( "lazy.C.selectValue" );
+			fail( "The broken namespace must not be registered" );
+		} catch ( RuntimeException e ) {
+			// Expected
+		}
+		assertTrue( configuration.getPendingNamespaces().contains( "lazy.C" ) );
+		assertTrue( configuration.getMappedStatementNames().isEmpty() );
+
+		write( "lazy.C", "<select id=\"selectValue\" resultType=\"int\">SELECT 1</select>" );
+		assertEquals( "lazy.C.selectValue", configuration.getMappedStatement( "lazy.C.selectValue" ).getId() );
+		assertFalse( configuration.getPendingNamespaces().contains( "lazy.C" ) );
+	}
+
+	@Test
+	public void materializesTheNamespaceOnceForConcurrentLookups() throws Exception {
+		MyBatisMapperLazyConfiguration configuration = newConfiguration();
+		StringBuilder statements = new StringBuilder();
+		for ( int i = 0; i < 50; i ++ ) {
+			statements.append( "<select id=\"select" ).append( i ).append( "\" resultType=\"int\">SELECT " ).append( i ).append( "</select>" );
+		}
+		configuration.addMapperLocation( write( "lazy.D", statements.toString() ) );
+
+		ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		try {
+			List<Callable<MappedStatement>> lookups = new ArrayList<>();
+			for ( int i = 0; i < 16; i ++ ) {
+				lookups.add( () -> configuration.getMappedStatement( "lazy.D.select0" ) );
+			}
+			MappedStatement first = null;
+			for ( Future<MappedStatement> future : executor.invokeAll( lookups ) ) {
+				first = first == null ? future.get() : first;
+				assertSame( first, future.get() );
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue( configuration.hasStatement( "lazy.D.select49" ) );
+	}
+
+	@Test
+	public void parsesTheCacheNamespacesWhenIndexed() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( new DriverManagerDataSource( "jdbc:h2:mem:lazy-cache" ) );
+		factoryBean.setLazyMapperLoading( true );
+		factoryBean.setMapperLocations( write( "lazy.E", "<cache/><select id=\"selectValue\" resultType=\"int\">SELECT 1</select>" ),
+				write( "lazy.F", "<select id=\"selectValue\" resultType=\"int\">SELECT 2</select>" ) );
+		MyBatisMapperLazyConfiguration configuration = ( MyBatisMapperLazyConfiguration ) factoryBean.getObject().getConfiguration();
+
+		assertFalse( configuration.getPendingNamespaces().contains( "lazy.E" ) );
+		assertTrue( configuration.getPendingNamespaces().contains( "lazy.F" ) );
+		assertTrue( configuration.getCacheNames().contains( "lazy.E" ) );
+	}
+
+	private MyBatisMapperLazyConfiguration newConfiguration() {
+		return new MyBatisMapperLazyConfiguration(
+				new Environment( "test", new JdbcTransactionFactory(), new DriverManagerDataSource( "jdbc:h2:mem:lazy" ) ) );
+	}
+
+	private Resource write( String namespace, String statements ) throws Exception {
+		Path mapperFile = directory.resolve( namespace + ".xml" );
+		mapperFiles.add( mapperFile );
+		return writeMapper( mapperFile, namespace, statements );
+	}
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests of the read/write routing on a primary and two replicas.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperReadWriteRouterTest {
+
+	public interface NodeMapper {
+		@Select( "SELECT name FROM node" )
+		String selectName();
+
+		@Select( "SELECT name FROM node FOR UPDATE" )
+		String selectNameForUpdate();
+
+		@Select( "<script>SELECT name FROM node <where><if test='name != null'>name = #{name}</if></where></script>" )
+		String selectNameLike( @Param( "name" ) String name );
+
+		@Select( "<script>SELECT name FROM node <if test='lock'>FOR UPDATE</if></script>" )
+		String selectNameLocking( @Param( "lock" ) boolean lock );
+
+		@Select( "{call node_name()}" )
+		@Options( statementType = StatementType.CALLABLE )
+		String callName();
+	}
+
+	private static DriverManagerDataSource primary;
+	private static SqlSessionFactory sqlSessionFactory;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		primary = node( "primary" );
+		Configuration configuration = new Configuration();
+		configuration.addMapper( NodeMapper.class );
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setConfiguration( configuration );
+		factoryBean.setDataSource( primary );
+		factoryBean.setReplicaDataSources( node( "replica1" ), node( "replica2" ) );
+		sqlSessionFactory = factoryBean.getObject();
+	}
+
+	@Test
+	public void routesTheSelectsToTheReplicas() {
+		Set<String> names = new HashSet<>();
+		for ( int i = 0; i < 4; i ++ ) {
+			names.add( execute( NodeMapper::selectName ) );
+		}
+		assertTrue( names.toString(), names.contains( "replica1" ) && names.contains( "replica2" ) );
+	}
+
+	@Test
+	public void keepsTheLockingSelectsOnThePrimary() {
+		for ( int i = 0; i < 2; i ++ ) {
+			assertEquals( "primary", execute( NodeMapper::selectNameForUpdate ) );
+		}
+	}
+
+	@Test
+	public void routesTheDynamicSelectsWithoutLockingClause() {
+		Set<String> names = new HashSet<>();
+		for ( int i = 0; i < 4; i ++ ) {
+			names.add( execute( mapper -> mapper.selectNameLike( null ) ) );
+			names.add( execute( mapper -> mapper.selectNameLocking( false ) ) );
+		}
+		assertTrue( names.toString(), names.contains( "replica1" ) && names.contains( "replica2" ) && !names.contains( "primary" ) );
+	}
+
+	@Test
+	public void keepsTheDynamicLockingSelectsOnThePrimary() {
+		for ( int i = 0; i < 2; i ++ ) {
+			assertEquals( "primary", execute( mapper -> mapper.selectNameLocking( true ) ) );
+		}
+	}
+
+	@Test
+	public void keepsTheCallableStatementsOnThePrimary() {
+		for ( int i = 0; i < 2; i ++ ) {
+			assertEquals( "primary", execute( NodeMapper::callName ) );
+		}
+	}
+
+	@Test
+	public void keepsTheTransactionsOnThePrimary() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate( new DataSourceTransactionManager( primary ) );
+		assertEquals( "primary", transactionTemplate.execute( status -> execute( NodeMapper::selectName ) ) );
+	}
+
+	/**
+	 * Called by the {@code node_name} alias of the databases.
+	 */
+	public static String nodeName( Connection connection ) throws SQLException {
+		try ( Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery( "SELECT name FROM node" ) ) {
+			resultSet.next();
+			return resultSet.getString( 1 );
+		}
+	}
+
+	private String execute( Function<NodeMapper, String> call ) {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			return call.apply( session.getMapper( NodeMapper.class ) );
+		}
+	}
+
+	private static DriverManagerDataSource node( String name ) throws SQLException {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource( "jdbc:h2:mem:router-" + name + ";DB_CLOSE_DELAY=-1" );
+		try ( Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement() ) {
+			statement.execute( "CREATE TABLE node ( name VARCHAR(20) )" );
+			statement.execute( "INSERT INTO node VALUES ( '" + name + "' )" );
+			statement.execute( "CREATE ALIAS node_name FOR \"" + MyBatisMapperReadWriteRouterTest.class.getName() + ".nodeName\"" );
+		}
+		return dataSource;
+	}
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSqlSessionFactoryBean.RefactoringState;
+
+/**
+ * Tests of the background refactoring and its gate.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperRefactoringGateTest {
+
+	public interface GateMapper {
+		@Select( "SELECT 1" )
+		Integer selectOne();
+	}
+
+	@Test( timeout = 10000 )
+	public void opensTheGateWhenTheRefactoringIsCompleted() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = newFactoryBean( new DriverManagerDataSource( "jdbc:h2:mem:gate-completed" ) );
+		SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+		factoryBean.onApplicationEvent( new ContextRefreshedEvent( new GenericApplicationContext() ) );
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			// Waits for the refactoring, the wait timeout is negative
+			assertEquals( Integer.valueOf( 1 ), session.getMapper( GateMapper.class ).selectOne() );
+		}
+		assertEquals( RefactoringState.COMPLETED, factoryBean.getRefactoringState() );
+	}
+
+	@Test( timeout = 10000 )
+	public void failsTheGateWhenAStepAfterTheRefactoringFails() throws Exception {
+		// The bulk writer reads the database product name after the refactoring
+		DriverManagerDataSource dataSource = new DriverManagerDataSource( "jdbc:h2:mem:gate-failed" ) {
+			@Override
+			public Connection getConnection() throws SQLException {
+				throw new IllegalStateException( "The pool has been closed" );
+			}
+		};
+		MyBatisMapperSqlSessionFactoryBean factoryBean = newFactoryBean( dataSource );
+		factoryBean.setEnableBulkInsert( true );
+		SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+		factoryBean.onApplicationEvent( new ContextRefreshedEvent( new GenericApplicationContext() ) );
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			session.getMapper( GateMapper.class ).selectOne();
+			fail( "The statement must not be executed after a failed refactoring" );
+		} catch ( PersistenceException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( "refactoring failed" ) );
+		}
+		assertEquals( RefactoringState.FAILED, factoryBean.getRefactoringState() );
+	}
+
+	@Test
+	public void requiresAConcurrentConfiguration() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setConfiguration( new Configuration() );
+		factoryBean.setDataSource( new DriverManagerDataSource( "jdbc:h2:mem:gate-plain" ) );
+		factoryBean.setBackgroundRefactoring( true );
+		try {
+			factoryBean.afterPropertiesSet();
+			fail( "The background refactoring must not modify a plain Configuration" );
+		} catch ( IllegalStateException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( "MyBatisMapperConcurrentConfiguration" ) );
+		}
+	}
+
+	@Test
+	public void createsAConcurrentConfigurationByDefault() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( new DriverManagerDataSource( "jdbc:h2:mem:gate-default" ) );
+		factoryBean.setBackgroundRefactoring( true );
+		assertTrue( factoryBean.getObject().getConfiguration() instanceof MyBatisMapperConcurrentConfiguration );
+	}
+
+	private MyBatisMapperSqlSessionFactoryBean newFactoryBean( DriverManagerDataSource dataSource ) {
+		Configuration configuration = new MyBatisMapperConcurrentConfiguration();
+		configuration.addMapper( GateMapper.class );
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setConfiguration( configuration );
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setBackgroundRefactoring( true );
+		factoryBean.setRefactoringWaitTimeout( -1 );
+		return factoryBean;
+	}
+
+}
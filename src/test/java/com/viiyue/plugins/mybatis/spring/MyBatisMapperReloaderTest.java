@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.writeMapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests of the mapper reloading.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperReloaderTest {
+
+	public interface ReloadMapper {
+		Integer selectValue();
+
+		@Select( "SELECT 100" )
+		Integer selectAnnotated();
+	}
+
+	private static final String NAMESPACE = ReloadMapper.class.getName();
+
+	private Path directory;
+	private Path mapperFile;
+	private MyBatisMapperConcurrentConfiguration configuration;
+	private SqlSessionFactory sqlSessionFactory;
+	private MyBatisMapperReloader reloader;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory( "reloader" );
+		mapperFile = directory.resolve( "ReloadMapper.xml" );
+		write( "<select id=\"selectValue\" resultType=\"int\">SELECT 1</select>"
+				+ "<select id=\"selectRemoved\" resultType=\"int\">SELECT 3</select>" );
+
+		configuration = new MyBatisMapperConcurrentConfiguration(
+				new Environment( "test", new JdbcTransactionFactory(), new DriverManagerDataSource( "jdbc:h2:mem:reloader" ) ) );
+		Resource resource = new FileSystemResource( mapperFile.toFile() );
+		try ( InputStream in = resource.getInputStream() ) {
+			new XMLMapperBuilder( in, configuration, resource.toString(), configuration.getSqlFragments() ).parse();
+		}
+		sqlSessionFactory = new SqlSessionFactoryBuilder().build( configuration );
+		reloader = new MyBatisMapperReloader( configuration, new Resource [] { resource }, 0 );
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reloader.close();
+		Files.deleteIfExists( mapperFile );
+		Files.deleteIfExists( directory );
+	}
+
+	@Test
+	public void replacesOnlyTheElementsOfTheResource() throws Exception {
+		assertEquals( Integer.valueOf( 1 ), selectValue() );
+
+		write( "<sql id=\"value\">2</sql>"
+				+ "<select id=\"selectValue\" resultType=\"int\">SELECT <include refid=\"value\"/></select>"
+				+ "<select id=\"selectAdded\" resultType=\"int\">SELECT 4</select>" );
+		assertTrue( reloader.reload( mapperFile ) );
+
+		assertEquals( Integer.valueOf( 2 ), selectValue() );
+		assertEquals( NAMESPACE + ".selectValue", configuration.getMappedStatement( "selectValue" ).getId() );
+		assertTrue( configuration.hasStatement( NAMESPACE + ".selectAdded" ) );
+		assertFalse( configuration.hasStatement( NAMESPACE + ".selectRemoved" ) );
+		assertFalse( configuration.hasStatement( "selectRemoved" ) );
+		// Registered by the mapper interface, never owned by the xml
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			assertEquals( Integer.valueOf( 100 ), session.getMapper( ReloadMapper.class ).selectAnnotated() );
+		}
+
+		write( "<select id=\"selectValue\" resultType=\"int\">SELECT 5</select>" );
+		assertTrue( reloader.reload( mapperFile ) );
+		assertEquals( Integer.valueOf( 5 ), selectValue() );
+		assertFalse( configuration.getSqlFragments().containsKey( NAMESPACE + ".value" ) );
+		assertFalse( configuration.hasStatement( NAMESPACE + ".selectAdded" ) );
+	}
+
+	@Test
+	public void keepsTheRegisteredElementsWhenTheResourceIsBroken() throws Exception {
+		write( "<select id=\"selectValue\" resultType=\"int\">SELECT 2</select>"
+				+ "<select id=\"selectBroken\" resultMap=\"missing\">SELECT 3</select>" );
+		try {
+			reloader.reload( mapperFile );
+			fail( "The broken resource must not be reloaded" );
+		} catch ( RuntimeException e ) {
+			// Expected
+		}
+		assertEquals( Integer.valueOf( 1 ), selectValue() );
+		assertTrue( configuration.hasStatement( NAMESPACE + ".selectRemoved" ) );
+		assertFalse( configuration.hasStatement( NAMESPACE + ".selectBroken" ) );
+
+		write( "<select id=\"selectValue\" resultType=\"int\">SELECT 2</select>" );
+		assertTrue( reloader.reload( mapperFile ) );
+		assertEquals( Integer.valueOf( 2 ), selectValue() );
+	}
+
+	@Test
+	public void rejectsTheRemovalOutsideOfTheReloading() throws Exception {
+		write( "<sql id=\"value\">2</sql>"
+				+ "<select id=\"selectValue\" resultType=\"int\">SELECT <include refid=\"value\"/></select>" );
+		assertTrue( reloader.reload( mapperFile ) );
+		try {
+			configuration.getSqlFragments().remove( NAMESPACE + ".value" );
+			fail( "The sql fragment must only be removed by the reloading" );
+		} catch ( IllegalStateException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( "reloading the mapper files" ) );
+		}
+		assertEquals( Integer.valueOf( 2 ), selectValue() );
+		assertTrue( configuration.getSqlFragments().containsKey( NAMESPACE + ".value" ) );
+	}
+
+	@Test
+	public void rejectsTheElementsRegisteredByTheMapperInterface() throws Exception {
+		write( "<select id=\"selectValue\" resultType=\"int\">SELECT 2</select>"
+				+ "<select id=\"selectAnnotated\" resultType=\"int\">SELECT 6</select>" );
+		try {
+			reloader.reload( mapperFile );
+			fail( "The statement of the mapper interface must not be replaced" );
+		} catch ( RuntimeException e ) {
+			// Expected
+		}
+		assertEquals( Integer.valueOf( 1 ), selectValue() );
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			assertEquals( Integer.valueOf( 100 ), session.getMapper( ReloadMapper.class ).selectAnnotated() );
+		}
+	}
+
+	@Test
+	public void ignoresTheUnchangedResource() throws Exception {
+		assertFalse( reloader.reload( mapperFile ) );
+	}
+
+	private Integer selectValue() {
+		try ( SqlSession session = sqlSessionFactory.openSession() ) {
+			return session.getMapper( ReloadMapper.class ).selectValue();
+		}
+	}
+
+	private void write( String statements ) throws Exception {
+		writeMapper( mapperFile, NAMESPACE, statements );
+	}
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperSnapshot.State;
+import com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.Item;
+
+/**
+ * Tests of the snapshot of the refactored statements.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperSnapshotTest {
+
+	private static final String NAMESPACE = "snapshot.ItemMapper";
+	private static final Resource [] MAPPER_LOCATIONS = { mapper( "SnapshotItemMapper" ) };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DriverManagerDataSource dataSource;
+	private File location;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = dataSource( "snapshot",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id BIGINT PRIMARY KEY, name VARCHAR(20) )",
+				"INSERT INTO item VALUES ( 1, 'first' )",
+				"INSERT INTO item VALUES ( 2, 'second' )" );
+		location = new File( folder.getRoot(), "mapper.snapshot" );
+	}
+
+	@Test
+	public void restoresTheWrittenSnapshot() throws Exception {
+		SqlSessionFactory refactored = newSqlSessionFactory();
+		Configuration configuration = refactored.getConfiguration();
+		MyBatisMapperSnapshot snapshot = new MyBatisMapperSnapshot( location, configuration );
+		State before = snapshot.capture();
+		// The statement rewritten by the refactoring
+		ParameterMapping id = new ParameterMapping.Builder( configuration, "id", Long.class ).build();
+		setSqlSource( configuration, "selectByPrimaryKey",
+				new StaticSqlSource( configuration, "SELECT id, UPPER(name) AS name FROM item WHERE id = ?", Collections.singletonList( id ) ) );
+		snapshot.save( snapshot.fingerprint( MAPPER_LOCATIONS, null ), before );
+		assertTrue( location.isFile() );
+
+		SqlSessionFactory restored = newSqlSessionFactory();
+		MyBatisMapperSnapshot restoring = new MyBatisMapperSnapshot( location, restored.getConfiguration() );
+		assertTrue( restoring.restore( restoring.fingerprint( MAPPER_LOCATIONS, null ) ) );
+		try ( SqlSession session = restored.openSession() ) {
+			Item item = session.selectOne( NAMESPACE + ".selectByPrimaryKey", 2L );
+			assertEquals( "SECOND", item.getName() );
+		}
+		assertEquals( StaticSqlSource.class, sqlSourceOf( restored.getConfiguration(), "selectByPrimaryKey" ).getClass() );
+		// Untouched by the refactoring
+		assertEquals( sqlSourceOf( configuration, "selectByName" ).getClass(),
+				sqlSourceOf( restored.getConfiguration(), "selectByName" ).getClass() );
+
+		// Another fingerprint, such as a modified mapper
+		MyBatisMapperSnapshot stale = new MyBatisMapperSnapshot( location, newSqlSessionFactory().getConfiguration() );
+		assertFalse( stale.restore( "0" ) );
+		assertFalse( location.exists() );
+	}
+
+	@Test
+	public void discardsTheSnapshotOfADynamicStatement() throws Exception {
+		Files.write( location.toPath(), "previous".getBytes( UTF_8 ) );
+		Configuration configuration = newSqlSessionFactory().getConfiguration();
+		MyBatisMapperSnapshot snapshot = new MyBatisMapperSnapshot( location, configuration );
+		State before = snapshot.capture();
+		// A dynamic sql source cannot be written
+		setSqlSource( configuration, "selectByPrimaryKey", sqlSourceOf( configuration, "selectByName" ) );
+		snapshot.save( snapshot.fingerprint( MAPPER_LOCATIONS, null ), before );
+		assertFalse( location.exists() );
+	}
+
+	@Test
+	public void discardsTheSnapshotOfAnUnchangedConfiguration() throws Exception {
+		Configuration configuration = newSqlSessionFactory().getConfiguration();
+		MyBatisMapperSnapshot snapshot = new MyBatisMapperSnapshot( location, configuration );
+		snapshot.save( snapshot.fingerprint( MAPPER_LOCATIONS, null ), snapshot.capture() );
+		assertFalse( location.exists() );
+		assertFalse( snapshot.restore( snapshot.fingerprint( MAPPER_LOCATIONS, null ) ) );
+	}
+
+	private SqlSessionFactory newSqlSessionFactory() throws Exception {
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setMapperLocations( MAPPER_LOCATIONS );
+		return factoryBean.getObject();
+	}
+
+	private static SqlSource sqlSourceOf( Configuration configuration, String id ) {
+		return configuration.getMappedStatement( NAMESPACE + "." + id ).getSqlSource();
+	}
+
+	private static void setSqlSource( Configuration configuration, String id, SqlSource sqlSource ) {
+		MappedStatement statement = configuration.getMappedStatement( NAMESPACE + "." + id );
+		configuration.newMetaObject( statement ).setValue( "sqlSource", sqlSource );
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Shared scaffold of the H2 tests: the in-memory databases, the mapper
+ * resources under {@code src/test/resources} and the item entity mapped by
+ * them.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+final class MyBatisMapperTestSupport {
+
+	private static final String MAPPER_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n";
+
+	public static class Item implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private Long id;
+		private String name;
+		private Integer stock;
+
+		public Item() {
+		}
+
+		public Item( Long id, String name ) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId( Long id ) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName( String name ) {
+			this.name = name;
+		}
+
+		public Integer getStock() {
+			return stock;
+		}
+
+		public void setStock( Integer stock ) {
+			this.stock = stock;
+		}
+
+	}
+
+	private MyBatisMapperTestSupport() {
+	}
+
+	/**
+	 * Creates a named in-memory database kept open for the whole test run.
+	 *
+	 * @param name the database name
+	 * @param statements the statements executed on the database
+	 * @return the data source of the database
+	 * @throws SQLException if a statement fails
+	 */
+	static DriverManagerDataSource dataSource( String name, String ... statements ) throws SQLException {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource( "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1" );
+		execute( dataSource, statements );
+		return dataSource;
+	}
+
+	static void execute( DataSource dataSource, String ... statements ) throws SQLException {
+		try ( Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement() ) {
+			for ( String sql : statements ) {
+				statement.execute( sql );
+			}
+		}
+	}
+
+	/**
+	 * @param dataSource the data source
+	 * @param sql the query
+	 * @return the columns of the first row joined by {@code /}
+	 * @throws SQLException if the query fails
+	 */
+	static String query( DataSource dataSource, String sql ) throws SQLException {
+		try ( Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery( sql ) ) {
+			if ( !resultSet.next() ) {
+				return null;
+			}
+			StringBuilder row = new StringBuilder( String.valueOf( resultSet.getString( 1 ) ) );
+			for ( int i = 2, columns = resultSet.getMetaData().getColumnCount(); i <= columns; i ++ ) {
+				row.append( '/' ).append( resultSet.getString( i ) );
+			}
+			return row.toString();
+		}
+	}
+
+	/**
+	 * @param name the file name under {@code mappers/} without the extension
+	 * @return the mapper resource
+	 */
+	static Resource mapper( String name ) {
+		return new ClassPathResource( "mappers/" + name + ".xml", MyBatisMapperTestSupport.class );
+	}
+
+	/**
+	 * Writes a mapper file, for the tests modifying the mappers at runtime.
+	 *
+	 * @param file the mapper file
+	 * @param namespace the mapper namespace
+	 * @param statements the mapper content
+	 * @return the mapper resource
+	 * @throws IOException if the file can not be written
+	 */
+	static Resource writeMapper( Path file, String namespace, String statements ) throws IOException {
+		String content = MAPPER_HEADER + "<mapper namespace=\"" + namespace + "\">" + statements + "</mapper>";
+		Files.write( file, content.getBytes( UTF_8 ) );
+		return new FileSystemResource( file.toFile() );
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.viiyue.plugins.mybatis.spring;
+
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.dataSource;
+import static com.viiyue.plugins.mybatis.spring.MyBatisMapperTestSupport.mapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.session.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests of the warm-up and validation pass over the statements.
+ *
+ * @author tangxbai
+ * @since mybatis-mapper-spring 1.3.3
+ */
+public class MyBatisMapperWarmUpTest {
+
+	private DriverManagerDataSource dataSource;
+	private Configuration configuration;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = dataSource( "warmup",
+				"DROP TABLE IF EXISTS item",
+				"CREATE TABLE item ( id BIGINT PRIMARY KEY, name VARCHAR(20) )" );
+		MyBatisMapperSqlSessionFactoryBean factoryBean = new MyBatisMapperSqlSessionFactoryBean();
+		factoryBean.setDataSource( dataSource );
+		factoryBean.setMapperLocations( mapper( "WarmUpItemMapper" ) );
+		configuration = factoryBean.getObject().getConfiguration();
+	}
+
+	@Test
+	public void buildsAndPreparesTheStatements() {
+		MyBatisMapperWarmUp.Result result = new MyBatisMapperWarmUp( configuration, dataSource, 2, 10000 ).run();
+		assertEquals( 4, result.getStatementCount() );
+		assertEquals( 4, result.getProcessedCount() );
+		// The foreach depends on its parameter
+		assertEquals( 1, result.getSkippedCount() );
+		assertEquals( 3, result.getBuiltCount() );
+		// Only the static statements are prepared, the broken one fails
+		assertEquals( 1, result.getPreparedCount() );
+		assertEquals( "[warmup.ItemMapper.selectBroken]", result.getFailures().keySet().toString() );
+		assertFalse( result.isTimedOut() );
+	}
+
+	@Test
+	public void onlyBuildsTheStatementsWithoutDataSource() {
+		MyBatisMapperWarmUp.Result result = new MyBatisMapperWarmUp( configuration, null, 1, 10000 ).run();
+		assertEquals( 3, result.getBuiltCount() );
+		assertEquals( 0, result.getPreparedCount() );
+		assertTrue( result.getFailures().isEmpty() );
+	}
+
+	@Test( timeout = 10000 )
+	public void stopsWhenTheTimeBudgetIsSpent() {
+		DriverManagerDataSource slowDataSource = new DriverManagerDataSource( "jdbc:h2:mem:warmup" ) {
+			@Override
+			public Connection getConnection() throws SQLException {
+				try {
+					Thread.sleep( 5000 );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+				throw new SQLException( "Interrupted" );
+			}
+		};
+		MyBatisMapperWarmUp.Result result = new MyBatisMapperWarmUp( configuration, slowDataSource, 1, 100 ).run();
+		assertTrue( result.isTimedOut() );
+		assertTrue( result.toString(), result.getProcessedCount() < result.getStatementCount() );
+		assertTrue( result.toString(), result.getTimeMillis() < 5000 );
+	}
+
+}